@@ -8,7 +8,7 @@ import java.util.Map;
 /**
  * Model class representing a Car.
  */
-public class Car {
+public class Car implements CarView {
     private String brand;
     private String model;
     private String type; // SUV, Sedan, Truck, etc.
@@ -86,6 +86,23 @@ public class Car {
             this.preferredCurrency = currency;
         }
     }
+    
+    /**
+     * Get the car as shown in another currency, without changing this car.
+     * The copy shares the prices and other values, so stored cars can be shown
+     * in a per-query currency while other readers keep seeing them unchanged.
+     * 
+     * @param currency currency code; ignored unless the car has a price in it
+     * @return this car if it is already shown in that currency, otherwise a copy
+     */
+    public Car withPreferredCurrency(String currency) {
+        if (currency == null || currency.equals(preferredCurrency) || !prices.containsKey(currency)) {
+            return this;
+        }
+        Car copy = new Car(brand, model, type, prices, releaseDate);
+        copy.preferredCurrency = currency;
+        return copy;
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,92 @@
+package com.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of cars for the shard protocol.
+ * A car is its brand, model, type and preferred currency as nullable modified
+ * UTF-8 strings, the release date in epoch milliseconds (Long.MIN_VALUE for none)
+ * and a count-prefixed list of currency and price pairs.
+ */
+public final class CarBinaryCodec {
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private CarBinaryCodec() {
+    }
+
+    /**
+     * Write a car
+     *
+     * @param out destination
+     * @param car car to write
+     * @throws IOException if writing fails
+     */
+    public static void writeCar(DataOutput out, Car car) throws IOException {
+        writeString(out, car.getBrand());
+        writeString(out, car.getModel());
+        writeString(out, car.getType());
+        writeString(out, car.getPreferredCurrency());
+        out.writeLong(car.getReleaseDate() == null ? NO_DATE : car.getReleaseDate().getTime());
+        out.writeShort(car.getPrices().size());
+        for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+            writeString(out, price.getKey());
+            out.writeDouble(price.getValue());
+        }
+    }
+
+    /**
+     * Read a car written by writeCar
+     *
+     * @param in source
+     * @return new car
+     * @throws IOException if reading fails or the car has no price
+     */
+    public static Car readCar(DataInput in) throws IOException {
+        String brand = readString(in);
+        String model = readString(in);
+        String type = readString(in);
+        String preferred = readString(in);
+        long millis = in.readLong();
+        int count = in.readUnsignedShort();
+        if (count == 0) {
+            throw new IOException("Car " + model + " has no price");
+        }
+        Map<String, Double> prices = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            prices.put(readString(in), in.readDouble());
+        }
+        Car car = new Car(brand, model, type, prices, millis == NO_DATE ? null : new Date(millis));
+        car.setPreferredCurrency(preferred);
+        return car;
+    }
+
+    /**
+     * Write a string that may be null
+     *
+     * @param out destination
+     * @param value string or null
+     * @throws IOException if writing fails
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Read a string written by writeString
+     *
+     * @param in source
+     * @return string or null
+     * @throws IOException if reading fails
+     */
+    public static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,363 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Column snapshot of a car list for batch predicate evaluation. Brands become
+ * dictionary ids, prices one primitive array per currency (NaN when missing) and
+ * release dates epoch milliseconds. Predicates run over the arrays in blocks of
+ * BLOCK_SIZE rows and produce selection bitmaps, one bit per row in a long[].
+ * <p>
+ * Each block also keeps its highest price and latest release date, so blocks that
+ * cannot match a price or date bound are cleared without reading their rows.
+ * Only scalar kernels are provided: plain counted loops over primitive arrays
+ * without per-row branches. Whether the JIT vectorizes any of them is up to the
+ * JVM and is not relied on.
+ * <p>
+ * The snapshot reflects the cars when it was taken; later changes to a car's
+ * preferred currency are not seen by andPreferredPriceAtMost.
+ */
+public final class CarColumns {
+    /** Rows per block; a multiple of 64 so blocks start on a bitmap word */
+    public static final int BLOCK_SIZE = 1024;
+    private static final int WORDS_PER_BLOCK = BLOCK_SIZE / 64;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final List<Car> cars;
+    private final int size;
+    private final String[] brands;
+    private final int[] brandIds;
+    private final String[] currencies;
+    private final double[][] prices;
+    private final int[] preferredCurrency;
+    private final long[] releaseMillis;
+    private final double[] blockMaxPrice;
+    private final long[] blockMaxDate;
+
+    private CarColumns(List<Car> cars) {
+        this.cars = cars;
+        this.size = cars.size();
+        TreeSet<String> currencySet = new TreeSet<>();
+        for (Car car : cars) {
+            currencySet.addAll(car.getPrices().keySet());
+        }
+        this.currencies = currencySet.toArray(new String[0]);
+        Map<String, Integer> currencyIds = new HashMap<>();
+        for (int c = 0; c < currencies.length; c++) {
+            currencyIds.put(currencies[c], c);
+        }
+
+        Map<String, Integer> brandIdMap = new HashMap<>();
+        List<String> brandList = new ArrayList<>();
+        this.brandIds = new int[size];
+        this.prices = new double[currencies.length][size];
+        this.preferredCurrency = new int[size];
+        this.releaseMillis = new long[size];
+        for (double[] column : prices) {
+            Arrays.fill(column, Double.NaN);
+        }
+        for (int i = 0; i < size; i++) {
+            Car car = cars.get(i);
+            Integer brandId = brandIdMap.get(car.getBrand());
+            if (brandId == null) {
+                brandId = brandList.size();
+                brandIdMap.put(car.getBrand(), brandId);
+                brandList.add(car.getBrand());
+            }
+            brandIds[i] = brandId;
+            for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+                prices[currencyIds.get(price.getKey())][i] = price.getValue();
+            }
+            Integer preferred = currencyIds.get(car.getPreferredCurrency());
+            preferredCurrency[i] = preferred == null ? -1 : preferred;
+            releaseMillis[i] = car.getReleaseDate() == null ? NO_DATE : car.getReleaseDate().getTime();
+        }
+        this.brands = brandList.toArray(new String[0]);
+
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.blockMaxPrice = new double[blocks];
+        this.blockMaxDate = new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int start = b * BLOCK_SIZE;
+            int end = Math.min(size, start + BLOCK_SIZE);
+            double maxPrice = Double.NEGATIVE_INFINITY;
+            for (double[] column : prices) {
+                for (int i = start; i < end; i++) {
+                    // NaN (no price) never raises the maximum
+                    maxPrice = column[i] > maxPrice ? column[i] : maxPrice;
+                }
+            }
+            long maxDate = NO_DATE;
+            for (int i = start; i < end; i++) {
+                maxDate = Math.max(maxDate, releaseMillis[i]);
+            }
+            blockMaxPrice[b] = maxPrice;
+            blockMaxDate[b] = maxDate;
+        }
+    }
+
+    /**
+     * Take a column snapshot of a list of cars
+     *
+     * @param cars cars in row order; the list is kept for materializing selections
+     * @return snapshot
+     */
+    public static CarColumns of(List<Car> cars) {
+        return new CarColumns(cars);
+    }
+
+    /**
+     * Get the number of rows
+     *
+     * @return row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimate the heap held by the columns, excluding the cars themselves
+     *
+     * @return bytes
+     */
+    long estimateBytes() {
+        long bytes = HeapFootprint.ofArray(size, 4) * 2 + HeapFootprint.ofArray(size, 8)
+                + HeapFootprint.ofArray(prices.length, HeapFootprint.REFERENCE) + prices.length * HeapFootprint.ofArray(size, 8)
+                + HeapFootprint.ofArray(blockMaxPrice.length, 8) + HeapFootprint.ofArray(blockMaxDate.length, 8);
+        for (String brand : brands) {
+            bytes += HeapFootprint.ofString(brand);
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimate the heap columns over a list of cars would hold, without building them
+     *
+     * @param cars cars in row order
+     * @return bytes, excluding brand names
+     */
+    static long estimateBytes(List<Car> cars) {
+        Set<String> currencySet = new HashSet<>();
+        for (Car car : cars) {
+            currencySet.addAll(car.getPrices().keySet());
+        }
+        int blocks = (cars.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        return HeapFootprint.ofArray(cars.size(), 4) * 2 + HeapFootprint.ofArray(cars.size(), 8)
+                + currencySet.size() * HeapFootprint.ofArray(cars.size(), 8) + 2 * HeapFootprint.ofArray(blocks, 8);
+    }
+
+    /**
+     * Get the list the snapshot was taken of
+     *
+     * @return source cars
+     */
+    public List<Car> getCars() {
+        return cars;
+    }
+
+    /**
+     * Evaluate a filter over every row
+     *
+     * @param filter filter to apply
+     * @return selection bitmap of the matching rows
+     */
+    public long[] select(CarFilter filter) {
+        long[] selection = filter.getBrand() == null ? selectAll() : selectBrand(filter.getBrand());
+        if (!Double.isNaN(filter.getMinPrice())) {
+            andAnyPriceAtLeast(selection, filter.getMinPrice());
+        }
+        if (filter.getFromDate() != null) {
+            andReleasedOnOrAfter(selection, filter.getFromDate());
+        }
+        return selection;
+    }
+
+    /**
+     * Select every row
+     *
+     * @return bitmap with one bit set per row
+     */
+    public long[] selectAll() {
+        long[] selection = new long[(size + 63) >>> 6];
+        Arrays.fill(selection, -1L);
+        if ((size & 63) != 0) {
+            selection[selection.length - 1] = (1L << (size & 63)) - 1;
+        }
+        return selection;
+    }
+
+    /**
+     * Select the rows of a brand
+     *
+     * @param brand brand, case-insensitive
+     * @return selection bitmap
+     */
+    public long[] selectBrand(String brand) {
+        boolean matchesAny = false;
+        boolean[] matches = new boolean[brands.length];
+        for (int id = 0; id < brands.length; id++) {
+            matches[id] = brands[id] != null && brands[id].equalsIgnoreCase(brand);
+            matchesAny |= matches[id];
+        }
+        long[] selection = new long[(size + 63) >>> 6];
+        if (!matchesAny) {
+            return selection;
+        }
+        for (int w = 0; w < selection.length; w++) {
+            int start = w << 6;
+            int end = Math.min(size, start + 64);
+            long word = 0;
+            for (int i = start; i < end; i++) {
+                word |= (matches[brandIds[i]] ? 1L : 0L) << (i - start);
+            }
+            selection[w] = word;
+        }
+        return selection;
+    }
+
+    /**
+     * Keep only rows with a price in some currency of at least a minimum
+     *
+     * @param selection bitmap to narrow in place
+     * @param minPrice minimum price
+     */
+    public void andAnyPriceAtLeast(long[] selection, double minPrice) {
+        for (int b = 0; b < blockMaxPrice.length; b++) {
+            int firstWord = b * WORDS_PER_BLOCK;
+            int lastWord = Math.min(selection.length, firstWord + WORDS_PER_BLOCK);
+            if (isClear(selection, firstWord, lastWord)) {
+                continue;
+            }
+            if (!(blockMaxPrice[b] >= minPrice)) {
+                Arrays.fill(selection, firstWord, lastWord, 0L);
+                continue;
+            }
+            for (int w = firstWord; w < lastWord; w++) {
+                if (selection[w] == 0) {
+                    continue;
+                }
+                int start = w << 6;
+                int end = Math.min(size, start + 64);
+                long reached = 0;
+                for (double[] column : prices) {
+                    reached |= atLeast(column, start, end, minPrice);
+                }
+                selection[w] &= reached;
+            }
+        }
+    }
+
+    /**
+     * Keep only rows whose price in their preferred currency, as of the snapshot,
+     * is at most a maximum. Rows without that price count as 0, like Car.getPrice.
+     *
+     * @param selection bitmap to narrow in place
+     * @param maxPrice maximum price
+     */
+    public void andPreferredPriceAtMost(long[] selection, double maxPrice) {
+        for (int w = 0; w < selection.length; w++) {
+            if (selection[w] == 0) {
+                continue;
+            }
+            int start = w << 6;
+            int end = Math.min(size, start + 64);
+            long word = 0;
+            for (int i = start; i < end; i++) {
+                int currency = preferredCurrency[i];
+                double price = currency < 0 || Double.isNaN(prices[currency][i]) ? 0.0 : prices[currency][i];
+                word |= (price <= maxPrice ? 1L : 0L) << (i - start);
+            }
+            selection[w] &= word;
+        }
+    }
+
+    /**
+     * Keep only rows released on or after a date
+     *
+     * @param selection bitmap to narrow in place
+     * @param from earliest release date
+     */
+    public void andReleasedOnOrAfter(long[] selection, Date from) {
+        long fromMillis = from.getTime();
+        for (int b = 0; b < blockMaxDate.length; b++) {
+            int firstWord = b * WORDS_PER_BLOCK;
+            int lastWord = Math.min(selection.length, firstWord + WORDS_PER_BLOCK);
+            if (isClear(selection, firstWord, lastWord)) {
+                continue;
+            }
+            if (blockMaxDate[b] < fromMillis) {
+                Arrays.fill(selection, firstWord, lastWord, 0L);
+                continue;
+            }
+            for (int w = firstWord; w < lastWord; w++) {
+                if (selection[w] == 0) {
+                    continue;
+                }
+                int start = w << 6;
+                int end = Math.min(size, start + 64);
+                long word = 0;
+                for (int i = start; i < end; i++) {
+                    word |= (releaseMillis[i] >= fromMillis ? 1L : 0L) << (i - start);
+                }
+                selection[w] &= word;
+            }
+        }
+    }
+
+    /**
+     * Count the selected rows
+     *
+     * @param selection selection bitmap
+     * @return number of set bits
+     */
+    public static int cardinality(long[] selection) {
+        int count = 0;
+        for (long word : selection) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Collect the selected cars from the source list
+     *
+     * @param selection selection bitmap
+     * @return new mutable list in row order
+     */
+    public List<Car> toList(long[] selection) {
+        List<Car> result = new ArrayList<>(cardinality(selection));
+        for (int w = 0; w < selection.length; w++) {
+            long word = selection[w];
+            while (word != 0) {
+                result.add(cars.get((w << 6) + Long.numberOfTrailingZeros(word)));
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isClear(long[] selection, int from, int to) {
+        long any = 0;
+        for (int w = from; w < to; w++) {
+            any |= selection[w];
+        }
+        return any == 0;
+    }
+
+    // One word of bits for values[start..end) >= min; NaN compares false
+    private static long atLeast(double[] values, int start, int end, double min) {
+        long word = 0;
+        for (int i = start; i < end; i++) {
+            word |= (values[i] >= min ? 1L : 0L) << (i - start);
+        }
+        return word;
+    }
+}
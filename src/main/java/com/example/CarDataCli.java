@@ -0,0 +1,164 @@
+package com.example;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line access to a CarDataService for scripts and operators.
+ * <p>
+ * Usage:
+ * <pre>
+ * CarDataCli footprint [--cars file.xml] [--off-heap] [--budget-mb n] [--policy reject|degrade]
+ * CarDataCli diff before after [--key brand,model,type,release_date] [--max-in-memory n] [--summary]
+ * </pre>
+ * <ul>
+ *   <li>footprint: load the data files and print the estimated memory of the dataset,
+ *       its indexes and caches next to the heap the JVM actually uses</li>
+ *   <li>diff: compare two feed files (.xml, .csv or .ndjson, optionally compressed) and
+ *       print one line per added ("+") or removed ("-") car and per changed price ("~"),
+ *       followed by a summary</li>
+ * </ul>
+ * Exit status is 0 on success, 1 when the command fails and 2 for bad arguments.
+ */
+public class CarDataCli {
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Run a command
+     *
+     * @param args command and options
+     * @param out receives the command output
+     * @param err receives usage and error messages
+     * @return exit status
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        if (args.length == 0) {
+            return usage(err);
+        }
+        List<String> rest = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            rest.add(args[i]);
+        }
+        try {
+            if ("footprint".equals(args[0])) {
+                return footprint(rest, out);
+            } else if ("diff".equals(args[0])) {
+                return diff(rest, out);
+            }
+            err.println("Unknown command: " + args[0]);
+            return usage(err);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return usage(err);
+        } catch (Exception e) {
+            err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int footprint(List<String> args, PrintStream out) throws Exception {
+        String carsXml = CarDataService.DEFAULT_CARS_XML;
+        boolean offHeap = false;
+        long budgetMb = 0;
+        MemoryBudget.Policy policy = MemoryBudget.Policy.REJECT;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if ("--cars".equals(arg)) {
+                carsXml = value(args, ++i, arg);
+            } else if ("--off-heap".equals(arg)) {
+                offHeap = true;
+            } else if ("--budget-mb".equals(arg)) {
+                budgetMb = Long.parseLong(value(args, ++i, arg));
+            } else if ("--policy".equals(arg)) {
+                policy = MemoryBudget.Policy.valueOf(value(args, ++i, arg).toUpperCase());
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        CarDataService service = new CarDataService(CarDataService.DEFAULT_BRAND_CSV, carsXml,
+                CarDataService.DEFAULT_MODEL_CATALOG);
+        service.setOffHeapStorage(offHeap);
+        if (budgetMb > 0) {
+            service.setMemoryBudget(new MemoryBudget(budgetMb * 1024 * 1024, policy));
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        service.loadData();
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+
+        out.print(service.getFootprint());
+        out.printf("%-10s %s measured after GC, max heap %s%n", "jvm", HeapFootprint.formatBytes(Math.max(0, after - before)),
+                HeapFootprint.formatBytes(runtime.maxMemory()));
+        if (service.isLastLoadDegraded()) {
+            out.println("Load was moved off-heap to stay within the memory budget");
+        }
+        return 0;
+    }
+
+    private static int diff(List<String> args, PrintStream out) throws Exception {
+        List<String> files = new ArrayList<>();
+        CarKey key = CarKey.DEFAULT;
+        int maxInMemory = CarDatasetDiff.DEFAULT_MAX_IN_MEMORY;
+        boolean summaryOnly = false;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if ("--key".equals(arg)) {
+                key = parseKey(value(args, ++i, arg));
+            } else if ("--max-in-memory".equals(arg)) {
+                maxInMemory = Integer.parseInt(value(args, ++i, arg));
+            } else if ("--summary".equals(arg)) {
+                summaryOnly = true;
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() != 2) {
+            throw new IllegalArgumentException("diff needs a before and an after file");
+        }
+
+        CarDatasetDiff diff = new CarDatasetDiff(key);
+        diff.setMaxInMemory(maxInMemory);
+        CarKey describeKey = key;
+        boolean print = !summaryOnly;
+        CarDatasetDiff.Summary summary = diff.diff(CarDatasetDiff.ofFile(files.get(0)),
+                CarDatasetDiff.ofFile(files.get(1)), change -> {
+                    if (print) {
+                        out.println(change.describe(describeKey));
+                    }
+                });
+        out.println(summary);
+        return 0;
+    }
+
+    private static CarKey parseKey(String fields) {
+        String[] names = fields.split(",");
+        CarKey.Field[] parsed = new CarKey.Field[names.length];
+        for (int i = 0; i < names.length; i++) {
+            parsed[i] = CarKey.Field.valueOf(names[i].trim().toUpperCase().replace('-', '_'));
+        }
+        return CarKey.of(parsed[0], Arrays.copyOfRange(parsed, 1, parsed.length));
+    }
+
+    private static String value(List<String> args, int index, String option) {
+        if (index >= args.size()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args.get(index);
+    }
+
+    private static int usage(PrintStream err) {
+        err.println("Usage: CarDataCli footprint [--cars file.xml] [--off-heap] [--budget-mb n] [--policy reject|degrade]");
+        err.println("       CarDataCli diff before after [--key brand,model,type,release_date] [--max-in-memory n] [--summary]");
+        return 2;
+    }
+}
@@ -1,6 +1,8 @@
 package com.example;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.text.ParseException;
@@ -25,10 +27,20 @@ public class CarDataProcessor extends JFrame {
     private JLabel filterValueLabel;
     private JLabel filterBrandLabel;
     private JLabel filterDateLabel;
+    private TypeaheadPopup filterValueTypeahead;
+    private JLabel statusLabel;
     
     // Service for handling data processing logic
     private CarDataService carDataService;
     
+    // Invalid records are skipped and listed after loading, up to this many per load
+    private static final int MAX_REJECTS = 100;
+    private final RejectLog rejectLog = new RejectLog();
+    
+    // Results follow the filter fields once typing pauses for this long
+    private static final int LIVE_FILTER_DELAY_MS = 250;
+    private final javax.swing.Timer liveFilterTimer = new javax.swing.Timer(LIVE_FILTER_DELAY_MS, e -> processData(true));
+    
     public CarDataProcessor() {
         setTitle("Car Data Processor");
         setSize(800, 600);
@@ -37,6 +49,7 @@ public class CarDataProcessor extends JFrame {
         
         // Initialize the service
         carDataService = new CarDataService();
+        carDataService.setValidation(rejectLog, MAX_REJECTS);
         
         // Create control panel
         JPanel controlPanel = new JPanel(new GridLayout(7, 2, 5, 5));
@@ -45,17 +58,22 @@ public class CarDataProcessor extends JFrame {
         // Filter options
         controlPanel.add(new JLabel("Filter By:"));
         filterTypeComboBox = new JComboBox<>(new String[]{"None", "Brand", "Brand and Price", "Brand and Release Date"});
-        filterTypeComboBox.addActionListener(e -> updateFilterForm());
+        filterTypeComboBox.addActionListener(e -> {
+            updateFilterForm();
+            liveFilterTimer.restart();
+        });
         controlPanel.add(filterTypeComboBox);
         
         filterValueLabel = new JLabel("Filter Value:");
         controlPanel.add(filterValueLabel);
         filterValueField = new JTextField();
+        filterValueTypeahead = new TypeaheadPopup(filterValueField, () -> carDataService.getTypeaheadIndex());
         controlPanel.add(filterValueField);
         
         filterBrandLabel = new JLabel("Brand:");
         controlPanel.add(filterBrandLabel);
         filterBrandField = new JTextField();
+        new TypeaheadPopup(filterBrandField, () -> carDataService.getTypeaheadIndex());
         controlPanel.add(filterBrandField);
         
         filterDateLabel = new JLabel("Filter Date (yyyy-MM-dd):");
@@ -66,19 +84,44 @@ public class CarDataProcessor extends JFrame {
         // Initially set up form based on default filter type
         updateFilterForm();
         
+        // Live filtering: restart the timer on every edit, run the query when it fires
+        liveFilterTimer.setRepeats(false);
+        DocumentListener liveFilter = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                liveFilterTimer.restart();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                liveFilterTimer.restart();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                liveFilterTimer.restart();
+            }
+        };
+        filterValueField.getDocument().addDocumentListener(liveFilter);
+        filterBrandField.getDocument().addDocumentListener(liveFilter);
+        filterDateField.getDocument().addDocumentListener(liveFilter);
+        
         // Sort options
         controlPanel.add(new JLabel("Sort By:"));
         sortTypeComboBox = new JComboBox<>(new String[]{"None", "Latest to Oldest", "Highest Price to Lowest"});
+        sortTypeComboBox.addActionListener(e -> liveFilterTimer.restart());
         controlPanel.add(sortTypeComboBox);
         
         // Output format options
         controlPanel.add(new JLabel("Output Format:"));
-        outputFormatComboBox = new JComboBox<>(new String[]{"Table", "XML", "JSON"});
+        outputFormatComboBox = new JComboBox<>(new String[]{"Table", "XML", "JSON", "NDJSON"});
+        outputFormatComboBox.addActionListener(e -> liveFilterTimer.restart());
         controlPanel.add(outputFormatComboBox);
         
         // Currency filter option
         controlPanel.add(new JLabel("Apply Currency Filter:"));
         currencyFilterCheckBox = new JCheckBox("SUV in EUR, Sedan in JPY, Truck in USD");
+        currencyFilterCheckBox.addActionListener(e -> liveFilterTimer.restart());
         controlPanel.add(currencyFilterCheckBox);
         
         // Add control panel to the top
@@ -87,15 +130,22 @@ public class CarDataProcessor extends JFrame {
         // Create button panel
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         JButton processButton = new JButton("Process Data");
-        processButton.addActionListener(e -> processData());
+        processButton.addActionListener(e -> processData(false));
         buttonPanel.add(processButton);
         
         JButton loadDataButton = new JButton("Load Data");
         loadDataButton.addActionListener(e -> loadData());
         buttonPanel.add(loadDataButton);
         
-        // Add button panel below the control panel
-        add(buttonPanel, BorderLayout.SOUTH);
+        // Status bar with the estimated memory of the loaded data
+        statusLabel = new JLabel("No data loaded");
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(2, 10, 4, 10));
+        
+        // Add button panel and status bar below the result area
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(buttonPanel, BorderLayout.CENTER);
+        southPanel.add(statusLabel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
         
         // Create result area (initially empty)
         resultArea = new JTextArea();
@@ -112,20 +162,53 @@ public class CarDataProcessor extends JFrame {
     private void loadData() {
         try {
             // Use the service to load data
+            rejectLog.clear();
             carDataService.loadData();
+            updateStatus();
             
-            JOptionPane.showMessageDialog(this, "Data loaded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            if (rejectLog.getCount() == 0) {
+                JOptionPane.showMessageDialog(this, "Data loaded successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                StringBuilder message = new StringBuilder("Data loaded, " + rejectLog.getCount() + " invalid records were skipped:");
+                java.util.List<String> entries = rejectLog.getEntries();
+                for (int i = 0; i < Math.min(5, entries.size()); i++) {
+                    message.append("\n").append(entries.get(i));
+                }
+                JOptionPane.showMessageDialog(this, message.toString(), "Loaded with Warnings", JOptionPane.WARNING_MESSAGE);
+            }
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error loading data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             e.printStackTrace();
         }
     }
     
-    private void processData() {
+    /**
+     * Show the estimated memory of the loaded data and caches in the status bar
+     */
+    private void updateStatus() {
+        HeapFootprint footprint = carDataService.getFootprint();
+        String status = footprint.summary();
+        if (carDataService.isLastLoadDegraded()) {
+            status += ", moved off-heap by the memory budget";
+        }
+        statusLabel.setText(status);
+        statusLabel.setToolTipText("<html><pre>" + footprint + "</pre></html>");
+    }
+    
+    /**
+     * Run the query described by the form
+     * 
+     * @param live true when triggered by typing; incomplete input is then ignored
+     *             instead of reported, and nothing happens before data is loaded
+     */
+    private void processData(boolean live) {
         if (carDataService.getCars().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please load data first!", "No Data", JOptionPane.WARNING_MESSAGE);
+            if (!live) {
+                JOptionPane.showMessageDialog(this, "Please load data first!", "No Data", JOptionPane.WARNING_MESSAGE);
+            }
             return;
         }
+        liveFilterTimer.stop();
         
         try {
             // Get filter parameters
@@ -134,21 +217,27 @@ public class CarDataProcessor extends JFrame {
             String brandValue = filterBrandField.getText().trim();
             String dateStr = filterDateField.getText().trim();
             
-            // Apply filters using the service
-            java.util.List<Car> filteredCars = carDataService.filterCars(filterType, filterValue, brandValue, dateStr);
-            
-            // Apply sorting using the service
             String sortType = (String) sortTypeComboBox.getSelectedItem();
-            carDataService.sortCars(filteredCars, sortType);
+            boolean currencyFilter = currencyFilterCheckBox.isSelected();
+            String outputFormat = (String) outputFormatComboBox.getSelectedItem();
             
-            // Apply currency filter if selected
-            if (currencyFilterCheckBox.isSelected()) {
-                carDataService.applyCurrencyFilter(filteredCars);
+            // Table view needs the rows, text formats can be served from the result cache
+            if (outputFormat == null || outputFormat.equals("Table")) {
+                java.util.List<Car> filteredCars = carDataService.queryCars(
+                        filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+                displayResults(filteredCars, null);
+            } else {
+                String output = carDataService.queryFormatted(
+                        filterType, filterValue, brandValue, dateStr, sortType, currencyFilter, outputFormat);
+                displayResults(null, output);
             }
+            updateStatus();
             
-            // Display results in selected format
-            displayResults(filteredCars);
-            
+        } catch (ParseException e) {
+            // A half-typed price or date is expected while filtering live
+            if (!live) {
+                JOptionPane.showMessageDialog(this, "Error processing data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error processing data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             e.printStackTrace();
@@ -179,7 +268,8 @@ public class CarDataProcessor extends JFrame {
             filterBrandField.setVisible(false);
             filterDateLabel.setVisible(false);
             filterDateField.setVisible(false);
-            filterValueField.setToolTipText("Enter brand name");
+            filterValueField.setToolTipText("Enter brand or model name");
+            filterValueTypeahead.setEnabled(true);
         } else if (filterType.equals("Brand and Price")) {
             filterValueLabel.setText("Price:");
             filterValueLabel.setVisible(true);
@@ -189,7 +279,8 @@ public class CarDataProcessor extends JFrame {
             filterDateLabel.setVisible(false);
             filterDateField.setVisible(false);
             filterValueField.setToolTipText("Enter minimum price value");
-            filterBrandField.setToolTipText("Enter brand name");
+            filterValueTypeahead.setEnabled(false);
+            filterBrandField.setToolTipText("Enter brand or model name");
         } else if (filterType.equals("Brand and Release Date")) {
             filterValueLabel.setText("Brand:");
             filterValueLabel.setVisible(true);
@@ -198,7 +289,8 @@ public class CarDataProcessor extends JFrame {
             filterBrandField.setVisible(false);
             filterDateLabel.setVisible(true);
             filterDateField.setVisible(true);
-            filterValueField.setToolTipText("Enter brand name");
+            filterValueField.setToolTipText("Enter brand or model name");
+            filterValueTypeahead.setEnabled(true);
             filterDateField.setToolTipText("Enter date in yyyy-MM-dd format");
         }
         
@@ -207,22 +299,14 @@ public class CarDataProcessor extends JFrame {
         repaint();
     }
     
-    private void displayResults(java.util.List<Car> carList) {
-        String outputFormat = (String) outputFormatComboBox.getSelectedItem();
-        
-        if (outputFormat == null) {
-            outputFormat = "Table";
-        }
-        
+    private void displayResults(java.util.List<Car> carList, String formattedOutput) {
         // Remove current component from center
         remove(scrollPane);
         
-        if (outputFormat.equals("Table")) {
+        if (carList != null) {
             displayTableFormat(carList);
-        } else if (outputFormat.equals("XML")) {
-            displayXmlFormat(carList);
-        } else if (outputFormat.equals("JSON")) {
-            displayJsonFormat(carList);
+        } else {
+            displayTextFormat(formattedOutput);
         }
         
         // Refresh the UI
@@ -260,23 +344,9 @@ public class CarDataProcessor extends JFrame {
         add(scrollPane, BorderLayout.CENTER);
     }
     
-    private void displayXmlFormat(java.util.List<Car> carList) {
-        // Use the service to format as XML
-        String xml = carDataService.formatAsXml(carList);
-        
-        // Display XML in text area
-        resultArea = new JTextArea(xml);
-        resultArea.setEditable(false);
-        scrollPane = new JScrollPane(resultArea);
-        add(scrollPane, BorderLayout.CENTER);
-    }
-    
-    private void displayJsonFormat(java.util.List<Car> carList) {
-        // Use the service to format as JSON
-        String json = carDataService.formatAsJson(carList);
-        
-        // Display JSON in text area
-        resultArea = new JTextArea(json);
+    private void displayTextFormat(String output) {
+        // Display XML or JSON produced by the service in a text area
+        resultArea = new JTextArea(output);
         resultArea.setEditable(false);
         scrollPane = new JScrollPane(resultArea);
         add(scrollPane, BorderLayout.CENTER);
@@ -1,366 +1,2154 @@
 package com.example;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * Service class for processing car data.
  * This class handles loading, filtering, sorting, and formatting car data.
  */
 public class CarDataService {
-    private List<Car> cars = new ArrayList<>();
-    private Map<String, Date> brandReleaseDates = new HashMap<>();
-    private Map<String, String> modelToBrand = new HashMap<>();
+    public static final String DEFAULT_BRAND_CSV = "CarsBrand.csv";
+    public static final String DEFAULT_CARS_XML = "carsType.xml";
+    public static final String DEFAULT_MODEL_CATALOG = "ModelBrand.csv";
+    
+    private final String brandCsvPath;
+    private final String carsXmlPath;
+    private final String modelCatalogPath;
+    
+    // Replaced as a whole on every load so readers never see a half-built dataset.
+    // With off-heap storage this is the CarList of the current OffHeapCarStore.
+    private volatile List<Car> cars = new ArrayList<>();
+    private volatile Map<String, Date> brandReleaseDates = new HashMap<>();
+    private volatile Map<String, String> modelToBrand = new HashMap<>();
+    private volatile TypeaheadIndex typeaheadIndex = TypeaheadIndex.build(Collections.emptyList());
+    private volatile PriceStatistics priceStatistics = new PriceStatistics();
+    // Column snapshot of the heap dataset for batch filtering, null with off-heap storage
+    private volatile CarColumns columns;
+    // Sort orders of the heap dataset, materialized on first use; null off-heap and in live mode
+    private volatile MaterializedViews sortedViews = new MaterializedViews(new ArrayList<>());
+    
+    // Bumped whenever loaded data or the displayed currency of any car changes
+    private final AtomicLong dataVersion = new AtomicLong();
+    
+    // Validating ingest: bad records go to the sink instead of aborting the load
+    private volatile RejectSink rejectSink;
+    private volatile long maxRejects;
+    private volatile long lastRejectCount;
+    
+    // Deduplication of overlapping feeds, disabled while the key is null
+    private volatile CarKey dedupKey;
+    private volatile MergePolicy mergePolicy = MergePolicy.LAST_WRITER_WINS;
+    private volatile long lastDuplicateCount;
+    private final QueryResultCache resultCache = new QueryResultCache();
+    
+    // Previous filter result, narrowed further when the next filter refines it
+    private volatile LastFilter lastFilter;
+    private final AtomicLong refinedQueries = new AtomicLong();
+    
+    // Keep loaded rows in direct memory instead of Car objects, disabled by default
+    private volatile boolean offHeapStorage;
+    
+    // Durable record of mutations, null when mutations are not persisted
+    private volatile CarJournal journal;
+    private final Object mutationLock = new Object();
+    private long publishedSequence;
+    
+    // Concurrently mutable copy of the dataset, null while live updates are disabled.
+    // Typeahead and statistics follow it lazily, at most once per refresh interval.
+    private volatile CarKey liveKey;
+    private volatile LiveCarTable liveTable;
+    // Live writers hold the read side from reading the table until they applied to it;
+    // loads resetting the journal and replacing the table hold the write side
+    private final ReadWriteLock liveLock = new ReentrantReadWriteLock();
+    private static final long DERIVED_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final Object derivedLock = new Object();
+    private volatile long derivedMutationCount;
+    private volatile long derivedBuiltNanos;
+    
+    // Heap limit checked before loads are published and results formatted, null for none
+    private volatile MemoryBudget memoryBudget;
+    private volatile boolean lastLoadDegraded;
+    // Footprint of the cars and indexes of the current dataset, measured on first use
+    private volatile MeasuredDataset measuredDataset;
+    
+    // Fraction of queries profiled, and where profiled queries slower than the threshold go
+    private volatile double profileSampleRate;
+    private volatile long slowQueryNanos;
+    private volatile Consumer<QueryProfile> slowQueryLog;
+    
+    // Type order of the currency view for off-heap rows, matching getTypeOrder
+    private static final List<String> TYPE_ORDER = Arrays.asList("suv", "sedan", "truck");
     
     public CarDataService() {
-        initializeModelToBrandMap();
+        this(DEFAULT_BRAND_CSV, DEFAULT_CARS_XML, DEFAULT_MODEL_CATALOG);
     }
     
-    /**
-     * Initialize the mapping from car models to brands
-     */
-    private void initializeModelToBrandMap() {
-        modelToBrand.put("RAV4", "Toyota");
-        modelToBrand.put("Civic", "Honda");
-        modelToBrand.put("F-150", "Ford");
-        modelToBrand.put("Model X", "Tesla");
-        modelToBrand.put("X5", "BMW");
-        modelToBrand.put("A4", "Audi");
-        modelToBrand.put("Silverado", "Chevrolet");
-        modelToBrand.put("C-Class", "Mercedes-Benz");
-        modelToBrand.put("Altima", "Nissan");
-        modelToBrand.put("Sonata", "Hyundai");
+    public CarDataService(String brandCsvPath, String carsXmlPath, String modelCatalogPath) {
+        this.brandCsvPath = brandCsvPath;
+        this.carsXmlPath = carsXmlPath;
+        this.modelCatalogPath = modelCatalogPath;
     }
     
     /**
-     * Load data from CSV and XML files
+     * Load data from CSV and XML files.
+     * The brand release dates and the model catalog are read on a background thread
+     * while the car XML is streamed on the calling thread. Brand dates are the build
+     * side of a hash join that each car probes as soon as it is parsed; cars that
+     * arrive before the build side is ready are held back and joined at the end.
+     * With validation enabled, bad records are rejected instead of failing the load.
+     * With deduplication enabled, cars sharing a key are merged before the swap.
      * 
+     * @throws ErrorBudgetExceededException if validation rejects more records than allowed
      * @throws Exception if loading fails
      */
     public void loadData() throws Exception {
-        loadCSVData();
-        loadXMLData();
+        CarEvents.DatasetLoad event = new CarEvents.DatasetLoad();
+        event.begin();
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "car-data-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ErrorBudget budget = newErrorBudget();
+        checkInput(Paths.get(carsXmlPath));
+        try {
+            Future<Map<String, String>> catalogFuture = executor.submit(() -> loadModelCatalog(modelCatalogPath, budget));
+            Future<Map<String, Date>> datesFuture = executor.submit(() -> loadCSVData(brandCsvPath, budget));
+            
+            List<Car> loaded = loadXMLData(carsXmlPath, catalogFuture, datesFuture, budget);
+            
+            modelToBrand = await(catalogFuture);
+            brandReleaseDates = await(datesFuture);
+            List<Car> merged = deduplicate(loaded);
+            boolean offHeap = planLoad(merged);
+            resetAndPublish(merged, offHeap, null);
+            lastRejectCount = budget == null ? 0 : budget.getRejectCount();
+            dataVersion.incrementAndGet();
+            event.end(carsXmlPath, loaded.size(), merged.size(), lastDuplicateCount, lastRejectCount, offHeap);
+        } finally {
+            executor.shutdownNow();
+        }
     }
     
     /**
-     * Load brand release dates from CSV file
+     * Load cars from every XML feed in a directory matching a glob, instead of the
+     * single car XML file. Brand dates and the model catalog are read first, then
+     * the feeds are parsed concurrently and merged in file name order. Feeds that
+     * fail to parse are skipped and reported in the result. With deduplication
+     * enabled, cars repeated across feeds are merged; the returned result still
+     * lists every parsed row with its source file.
      * 
-     * @throws Exception if loading fails
+     * @param directory directory holding the feed files
+     * @param glob file name glob, e.g. "*.xml"
+     * @return merged result with per-file provenance and error reports
+     * @throws ErrorBudgetExceededException if validation rejects more records than allowed
+     * @throws Exception if the brand or catalog files cannot be loaded
      */
-    private void loadCSVData() throws Exception {
-        brandReleaseDates.clear();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+    public FeedIngestor.Result loadFeeds(Path directory, String glob) throws Exception {
+        CarEvents.DatasetLoad event = new CarEvents.DatasetLoad();
+        event.begin();
+        ErrorBudget budget = newErrorBudget();
+        Future<Map<String, String>> catalog = CompletableFuture.completedFuture(loadModelCatalog(modelCatalogPath, budget));
+        Future<Map<String, Date>> releaseDates = CompletableFuture.completedFuture(loadCSVData(brandCsvPath, budget));
         
-        try (BufferedReader reader = new BufferedReader(new FileReader("CarsBrand.csv"))) {
-            String line;
-            boolean isHeader = true;
-            
-            while ((line = reader.readLine()) != null) {
-                if (isHeader) {
-                    isHeader = false;
-                    continue;
-                }
-                
-                // Remove quotes and split by comma
-                line = line.replace("\"", "");
-                String[] parts = line.split(",");
-                
-                if (parts.length >= 2) {
-                    String brand = parts[0].trim();
-                    Date releaseDate = dateFormat.parse(parts[1].trim());
-                    brandReleaseDates.put(brand, releaseDate);
+        FeedIngestor ingestor = new FeedIngestor(file -> loadXMLData(file.toString(), catalog, releaseDates, budget),
+                FeedIngestor.DEFAULT_MAX_OPEN_FILES, FeedIngestor.DEFAULT_MAX_IN_FLIGHT_BYTES);
+        FeedIngestor.Result result = ingestor.ingest(directory, glob);
+        
+        // The budget is shared by all files, so it is checked once they are done
+        if (budget != null && budget.getMaxRejects() >= 0 && budget.getRejectCount() > budget.getMaxRejects()) {
+            throw new ErrorBudgetExceededException("Rejected " + budget.getRejectCount()
+                    + " records, error budget is " + budget.getMaxRejects(), budget.getRejectCount());
+        }
+        
+        modelToBrand = catalog.get();
+        brandReleaseDates = releaseDates.get();
+        List<Car> merged = deduplicate(result.getCars());
+        boolean offHeap = planLoad(merged);
+        // Without deduplication the per-file sketches already describe the dataset
+        resetAndPublish(merged, offHeap, dedupKey == null ? result.getStatistics() : null);
+        lastRejectCount = budget == null ? 0 : budget.getRejectCount();
+        dataVersion.incrementAndGet();
+        event.end(directory.resolve(glob).toString(), result.getCars().size(), merged.size(), lastDuplicateCount,
+                lastRejectCount, offHeap);
+        return result;
+    }
+    
+    /**
+     * Replace the dataset with cars supplied by the caller instead of the data files,
+     * e.g. the partition a ShardCoordinator pushes to a worker. Deduplication and
+     * off-heap storage apply as for the other loads.
+     * 
+     * @param loaded cars in row order
+     * @throws IOException if an attached journal cannot record the new dataset
+     */
+    public void loadCars(List<Car> loaded) throws IOException {
+        CarEvents.DatasetLoad event = new CarEvents.DatasetLoad();
+        event.begin();
+        List<Car> merged = deduplicate(loaded);
+        boolean offHeap = planLoad(merged);
+        resetAndPublish(merged, offHeap, null);
+        lastRejectCount = 0;
+        dataVersion.incrementAndGet();
+        event.end("caller", loaded.size(), merged.size(), lastDuplicateCount, 0, offHeap);
+    }
+    
+    /**
+     * Persist mutations in a journal. A journal holding state, e.g. from an earlier
+     * run, replaces the current dataset after replaying its tail; an empty one is
+     * seeded with the current cars. Later loads of the data files reset the journal
+     * to the new dataset.
+     * 
+     * @param attached journal to write mutations to
+     * @throws IOException if an empty journal cannot be seeded
+     */
+    public void attachJournal(CarJournal attached) throws IOException {
+        liveLock.writeLock().lock();
+        try {
+            synchronized (mutationLock) {
+                if (attached.isEmpty()) {
+                    attached.reset(new ArrayList<>(cars));
+                } else {
+                    publishMutation(attached.getCars());
                 }
+                publishedSequence = attached.getDurableSequence();
+                journal = attached;
             }
+        } finally {
+            liveLock.writeLock().unlock();
         }
     }
     
     /**
-     * Load car data from XML file
+     * Accept concurrent mutations without republishing the dataset. The cars move
+     * into a LiveCarTable whose brand index, sort orders and price totals are
+     * updated per mutation; writers of different cars lock different stripes and
+     * readers never wait. Later loads rebuild the table from the new dataset. Live
+     * cars stay on the heap, so off-heap storage does not apply meanwhile.
      * 
-     * @throws Exception if loading fails
+     * @param key identity of a car; the same key as an attached journal
      */
-    private void loadXMLData() throws Exception {
-        cars.clear();
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.parse(new File("carsType.xml"));
-        
-        NodeList carNodes = document.getElementsByTagName("car");
-        
-        for (int i = 0; i < carNodes.getLength(); i++) {
-            Element carElement = (Element) carNodes.item(i);
-            
-            // Extract car details
-            String type = getElementTextContent(carElement, "type");
-            String model = getElementTextContent(carElement, "model");
-            String brand = getBrandFromModel(model);
-            
-            // Get main price
-            Element priceElement = (Element) carElement.getElementsByTagName("price").item(0);
-            double price = Double.parseDouble(priceElement.getTextContent());
-            String currency = priceElement.getAttribute("currency");
-            
-            // Get additional prices
-            Map<String, Double> prices = new HashMap<>();
-            prices.put(currency, price);
-            
-            Element pricesElement = (Element) carElement.getElementsByTagName("prices").item(0);
-            if (pricesElement != null) {
-                NodeList additionalPrices = pricesElement.getElementsByTagName("price");
-                for (int j = 0; j < additionalPrices.getLength(); j++) {
-                    Element additionalPrice = (Element) additionalPrices.item(j);
-                    String additionalCurrency = additionalPrice.getAttribute("currency");
-                    double additionalValue = Double.parseDouble(additionalPrice.getTextContent());
-                    prices.put(additionalCurrency, additionalValue);
+    public void enableLiveUpdates(CarKey key) {
+        liveLock.writeLock().lock();
+        try {
+            synchronized (mutationLock) {
+                List<Car> current = new ArrayList<>(cars);
+                liveKey = key;
+                liveTable = new LiveCarTable(key, current);
+                dataVersion.incrementAndGet();
+            }
+        } finally {
+            liveLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Get the live table, e.g. for its exact price totals
+     * 
+     * @return live table, or null while live updates are disabled
+     */
+    public LiveCarTable getLiveTable() {
+        return liveTable;
+    }
+    
+    /**
+     * Set one price of a car without replacing the rest of it. Requires live updates.
+     * 
+     * @param car car to update, identified by the live key
+     * @param currency currency code
+     * @param value new price
+     * @return false if there is no car with that key
+     * @throws IOException if the journal write fails; the car is then unchanged
+     */
+    public boolean updatePrice(Car car, String currency, double value) throws IOException {
+        liveLock.readLock().lock();
+        try {
+            LiveCarTable live = liveTable;
+            if (live == null) {
+                throw new IllegalStateException("Live updates are not enabled");
+            }
+            CarJournal current = journal;
+            synchronized (live.lockFor(car)) {
+                Car updated = live.withPrice(car, currency, value);
+                if (updated == null) {
+                    return false;
+                }
+                if (current != null) {
+                    current.awaitDurable(current.write(CarJournal.Operation.UPDATE, updated));
                 }
+                live.updatePrice(car, currency, value);
             }
-            
-            // Create car object and add to list
-            Car car = new Car(brand, model, type, prices);
-            car.setReleaseDate(brandReleaseDates.getOrDefault(brand, new Date()));
-            cars.add(car);
+        } finally {
+            liveLock.readLock().unlock();
+        }
+        dataVersion.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Add a new listing, replacing a car with the same journal key
+     * 
+     * @param car car to add
+     * @throws IOException if the journal write fails; the dataset is then unchanged
+     */
+    public void addCar(Car car) throws IOException {
+        mutate(CarJournal.Operation.ADD, car);
+    }
+    
+    /**
+     * Add several listings with one journal sync, replacing cars with the same
+     * journal key. Either all of them are added or, if the journal write fails, none.
+     * 
+     * @param added cars to add
+     * @throws IOException if the journal write fails; the dataset is then unchanged
+     */
+    public void addCars(List<Car> added) throws IOException {
+        if (added.isEmpty()) {
+            return;
+        }
+        liveLock.readLock().lock();
+        try {
+            LiveCarTable live = liveTable;
+            if (live != null) {
+                addLive(live, added);
+                return;
+            }
+        } finally {
+            liveLock.readLock().unlock();
+        }
+        CarJournal current;
+        long sequence;
+        synchronized (mutationLock) {
+            current = journal;
+            if (current == null) {
+                throw new IllegalStateException("No journal attached");
+            }
+            sequence = current.writeAll(CarJournal.Operation.ADD, added);
         }
+        current.awaitDurable(sequence);
+        publishDurable(current, sequence);
     }
     
     /**
-     * Get text content of an XML element
+     * Follow a CSV feed that keeps growing: rows appended to the file are added to the
+     * live dataset, replacing cars with the same key, and counted in a rolling window.
+     * Rows become visible within one poll interval of being appended.
      * 
-     * @param parent parent element
-     * @param tagName tag name to find
-     * @return text content or empty string if not found
+     * @param file CSV file in the CarProcessor format
+     * @param fromStart add the rows already in the file too, not only later appends
+     * @param window rolling aggregates to update, or null
+     * @param pollMillis interval between polls
+     * @return running follower; close it to stop following
+     * @throws IllegalStateException if live updates are not enabled
+     * @throws IOException if the file cannot be opened
      */
-    private String getElementTextContent(Element parent, String tagName) {
-        NodeList elements = parent.getElementsByTagName(tagName);
-        if (elements.getLength() > 0) {
-            return elements.item(0).getTextContent();
+    public CsvFeedFollower followCsv(Path file, boolean fromStart, RollingWindowStats window, long pollMillis)
+            throws IOException {
+        if (liveTable == null) {
+            throw new IllegalStateException("Live updates are not enabled");
         }
-        return "";
+        CsvFeedFollower follower = new CsvFeedFollower(file, fromStart, appended -> {
+            addCars(appended);
+            // Only once the whole batch is in: a failed batch comes again on the next poll
+            if (window != null) {
+                for (Car car : appended) {
+                    window.add(car);
+                }
+            }
+        });
+        follower.start(pollMillis);
+        return follower;
     }
     
     /**
-     * Get brand from model using the mapping
+     * Replace the car with the same journal key, e.g. with new prices
      * 
-     * @param model car model
-     * @return corresponding brand or "Unknown"
+     * @param car new version of the car
+     * @throws IOException if the journal write fails; the dataset is then unchanged
      */
-    private String getBrandFromModel(String model) {
-        return modelToBrand.getOrDefault(model, "Unknown");
+    public void updateCar(Car car) throws IOException {
+        mutate(CarJournal.Operation.UPDATE, car);
     }
     
     /**
-     * Filter cars based on criteria
+     * Remove the car with the same journal key
      * 
-     * @param filterType type of filter to apply
-     * @param filterValue brand or price value
-     * @param brandValue brand value for combined filters
-     * @param dateStr date string for date filters
-     * @return filtered list of cars
-     * @throws ParseException if date parsing fails
+     * @param car car to remove
+     * @throws IOException if the journal write fails; the dataset is then unchanged
      */
-    public List<Car> filterCars(String filterType, String filterValue, String brandValue, String dateStr) throws ParseException {
-        List<Car> filteredCars = new ArrayList<>(cars);
-        
-        if (filterType == null || filterType.equals("None")) {
-            return filteredCars;
+    public void removeCar(Car car) throws IOException {
+        mutate(CarJournal.Operation.REMOVE, car);
+    }
+    
+    /**
+     * Write a mutation to the journal, wait until it is durable and publish the new
+     * state. The fsync happens outside the mutation lock so concurrent mutations
+     * share it; a mutation is visible once its own record is on disk.
+     */
+    private void mutate(CarJournal.Operation operation, Car car) throws IOException {
+        liveLock.readLock().lock();
+        try {
+            LiveCarTable live = liveTable;
+            if (live != null) {
+                mutateLive(live, operation, car);
+                return;
+            }
+        } finally {
+            liveLock.readLock().unlock();
         }
-        
-        if (filterType.equals("Brand")) {
-            if (filterValue.isEmpty()) {
-                return filteredCars;
-            }
-            filteredCars = filteredCars.stream()
-                    .filter(car -> car.getBrand().equalsIgnoreCase(filterValue))
-                    .collect(Collectors.toList());
-        } else if (filterType.equals("Brand and Price")) {
-            try {
-                if (filterValue.isEmpty() || brandValue.isEmpty()) {
-                    return filteredCars;
+        CarJournal current;
+        long sequence;
+        synchronized (mutationLock) {
+            current = journal;
+            if (current == null) {
+                throw new IllegalStateException("No journal attached");
+            }
+            sequence = current.write(operation, car);
+        }
+        current.awaitDurable(sequence);
+        publishDurable(current, sequence);
+    }
+    
+    private void publishDurable(CarJournal current, long sequence) {
+        // Publishing replaces a live table that may have been enabled meanwhile
+        liveLock.writeLock().lock();
+        try {
+            synchronized (mutationLock) {
+                if (journal == current && publishedSequence < sequence) {
+                    // Read the sequence first: the state then covers at least that much
+                    long covered = current.getDurableSequence();
+                    publishMutation(current.getCars());
+                    publishedSequence = covered;
                 }
-                double price = Double.parseDouble(filterValue);
-                
-                filteredCars = filteredCars.stream()
-                        .filter(car -> car.getBrand().equalsIgnoreCase(brandValue) && 
-                                car.getPrices().values().stream().anyMatch(p -> p >= price))
-                        .collect(Collectors.toList());
-            } catch (NumberFormatException e) {
-                throw new ParseException("Invalid price format", 0);
             }
-        } else if (filterType.equals("Brand and Release Date")) {
-            if (filterValue.isEmpty() || dateStr.isEmpty()) {
-                return filteredCars;
+        } finally {
+            liveLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Journal a mutation and apply it to the live table once it is durable, all under
+     * the car's stripe lock, so records of one car reach the journal in the order
+     * they are applied. Writers of different stripes still share an fsync.
+     */
+    private void mutateLive(LiveCarTable live, CarJournal.Operation operation, Car car) throws IOException {
+        CarJournal current = journal;
+        synchronized (live.lockFor(car)) {
+            if (operation != CarJournal.Operation.ADD && live.get(car) == null) {
+                return;
+            }
+            if (current != null) {
+                current.awaitDurable(current.write(operation, car));
             }
-            
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-            try {
-                Date filterDate = dateFormat.parse(dateStr);
-                
-                filteredCars = filteredCars.stream()
-                        .filter(car -> car.getBrand().equalsIgnoreCase(filterValue) && 
-                                car.getReleaseDate().compareTo(filterDate) >= 0)
-                        .collect(Collectors.toList());
-            } catch (ParseException e) {
-                throw new ParseException("Invalid date format. Use yyyy-MM-dd", 0);
+            if (operation == CarJournal.Operation.REMOVE) {
+                live.remove(car);
+            } else {
+                live.upsert(car);
             }
         }
-        
-        return filteredCars;
+        dataVersion.incrementAndGet();
     }
     
     /**
-     * Sort cars by specified criteria
-     * 
-     * @param carList list of cars to sort
-     * @param sortType type of sorting to apply
+     * Journal a batch of additions, wait for one sync and then apply each car under
+     * its own stripe lock. No stripe is held across the sync, so a later record of a
+     * car may already be applied; each car is therefore brought to its durable
+     * version in the journal, which is the latest record of it in sequence order.
      */
-    public void sortCars(List<Car> carList, String sortType) {
-        if (sortType == null || sortType.equals("None")) {
+    private void addLive(LiveCarTable live, List<Car> added) throws IOException {
+        CarJournal current = journal;
+        if (current != null) {
+            current.awaitDurable(current.writeAll(CarJournal.Operation.ADD, added));
+        }
+        for (Car car : added) {
+            synchronized (live.lockFor(car)) {
+                Car durable = current == null ? car : current.get(car);
+                if (durable == null) {
+                    live.remove(car);
+                } else {
+                    live.upsert(durable);
+                }
+            }
+        }
+        dataVersion.incrementAndGet();
+    }
+    
+    /**
+     * Rebuild typeahead and statistics from the live table if it changed since they
+     * were built, at most once per refresh interval
+     */
+    private void refreshDerived() {
+        LiveCarTable live = liveTable;
+        if (live == null || live.getMutationCount() == derivedMutationCount
+                || System.nanoTime() - derivedBuiltNanos < DERIVED_REFRESH_NANOS) {
             return;
         }
-        
-        if (sortType.equals("Latest to Oldest")) {
-            carList.sort((car1, car2) -> car2.getReleaseDate().compareTo(car1.getReleaseDate()));
-        } else if (sortType.equals("Highest Price to Lowest")) {
-            carList.sort((car1, car2) -> {
-                double maxPrice1 = car1.getPrices().values().stream().mapToDouble(Double::doubleValue).max().orElse(0);
-                double maxPrice2 = car2.getPrices().values().stream().mapToDouble(Double::doubleValue).max().orElse(0);
-                return Double.compare(maxPrice2, maxPrice1);
-            });
+        synchronized (derivedLock) {
+            long count = live.getMutationCount();
+            if (count != derivedMutationCount) {
+                List<Car> snapshot = live.snapshot();
+                typeaheadIndex = TypeaheadIndex.build(snapshot);
+                priceStatistics = PriceStatistics.of(snapshot);
+                derivedMutationCount = count;
+                derivedBuiltNanos = System.nanoTime();
+            }
         }
     }
     
+    private void publishMutation(List<Car> mutated) {
+        typeaheadIndex = TypeaheadIndex.build(mutated);
+        priceStatistics = PriceStatistics.of(mutated);
+        // A mutation keeps the storage the dataset was loaded into
+        publish(mutated, offHeapStorage || cars instanceof OffHeapCarStore.CarList);
+        dataVersion.incrementAndGet();
+    }
+    
     /**
-     * Apply currency filter based on car type
+     * Reset the journal to a loaded dataset and publish it, with live writers held
+     * off so none of them journals to the new state but applies to the old table
      * 
-     * @param carList list of cars to filter
+     * @param statistics statistics of the merged cars, or null to compute them
      */
-    public void applyCurrencyFilter(List<Car> carList) {
-        // First set preferred currency based on car type
-        for (Car car : carList) {
-            if (car.getType().equalsIgnoreCase("SUV")) {
-                car.setPreferredCurrency("EUR");
-            } else if (car.getType().equalsIgnoreCase("Sedan")) {
-                car.setPreferredCurrency("JPY");
-            } else if (car.getType().equalsIgnoreCase("Truck")) {
-                car.setPreferredCurrency("USD");
+    private void resetAndPublish(List<Car> merged, boolean offHeap, PriceStatistics statistics) throws IOException {
+        liveLock.writeLock().lock();
+        try {
+            resetJournal(merged);
+            typeaheadIndex = TypeaheadIndex.build(merged);
+            priceStatistics = statistics != null ? statistics : PriceStatistics.of(merged);
+            publish(merged, offHeap);
+        } finally {
+            liveLock.writeLock().unlock();
+        }
+    }
+    
+    private void resetJournal(List<Car> merged) throws IOException {
+        synchronized (mutationLock) {
+            CarJournal current = journal;
+            if (current != null) {
+                current.reset(merged);
+                publishedSequence = current.getDurableSequence();
             }
         }
-        
-        // Sort the list by car type (SUV, Sedan, Truck)
-        carList.sort((car1, car2) -> {
-            // First sort by type
-            String type1 = car1.getType().toLowerCase();
-            String type2 = car2.getType().toLowerCase();
-            
-            // Define type order: SUV, Sedan, Truck
-            int typeOrder1 = getTypeOrder(type1);
-            int typeOrder2 = getTypeOrder(type2);
-            
-            return Integer.compare(typeOrder1, typeOrder2);
-        });
     }
     
     /**
-     * Helper method to determine type order for sorting
+     * Enable or disable validating ingest for subsequent loads
      * 
-     * @param type car type
-     * @return order value
+     * @param sink receives rejected records, or null to fail loads on the first bad record
+     * @param maxRejects rejects tolerated per load before it is aborted, negative for unlimited
      */
-    private int getTypeOrder(String type) {
-        if (type.equals("suv")) {
-            return 1; // SUV first (EUR)
-        } else if (type.equals("sedan")) {
-            return 2; // Sedan second (JPY)
-        } else if (type.equals("truck")) {
-            return 3; // Truck third (USD)
-        } else {
-            return 4; // Other types last
+    public void setValidation(RejectSink sink, long maxRejects) {
+        this.maxRejects = maxRejects;
+        this.rejectSink = sink;
+    }
+    
+    /**
+     * Get the number of records rejected by the last successful load
+     * 
+     * @return reject count, 0 when validation is disabled
+     */
+    public long getLastRejectCount() {
+        return lastRejectCount;
+    }
+    
+    /**
+     * Enable or disable deduplication for subsequent loads
+     * 
+     * @param key identity of a car, or null to keep every loaded row
+     * @param policy which record survives when keys collide
+     */
+    public void setDeduplication(CarKey key, MergePolicy policy) {
+        this.mergePolicy = policy;
+        this.dedupKey = key;
+    }
+    
+    /**
+     * Get the number of rows merged away by the last successful load
+     * 
+     * @return duplicate count, 0 when deduplication is disabled
+     */
+    public long getLastDuplicateCount() {
+        return lastDuplicateCount;
+    }
+    
+    /**
+     * Enable or disable off-heap storage for subsequent loads. Loaded cars are then
+     * copied into an OffHeapCarStore and only materialized for callers that ask for
+     * Car objects; queries filter, sort and format the rows in place. The store of
+     * the previous load is freed as soon as running queries are done with it.
+     * 
+     * @param enabled true to keep cars in direct memory
+     */
+    public void setOffHeapStorage(boolean enabled) {
+        this.offHeapStorage = enabled;
+    }
+    
+    /**
+     * Get the direct memory held by the current dataset
+     * 
+     * @return off-heap bytes, 0 when off-heap storage is disabled
+     */
+    public long getOffHeapBytes() {
+        OffHeapCarStore store = acquireStore();
+        if (store == null) {
+            return 0;
+        }
+        try {
+            return store.getOffHeapBytes();
+        } finally {
+            store.release();
         }
     }
     
     /**
-     * Get the list of cars
+     * Limit the heap the service may hold. Loads are checked once parsed, before
+     * indexes are built and the dataset is published; formatted queries before
+     * formatting. Estimates come from getFootprint.
      * 
-     * @return list of cars
+     * @param budget budget, or null to disable the checks
      */
-    public List<Car> getCars() {
-        return cars;
+    public void setMemoryBudget(MemoryBudget budget) {
+        this.memoryBudget = budget;
+    }
+    
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
     
     /**
-     * Format car data as XML string
+     * Tell whether the memory budget moved the last load off the heap
      * 
-     * @param carList list of cars to format
-     * @return XML string
+     * @return true if the last load was degraded to off-heap storage
      */
-    public String formatAsXml(List<Car> carList) {
-        StringBuilder xml = new StringBuilder();
-        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        xml.append("<cars>\n");
-        
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        
-        for (Car car : carList) {
-            xml.append("  <car>\n");
-            xml.append("    <brand>").append(car.getBrand()).append("</brand>\n");
-            xml.append("    <model>").append(car.getModel()).append("</model>\n");
-            xml.append("    <type>").append(car.getType()).append("</type>\n");
-            
-            String currency = car.getPreferredCurrency();
-            double price = car.getPrices().getOrDefault(currency, 0.0);
-            
-            xml.append("    <price currency=\"").append(currency).append("\">")
-               .append(String.format("%.2f", price)).append("</price>\n");
-            xml.append("    <releaseDate>").append(dateFormat.format(car.getReleaseDate())).append("</releaseDate>\n");
-            xml.append("  </car>\n");
+    public boolean isLastLoadDegraded() {
+        return lastLoadDegraded;
+    }
+    
+    /**
+     * Estimate the memory held by the dataset, its indexes and the result cache.
+     * The cars and indexes are measured once per data version; a live table at most
+     * once per second, scaled to its current size in between. The result cache and
+     * the last filter result are counted on every call.
+     * 
+     * @return footprint estimate
+     */
+    public HeapFootprint getFootprint() {
+        MemoryBudget budget = memoryBudget;
+        HeapFootprint dataset = measureDataset();
+        return dataset.with(dataset.getIndexBytes() + estimateLastFilterBytes(), resultCache.getUsedBytes(),
+                getOffHeapBytes(), budget == null ? 0 : budget.getMaxBytes());
+    }
+    
+    private HeapFootprint measureDataset() {
+        // Read the version first: the measurement then covers at least that much
+        long version = dataVersion.get();
+        LiveCarTable live = liveTable;
+        List<Car> source = cars;
+        Object owner = live != null ? live : source;
+        MeasuredDataset measured = measuredDataset;
+        if (measured != null && measured.owner == owner) {
+            if (measured.version == version) {
+                return measured.footprint;
+            }
+            if (live != null && System.nanoTime() - measured.nanos < DERIVED_REFRESH_NANOS) {
+                return measured.footprint.scaledTo(live.size());
+            }
         }
-        
-        xml.append("</cars>");
-        return xml.toString();
+        HeapFootprint footprint;
+        if (live != null) {
+            footprint = HeapFootprint.ofCars(live.snapshot());
+        } else if (source instanceof OffHeapCarStore.CarList) {
+            footprint = new HeapFootprint(source.size(), 0, 0, 0, 0, 0, 0, 0);
+        } else {
+            footprint = HeapFootprint.ofCars(source);
+        }
+        footprint = footprint.with(estimateIndexBytes(), 0, 0, 0);
+        measuredDataset = new MeasuredDataset(owner, version, System.nanoTime(), footprint);
+        return footprint;
+    }
+    
+    private long estimateLastFilterBytes() {
+        LastFilter last = lastFilter;
+        if (last == null) {
+            return 0;
+        }
+        return last.result != null ? HeapFootprint.ofArray(last.result.size(), HeapFootprint.REFERENCE)
+                : HeapFootprint.ofArray(last.rows.length, 4);
+    }
+    
+    private long estimateIndexBytes() {
+        long bytes = typeaheadIndex.estimateBytes();
+        CarColumns snapshot = columns;
+        if (snapshot != null) {
+            bytes += snapshot.estimateBytes();
+        }
+        MaterializedViews views = sortedViews;
+        if (views != null) {
+            bytes += views.estimateBytes();
+        }
+        LiveCarTable live = liveTable;
+        if (live != null) {
+            bytes += live.estimateIndexBytes();
+        }
+        return bytes;
     }
     
     /**
-     * Format car data as JSON string
+     * Reject an input file whose parse alone would exceed the memory budget. Only the
+     * file size is known up front, so compressed files are checked once parsed.
+     */
+    private void checkInput(Path path) throws IOException {
+        MemoryBudget budget = memoryBudget;
+        if (budget == null || !Files.isRegularFile(path) || CompressedInput.isCompressed(path)) {
+            return;
+        }
+        budget.check("Parsing " + path.getFileName(), Files.size(path) * MemoryBudget.PARSE_EXPANSION,
+                getFootprint().getHeapBytes());
+    }
+    
+    /**
+     * Check a parsed dataset against the memory budget before indexes are built and
+     * it is published. The current dataset stays reachable until the swap, so both
+     * count.
      * 
-     * @param carList list of cars to format
-     * @return JSON string
+     * @param merged parsed and deduplicated cars
+     * @return true to store the dataset off-heap
+     * @throws MemoryBudgetExceededException if the dataset does not fit and may not be degraded
      */
-    public String formatAsJson(List<Car> carList) {
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"cars\": [\n");
-        
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        
-        for (int i = 0; i < carList.size(); i++) {
-            Car car = carList.get(i);
-            String currency = car.getPreferredCurrency();
-            double price = car.getPrices().getOrDefault(currency, 0.0);
-            
-            json.append("    {\n");
-            json.append("      \"brand\": \"").append(car.getBrand()).append("\",\n");
-            json.append("      \"model\": \"").append(car.getModel()).append("\",\n");
-            json.append("      \"type\": \"").append(car.getType()).append("\",\n");
-            json.append("      \"price\": {\n");
-            json.append("        \"value\": ").append(String.format("%.2f", price)).append(",\n");
-            json.append("        \"currency\": \"").append(currency).append("\"\n");
-            json.append("      },\n");
-            json.append("      \"releaseDate\": \"").append(dateFormat.format(car.getReleaseDate())).append("\"\n");
-            json.append("    }").append(i < carList.size() - 1 ? "," : "").append("\n");
+    private boolean planLoad(List<Car> merged) {
+        MemoryBudget budget = memoryBudget;
+        if (budget == null || offHeapStorage) {
+            return offHeapStorage;
+        }
+        long used = getFootprint().getHeapBytes();
+        HeapFootprint loaded = HeapFootprint.ofCars(merged);
+        long required = loaded.getHeapBytes() + CarColumns.estimateBytes(merged);
+        if (budget.fits(required, used)) {
+            return false;
+        }
+        // Live cars stay on the heap, so a live dataset cannot be degraded
+        if (budget.getPolicy() == MemoryBudget.Policy.DEGRADE && liveKey == null) {
+            return true;
         }
+        budget.check("Loading " + merged.size() + " cars", required, used);
+        return false;
+    }
+    
+    /**
+     * Check the output of a query against the memory budget before it is formatted.
+     * Under DEGRADE the result cache is dropped first, as cached results can be recomputed.
+     * 
+     * @param rows number of cars to format
+     * @param outputFormat output format
+     * @throws MemoryBudgetExceededException if the output does not fit
+     */
+    private void checkQuery(int rows, String outputFormat) {
+        MemoryBudget budget = memoryBudget;
+        if (budget == null) {
+            return;
+        }
+        long required = HeapFootprint.estimateFormatted(rows, outputFormat);
+        long used = getFootprint().getHeapBytes();
+        if (!budget.fits(required, used) && budget.getPolicy() == MemoryBudget.Policy.DEGRADE) {
+            resultCache.clear();
+            lastFilter = null;
+            used = getFootprint().getHeapBytes();
+        }
+        budget.check("Formatting " + rows + " cars as " + outputFormat, required, used);
+    }
+    
+    /**
+     * Cars and index footprint of one dataset at one data version
+     */
+    private static final class MeasuredDataset {
+        final Object owner;
+        final long version;
+        final long nanos;
+        final HeapFootprint footprint;
         
-        json.append("  ]\n");
-        json.append("}\n");
-        return json.toString();
+        MeasuredDataset(Object owner, long version, long nanos, HeapFootprint footprint) {
+            this.owner = owner;
+            this.version = version;
+            this.nanos = nanos;
+            this.footprint = footprint;
+        }
+    }
+    
+    /**
+     * Swap in a loaded dataset, moving it off the heap when requested, and release the
+     * service's reference on the store of the previous dataset. Lists handed out by
+     * getCars keep their own reference, so the store is freed once they are done.
+     */
+    private void publish(List<Car> merged, boolean offHeap) {
+        CarEvents.ReloadSwap event = new CarEvents.ReloadSwap();
+        event.begin();
+        List<Car> previous = cars;
+        CarKey key = liveKey;
+        lastLoadDegraded = offHeap && !offHeapStorage && key == null;
+        if (key != null) {
+            liveTable = new LiveCarTable(key, merged);
+            derivedMutationCount = 0;
+            derivedBuiltNanos = System.nanoTime();
+            columns = null;
+            sortedViews = null;
+            cars = merged;
+        } else if (offHeap) {
+            columns = null;
+            sortedViews = null;
+            cars = OffHeapCarStore.of(merged).asList();
+        } else {
+            columns = CarColumns.of(merged);
+            sortedViews = new MaterializedViews(merged);
+            cars = merged;
+        }
+        if (previous instanceof OffHeapCarStore.CarList) {
+            ((OffHeapCarStore.CarList) previous).getStore().release();
+        }
+        event.end(dataVersion.get(), previous.size(), merged.size(), key != null ? "live" : offHeap ? "off-heap" : "heap");
+    }
+    
+    /**
+     * Take a reference on the store of the current dataset
+     * 
+     * @return retained store, or null when the cars are on the heap
+     */
+    private OffHeapCarStore acquireStore() {
+        if (liveTable != null) {
+            return null;
+        }
+        while (true) {
+            List<Car> source = cars;
+            if (!(source instanceof OffHeapCarStore.CarList)) {
+                return null;
+            }
+            OffHeapCarStore store = ((OffHeapCarStore.CarList) source).getStore();
+            if (store.retain()) {
+                return store;
+            }
+            // Freed by a concurrent load, which has already published its replacement
+        }
+    }
+    
+    private List<Car> deduplicate(List<Car> loaded) {
+        CarKey key = dedupKey;
+        if (key == null) {
+            lastDuplicateCount = 0;
+            return loaded;
+        }
+        CarDeduplicator deduplicator = new CarDeduplicator(key, mergePolicy, loaded.size());
+        deduplicator.addAll(loaded);
+        lastDuplicateCount = deduplicator.getDuplicateCount();
+        return new ArrayList<>(deduplicator.getCars());
+    }
+    
+    private ErrorBudget newErrorBudget() {
+        RejectSink sink = rejectSink;
+        return sink == null ? null : new ErrorBudget(sink, maxRejects);
+    }
+    
+    /**
+     * Load the model to brand catalog from CSV file
+     * 
+     * @param path catalog file with "Model,Brand" rows
+     * @param budget error budget for validating ingest, or null
+     * @return map from model to brand
+     * @throws Exception if loading fails
+     */
+    private Map<String, String> loadModelCatalog(String path, ErrorBudget budget) throws Exception {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        Map<String, String> catalog = new HashMap<>();
+        long rejects = 0;
+        
+        try (BufferedReader reader = CompressedInput.openReader(path)) {
+            String line;
+            long lineNumber = 0;
+            
+            while ((line = reader.readLine()) != null) {
+                if (++lineNumber == 1) {
+                    continue;
+                }
+                
+                line = line.replace("\"", "");
+                String[] parts = line.split(",");
+                
+                if (parts.length >= 2) {
+                    catalog.put(parts[0].trim(), parts[1].trim());
+                } else if (budget != null && !line.trim().isEmpty()) {
+                    rejects++;
+                    budget.reject(path, lineNumber, "expected model and brand", line);
+                }
+            }
+        }
+        event.end(path, "model catalog CSV", catalog.size(), rejects);
+        return catalog;
+    }
+    
+    /**
+     * Load brand release dates from CSV file
+     * 
+     * @param path brand CSV file
+     * @param budget error budget for validating ingest, or null
+     * @return map from brand to release date
+     * @throws Exception if loading fails
+     */
+    private Map<String, Date> loadCSVData(String path, ErrorBudget budget) throws Exception {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        Map<String, Date> releaseDates = new HashMap<>();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        long rejects = 0;
+        
+        try (BufferedReader reader = CompressedInput.openReader(path)) {
+            String line;
+            long lineNumber = 0;
+            
+            while ((line = reader.readLine()) != null) {
+                if (++lineNumber == 1) {
+                    continue;
+                }
+                
+                // Remove quotes and split by comma
+                line = line.replace("\"", "");
+                String[] parts = line.split(",");
+                
+                if (parts.length >= 2) {
+                    String brand = parts[0].trim();
+                    if (budget == null) {
+                        releaseDates.put(brand, dateFormat.parse(parts[1].trim()));
+                        continue;
+                    }
+                    Date releaseDate = FieldParsers.parseUsDate(parts[1].trim());
+                    if (releaseDate == null) {
+                        rejects++;
+                        budget.reject(path, lineNumber, "invalid release date '" + parts[1].trim() + "'", line);
+                    } else {
+                        releaseDates.put(brand, releaseDate);
+                    }
+                } else if (budget != null && !line.trim().isEmpty()) {
+                    rejects++;
+                    budget.reject(path, lineNumber, "expected brand and release date", line);
+                }
+            }
+        }
+        event.end(path, "brand CSV", releaseDates.size(), rejects);
+        return releaseDates;
+    }
+    
+    /**
+     * Stream car data from XML file and join each car with its brand release date
+     * 
+     * @param path car XML file
+     * @param catalogFuture model catalog being loaded concurrently
+     * @param datesFuture brand release dates being loaded concurrently
+     * @param budget error budget for validating ingest, or null
+     * @return list of cars in document order
+     * @throws Exception if loading fails
+     */
+    private List<Car> loadXMLData(String path, Future<Map<String, String>> catalogFuture,
+                                  Future<Map<String, Date>> datesFuture, ErrorBudget budget) throws Exception {
+        CarEvents.FileParse parseEvent = new CarEvents.FileParse();
+        parseEvent.begin();
+        List<Car> loaded = new ArrayList<>();
+        List<PendingCar> pending = new ArrayList<>();
+        long rejects = 0;
+        Map<String, String> catalog = null;
+        Map<String, Date> releaseDates = null;
+        
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        try (InputStream in = CompressedInput.open(Paths.get(path))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                String type = "";
+                String model = "";
+                Map<String, Double> prices = null;
+                boolean hasMainPrice = false;
+                boolean inPrices = false;
+                String rejectReason = null;
+                long carNumber = 0;
+                
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("car")) {
+                            type = "";
+                            model = "";
+                            prices = new HashMap<>();
+                            hasMainPrice = false;
+                            inPrices = false;
+                            rejectReason = null;
+                            carNumber++;
+                        } else if (prices == null) {
+                            continue;
+                        } else if (name.equals("type")) {
+                            type = reader.getElementText();
+                        } else if (name.equals("model")) {
+                            model = reader.getElementText();
+                        } else if (name.equals("prices")) {
+                            inPrices = true;
+                        } else if (name.equals("price")) {
+                            String currency = reader.getAttributeValue(null, "currency");
+                            String text = reader.getElementText().trim();
+                            double value;
+                            if (budget == null) {
+                                value = Double.parseDouble(text);
+                                currency = currency == null ? "" : currency;
+                            } else {
+                                value = FieldParsers.parseDouble(text);
+                                if (currency == null || currency.isEmpty()) {
+                                    rejectReason = "price without currency";
+                                } else if (Double.isNaN(value)) {
+                                    rejectReason = "invalid price '" + text + "'";
+                                }
+                            }
+                            if (rejectReason == null && (inPrices || !hasMainPrice)) {
+                                prices.put(currency, value);
+                                hasMainPrice |= !inPrices;
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("prices")) {
+                            inPrices = false;
+                        } else if (name.equals("car") && prices != null) {
+                            if (rejectReason == null && !hasMainPrice) {
+                                rejectReason = "missing price";
+                            }
+                            if (rejectReason != null) {
+                                if (budget == null) {
+                                    throw new Exception("Car " + model + " has no price");
+                                }
+                                rejects++;
+                                budget.reject(path, carNumber, rejectReason, "model=" + model + ", type=" + type);
+                                prices = null;
+                                continue;
+                            }
+                            
+                            // Probe as soon as both build sides are available
+                            if (releaseDates == null && catalogFuture.isDone() && datesFuture.isDone()) {
+                                catalog = await(catalogFuture);
+                                releaseDates = await(datesFuture);
+                            }
+                            if (releaseDates != null) {
+                                loaded.add(joinCar(model, type, prices, catalog, releaseDates));
+                            } else {
+                                pending.add(new PendingCar(loaded.size(), model, type, prices));
+                                loaded.add(null);
+                            }
+                            prices = null;
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        
+        // Join cars that were parsed before the build side finished
+        if (!pending.isEmpty()) {
+            catalog = await(catalogFuture);
+            releaseDates = await(datesFuture);
+            for (PendingCar car : pending) {
+                loaded.set(car.index, joinCar(car.model, car.type, car.prices, catalog, releaseDates));
+            }
+        }
+        parseEvent.end(path, "car XML", loaded.size(), rejects);
+        return loaded;
+    }
+    
+    private static Car joinCar(String model, String type, Map<String, Double> prices,
+                               Map<String, String> catalog, Map<String, Date> releaseDates) {
+        String brand = catalog.getOrDefault(model, "Unknown");
+        Car car = new Car(brand, model, type, prices);
+        car.setReleaseDate(releaseDates.getOrDefault(brand, new Date()));
+        return car;
+    }
+    
+    /**
+     * Car parsed before the join inputs were ready, with its slot in the result list
+     */
+    private static final class PendingCar {
+        final int index;
+        final String model;
+        final String type;
+        final Map<String, Double> prices;
+        
+        PendingCar(int index, String model, String type, Map<String, Double> prices) {
+            this.index = index;
+            this.model = model;
+            this.type = type;
+            this.prices = prices;
+        }
+    }
+    
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Filter cars based on criteria.
+     * When the filter only narrows the previous one on the same data, for example
+     * a higher minimum price for the same brand, the previous result is filtered
+     * instead of the whole dataset.
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @return filtered list of cars
+     * @throws ParseException if date parsing fails
+     */
+    public List<Car> filterCars(String filterType, String filterValue, String brandValue, String dateStr) throws ParseException {
+        CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+        QueryProfile profile = QueryProfile.current();
+        CarEvents.Filter event = new CarEvents.Filter();
+        event.begin();
+        profile.begin(QueryProfile.Stage.FILTER);
+        try {
+            return filterDataset(filter, profile, event);
+        } finally {
+            profile.end(QueryProfile.Stage.FILTER);
+        }
+    }
+    
+    /**
+     * Filter the current dataset, ending the event with the version and size of the
+     * snapshot that was actually scanned
+     */
+    private List<Car> filterDataset(CarFilter filter, QueryProfile profile, CarEvents.Filter event) {
+        long version = dataVersion.get();
+        LiveCarTable live = liveTable;
+        if (live != null) {
+            int size = live.size();
+            List<Car> result = live.filter(filter);
+            event.end(filter, version, size, result.size());
+            return result;
+        }
+        OffHeapCarStore store = acquireStore();
+        if (store != null) {
+            try {
+                List<Car> result = store.toCars(filterRows(store, filter, version));
+                event.end(filter, version, store.size(), result.size());
+                return result;
+            } finally {
+                store.release();
+            }
+        }
+        
+        List<Car> source = cars;
+        int size = source.size();
+        if (filter.isEmpty()) {
+            profile.scan(QueryProfile.Strategy.FULL_COPY, size, size);
+            event.end(filter, version, size, size);
+            return new ArrayList<>(source);
+        }
+        
+        LastFilter last = lastFilter;
+        CarColumns snapshot = columns;
+        List<Car> filteredCars;
+        QueryProfile.Strategy strategy;
+        if (last != null && last.result != null && last.version == version && filter.isRefinementOf(last.filter)) {
+            source = last.result;
+            refinedQueries.incrementAndGet();
+            filteredCars = scan(source, filter);
+            strategy = QueryProfile.Strategy.REFINED_SCAN;
+        } else if (snapshot != null && snapshot.getCars() == source) {
+            // Full scans run as block predicates over the column snapshot
+            filteredCars = snapshot.toList(snapshot.select(filter));
+            strategy = QueryProfile.Strategy.COLUMN_SCAN;
+        } else {
+            filteredCars = scan(source, filter);
+            strategy = QueryProfile.Strategy.ROW_SCAN;
+        }
+        profile.scan(strategy, source.size(), filteredCars.size());
+        lastFilter = new LastFilter(filter, version, Collections.unmodifiableList(new ArrayList<>(filteredCars)), null, null);
+        event.end(filter, version, size, filteredCars.size());
+        return filteredCars;
+    }
+    
+    /**
+     * Walk a materialized sort order for the cars passing a filter, recorded as a
+     * filter like a scan would be
+     * 
+     * @param view sort order of the dataset
+     * @param filter filter to apply
+     * @param version data version read before the view was taken
+     * @param offset number of matching cars to skip
+     * @param limit maximum number of cars
+     * @return new list in sort order
+     */
+    private static List<Car> pageView(SortedCarView view, CarFilter filter, long version, int offset, int limit) {
+        CarEvents.Filter event = new CarEvents.Filter();
+        event.begin();
+        List<Car> page = view.page(filter, offset, limit);
+        event.end(filter, version, view.size(), page.size());
+        return page;
+    }
+    
+    private static List<Car> scan(List<Car> source, CarFilter filter) {
+        List<Car> filteredCars = new ArrayList<>();
+        for (Car car : source) {
+            if (filter.matches(car)) {
+                filteredCars.add(car);
+            }
+        }
+        return filteredCars;
+    }
+    
+    /**
+     * Filter the rows of an off-heap store, refining the previous row ids when possible
+     * 
+     * @param store retained store of the current dataset
+     * @param filter filter to apply
+     * @param version data version the filter runs against
+     * @return matching row ids in row order
+     */
+    private int[] filterRows(OffHeapCarStore store, CarFilter filter, long version) {
+        QueryProfile profile = QueryProfile.current();
+        if (filter.isEmpty()) {
+            profile.scan(QueryProfile.Strategy.FULL_COPY, store.size(), store.size());
+            return store.filter(filter, null);
+        }
+        
+        LastFilter last = lastFilter;
+        int[] candidates = null;
+        if (last != null && last.store == store && last.version == version && filter.isRefinementOf(last.filter)) {
+            candidates = last.rows;
+            refinedQueries.incrementAndGet();
+        }
+        int[] rows = store.filter(filter, candidates);
+        profile.scan(candidates == null ? QueryProfile.Strategy.OFF_HEAP_SCAN : QueryProfile.Strategy.OFF_HEAP_REFINED,
+                candidates == null ? store.size() : candidates.length, rows.length);
+        lastFilter = new LastFilter(filter, version, null, store, rows);
+        return rows;
+    }
+    
+    /**
+     * Get the number of filter calls answered from the previous result
+     * 
+     * @return refinement count since the service was created
+     */
+    public long getRefinedQueryCount() {
+        return refinedQueries.get();
+    }
+    
+    /**
+     * Most recent non-empty filter with its result, tied to the data version it saw.
+     * Heap datasets keep the matching cars, off-heap ones the matching row ids.
+     */
+    private static final class LastFilter {
+        final CarFilter filter;
+        final long version;
+        final List<Car> result;
+        final OffHeapCarStore store;
+        final int[] rows;
+        
+        LastFilter(CarFilter filter, long version, List<Car> result, OffHeapCarStore store, int[] rows) {
+            this.filter = filter;
+            this.version = version;
+            this.result = result;
+            this.store = store;
+            this.rows = rows;
+        }
+    }
+    
+    /**
+     * Sort cars by specified criteria
+     * 
+     * @param carList list of cars to sort
+     * @param sortType type of sorting to apply
+     */
+    public void sortCars(List<Car> carList, String sortType) {
+        Comparator<Car> comparator = sortComparator(sortType);
+        if (comparator != null) {
+            CarEvents.Sort event = new CarEvents.Sort();
+            event.begin();
+            carList.sort(comparator);
+            event.end(sortType, carList.size());
+        }
+    }
+    
+    /**
+     * Get the comparator behind a sort type
+     * 
+     * @param sortType type of sorting
+     * @return comparator, or null when the sort type keeps the current order
+     */
+    static Comparator<Car> sortComparator(String sortType) {
+        if ("Latest to Oldest".equals(sortType)) {
+            return (car1, car2) -> car2.getReleaseDate().compareTo(car1.getReleaseDate());
+        } else if ("Highest Price to Lowest".equals(sortType)) {
+            return (car1, car2) -> Double.compare(maxPrice(car2), maxPrice(car1));
+        }
+        return null;
+    }
+    
+    private static double maxPrice(Car car) {
+        if (car.getPrices().isEmpty()) {
+            return 0;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (double price : car.getPrices().values()) {
+            max = Math.max(max, price);
+        }
+        return max;
+    }
+    
+    /**
+     * Return the first k cars of a query without sorting the whole filtered result.
+     * Walks a materialized sort order when the query has one and no brand filter;
+     * otherwise uses a bounded heap, or the full result with the currency view.
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @param k maximum number of cars to return
+     * @return at most k cars in query order
+     * @throws ParseException if a filter value cannot be parsed
+     */
+    public List<Car> queryTopK(String filterType, String filterValue, String brandValue, String dateStr,
+                               String sortType, boolean currencyFilter, int k) throws ParseException {
+        String key = queryKey(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+        List<Car> cached = resultCache.getRows(key, dataVersion.get());
+        if (cached != null) {
+            return new ArrayList<>(cached.subList(0, Math.min(k, cached.size())));
+        }
+        
+        // A materialized sort order yields the first k matches without sorting anything
+        CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+        long version = dataVersion.get();
+        SortedCarView view = sortedView(filter, sortType, currencyFilter);
+        if (view != null) {
+            List<Car> page = pageView(view, filter, version, 0, k);
+            if (currencyFilter) {
+                setViewCurrencies(page);
+            }
+            return page;
+        }
+        if (currencyFilter) {
+            List<Car> result = queryCars(filterType, filterValue, brandValue, dateStr, sortType, true);
+            return new ArrayList<>(result.subList(0, Math.min(k, result.size())));
+        }
+        
+        List<Car> filtered = filterCars(filterType, filterValue, brandValue, dateStr);
+        Comparator<Car> comparator = sortComparator(sortType);
+        if (comparator == null || filtered.size() <= k) {
+            sortCars(filtered, sortType);
+            return new ArrayList<>(filtered.subList(0, Math.min(k, filtered.size())));
+        }
+        return topK(filtered, comparator, k);
+    }
+    
+    /**
+     * Return one page of a query, walking a materialized sort order when there is one,
+     * so that pages of an unfiltered query cost their own length plus O(log n)
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @param offset number of cars to skip
+     * @param limit maximum number of cars to return
+     * @return at most limit cars in query order
+     * @throws ParseException if a filter value cannot be parsed
+     */
+    public List<Car> getSortedPage(String filterType, String filterValue, String brandValue, String dateStr,
+                                   String sortType, boolean currencyFilter, int offset, int limit)
+            throws ParseException {
+        CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+        long version = dataVersion.get();
+        SortedCarView view = sortedView(filter, sortType, currencyFilter);
+        if (view == null) {
+            List<Car> result = queryCars(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+            int from = Math.min(Math.max(offset, 0), result.size());
+            return new ArrayList<>(result.subList(from, (int) Math.min(result.size(), (long) from + limit)));
+        }
+        List<Car> page = pageView(view, filter, version, offset, limit);
+        if (currencyFilter) {
+            setViewCurrencies(page);
+        }
+        return page;
+    }
+    
+    /**
+     * Get the materialized sort order a query can walk instead of sorting
+     * 
+     * @param filter parsed filter; brand filters are narrowed by an index and sorted instead
+     * @param sortType type of sorting
+     * @param currencyFilter whether the result is grouped by type
+     * @return view, or null when the query should be filtered and sorted
+     */
+    private SortedCarView sortedView(CarFilter filter, String sortType, boolean currencyFilter) {
+        SortedCarView.Ordering ordering = SortedCarView.Ordering.of(sortType, currencyFilter);
+        if (ordering == null || filter.getBrand() != null) {
+            return null;
+        }
+        LiveCarTable live = liveTable;
+        if (live != null) {
+            return live.view(ordering);
+        }
+        MaterializedViews views = sortedViews;
+        return views == null ? null : views.get(ordering);
+    }
+    
+    /**
+     * Sort orders of one published heap dataset, each built on first use
+     */
+    private static final class MaterializedViews {
+        final List<Car> cars;
+        final AtomicReferenceArray<SortedCarView> views =
+                new AtomicReferenceArray<>(SortedCarView.Ordering.values().length);
+        
+        MaterializedViews(List<Car> cars) {
+            this.cars = cars;
+        }
+        
+        SortedCarView get(SortedCarView.Ordering ordering) {
+            SortedCarView view = views.get(ordering.ordinal());
+            if (view == null) {
+                synchronized (this) {
+                    view = views.get(ordering.ordinal());
+                    if (view == null) {
+                        view = SortedCarView.build(ordering, cars);
+                        views.set(ordering.ordinal(), view);
+                    }
+                }
+            }
+            return view;
+        }
+        
+        long estimateBytes() {
+            long bytes = 0;
+            for (int i = 0; i < views.length(); i++) {
+                SortedCarView view = views.get(i);
+                bytes += view == null ? 0 : view.estimateBytes();
+            }
+            return bytes;
+        }
+    }
+    
+    /**
+     * Select the k smallest cars under a comparator, keeping the stable order of ties
+     */
+    private static List<Car> topK(List<Car> carList, Comparator<Car> comparator, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        // Max-heap of indexes: the root is the worst of the current top k
+        Comparator<Integer> order = (i, j) -> {
+            int result = comparator.compare(carList.get(i), carList.get(j));
+            return result != 0 ? result : Integer.compare(i, j);
+        };
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k, order.reversed());
+        for (int i = 0; i < carList.size(); i++) {
+            if (heap.size() < k) {
+                heap.add(i);
+            } else if (order.compare(i, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        
+        List<Integer> indexes = new ArrayList<>(heap);
+        indexes.sort(order);
+        List<Car> result = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            result.add(carList.get(index));
+        }
+        return result;
+    }
+    
+    /**
+     * Apply currency filter based on car type. The cars in the list are replaced by
+     * copies shown in the view currency; the cars themselves are not changed, as they
+     * are shared with the dataset, cached results and concurrent queries.
+     * 
+     * @param carList list of cars to filter
+     */
+    public void applyCurrencyFilter(List<Car> carList) {
+        // First show each car in the currency of its type
+        setViewCurrencies(carList);
+        
+        // Sort the list by car type (SUV, Sedan, Truck)
+        CarEvents.Sort event = new CarEvents.Sort();
+        event.begin();
+        carList.sort((car1, car2) -> {
+            // First sort by type
+            String type1 = car1.getType().toLowerCase();
+            String type2 = car2.getType().toLowerCase();
+            
+            // Define type order: SUV, Sedan, Truck
+            int typeOrder1 = getTypeOrder(type1);
+            int typeOrder2 = getTypeOrder(type2);
+            
+            return Integer.compare(typeOrder1, typeOrder2);
+        });
+        event.end("Currency view", carList.size());
+    }
+    
+    /**
+     * Replace each car of a result list by a copy shown in the currency of its type
+     * 
+     * @param carList result list, updated in place
+     */
+    private static void setViewCurrencies(List<Car> carList) {
+        for (int i = 0; i < carList.size(); i++) {
+            Car car = carList.get(i);
+            carList.set(i, car.withPreferredCurrency(currencyForType(car.getType())));
+        }
+    }
+    
+    /**
+     * Get the currencies the currency view shows the rows of an off-heap store in
+     * 
+     * @param store retained store of the current dataset
+     * @param currencyFilter whether the query uses the currency view
+     * @return view for OffHeapCarStore.views and toCars, or null for the stored currencies
+     */
+    private static int[] currencyView(OffHeapCarStore store, boolean currencyFilter) {
+        return currencyFilter ? store.currencyView(CarDataService::currencyForType) : null;
+    }
+    
+    /**
+     * Currency view for the rows of an off-heap store: regroup the rows by type like
+     * applyCurrencyFilter. The currencies are chosen per query with currencyView, as
+     * the rows are shared with concurrent queries.
+     * 
+     * @param store retained store of the current dataset
+     * @param rows row ids, regrouped in place
+     */
+    private void applyCurrencyFilter(OffHeapCarStore store, int[] rows) {
+        CarEvents.Sort event = new CarEvents.Sort();
+        event.begin();
+        store.sortByType(rows, TYPE_ORDER);
+        event.end("Currency view", rows.length);
+    }
+    
+    /**
+     * Get the currency the currency view shows a car type in
+     * 
+     * @param type car type
+     * @return currency code, or null to keep the preferred currency
+     */
+    private static String currencyForType(String type) {
+        if (type.equalsIgnoreCase("SUV")) {
+            return "EUR";
+        } else if (type.equalsIgnoreCase("Sedan")) {
+            return "JPY";
+        } else if (type.equalsIgnoreCase("Truck")) {
+            return "USD";
+        }
+        return null;
+    }
+    
+    /**
+     * Helper method to determine type order for sorting
+     * 
+     * @param type car type
+     * @return order value
+     */
+    static int getTypeOrder(String type) {
+        if (type.equals("suv")) {
+            return 1; // SUV first (EUR)
+        } else if (type.equals("sedan")) {
+            return 2; // Sedan second (JPY)
+        } else if (type.equals("truck")) {
+            return 3; // Truck third (USD)
+        } else {
+            return 4; // Other types last
+        }
+    }
+    
+    /**
+     * Run a filter, sort and optional currency view, reusing a cached result when
+     * the same normalized query was answered against the current data
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @return resulting list of cars
+     * @throws ParseException if a filter value cannot be parsed
+     */
+    public List<Car> queryCars(String filterType, String filterValue, String brandValue, String dateStr,
+                               String sortType, boolean currencyFilter) throws ParseException {
+        String key = queryKey(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+        QueryProfile profile = sampleProfile(key);
+        try {
+            return runQueryCars(key, filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+        } finally {
+            finishProfile(profile);
+        }
+    }
+    
+    private List<Car> runQueryCars(String key, String filterType, String filterValue, String brandValue,
+                                   String dateStr, String sortType, boolean currencyFilter) throws ParseException {
+        QueryProfile profile = QueryProfile.current();
+        long version = dataVersion.get();
+        List<Car> cached = resultCache.getRows(key, version);
+        if (cached != null) {
+            profile.rowCacheHit(cached.size());
+            return cached;
+        }
+        
+        List<Car> result;
+        OffHeapCarStore store = acquireStore();
+        if (store != null) {
+            try {
+                result = store.toCars(queryRows(store, filterType, filterValue, brandValue, dateStr,
+                        sortType, currencyFilter, version), currencyView(store, currencyFilter));
+            } finally {
+                store.release();
+            }
+        } else {
+            CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+            SortedCarView view = sortedView(filter, sortType, currencyFilter);
+            if (view != null) {
+                // Already in final order, type groups included
+                profile.begin(QueryProfile.Stage.FILTER);
+                try {
+                    result = pageView(view, filter, version, 0, Integer.MAX_VALUE);
+                } finally {
+                    profile.end(QueryProfile.Stage.FILTER);
+                }
+                profile.scan(QueryProfile.Strategy.SORTED_VIEW, view.size(), result.size());
+                if (currencyFilter) {
+                    profile.begin(QueryProfile.Stage.CURRENCY_VIEW);
+                    setViewCurrencies(result);
+                    profile.end(QueryProfile.Stage.CURRENCY_VIEW);
+                }
+            } else {
+                result = filterCars(filterType, filterValue, brandValue, dateStr);
+                profile.begin(QueryProfile.Stage.SORT);
+                sortCars(result, sortType);
+                profile.end(QueryProfile.Stage.SORT);
+                if (currencyFilter) {
+                    profile.begin(QueryProfile.Stage.CURRENCY_VIEW);
+                    applyCurrencyFilter(result);
+                    profile.end(QueryProfile.Stage.CURRENCY_VIEW);
+                }
+            }
+        }
+        profile.returned(result.size());
+        
+        // Only cache when nothing changed the data meanwhile
+        if (dataVersion.get() == version) {
+            resultCache.putRows(key, version, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Run a query and format the result, reusing cached output when possible
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @return formatted result
+     * @throws ParseException if a filter value cannot be parsed
+     */
+    public String queryFormatted(String filterType, String filterValue, String brandValue, String dateStr,
+                                 String sortType, boolean currencyFilter, String outputFormat) throws ParseException {
+        String key = queryKey(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter)
+                + "|" + outputFormat;
+        QueryProfile profile = sampleProfile(key);
+        try {
+            return runQueryFormatted(key, filterType, filterValue, brandValue, dateStr, sortType, currencyFilter,
+                    outputFormat);
+        } finally {
+            finishProfile(profile);
+        }
+    }
+    
+    /**
+     * Run a query like queryFormatted and report how it was executed. The query runs as
+     * it normally would, result cache included, so the profile shows what callers get.
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @return profile of the query, holding the formatted result
+     * @throws ParseException if a filter value cannot be parsed
+     */
+    public QueryProfile explainQuery(String filterType, String filterValue, String brandValue, String dateStr,
+                                     String sortType, boolean currencyFilter, String outputFormat)
+            throws ParseException {
+        String key = queryKey(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter)
+                + "|" + outputFormat;
+        QueryProfile profile = QueryProfile.start(key);
+        if (profile == null) {
+            throw new IllegalStateException("A query is already being profiled on this thread");
+        }
+        try {
+            profile.output(runQueryFormatted(key, filterType, filterValue, brandValue, dateStr, sortType,
+                    currencyFilter, outputFormat));
+        } finally {
+            profile.finish();
+        }
+        return profile;
+    }
+    
+    /**
+     * Profile a fraction of queryCars and queryFormatted calls, handing the slow ones to a log
+     * 
+     * @param sampleRate fraction of queries to profile, 0 to turn profiling off and 1 for all
+     * @param slowQueryMillis profiled queries taking at least this long are logged
+     * @param slowQueryLog receives slow profiles on the query thread, e.g. p -&gt; LOG.warning(p.summary())
+     */
+    public void setQueryProfiling(double sampleRate, long slowQueryMillis, Consumer<QueryProfile> slowQueryLog) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        this.slowQueryLog = slowQueryLog;
+        this.profileSampleRate = sampleRate;
+    }
+    
+    /**
+     * Start profiling a query if it is sampled and no outer query is profiled already
+     * 
+     * @return profile to finish, or null
+     */
+    private QueryProfile sampleProfile(String key) {
+        double rate = profileSampleRate;
+        if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return null;
+        }
+        return QueryProfile.start(key);
+    }
+    
+    private void finishProfile(QueryProfile profile) {
+        if (profile == null) {
+            return;
+        }
+        profile.finish();
+        Consumer<QueryProfile> log = slowQueryLog;
+        if (log != null && profile.getTotalNanos() >= slowQueryNanos) {
+            log.accept(profile);
+        }
+    }
+    
+    private String runQueryFormatted(String key, String filterType, String filterValue, String brandValue,
+                                     String dateStr, String sortType, boolean currencyFilter, String outputFormat)
+            throws ParseException {
+        QueryProfile profile = QueryProfile.current();
+        long version = dataVersion.get();
+        String cached = resultCache.getFormatted(key, version);
+        if (cached != null) {
+            profile.outputCacheHit();
+            return cached;
+        }
+        
+        String output;
+        OffHeapCarStore store = acquireStore();
+        if (store != null) {
+            // Formatted straight from the rows through a flyweight, no Car is created
+            try {
+                int[] rows = queryRows(store, filterType, filterValue, brandValue, dateStr,
+                        sortType, currencyFilter, version);
+                profile.returned(rows.length);
+                checkQuery(rows.length, outputFormat);
+                profile.begin(QueryProfile.Stage.FORMAT);
+                output = format(store.views(rows, currencyView(store, currencyFilter)), outputFormat);
+                profile.end(QueryProfile.Stage.FORMAT);
+            } finally {
+                store.release();
+            }
+        } else {
+            List<Car> result = queryCars(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+            checkQuery(result.size(), outputFormat);
+            profile.begin(QueryProfile.Stage.FORMAT);
+            output = format(result, outputFormat);
+            profile.end(QueryProfile.Stage.FORMAT);
+        }
+        
+        if (dataVersion.get() == version) {
+            resultCache.putFormatted(key, version, output);
+        }
+        return output;
+    }
+    
+    /**
+     * Run a query and write the result to a file, formatting chunks of it in parallel.
+     * Unlike queryFormatted, the output never exists as a whole in memory, so the
+     * memory budget does not apply to it.
+     * 
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @param exporter exporter whose threads format the chunks
+     * @param target file to write
+     * @return bytes written
+     * @throws ParseException if a filter value cannot be parsed
+     * @throws IOException if writing fails
+     */
+    public long exportQuery(String filterType, String filterValue, String brandValue, String dateStr,
+                            String sortType, boolean currencyFilter, String outputFormat,
+                            ParallelExporter exporter, Path target) throws ParseException, IOException {
+        OffHeapCarStore store = acquireStore();
+        if (store == null) {
+            List<Car> result = queryCars(filterType, filterValue, brandValue, dateStr, sortType, currencyFilter);
+            return exporter.export(result, outputFormat, target);
+        }
+        try {
+            int[] rows = queryRows(store, filterType, filterValue, brandValue, dateStr,
+                    sortType, currencyFilter, dataVersion.get());
+            // Each chunk gets its own flyweight, as chunks are formatted concurrently
+            int[] view = currencyView(store, currencyFilter);
+            return exporter.export(rows.length, (from, to) -> store.views(Arrays.copyOfRange(rows, from, to), view),
+                    outputFormat, target);
+        } finally {
+            store.release();
+        }
+    }
+    
+    /**
+     * Run a filter, sort and optional currency view over the rows of an off-heap store
+     * 
+     * @param store retained store of the current dataset
+     * @param version data version the query runs against
+     * @return row ids in query order
+     * @throws ParseException if a filter value cannot be parsed
+     */
+    private int[] queryRows(OffHeapCarStore store, String filterType, String filterValue, String brandValue,
+                            String dateStr, String sortType, boolean currencyFilter, long version)
+            throws ParseException {
+        QueryProfile profile = QueryProfile.current();
+        CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+        profile.begin(QueryProfile.Stage.FILTER);
+        CarEvents.Filter filterEvent = new CarEvents.Filter();
+        filterEvent.begin();
+        int[] rows = filterRows(store, filter, version);
+        filterEvent.end(filter, version, store.size(), rows.length);
+        profile.end(QueryProfile.Stage.FILTER);
+        profile.begin(QueryProfile.Stage.SORT);
+        CarEvents.Sort event = new CarEvents.Sort();
+        event.begin();
+        if ("Latest to Oldest".equals(sortType)) {
+            store.sortByReleaseDate(rows);
+        } else if ("Highest Price to Lowest".equals(sortType)) {
+            store.sortByMaxPrice(rows);
+        }
+        event.end(sortType, rows.length);
+        profile.end(QueryProfile.Stage.SORT);
+        if (currencyFilter) {
+            profile.begin(QueryProfile.Stage.CURRENCY_VIEW);
+            applyCurrencyFilter(store, rows);
+            profile.end(QueryProfile.Stage.CURRENCY_VIEW);
+        }
+        return rows;
+    }
+    
+    /**
+     * Format cars in the named output format
+     * 
+     * @param carList list of cars to format
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @return formatted string
+     */
+    public String format(List<? extends CarView> carList, String outputFormat) {
+        CarEvents.Format event = new CarEvents.Format();
+        event.begin();
+        String output;
+        if ("XML".equals(outputFormat)) {
+            output = formatAsXml(carList);
+        } else if ("JSON".equals(outputFormat)) {
+            output = formatAsJson(carList);
+        } else if ("NDJSON".equals(outputFormat)) {
+            output = formatAsJsonLines(carList);
+        } else if ("Table".equals(outputFormat)) {
+            output = formatAsTable(carList);
+        } else {
+            throw new IllegalArgumentException("Unsupported output format: " + outputFormat);
+        }
+        event.end(outputFormat, carList.size(), output.length());
+        return output;
+    }
+    
+    /**
+     * Build a cache key in which equivalent queries collapse to the same string. The key
+     * is derived from the parsed filter, so it normalizes values exactly as filtering does:
+     * brands compare case-insensitively, values are trimmed, values a filter ignores are
+     * dropped, and filters that would return everything are treated as "None".
+     */
+    private String queryKey(String filterType, String filterValue, String brandValue, String dateStr,
+                            String sortType, boolean currencyFilter) throws ParseException {
+        String filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr).key();
+        String sort = sortType == null ? "None" : sortType;
+        return filter + "|" + sort + "|" + (currencyFilter ? "currency" : "native");
+    }
+    
+    /**
+     * Get the query result cache, mainly for hit/miss statistics
+     * 
+     * @return result cache
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+    
+    /**
+     * Get the brand and model search index of the current dataset
+     * 
+     * @return index rebuilt on every load
+     */
+    public TypeaheadIndex getTypeaheadIndex() {
+        refreshDerived();
+        return typeaheadIndex;
+    }
+    
+    /**
+     * Suggest brands and models for text typed so far, tolerating small typos
+     * 
+     * @param text prefix or misspelled name
+     * @param limit maximum number of suggestions
+     * @return suggestions, prefix matches first, each with its number of cars
+     */
+    public List<TypeaheadIndex.Suggestion> suggest(String text, int limit) {
+        refreshDerived();
+        return typeaheadIndex.suggest(text, null, limit);
+    }
+    
+    /**
+     * Get streaming statistics of the current dataset: price percentiles per currency
+     * and brand, distinct model counts and the most frequent brands
+     * 
+     * @return statistics rebuilt on every load
+     */
+    public PriceStatistics getPriceStatistics() {
+        refreshDerived();
+        return priceStatistics;
+    }
+    
+    /**
+     * Get the current dataset version
+     * 
+     * @return version, incremented on every load or currency view change
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+    
+    /**
+     * Get the list of cars
+     * 
+     * @return list of cars; with off-heap storage a read-only list that creates
+     *         a new Car on every get and keeps its dataset readable after a reload
+     *         until it is closed or unreachable, with live updates a copy of the current cars
+     */
+    public List<Car> getCars() {
+        LiveCarTable live = liveTable;
+        if (live != null) {
+            return live.snapshot();
+        }
+        while (true) {
+            List<Car> source = cars;
+            if (!(source instanceof OffHeapCarStore.CarList)) {
+                return source;
+            }
+            OffHeapCarStore.CarList retained = ((OffHeapCarStore.CarList) source).getStore().retainList();
+            if (retained != null) {
+                return retained;
+            }
+            // Freed by a concurrent load, which has already published its replacement
+        }
+    }
+    
+    /**
+     * Format car data as a plain text table
+     * 
+     * @param carList list of cars to format
+     * @return table string
+     */
+    public String formatAsTable(List<? extends CarView> carList) {
+        return formatWhole(carList, "Table");
+    }
+    
+    /**
+     * Format car data as XML string
+     * 
+     * @param carList list of cars to format
+     * @return XML string
+     */
+    public String formatAsXml(List<? extends CarView> carList) {
+        return formatWhole(carList, "XML");
+    }
+    
+    /**
+     * Format car data as JSON string
+     * 
+     * @param carList list of cars to format
+     * @return JSON string
+     */
+    public String formatAsJson(List<? extends CarView> carList) {
+        return formatWhole(carList, "JSON");
+    }
+    
+    private static String formatWhole(List<? extends CarView> carList, String outputFormat) {
+        StringBuilder sb = new StringBuilder();
+        appendHeader(sb, outputFormat);
+        appendCars(sb, carList, outputFormat, true);
+        appendFooter(sb, outputFormat);
+        return sb.toString();
+    }
+    
+    /**
+     * Append what a format writes before the first car
+     * 
+     * @param sb destination
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     */
+    static void appendHeader(StringBuilder sb, String outputFormat) {
+        if ("XML".equals(outputFormat)) {
+            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            sb.append("<cars>\n");
+        } else if ("JSON".equals(outputFormat)) {
+            sb.append("{\n");
+            sb.append("  \"cars\": [\n");
+        } else if ("Table".equals(outputFormat)) {
+            sb.append(String.format("%-15s %-12s %-8s %12s %-8s %-12s%n",
+                    "Brand", "Model", "Type", "Price", "Currency", "Release Date"));
+            sb.append("-----------------------------------------------------------------------\n");
+        } else if (!"NDJSON".equals(outputFormat)) {
+            throw new IllegalArgumentException("Unsupported output format: " + outputFormat);
+        }
+    }
+    
+    /**
+     * Append a contiguous run of cars. Consecutive runs appended in order produce the
+     * same text as appending all cars at once.
+     * 
+     * @param sb destination
+     * @param carList cars to append
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @param endsResult true if no cars follow this run, so JSON leaves out the last separator
+     */
+    static void appendCars(StringBuilder sb, List<? extends CarView> carList, String outputFormat, boolean endsResult) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        if ("NDJSON".equals(outputFormat)) {
+            Calendar calendar = new GregorianCalendar();
+            for (CarView car : carList) {
+                CarJsonLines.appendCar(sb, car, calendar);
+            }
+        } else if ("Table".equals(outputFormat)) {
+            for (CarView car : carList) {
+                String currency = car.getPreferredCurrency();
+                double price = car.getPrice();
+                sb.append(String.format("%-15s %-12s %-8s %12.2f %-8s %-12s%n",
+                        car.getBrand(), car.getModel(), car.getType(), price, currency,
+                        dateFormat.format(car.getReleaseDate())));
+            }
+        } else if ("XML".equals(outputFormat)) {
+            for (CarView car : carList) {
+                sb.append("  <car>\n");
+                sb.append("    <brand>").append(car.getBrand()).append("</brand>\n");
+                sb.append("    <model>").append(car.getModel()).append("</model>\n");
+                sb.append("    <type>").append(car.getType()).append("</type>\n");
+                
+                String currency = car.getPreferredCurrency();
+                double price = car.getPrice();
+                
+                sb.append("    <price currency=\"").append(currency).append("\">")
+                  .append(String.format("%.2f", price)).append("</price>\n");
+                sb.append("    <releaseDate>").append(dateFormat.format(car.getReleaseDate())).append("</releaseDate>\n");
+                sb.append("  </car>\n");
+            }
+        } else if ("JSON".equals(outputFormat)) {
+            for (int i = 0; i < carList.size(); i++) {
+                CarView car = carList.get(i);
+                String currency = car.getPreferredCurrency();
+                double price = car.getPrice();
+                
+                sb.append("    {\n");
+                sb.append("      \"brand\": \"").append(CarJsonLines.escape(car.getBrand())).append("\",\n");
+                sb.append("      \"model\": \"").append(CarJsonLines.escape(car.getModel())).append("\",\n");
+                sb.append("      \"type\": \"").append(CarJsonLines.escape(car.getType())).append("\",\n");
+                sb.append("      \"price\": {\n");
+                sb.append("        \"value\": ").append(Double.isFinite(price) ? String.format("%.2f", price) : "null")
+                  .append(",\n");
+                sb.append("        \"currency\": \"").append(CarJsonLines.escape(currency)).append("\"\n");
+                sb.append("      },\n");
+                sb.append("      \"releaseDate\": \"").append(dateFormat.format(car.getReleaseDate())).append("\"\n");
+                sb.append("    }").append(endsResult && i == carList.size() - 1 ? "" : ",").append("\n");
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported output format: " + outputFormat);
+        }
+    }
+    
+    /**
+     * Append what a format writes after the last car
+     * 
+     * @param sb destination
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     */
+    static void appendFooter(StringBuilder sb, String outputFormat) {
+        if ("XML".equals(outputFormat)) {
+            sb.append("</cars>");
+        } else if ("JSON".equals(outputFormat)) {
+            sb.append("  ]\n");
+            sb.append("}\n");
+        }
+    }
+    
+    /**
+     * Format car data as JSON Lines, one object per car and line
+     * 
+     * @param carList list of cars to format
+     * @return JSON Lines string
+     */
+    public String formatAsJsonLines(List<? extends CarView> carList) {
+        return CarJsonLines.format(carList);
     }
-}
\ No newline at end of file
+}
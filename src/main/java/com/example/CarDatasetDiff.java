@@ -0,0 +1,649 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Compares two snapshots of a car feed, e.g. yesterday's and today's, and streams
+ * the cars that were added or removed and every price that changed, one change per
+ * currency. Cars are matched by a CarKey.
+ * <p>
+ * The before snapshot is read into a hash table and the after snapshot is streamed
+ * past it once, so changes are emitted while the after feed is still being read:
+ * added and changed cars in after order, then removed cars in before order. When the
+ * table would hold more than maxInMemory keys, the diff falls back to a sort-merge
+ * join: both snapshots are spilled to sorted runs on disk, ordered by key hash, and the
+ * merged runs are joined in one linear pass. Changes then come in key hash order.
+ * Keys only in the after snapshot count too: if they overflow the table, the table
+ * is spilled with what each key has already reported, and the rest of the after
+ * snapshot is joined from disk.
+ * <p>
+ * A key repeated within a snapshot is read as successive versions of the car: the last
+ * before record is the baseline, and each after record is compared with the one before
+ * it. Not thread-safe.
+ */
+public class CarDatasetDiff {
+    /** Cars held in memory before the diff spills to disk by default */
+    public static final int DEFAULT_MAX_IN_MEMORY = 1_000_000;
+
+    /**
+     * A snapshot that can be streamed once, e.g. a feed file parsed by CarProcessor
+     */
+    public interface Source {
+        void forEach(Consumer<Car> consumer) throws Exception;
+    }
+
+    /**
+     * A single difference between the snapshots
+     */
+    public static final class Change {
+        public enum Kind {
+            ADDED, REMOVED, PRICE_CHANGED
+        }
+
+        private final Kind kind;
+        private final Car before;
+        private final Car after;
+        private final String currency;
+
+        Change(Kind kind, Car before, Car after, String currency) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+            this.currency = currency;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /** The car in the before snapshot, null when added */
+        public Car getBefore() {
+            return before;
+        }
+
+        /** The car in the after snapshot, null when removed */
+        public Car getAfter() {
+            return after;
+        }
+
+        /** Currency of a price change, null for added and removed cars */
+        public String getCurrency() {
+            return currency;
+        }
+
+        /** Price before a price change, NaN when the currency was added */
+        public double getOldPrice() {
+            Double price = before == null || currency == null ? null : before.getPrices().get(currency);
+            return price == null ? Double.NaN : price;
+        }
+
+        /** Price after a price change, NaN when the currency was removed */
+        public double getNewPrice() {
+            Double price = after == null || currency == null ? null : after.getPrices().get(currency);
+            return price == null ? Double.NaN : price;
+        }
+
+        /**
+         * Describe the change on one line
+         *
+         * @param key key used to describe the car
+         * @return e.g. "+ brand=Toyota, ..." or "~ brand=Toyota, ... USD 100.0 -> 120.0"
+         */
+        public String describe(CarKey key) {
+            switch (kind) {
+                case ADDED:
+                    return "+ " + key.describe(after);
+                case REMOVED:
+                    return "- " + key.describe(before);
+                default:
+                    return "~ " + key.describe(after) + " " + currency + " " + getOldPrice() + " -> " + getNewPrice();
+            }
+        }
+    }
+
+    /**
+     * Counts of the changes found by a diff
+     */
+    public static final class Summary {
+        private long added;
+        private long removed;
+        private long changed;
+        private long unchanged;
+        private final Map<String, Long> priceChanges = new TreeMap<>();
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        /** Cars with at least one price change */
+        public long getChanged() {
+            return changed;
+        }
+
+        /** Cars in both snapshots with the same prices */
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Get the number of price changes per currency
+         *
+         * @return changes by currency code, sorted
+         */
+        public Map<String, Long> getPriceChanges() {
+            return priceChanges;
+        }
+
+        @Override
+        public String toString() {
+            return "added " + added + ", removed " + removed + ", changed " + changed + ", unchanged " + unchanged
+                    + ", price changes " + priceChanges;
+        }
+    }
+
+    private final CarKey key;
+    private int maxInMemory = DEFAULT_MAX_IN_MEMORY;
+    private Path tempDirectory;
+    private boolean lastDiffExternal;
+
+    public CarDatasetDiff() {
+        this(CarKey.DEFAULT);
+    }
+
+    /**
+     * Create a diff matching cars by a key
+     *
+     * @param key identity of a car across snapshots
+     */
+    public CarDatasetDiff(CarKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Set how many before cars are hashed in memory before spilling to sorted runs
+     *
+     * @param maxInMemory car count; also the size of each run
+     */
+    public void setMaxInMemory(int maxInMemory) {
+        if (maxInMemory <= 0) {
+            throw new IllegalArgumentException("maxInMemory must be positive");
+        }
+        this.maxInMemory = maxInMemory;
+    }
+
+    /**
+     * Set where sorted runs are written
+     *
+     * @param tempDirectory existing directory, or null for the system default
+     */
+    public void setTempDirectory(Path tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Check whether the last diff spilled to disk
+     *
+     * @return true if it used the sort-merge join
+     */
+    public boolean isLastDiffExternal() {
+        return lastDiffExternal;
+    }
+
+    /**
+     * Diff two lists of cars
+     *
+     * @param before older snapshot
+     * @param after newer snapshot
+     * @param sink receives each change as it is found
+     * @return counts of the changes
+     * @throws IOException if spilling to disk fails
+     */
+    public Summary diff(List<? extends Car> before, List<? extends Car> after, Consumer<Change> sink) throws IOException {
+        try {
+            return diff(of(before), of(after), sink);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e); // lists do not throw
+        }
+    }
+
+    /**
+     * Diff the datasets currently published by two services
+     *
+     * @param before service holding the older snapshot
+     * @param after service holding the newer snapshot
+     * @param sink receives each change as it is found
+     * @return counts of the changes
+     * @throws IOException if spilling to disk fails
+     */
+    public Summary diff(CarDataService before, CarDataService after, Consumer<Change> sink) throws IOException {
+        return diff(before.getCars(), after.getCars(), sink);
+    }
+
+    /**
+     * Diff two streamed snapshots
+     *
+     * @param before older snapshot
+     * @param after newer snapshot
+     * @param sink receives each change as it is found
+     * @return counts of the changes
+     * @throws Exception if a source fails or spilling to disk fails
+     */
+    public Summary diff(Source before, Source after, Consumer<Change> sink) throws Exception {
+        Summary summary = new Summary();
+        Map<CarIdentity, Slot> table = new LinkedHashMap<>();
+        RunWriter[] spill = new RunWriter[1];
+        RunWriter[] afterSpill = new RunWriter[1];
+        long[] seq = new long[1];
+        try {
+            before.forEach(car -> {
+                if (spill[0] != null) {
+                    spill[0].add(car, seq[0]++, (byte) 0);
+                    return;
+                }
+                table.computeIfAbsent(new CarIdentity(key, car), id -> new Slot()).current = car;
+                if (table.size() > maxInMemory) {
+                    spill[0] = spill(table, seq);
+                }
+            });
+            if (spill[0] == null) {
+                long[] afterSeq = new long[1];
+                after.forEach(car -> {
+                    if (afterSpill[0] != null) {
+                        afterSpill[0].add(car, afterSeq[0]++, (byte) 0);
+                        return;
+                    }
+                    CarIdentity id = new CarIdentity(key, car);
+                    Slot slot = table.get(id);
+                    if (slot == null) {
+                        slot = new Slot();
+                        table.put(id, slot);
+                    }
+                    apply(slot, car, sink, summary);
+                    if (table.size() > maxInMemory) {
+                        spill[0] = spill(table, seq);
+                        afterSpill[0] = new RunWriter();
+                    }
+                });
+            } else {
+                afterSpill[0] = new RunWriter();
+                long[] afterSeq = new long[1];
+                after.forEach(car -> afterSpill[0].add(car, afterSeq[0]++, (byte) 0));
+            }
+            lastDiffExternal = spill[0] != null;
+            if (lastDiffExternal) {
+                return mergeJoin(spill[0], afterSpill[0], sink, summary);
+            }
+            for (Slot slot : table.values()) {
+                finish(slot, sink, summary);
+            }
+            return summary;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            try {
+                if (afterSpill[0] != null) {
+                    afterSpill[0].close();
+                }
+            } finally {
+                if (spill[0] != null) {
+                    spill[0].close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the hash table to before runs, each key with its latest version and what
+     * it has reported so far, and empty it
+     */
+    private RunWriter spill(Map<CarIdentity, Slot> table, long[] seq) {
+        RunWriter runs = new RunWriter();
+        for (Slot slot : table.values()) {
+            runs.add(slot.current, seq[0]++, slot.flags());
+        }
+        table.clear();
+        return runs;
+    }
+
+    /**
+     * Join both merged run sets group by group
+     */
+    private Summary mergeJoin(RunWriter beforeRuns, RunWriter afterRuns, Consumer<Change> sink, Summary summary)
+            throws IOException {
+        try (MergedRuns olds = beforeRuns.merge(); MergedRuns news = afterRuns.merge()) {
+            List<RunReader.Record> oldGroup = new ArrayList<>();
+            List<RunReader.Record> newGroup = new ArrayList<>();
+            List<Slot> slots = new ArrayList<>();
+            while (olds.hasNext() || news.hasNext()) {
+                long hash = !news.hasNext() ? olds.hash()
+                        : !olds.hasNext() ? news.hash() : Math.min(olds.hash(), news.hash());
+                olds.takeGroup(hash, oldGroup);
+                news.takeGroup(hash, newGroup);
+                // Groups share a hash and are almost always a single car, so match them by scanning
+                for (RunReader.Record record : oldGroup) {
+                    Slot slot = find(slots, record.car);
+                    slot.current = record.car;
+                    slot.restore(record.flags);
+                }
+                for (RunReader.Record record : newGroup) {
+                    apply(find(slots, record.car), record.car, sink, summary);
+                }
+                for (Slot slot : slots) {
+                    finish(slot, sink, summary);
+                }
+                oldGroup.clear();
+                newGroup.clear();
+                slots.clear();
+            }
+        }
+        return summary;
+    }
+
+    private Slot find(List<Slot> slots, Car car) {
+        for (Slot slot : slots) {
+            if (key.matches(slot.current, car)) {
+                return slot;
+            }
+        }
+        Slot slot = new Slot();
+        slots.add(slot);
+        return slot;
+    }
+
+    /**
+     * A key with its latest version; current is null for a key first seen in the after snapshot
+     */
+    private static final class Slot {
+        private static final byte SEEN = 1;
+        private static final byte ADDED = 2;
+        private static final byte CHANGED = 4;
+
+        Car current;
+        boolean seen;
+        boolean added;
+        boolean changed;
+
+        byte flags() {
+            return (byte) ((seen ? SEEN : 0) | (added ? ADDED : 0) | (changed ? CHANGED : 0));
+        }
+
+        void restore(byte flags) {
+            seen |= (flags & SEEN) != 0;
+            added |= (flags & ADDED) != 0;
+            changed |= (flags & CHANGED) != 0;
+        }
+    }
+
+    /**
+     * Compare an after record with the latest version of its key
+     */
+    private static void apply(Slot slot, Car car, Consumer<Change> sink, Summary summary) {
+        if (slot.current == null) {
+            slot.added = true;
+            summary.added++;
+            sink.accept(new Change(Change.Kind.ADDED, null, car, null));
+        } else {
+            slot.changed |= emitPriceChanges(slot.current, car, sink, summary);
+        }
+        slot.current = car;
+        slot.seen = true;
+    }
+
+    /**
+     * Count a key once its snapshots are fully read
+     */
+    private static void finish(Slot slot, Consumer<Change> sink, Summary summary) {
+        if (!slot.seen) {
+            summary.removed++;
+            sink.accept(new Change(Change.Kind.REMOVED, slot.current, null, null));
+        } else if (slot.changed) {
+            summary.changed++;
+        } else if (!slot.added) {
+            summary.unchanged++;
+        }
+    }
+
+    private static boolean emitPriceChanges(Car before, Car after, Consumer<Change> sink, Summary summary) {
+        Map<String, Double> oldPrices = before.getPrices();
+        Map<String, Double> newPrices = after.getPrices();
+        if (oldPrices.equals(newPrices)) {
+            return false;
+        }
+        TreeSet<String> currencies = new TreeSet<>(oldPrices.keySet());
+        currencies.addAll(newPrices.keySet());
+        boolean changed = false;
+        for (String currency : currencies) {
+            if (!Objects.equals(oldPrices.get(currency), newPrices.get(currency))) {
+                changed = true;
+                summary.priceChanges.merge(currency, 1L, Long::sum);
+                sink.accept(new Change(Change.Kind.PRICE_CHANGED, before, after, currency));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Wrap a list as a source
+     *
+     * @param cars cars in snapshot order
+     * @return source streaming the list
+     */
+    public static Source of(List<? extends Car> cars) {
+        return cars::forEach;
+    }
+
+    /**
+     * Stream a feed file, chosen by extension: .xml, .csv, or .ndjson/.jsonl, optionally
+     * gzip or zip compressed
+     *
+     * @param filePath feed file
+     * @return source parsing the file on each forEach
+     * @throws IllegalArgumentException if the extension is not a feed format
+     */
+    public static Source ofFile(String filePath) {
+        String name = CompressedInput.stripCompressionSuffix(Paths.get(filePath).getFileName().toString())
+                .toLowerCase();
+        CarProcessor processor = new CarProcessor();
+        if (name.endsWith(".xml")) {
+            return consumer -> processor.streamXml(filePath, consumer);
+        } else if (name.endsWith(".csv")) {
+            return consumer -> processor.streamCsv(filePath, consumer);
+        } else if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return consumer -> {
+                try (BufferedReader reader = CompressedInput.openReader(filePath)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.trim().isEmpty()) {
+                            consumer.accept(CarJsonLines.parseLine(line));
+                        }
+                    }
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown feed format: " + filePath);
+    }
+
+    /**
+     * Sorted runs of one snapshot, each record a key hash, a sequence number, the
+     * flags of a spilled slot and a car. Cars are buffered up to maxInMemory, sorted
+     * by hash and sequence, and written out.
+     */
+    private final class RunWriter implements Closeable {
+        private final List<Path> runs = new ArrayList<>();
+        private final List<long[]> order = new ArrayList<>();
+        private final List<Car> buffer = new ArrayList<>();
+        private Path directory;
+
+        void add(Car car, long seq, byte flags) {
+            order.add(new long[]{key.hash(car), seq, buffer.size(), flags});
+            buffer.add(car);
+            if (buffer.size() >= maxInMemory) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            if (directory == null) {
+                directory = tempDirectory == null ? Files.createTempDirectory("car-diff")
+                        : Files.createTempDirectory(tempDirectory, "car-diff");
+            }
+            order.sort(Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+            Path run = directory.resolve("run-" + runs.size());
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                for (long[] entry : order) {
+                    out.writeLong(entry[0]);
+                    out.writeLong(entry[1]);
+                    out.writeByte((int) entry[3]);
+                    CarBinaryCodec.writeCar(out, buffer.get((int) entry[2]));
+                }
+            }
+            order.clear();
+            buffer.clear();
+        }
+
+        MergedRuns merge() throws IOException {
+            flush();
+            MergedRuns merged = new MergedRuns();
+            try {
+                for (Path run : runs) {
+                    merged.open(run);
+                }
+            } catch (IOException e) {
+                merged.close();
+                throw e;
+            }
+            return merged;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            if (directory != null) {
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    /**
+     * One open run with its next record
+     */
+    private static final class RunReader {
+        final DataInputStream in;
+        long hash;
+        long seq;
+        byte flags;
+        Car car;
+
+        RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                hash = in.readLong();
+            } catch (EOFException e) {
+                in.close();
+                return false;
+            }
+            seq = in.readLong();
+            flags = in.readByte();
+            car = CarBinaryCodec.readCar(in);
+            return true;
+        }
+
+        /**
+         * A car taken from a run with the flags it was spilled with
+         */
+        static final class Record {
+            final Car car;
+            final byte flags;
+
+            Record(Car car, byte flags) {
+                this.car = car;
+                this.flags = flags;
+            }
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs by hash and sequence number
+     */
+    private static final class MergedRuns implements Closeable {
+        private final PriorityQueue<RunReader> heads = new PriorityQueue<>(
+                Comparator.<RunReader>comparingLong(reader -> reader.hash).thenComparingLong(reader -> reader.seq));
+        private final List<RunReader> readers = new ArrayList<>();
+
+        void open(Path run) throws IOException {
+            RunReader reader = new RunReader(run);
+            readers.add(reader);
+            if (reader.advance()) {
+                heads.add(reader);
+            }
+        }
+
+        boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        long hash() {
+            return heads.peek().hash;
+        }
+
+        /**
+         * Move every car with the given hash into a list, in sequence order
+         */
+        void takeGroup(long hash, List<RunReader.Record> group) throws IOException {
+            while (!heads.isEmpty() && heads.peek().hash == hash) {
+                RunReader reader = heads.poll();
+                group.add(new RunReader.Record(reader.car, reader.flags));
+                if (reader.advance()) {
+                    heads.add(reader);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+}
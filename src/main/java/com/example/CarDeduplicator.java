@@ -0,0 +1,152 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Merges a stream of cars into one record per CarKey.
+ * Keys live in an open-addressing table of primitive arrays: one 64-bit hash and
+ * one int row index per slot, about 24 bytes per distinct car at the maximum load
+ * factor and no per-entry objects. Matching hashes are confirmed by comparing the
+ * real key fields, so hash collisions never merge different cars; as the table is
+ * at most half full, a probe usually ends after a slot or two, and the fields are
+ * only compared when the full 64-bit hashes match. Surviving cars keep the position
+ * of the first record with their key. Not thread-safe.
+ */
+public class CarDeduplicator {
+    private static final int MIN_CAPACITY = 16;
+
+    private final CarKey key;
+    private final MergePolicy policy;
+
+    private final List<Car> cars;
+    private long[] hashes;
+    private int[] rows; // row index + 1, 0 marks an empty slot
+    private int mask;
+    private long duplicates;
+
+    /**
+     * Create a deduplicator
+     *
+     * @param key record identity
+     * @param policy which record survives a duplicate key
+     * @param expectedRows expected number of incoming rows, used to size the tables
+     */
+    public CarDeduplicator(CarKey key, MergePolicy policy, int expectedRows) {
+        this.key = key;
+        this.policy = policy;
+        this.cars = new ArrayList<>(Math.max(expectedRows, 0));
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedRows * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        this.hashes = new long[capacity];
+        this.rows = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Deduplicate a list of cars
+     *
+     * @param cars cars in load order
+     * @param key record identity
+     * @param policy which record survives a duplicate key
+     * @return one car per key, in order of first appearance
+     */
+    public static List<Car> deduplicate(List<Car> cars, CarKey key, MergePolicy policy) {
+        CarDeduplicator deduplicator = new CarDeduplicator(key, policy, cars.size());
+        deduplicator.addAll(cars);
+        return deduplicator.getCars();
+    }
+
+    /**
+     * Add a car, merging it with an earlier car with the same key
+     *
+     * @param car incoming car
+     * @return true if the key was new
+     */
+    public boolean add(Car car) {
+        long hash = key.hash(car);
+        int slot = (int) hash & mask;
+        while (rows[slot] != 0) {
+            if (hashes[slot] == hash) {
+                int row = rows[slot] - 1;
+                Car existing = cars.get(row);
+                if (key.matches(existing, car)) {
+                    cars.set(row, policy.merge(existing, car));
+                    duplicates++;
+                    return false;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        cars.add(car);
+        hashes[slot] = hash;
+        rows[slot] = cars.size();
+        if (cars.size() * 2L > hashes.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Add several cars in order
+     *
+     * @param incoming cars to add
+     */
+    public void addAll(List<Car> incoming) {
+        for (Car car : incoming) {
+            add(car);
+        }
+    }
+
+    private void grow() {
+        if (hashes.length >= (1 << 30)) {
+            throw new IllegalStateException("Too many distinct cars: " + cars.size());
+        }
+        long[] oldHashes = hashes;
+        int[] oldRows = rows;
+        hashes = new long[oldHashes.length * 2];
+        rows = new int[oldRows.length * 2];
+        mask = hashes.length - 1;
+        for (int i = 0; i < oldRows.length; i++) {
+            if (oldRows[i] != 0) {
+                int slot = (int) oldHashes[i] & mask;
+                while (rows[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                rows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    /**
+     * Get the merged cars
+     *
+     * @return one car per key, in order of first appearance
+     */
+    public List<Car> getCars() {
+        return Collections.unmodifiableList(cars);
+    }
+
+    /**
+     * Get the number of records merged into an earlier record
+     *
+     * @return duplicate count
+     */
+    public long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * Estimate the memory used by the key index, excluding the cars themselves
+     *
+     * @return size in bytes
+     */
+    public long getIndexSizeInBytes() {
+        return hashes.length * 12L;
+    }
+}
@@ -0,0 +1,233 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * JDK Flight Recorder events for ingestion and query stages, shown under "Car Data"
+ * in JDK Mission Control next to GC, socket and file I/O events of the same thread
+ * and time range.
+ * <p>
+ * Each stage creates its event, calls begin() and finishes it with end(...). Fields
+ * are only filled in when shouldCommit() says a recording wants the event, so without
+ * a recording the JIT reduces an event to a few dead stores. Query events carry no
+ * stack trace, as they are recorded many times a second under load.
+ */
+public final class CarEvents {
+    private static final String CATEGORY = "Car Data";
+
+    private CarEvents() {
+    }
+
+    /**
+     * Parsing of one input file
+     */
+    @Name("com.example.FileParse")
+    @Label("File Parse")
+    @Category({CATEGORY, "Ingest"})
+    @Description("A data file was read and parsed")
+    public static final class FileParse extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Format")
+        String format;
+
+        @Label("File Size")
+        @Description("Size of the file on disk, compressed if the file is compressed")
+        @DataAmount
+        long bytes;
+
+        @Label("Rows")
+        @Description("Records accepted; for lazy scans, records read before the filter is applied")
+        long rows;
+
+        @Label("Rejects")
+        @Description("Records sent to the error budget")
+        long rejects;
+
+        void end(String path, String format, long rows, long rejects) {
+            if (shouldCommit()) {
+                this.path = path;
+                this.format = format;
+                this.bytes = sizeOf(path);
+                this.rows = rows;
+                this.rejects = rejects;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A whole load: parsing, the brand join, deduplication and the swap
+     */
+    @Name("com.example.DatasetLoad")
+    @Label("Dataset Load")
+    @Category({CATEGORY, "Ingest"})
+    @Description("Data files were loaded, joined with brands and published")
+    public static final class DatasetLoad extends Event {
+        @Label("Source")
+        @Description("Car file, feed directory, or caller for cars passed in")
+        String source;
+
+        @Label("Rows Loaded")
+        long rowsLoaded;
+
+        @Label("Rows Published")
+        @Description("Rows left after deduplication")
+        long rowsPublished;
+
+        @Label("Duplicates")
+        long duplicates;
+
+        @Label("Rejects")
+        long rejects;
+
+        @Label("Off-Heap")
+        boolean offHeap;
+
+        void end(String source, long rowsLoaded, long rowsPublished, long duplicates, long rejects, boolean offHeap) {
+            if (shouldCommit()) {
+                this.source = source;
+                this.rowsLoaded = rowsLoaded;
+                this.rowsPublished = rowsPublished;
+                this.duplicates = duplicates;
+                this.rejects = rejects;
+                this.offHeap = offHeap;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Replacement of the published dataset
+     */
+    @Name("com.example.ReloadSwap")
+    @Label("Reload Swap")
+    @Category({CATEGORY, "Ingest"})
+    @Description("The published dataset was replaced and its indexes rebuilt")
+    public static final class ReloadSwap extends Event {
+        @Label("Previous Data Version")
+        long dataVersion;
+
+        @Label("Previous Rows")
+        long previousRows;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Storage")
+        @Description("heap, off-heap or live")
+        String storage;
+
+        void end(long dataVersion, long previousRows, long rows, String storage) {
+            if (shouldCommit()) {
+                this.dataVersion = dataVersion;
+                this.previousRows = previousRows;
+                this.rows = rows;
+                this.storage = storage;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * One filter call
+     */
+    @Name("com.example.Filter")
+    @Label("Filter")
+    @Category({CATEGORY, "Query"})
+    @StackTrace(false)
+    public static final class Filter extends Event {
+        @Label("Filter")
+        String filter;
+
+        @Label("Data Version")
+        long dataVersion;
+
+        @Label("Input Rows")
+        @Description("Rows in the dataset")
+        long inputRows;
+
+        @Label("Output Rows")
+        long outputRows;
+
+        void end(Object filter, long dataVersion, long inputRows, long outputRows) {
+            if (shouldCommit()) {
+                this.filter = String.valueOf(filter);
+                this.dataVersion = dataVersion;
+                this.inputRows = inputRows;
+                this.outputRows = outputRows;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * One sort call, including the regrouping of the currency view
+     */
+    @Name("com.example.Sort")
+    @Label("Sort")
+    @Category({CATEGORY, "Query"})
+    @StackTrace(false)
+    public static final class Sort extends Event {
+        @Label("Sort Type")
+        String sortType;
+
+        @Label("Rows")
+        long rows;
+
+        void end(String sortType, long rows) {
+            if (shouldCommit()) {
+                this.sortType = sortType;
+                this.rows = rows;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * One format call
+     */
+    @Name("com.example.Format")
+    @Label("Format")
+    @Category({CATEGORY, "Query"})
+    @StackTrace(false)
+    public static final class Format extends Event {
+        @Label("Output Format")
+        String outputFormat;
+
+        @Label("Input Rows")
+        long inputRows;
+
+        @Label("Output Characters")
+        long outputChars;
+
+        void end(String outputFormat, long inputRows, long outputChars) {
+            if (shouldCommit()) {
+                this.outputFormat = outputFormat;
+                this.inputRows = inputRows;
+                this.outputChars = outputChars;
+                commit();
+            }
+        }
+    }
+
+    private static long sizeOf(String path) {
+        try {
+            Path file = Paths.get(path);
+            return Files.isRegularFile(file) ? Files.size(file) : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
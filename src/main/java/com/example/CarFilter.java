@@ -0,0 +1,167 @@
+package com.example;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Parsed form of a UI filter: an optional brand, minimum price and earliest
+ * release date, all of which a car has to satisfy. Knowing the predicate as data
+ * lets the query layer tell when one filter only narrows another, so the narrower
+ * query can run over the previous result instead of the whole dataset.
+ */
+public final class CarFilter {
+    /** Filter that accepts every car */
+    public static final CarFilter NONE = new CarFilter(null, Double.NaN, null);
+
+    private final String brand;
+    private final double minPrice;
+    private final Date fromDate;
+
+    private CarFilter(String brand, double minPrice, Date fromDate) {
+        this.brand = brand;
+        this.minPrice = minPrice;
+        this.fromDate = fromDate;
+    }
+
+    /**
+     * Parse the filter fields of the UI. Values are trimmed, and filters with a missing
+     * value accept every car.
+     *
+     * @param filterType "None", "Brand", "Brand and Price" or "Brand and Release Date"
+     * @param filterValue brand or price value
+     * @param brandValue brand value for the price filter
+     * @param dateStr yyyy-MM-dd date for the release date filter
+     * @return parsed filter
+     * @throws ParseException if the price or date cannot be parsed
+     */
+    public static CarFilter parse(String filterType, String filterValue, String brandValue, String dateStr)
+            throws ParseException {
+        String value = trimToEmpty(filterValue);
+        String brandName = trimToEmpty(brandValue);
+        String date = trimToEmpty(dateStr);
+        if ("Brand".equals(filterType)) {
+            return value.isEmpty() ? NONE : new CarFilter(value, Double.NaN, null);
+        } else if ("Brand and Price".equals(filterType)) {
+            if (value.isEmpty() || brandName.isEmpty()) {
+                return NONE;
+            }
+            // NaN stands for no minimum, so it must not come from the input
+            double minPrice = FieldParsers.parseDouble(value);
+            if (Double.isNaN(minPrice)) {
+                throw new ParseException("Invalid price format", 0);
+            }
+            return new CarFilter(brandName, minPrice, null);
+        } else if ("Brand and Release Date".equals(filterType)) {
+            if (value.isEmpty() || date.isEmpty()) {
+                return NONE;
+            }
+            try {
+                return new CarFilter(value, Double.NaN, new SimpleDateFormat("yyyy-MM-dd").parse(date));
+            } catch (ParseException e) {
+                throw new ParseException("Invalid date format. Use yyyy-MM-dd", 0);
+            }
+        }
+        return NONE;
+    }
+
+    private static String trimToEmpty(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * Check whether a car passes the filter
+     *
+     * @param car car to test
+     * @return true if the brand matches case-insensitively, some price reaches the
+     *         minimum and the car was released on or after the date
+     */
+    public boolean matches(Car car) {
+        if (brand != null && !car.getBrand().equalsIgnoreCase(brand)) {
+            return false;
+        }
+        if (!Double.isNaN(minPrice)) {
+            boolean reached = false;
+            for (double price : car.getPrices().values()) {
+                if (price >= minPrice) {
+                    reached = true;
+                    break;
+                }
+            }
+            if (!reached) {
+                return false;
+            }
+        }
+        return fromDate == null || car.getReleaseDate().compareTo(fromDate) >= 0;
+    }
+
+    /**
+     * Check whether every car passing this filter also passes another one, e.g. the
+     * same brand with a higher minimum price or a later release date
+     *
+     * @param previous broader filter
+     * @return true if this filter can be applied to the result of the other
+     */
+    public boolean isRefinementOf(CarFilter previous) {
+        if (previous.brand != null && (brand == null || !brand.equalsIgnoreCase(previous.brand))) {
+            return false;
+        }
+        if (!Double.isNaN(previous.minPrice) && (Double.isNaN(minPrice) || minPrice < previous.minPrice)) {
+            return false;
+        }
+        return previous.fromDate == null || (fromDate != null && !fromDate.before(previous.fromDate));
+    }
+
+    /** Brand to match case-insensitively, or null for any brand */
+    String getBrand() {
+        return brand;
+    }
+
+    /** Minimum price some currency has to reach, or NaN for no minimum */
+    double getMinPrice() {
+        return minPrice;
+    }
+
+    /** Earliest release date, or null for any date */
+    Date getFromDate() {
+        return fromDate;
+    }
+
+    /**
+     * Check whether the filter accepts every car
+     *
+     * @return true for the empty filter
+     */
+    public boolean isEmpty() {
+        return brand == null && Double.isNaN(minPrice) && fromDate == null;
+    }
+
+    /**
+     * Get a canonical form of the filter, e.g. for cache keys: filters that accept the
+     * same cars because they only differ in brand case or number format share a key
+     *
+     * @return key, "None" for the empty filter
+     */
+    String key() {
+        if (isEmpty()) {
+            return "None";
+        }
+        StringBuilder key = new StringBuilder();
+        if (brand != null) {
+            key.append("Brand=").append(brand.toLowerCase(Locale.ROOT));
+        }
+        if (!Double.isNaN(minPrice)) {
+            key.append(key.length() == 0 ? "" : ",").append("MinPrice=").append(minPrice);
+        }
+        if (fromDate != null) {
+            key.append(key.length() == 0 ? "" : ",").append("From=").append(fromDate.getTime());
+        }
+        return key.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CarFilter{brand=" + brand + ", minPrice=" + minPrice + ", fromDate=" + fromDate + "}";
+    }
+}
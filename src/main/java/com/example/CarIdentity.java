@@ -0,0 +1,26 @@
+package com.example;
+
+/**
+ * Car compared by a CarKey, for use as a hash map key
+ */
+final class CarIdentity {
+    private final CarKey key;
+    private final Car car;
+    private final long hash;
+
+    CarIdentity(CarKey key, Car car) {
+        this.key = key;
+        this.car = car;
+        this.hash = key.hash(car);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CarIdentity && key.matches(car, ((CarIdentity) other).car);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+}
@@ -0,0 +1,548 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable append-only journal of car mutations on top of a base snapshot.
+ * <p>
+ * The directory holds cars.snapshot, a checksummed binary copy of all cars up to
+ * a sequence number, and cars.journal, the operations after it. Each journal
+ * record is [length][sequence][operation][car][CRC32], so a record torn by a crash
+ * is detected and cut off on recovery. Recovery loads the snapshot and replays only
+ * the journal tail, in time proportional to the changes since the last compaction.
+ * <p>
+ * Appends use group commit: a thread returns once its record is on disk, but
+ * records appended while another thread is syncing share that thread's next
+ * fsync. A record changes the journal state only once it is on disk; if its sync
+ * fails, the record is dropped and every writer of it gets the failure. Compaction folds the journal into a new snapshot, written to a temporary
+ * file and moved into place atomically, and runs automatically once the journal
+ * grows past a threshold. Cars are identified by a CarKey: ADD and UPDATE replace
+ * a car with the same key, REMOVE deletes it.
+ */
+public class CarJournal implements AutoCloseable {
+    public static final String SNAPSHOT_FILE = "cars.snapshot";
+    public static final String JOURNAL_FILE = "cars.journal";
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+
+    private static final int SNAPSHOT_MAGIC = 0x43415253; // "CARS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    /** Journal operations */
+    public enum Operation {
+        /** Add a car, replacing one with the same key */
+        ADD,
+        /** Replace the car with the same key; ignored if there is none */
+        UPDATE,
+        /** Remove the car with the same key */
+        REMOVE
+    }
+
+    private final Path directory;
+    private final CarKey key;
+    private final Object syncLock = new Object();
+    private FileChannel journal;
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    // Guarded by this: durable state, records not yet on disk and sequence numbers
+    private final Map<CarIdentity, Car> cars = new LinkedHashMap<>();
+    private final List<Record> pending = new ArrayList<>();
+    // First to last sequence of each batch whose sync failed
+    private final NavigableMap<Long, Long> lost = new TreeMap<>();
+    private long lastSequence;
+    private long snapshotSequence;
+    private long replayedRecords;
+
+    // Written holding syncLock and this, so either lock suffices to read it
+    private long durableSequence;
+
+    // Guarded by syncLock
+    private long journalEnd;
+    private long syncCount;
+
+    /**
+     * Open or create a journal directory and recover its state
+     *
+     * @param directory directory holding the snapshot and journal files
+     * @param key identity of a car for UPDATE and REMOVE
+     * @throws IOException if the snapshot is corrupt or the files cannot be opened
+     */
+    public CarJournal(Path directory, CarKey key) throws IOException {
+        this.directory = directory;
+        this.key = key;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Load the snapshot and replay the journal records after it. A torn or
+     * corrupt record ends the replay and is truncated away with everything after it.
+     */
+    private void recover() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            readSnapshot(snapshot);
+        }
+        lastSequence = snapshotSequence;
+
+        journal = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validEnd = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(journal.position(0))));
+        CRC32 crc = new CRC32();
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length < 9 || length > MAX_RECORD_BYTES) {
+                break;
+            }
+            byte[] body = new byte[length];
+            int checksum;
+            try {
+                in.readFully(body);
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+            long sequence = record.readLong();
+            int operation = record.readByte();
+            if (operation < 0 || operation >= Operation.values().length) {
+                break;
+            }
+            Car car = CarBinaryCodec.readCar(record);
+            // Records already folded into the snapshot are skipped
+            if (sequence > snapshotSequence) {
+                apply(Operation.values()[operation], car);
+                replayedRecords++;
+            }
+            lastSequence = Math.max(lastSequence, sequence);
+            validEnd += 8 + length;
+        }
+        if (journal.size() > validEnd) {
+            journal.truncate(validEnd);
+            journal.force(false);
+        }
+        journal.position(validEnd);
+        journalEnd = validEnd;
+        durableSequence = lastSequence;
+    }
+
+    private void readSnapshot(Path snapshot) throws IOException {
+        try (InputStream file = Files.newInputStream(snapshot)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a car snapshot: " + snapshot);
+            }
+            long sequence = in.readLong();
+            int count = in.readInt();
+            List<Car> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                loaded.add(CarBinaryCodec.readCar(in));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Car snapshot checksum mismatch: " + snapshot);
+            }
+            for (Car car : loaded) {
+                cars.put(new CarIdentity(key, car), car);
+            }
+            snapshotSequence = sequence;
+        } catch (EOFException e) {
+            throw new IOException("Car snapshot is truncated: " + snapshot, e);
+        }
+    }
+
+    /**
+     * Append an operation, wait until it is durable and apply it to the journal state
+     *
+     * @param operation operation
+     * @param car car to add, the new version of a car, or the car to remove
+     * @return sequence number of the record
+     * @throws IOException if the record cannot be written or synced
+     */
+    public long append(Operation operation, Car car) throws IOException {
+        long sequence = write(operation, car);
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Buffer an operation without waiting for the disk; awaitDurable makes it
+     * durable and applies it to the journal state. Callers that need journal order
+     * write under their own lock and wait outside it, so their syncs group.
+     *
+     * @param operation operation
+     * @param car car to add, the new version of a car, or the car to remove
+     * @return sequence number of the record
+     * @throws IOException if the record cannot be encoded
+     */
+    public long write(Operation operation, Car car) throws IOException {
+        synchronized (this) {
+            long sequence = ++lastSequence;
+            ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeLong(sequence);
+            out.writeByte(operation.ordinal());
+            CarBinaryCodec.writeCar(out, car);
+            CRC32 crc = new CRC32();
+            crc.update(body.toByteArray());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 8);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeInt(body.size());
+            body.writeTo(record);
+            record.writeInt((int) crc.getValue());
+            pending.add(new Record(sequence, operation, car, bytes.toByteArray()));
+            return sequence;
+        }
+    }
+
+    /**
+     * Buffer one operation on several cars as consecutive records. They are synced
+     * together, so awaitDurable on the last sequence makes all of them durable, or
+     * fails with all of them dropped.
+     *
+     * @param operation operation
+     * @param cars cars to add, new versions of cars, or cars to remove
+     * @return sequence number of the last record, or of the last record before if cars is empty
+     * @throws IOException if a record cannot be encoded; no record is buffered then
+     */
+    public long writeAll(Operation operation, List<Car> cars) throws IOException {
+        synchronized (this) {
+            int buffered = pending.size();
+            long first = lastSequence;
+            try {
+                for (Car car : cars) {
+                    write(operation, car);
+                }
+            } catch (IOException | RuntimeException e) {
+                pending.subList(buffered, pending.size()).clear();
+                lastSequence = first;
+                throw e;
+            }
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Wait until a record is on disk and applied, compacting afterwards if the
+     * journal has grown past the threshold. Group commit: the first thread to get
+     * here writes every pending record with one fsync; threads whose records it
+     * covered return without syncing themselves.
+     *
+     * @param sequence sequence number returned by write
+     * @throws IOException if the records cannot be written or synced, also when
+     *                     another thread's sync covering the record failed; the
+     *                     record is then dropped
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        sync(sequence);
+        if (journal.size() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            checkNotLost(sequence);
+            if (durableSequence >= sequence) {
+                return;
+            }
+            List<Record> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(pending);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            int size = 0;
+            for (Record record : batch) {
+                size += record.bytes.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (Record record : batch) {
+                buffer.put(record.bytes);
+            }
+            buffer.flip();
+            try {
+                journal.position(journalEnd);
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+                journal.force(false);
+            } catch (IOException e) {
+                drop(batch);
+                throw e;
+            }
+            journalEnd += size;
+            syncCount++;
+            synchronized (this) {
+                pending.subList(0, batch.size()).clear();
+                for (Record record : batch) {
+                    apply(record.operation, record.car);
+                }
+                durableSequence = batch.get(batch.size() - 1).sequence;
+            }
+        }
+    }
+
+    /**
+     * Forget a batch whose sync failed: its bytes may be partly on disk, so they are
+     * cut off, and its writers are told on awaitDurable
+     */
+    private void drop(List<Record> batch) {
+        synchronized (this) {
+            pending.subList(0, batch.size()).clear();
+            lost.put(batch.get(0).sequence, batch.get(batch.size() - 1).sequence);
+        }
+        try {
+            journal.truncate(journalEnd);
+        } catch (IOException e) {
+            // The next sync overwrites from journalEnd; recovery cuts off anything torn
+        }
+    }
+
+    private synchronized void checkNotLost(long sequence) throws IOException {
+        Map.Entry<Long, Long> batch = lost.floorEntry(sequence);
+        if (batch != null && sequence <= batch.getValue()) {
+            throw new IOException("Journal record " + sequence + " was dropped after a failed sync");
+        }
+    }
+
+    /**
+     * Fold the journal into a new snapshot of the durable state and empty it.
+     * Appends wait while the snapshot is written; records not yet on disk go to
+     * the emptied journal with the next sync. The journal is only truncated once
+     * the snapshot's rename is durable, i.e. after the directory was forced: a
+     * crash in between leaves the old snapshot with the full journal, or the new
+     * snapshot with a journal whose records it already covers.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void compact() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                writeSnapshot(new ArrayList<>(cars.values()), durableSequence);
+            }
+            journal.truncate(0);
+            journal.position(0);
+            journal.force(true);
+            journalEnd = 0;
+        }
+    }
+
+    /**
+     * Replace the whole state, e.g. after the source files were parsed again.
+     * Pending records are synced first and then replaced with the rest.
+     *
+     * @param loaded new cars in order
+     * @throws IOException if the pending records or the snapshot cannot be written
+     */
+    public void reset(List<Car> loaded) throws IOException {
+        synchronized (syncLock) {
+            long last;
+            synchronized (this) {
+                last = lastSequence;
+            }
+            if (last > durableSequence) {
+                sync(last);
+            }
+            synchronized (this) {
+                cars.clear();
+                for (Car car : loaded) {
+                    cars.put(new CarIdentity(key, car), car);
+                }
+            }
+            compact();
+        }
+    }
+
+    private void writeSnapshot(List<Car> snapshot, long sequence) throws IOException {
+        Path target = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream file = Channels.newOutputStream(channel);
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 65536), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            out.writeInt(snapshot.size());
+            for (Car car : snapshot) {
+                CarBinaryCodec.writeCar(out, car);
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The rename is a directory entry change, durable only once the directory is
+        forceDirectory();
+        snapshotSequence = sequence;
+    }
+
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private void apply(Operation operation, Car car) {
+        CarIdentity id = new CarIdentity(key, car);
+        if (operation == Operation.REMOVE) {
+            cars.remove(id);
+        } else if (operation == Operation.ADD || cars.containsKey(id)) {
+            cars.put(id, car);
+        }
+    }
+
+    /**
+     * Get the current state
+     *
+     * @return new list of the cars in insertion order
+     */
+    public synchronized List<Car> getCars() {
+        return new ArrayList<>(cars.values());
+    }
+
+    /**
+     * Check whether a car with the same key exists
+     *
+     * @param car car to look up
+     * @return true if present
+     */
+    public synchronized boolean contains(Car car) {
+        return cars.containsKey(new CarIdentity(key, car));
+    }
+
+    /**
+     * Get the durable version of a car
+     *
+     * @param car car to look up
+     * @return car with the same key, or null if there is none
+     */
+    public synchronized Car get(Car car) {
+        return cars.get(new CarIdentity(key, car));
+    }
+
+    /**
+     * Check whether the journal has any state, from a snapshot or records
+     *
+     * @return false for a new, empty directory
+     */
+    public synchronized boolean isEmpty() {
+        return lastSequence == 0 && cars.isEmpty();
+    }
+
+    /**
+     * Set the journal size that triggers compaction after an append
+     *
+     * @param bytes threshold in bytes, Long.MAX_VALUE to compact only on request
+     */
+    public void setCompactionThreshold(long bytes) {
+        this.compactionThreshold = bytes;
+    }
+
+    /**
+     * Get the number of journal records replayed on recovery
+     *
+     * @return records after the snapshot found when the journal was opened
+     */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * Get the number of fsyncs of appended records
+     *
+     * @return sync count; below the append count when commits were grouped
+     */
+    public long getSyncCount() {
+        synchronized (syncLock) {
+            return syncCount;
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Get the sequence number the journal state covers
+     *
+     * @return sequence of the last record on disk
+     */
+    public synchronized long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * Get the current size of the journal file
+     *
+     * @return bytes after the snapshot
+     * @throws IOException if the size cannot be read
+     */
+    public long getJournalSize() throws IOException {
+        return journal.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Encoded record waiting for its sync
+     */
+    private static final class Record {
+        final long sequence;
+        final Operation operation;
+        final Car car;
+        final byte[] bytes;
+
+        Record(long sequence, Operation operation, Car car, byte[] bytes) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.car = car;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,753 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads and writes cars as JSON Lines (NDJSON): one JSON object per line.
+ * <pre>
+ * {"brand":"Toyota","model":"RAV4","type":"SUV","currency":"USD","prices":{"USD":25000.0,"EUR":23000.0},"releaseDate":"2023-01-15"}
+ * </pre>
+ * Because every line stands alone, exports can be split, concatenated and appended
+ * to freely, and a file can be decoded in parallel by byte ranges aligned to line
+ * breaks. The decoder works directly on UTF-8 bytes and only allocates the field
+ * values it keeps; unknown fields are skipped.
+ */
+public final class CarJsonLines {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Below this size a parallel read is not worth the thread handoff
+    private static final long MIN_PARALLEL_BYTES = 1024 * 1024;
+
+    private CarJsonLines() {
+    }
+
+    /**
+     * Format cars as JSON Lines
+     *
+     * @param cars list of cars
+     * @return one JSON object per line, each terminated by a newline
+     */
+    public static String format(List<? extends CarView> cars) {
+        StringBuilder sb = new StringBuilder(cars.size() * 160);
+        Calendar calendar = new GregorianCalendar();
+        for (CarView car : cars) {
+            appendCar(sb, car, calendar);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stream cars as JSON Lines, reusing one line buffer
+     *
+     * @param cars list of cars
+     * @param out destination
+     * @throws IOException if writing fails
+     */
+    public static void write(List<? extends CarView> cars, Writer out) throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        Calendar calendar = new GregorianCalendar();
+        for (CarView car : cars) {
+            line.setLength(0);
+            appendCar(line, car, calendar);
+            out.append(line);
+        }
+    }
+
+    /**
+     * Append one car as a JSON line including the trailing newline
+     *
+     * @param sb destination
+     * @param car car to encode
+     * @param calendar scratch calendar reused across calls
+     */
+    static void appendCar(StringBuilder sb, CarView car, Calendar calendar) {
+        sb.append("{\"brand\":");
+        appendString(sb, car.getBrand());
+        sb.append(",\"model\":");
+        appendString(sb, car.getModel());
+        sb.append(",\"type\":");
+        appendString(sb, car.getType());
+        sb.append(",\"currency\":");
+        appendString(sb, car.getPreferredCurrency());
+        sb.append(",\"prices\":{");
+        boolean first = true;
+        for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            appendString(sb, price.getKey());
+            double value = price.getValue();
+            // JSON has no NaN or Infinity; null reads back as no price in that currency
+            if (Double.isFinite(value)) {
+                sb.append(':').append(value);
+            } else {
+                sb.append(":null");
+            }
+        }
+        sb.append("},\"releaseDate\":");
+        if (car.getReleaseDate() == null) {
+            sb.append("null");
+        } else {
+            calendar.setTime(car.getReleaseDate());
+            sb.append('"');
+            appendPadded(sb, calendar.get(Calendar.YEAR), 4);
+            sb.append('-');
+            appendPadded(sb, calendar.get(Calendar.MONTH) + 1, 2);
+            sb.append('-');
+            appendPadded(sb, calendar.get(Calendar.DAY_OF_MONTH), 2);
+            sb.append('"');
+        }
+        sb.append("}\n");
+    }
+
+    private static void appendPadded(StringBuilder sb, int value, int width) {
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+            if (value < limit) {
+                sb.append('0');
+            }
+        }
+        sb.append(value);
+    }
+
+    /**
+     * Append a JSON string literal, escaping quotes, backslashes and control characters
+     *
+     * @param sb destination
+     * @param value string to append, null is written as JSON null
+     */
+    static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c >= 0x20) {
+                sb.append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Escape a string for use inside a JSON string literal
+     *
+     * @param value string to escape, null is returned as "null" like StringBuilder.append would
+     * @return escaped content without surrounding quotes
+     */
+    public static String escape(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        appendString(sb, value);
+        return sb.substring(1, sb.length() - 1);
+    }
+
+    /**
+     * Decode a single JSON line
+     *
+     * @param line JSON object text
+     * @return decoded car
+     * @throws IllegalArgumentException if the line is not a valid car object
+     */
+    public static Car parseLine(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        Decoder decoder = new Decoder();
+        Car car = decoder.decode(bytes, 0, bytes.length);
+        if (car == null) {
+            throw new IllegalArgumentException("Invalid JSON line: " + decoder.error);
+        }
+        return car;
+    }
+
+    /**
+     * Read a JSON Lines file, which may be gzip or zip compressed
+     *
+     * @param filePath file to read
+     * @return decoded cars in file order
+     * @throws IOException if the file cannot be read or a line is invalid
+     */
+    public static List<Car> read(String filePath) throws IOException {
+        try {
+            return read(filePath, null);
+        } catch (ErrorBudgetExceededException e) {
+            throw new IllegalStateException(e); // cannot happen without a budget
+        }
+    }
+
+    /**
+     * Read a JSON Lines file, sending invalid lines to an error budget
+     *
+     * @param filePath file to read
+     * @param budget error budget receiving invalid lines, or null to fail on the first one
+     * @return decoded cars in file order
+     * @throws IOException if the file cannot be read, or a line is invalid and there is no budget
+     * @throws ErrorBudgetExceededException if more lines are rejected than the budget allows
+     */
+    public static List<Car> read(String filePath, ErrorBudget budget) throws IOException, ErrorBudgetExceededException {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        RangeResult result;
+        try (InputStream in = CompressedInput.open(Paths.get(filePath))) {
+            result = decodeLines(in, budget == null);
+        }
+        forwardRejects(filePath, result, 0, budget);
+        event.end(filePath, "NDJSON", result.cars.size(), result.rejectLines.size());
+        return result.cars;
+    }
+
+    /**
+     * Read a plain JSON Lines file with several threads.
+     * The file is cut into byte ranges at line boundaries and each range is decoded
+     * independently; results are concatenated in file order. Compressed and small
+     * files are read sequentially.
+     *
+     * @param file file to read
+     * @param threads number of decoding threads
+     * @param budget error budget receiving invalid lines, or null to fail on the first one
+     * @return decoded cars in file order
+     * @throws IOException if the file cannot be read, or a line is invalid and there is no budget
+     * @throws ErrorBudgetExceededException if more lines are rejected than the budget allows
+     */
+    public static List<Car> readParallel(Path file, int threads, ErrorBudget budget)
+            throws IOException, ErrorBudgetExceededException {
+        long size = Files.size(file);
+        if (threads <= 1 || size < MIN_PARALLEL_BYTES || CompressedInput.isCompressed(file)) {
+            return read(file.toString(), budget);
+        }
+
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = new long[threads + 1];
+            bounds[threads] = size;
+            for (int i = 1; i < threads; i++) {
+                bounds[i] = Math.max(bounds[i - 1], nextLineStart(channel, size * i / threads, size));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<RangeResult>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    long start = bounds[i];
+                    long end = bounds[i + 1];
+                    futures.add(executor.submit(() -> decodeLines(new RangeInputStream(channel, start, end), budget == null)));
+                }
+
+                List<Car> cars = new ArrayList<>();
+                long lineOffset = 0;
+                long rejects = 0;
+                for (Future<RangeResult> future : futures) {
+                    RangeResult range = future.get();
+                    forwardRejects(file.toString(), range, lineOffset, budget);
+                    cars.addAll(range.cars);
+                    lineOffset += range.lines;
+                    rejects += range.rejectLines.size();
+                }
+                event.end(file.toString(), "NDJSON", cars.size(), rejects);
+                return cars;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decoding " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to decode " + file, e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Find the first line start at or after a position
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = position - 1; // a newline right before position means position starts a line
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    private static void forwardRejects(String source, RangeResult result, long lineOffset, ErrorBudget budget)
+            throws IOException, ErrorBudgetExceededException {
+        for (int i = 0; i < result.rejectLines.size(); i++) {
+            long lineNumber = lineOffset + result.rejectLines.get(i);
+            if (budget == null) {
+                throw new IOException("Invalid JSON on line " + lineNumber + " of " + source + ": "
+                        + result.rejectReasons.get(i));
+            }
+            budget.reject(source, lineNumber, result.rejectReasons.get(i), result.rejectRecords.get(i));
+        }
+    }
+
+    /**
+     * Split a byte stream into lines and decode each one
+     *
+     * @param in input positioned at a line start
+     * @param stopAtFirstError stop after the first invalid line
+     * @return cars, line count and invalid lines with range-local line numbers
+     */
+    private static RangeResult decodeLines(InputStream in, boolean stopAtFirstError) throws IOException {
+        RangeResult result = new RangeResult();
+        Decoder decoder = new Decoder();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int start = 0;
+        int limit = 0;
+        int scan = 0;
+        while (true) {
+            if (limit == buffer.length) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, limit - start);
+                    limit -= start;
+                    scan -= start;
+                    start = 0;
+                } else {
+                    byte[] larger = new byte[buffer.length * 2]; // line longer than the buffer
+                    System.arraycopy(buffer, 0, larger, 0, limit);
+                    buffer = larger;
+                }
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                if (start < limit) {
+                    decodeLine(decoder, buffer, start, limit, result);
+                }
+                return result;
+            }
+            limit += read;
+            for (; scan < limit; scan++) {
+                if (buffer[scan] == '\n') {
+                    decodeLine(decoder, buffer, start, scan, result);
+                    start = scan + 1;
+                    if (stopAtFirstError && !result.rejectLines.isEmpty()) {
+                        return result;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void decodeLine(Decoder decoder, byte[] buffer, int start, int end, RangeResult result) {
+        result.lines++;
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        boolean blank = true;
+        for (int i = start; i < end && blank; i++) {
+            blank = buffer[i] == ' ' || buffer[i] == '\t';
+        }
+        if (blank) {
+            return;
+        }
+        Car car = decoder.decode(buffer, start, end);
+        if (car != null) {
+            result.cars.add(car);
+        } else {
+            result.rejectLines.add(result.lines);
+            result.rejectReasons.add(decoder.error);
+            result.rejectRecords.add(new String(buffer, start, Math.min(end - start, 200), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class RangeResult {
+        final List<Car> cars = new ArrayList<>();
+        final List<Long> rejectLines = new ArrayList<>();
+        final List<String> rejectReasons = new ArrayList<>();
+        final List<String> rejectRecords = new ArrayList<>();
+        long lines;
+    }
+
+    /**
+     * Reads a byte range of a file with positional reads, so ranges can be read concurrently
+     */
+    private static final class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int count = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, count), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Decodes one car object from UTF-8 bytes. Malformed input is reported through a
+     * shared stackless exception, so a dirty line costs no more than a clean one.
+     */
+    private static final class Decoder {
+        private static final Malformed MALFORMED = new Malformed();
+
+        private byte[] b;
+        private int pos;
+        private int end;
+        private int lineStart;
+        String error;
+
+        Car decode(byte[] bytes, int start, int limit) {
+            b = bytes;
+            pos = start;
+            lineStart = start;
+            end = limit;
+            error = null;
+            try {
+                return decodeObject();
+            } catch (Malformed e) {
+                return null;
+            }
+        }
+
+        private Car decodeObject() throws Malformed {
+            String brand = null;
+            String model = "";
+            String type = null;
+            String currency = null;
+            Map<String, Double> prices = null;
+            Date releaseDate = null;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() != '}') {
+                while (true) {
+                    skipWhitespace();
+                    String key = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if (key.equals("brand")) {
+                        brand = readString();
+                    } else if (key.equals("model")) {
+                        model = readString();
+                    } else if (key.equals("type")) {
+                        type = readString();
+                    } else if (key.equals("currency")) {
+                        currency = readString();
+                    } else if (key.equals("prices")) {
+                        prices = readPrices();
+                    } else if (key.equals("releaseDate")) {
+                        releaseDate = readDate();
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                    if (peek() == ',') {
+                        pos++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            expect('}');
+            skipWhitespace();
+            if (pos != end) {
+                fail("trailing characters");
+            }
+
+            if (brand == null || type == null) {
+                fail("missing brand or type");
+            }
+            if (prices == null || prices.isEmpty()) {
+                fail("missing prices");
+            }
+            if (releaseDate == null) {
+                fail("missing releaseDate");
+            }
+            Car car = new Car(brand, model, type, prices, releaseDate);
+            if (currency != null) {
+                car.setPreferredCurrency(currency);
+            }
+            return car;
+        }
+
+        private Map<String, Double> readPrices() throws Malformed {
+            Map<String, Double> prices = new HashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return prices;
+            }
+            while (true) {
+                skipWhitespace();
+                String currency = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                if (peek() == 'n') {
+                    readNull();
+                } else {
+                    prices.put(currency, readNumber());
+                }
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return prices;
+                }
+            }
+        }
+
+        private double readNumber() throws Malformed {
+            int start = pos;
+            while (pos < end) {
+                byte c = b[pos];
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            double value = FieldParsers.parseDouble(new String(b, start, pos - start, StandardCharsets.ISO_8859_1));
+            if (Double.isNaN(value)) {
+                fail("invalid number");
+            }
+            return value;
+        }
+
+        private void readNull() throws Malformed {
+            if (end - pos < 4 || b[pos] != 'n' || b[pos + 1] != 'u' || b[pos + 2] != 'l' || b[pos + 3] != 'l') {
+                fail("invalid value at column " + column());
+            }
+            pos += 4;
+        }
+
+        private Date readDate() throws Malformed {
+            if (peek() == 'n') {
+                skipValue();
+                return null;
+            }
+            String text = readString();
+            if (text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+                fail("invalid releaseDate '" + text + "'");
+            }
+            int year = FieldParsers.parseInt(text.substring(0, 4), 1, 9999);
+            int month = FieldParsers.parseInt(text.substring(5, 7), 1, 12);
+            int day = FieldParsers.parseInt(text.substring(8, 10), 1, 31);
+            if (!FieldParsers.isValidDate(year, month, day)) {
+                fail("invalid releaseDate '" + text + "'");
+            }
+            return new GregorianCalendar(year, month - 1, day).getTime();
+        }
+
+        private String readString() throws Malformed {
+            expect('"');
+            int start = pos;
+            boolean simple = true;
+            while (pos < end && b[pos] != '"') {
+                if (b[pos] == '\\') {
+                    simple = false;
+                    pos++; // skip the escaped character
+                } else if (b[pos] < 0) {
+                    simple = false; // non-ASCII UTF-8 byte
+                }
+                pos++;
+            }
+            if (pos >= end) {
+                fail("unterminated string");
+            }
+            int length = pos - start;
+            pos++;
+            if (simple) {
+                return new String(b, start, length, StandardCharsets.ISO_8859_1);
+            }
+            return unescape(new String(b, start, length, StandardCharsets.UTF_8));
+        }
+
+        private String unescape(String raw) throws Malformed {
+            StringBuilder sb = new StringBuilder(raw.length());
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (++i >= raw.length()) {
+                    fail("bad escape");
+                }
+                char e = raw.charAt(i);
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(e);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (i + 4 >= raw.length()) {
+                            fail("bad unicode escape");
+                        }
+                        int code = 0;
+                        for (int k = 1; k <= 4; k++) {
+                            int digit = Character.digit(raw.charAt(i + k), 16);
+                            if (digit < 0) {
+                                fail("bad unicode escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        sb.append((char) code);
+                        i += 4;
+                        break;
+                    default:
+                        fail("bad escape");
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Skip any JSON value, including nested objects and arrays
+         */
+        private void skipValue() throws Malformed {
+            byte c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = peek();
+                    if (c == '"') {
+                        readString();
+                        continue;
+                    }
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                    pos++;
+                } while (depth > 0);
+            } else {
+                int start = pos;
+                while (pos < end && b[pos] != ',' && b[pos] != '}' && b[pos] != ']' && b[pos] != ' ') {
+                    pos++;
+                }
+                if (pos == start) {
+                    fail("missing value");
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && (b[pos] == ' ' || b[pos] == '\t' || b[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        private byte peek() throws Malformed {
+            if (pos >= end) {
+                fail("unexpected end of line");
+            }
+            return b[pos];
+        }
+
+        private void expect(char c) throws Malformed {
+            if (peek() != c) {
+                fail("expected '" + c + "' at column " + column());
+            }
+            pos++;
+        }
+
+        /**
+         * Get the 1-based byte column of the current position within the line
+         */
+        private int column() {
+            return pos - lineStart + 1;
+        }
+
+        private void fail(String reason) throws Malformed {
+            error = reason;
+            throw MALFORMED;
+        }
+    }
+
+    private static final class Malformed extends Exception {
+        Malformed() {
+            super(null, null, false, false);
+        }
+    }
+}
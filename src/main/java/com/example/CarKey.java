@@ -0,0 +1,144 @@
+package com.example;
+
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Identity of a car record, built from a configurable set of fields.
+ * Car itself has no equals or hashCode, because two rows for the same model may
+ * legitimately differ in price; a key decides which rows describe the same car when
+ * feeds are merged. Brands compare case-insensitively, like the brand filters.
+ */
+public final class CarKey {
+    /** Fields a key can be built from */
+    public enum Field {
+        BRAND, MODEL, TYPE, RELEASE_DATE
+    }
+
+    /** Brand, model, type and release date */
+    public static final CarKey DEFAULT = of(Field.BRAND, Field.MODEL, Field.TYPE, Field.RELEASE_DATE);
+
+    private final boolean brand;
+    private final boolean model;
+    private final boolean type;
+    private final boolean releaseDate;
+
+    private CarKey(Set<Field> fields) {
+        this.brand = fields.contains(Field.BRAND);
+        this.model = fields.contains(Field.MODEL);
+        this.type = fields.contains(Field.TYPE);
+        this.releaseDate = fields.contains(Field.RELEASE_DATE);
+    }
+
+    /**
+     * Create a key over the given fields
+     *
+     * @param first first field
+     * @param rest further fields
+     * @return key comparing cars on exactly these fields
+     */
+    public static CarKey of(Field first, Field... rest) {
+        return new CarKey(EnumSet.of(first, rest));
+    }
+
+    /**
+     * Compute a 64-bit hash of the key fields without allocating
+     *
+     * @param car car to hash
+     * @return well-mixed hash; equal keys always hash equally
+     */
+    public long hash(Car car) {
+        long h = 0x9E3779B97F4A7C15L;
+        if (brand) {
+            h = hashString(h, car.getBrand(), true);
+        }
+        if (model) {
+            h = hashString(h, car.getModel(), false);
+        }
+        if (type) {
+            h = hashString(h, car.getType(), false);
+        }
+        if (releaseDate) {
+            Date date = car.getReleaseDate();
+            h = mix(h ^ (date == null ? 0 : date.getTime()));
+        }
+        return h;
+    }
+
+    /**
+     * Check whether two cars have the same key
+     *
+     * @param a first car
+     * @param b second car
+     * @return true if all key fields are equal
+     */
+    public boolean matches(Car a, Car b) {
+        if (brand && !equalsIgnoreCase(a.getBrand(), b.getBrand())) {
+            return false;
+        }
+        if (model && !equal(a.getModel(), b.getModel())) {
+            return false;
+        }
+        if (type && !equal(a.getType(), b.getType())) {
+            return false;
+        }
+        return !releaseDate || equal(a.getReleaseDate(), b.getReleaseDate());
+    }
+
+    /**
+     * Describe a car's key for logs and reject reports
+     *
+     * @param car car to describe
+     * @return key fields as "field=value" pairs
+     */
+    public String describe(Car car) {
+        StringBuilder sb = new StringBuilder();
+        if (brand) {
+            sb.append("brand=").append(car.getBrand());
+        }
+        if (model) {
+            sb.append(sb.length() > 0 ? ", " : "").append("model=").append(car.getModel());
+        }
+        if (type) {
+            sb.append(sb.length() > 0 ? ", " : "").append("type=").append(car.getType());
+        }
+        if (releaseDate) {
+            sb.append(sb.length() > 0 ? ", " : "").append("releaseDate=").append(car.getReleaseDate());
+        }
+        return sb.toString();
+    }
+
+    private static long hashString(long h, String value, boolean ignoreCase) {
+        if (value == null) {
+            return mix(h ^ 0x5bd1e995L);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (ignoreCase) {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            h = (h ^ c) * 0x100000001B3L;
+        }
+        // Field separator, so ("ab","c") and ("a","bc") hash differently
+        return mix(h ^ value.length());
+    }
+
+    /** Finalizer from MurmurHash3, spreads all input bits over the result */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean equalsIgnoreCase(String a, String b) {
+        return a == null ? b == null : a.equalsIgnoreCase(b);
+    }
+}
@@ -1,19 +1,25 @@
 package com.example;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
@@ -25,18 +31,45 @@ import org.w3c.dom.Element;
 public class CarProcessor {
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy,dd,MM");
+    // Element names of the fields a lazy XML scan keeps
+    private static final Map<String, LazyCar.Field> XML_FIELDS = new HashMap<>();
+
+    static {
+        XML_FIELDS.put("brand", LazyCar.Field.BRAND);
+        XML_FIELDS.put("type", LazyCar.Field.TYPE);
+        XML_FIELDS.put("price", LazyCar.Field.PRICE);
+        XML_FIELDS.put("releaseDate", LazyCar.Field.RELEASE_DATE);
+        XML_FIELDS.put("currency", LazyCar.Field.CURRENCY);
+    }
 
     /**
-     * Parses car data from an XML file.
+     * Parses car data from an XML file, which may be gzip or zip compressed.
      * @param filePath path to the XML file
      * @return list of Car objects
      * @throws Exception if parsing fails
      */
     public List<Car> parseXml(String filePath) throws Exception {
         List<Car> cars = new ArrayList<>();
+        streamXml(filePath, cars::add);
+        return cars;
+    }
+
+    /**
+     * Parses car data from an XML file and hands each car to a consumer as it is
+     * read, e.g. a PriceStatistics, without collecting the cars into a list.
+     * @param filePath path to the XML file
+     * @param consumer receives every car in document order
+     * @throws Exception if parsing fails
+     */
+    public void streamXml(String filePath, Consumer<Car> consumer) throws Exception {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(Files.newInputStream(Paths.get(filePath)));
+        Document doc;
+        try (InputStream in = CompressedInput.open(Paths.get(filePath))) {
+            doc = builder.parse(in);
+        }
         doc.getDocumentElement().normalize();
 
         NodeList nodeList = doc.getElementsByTagName("car");
@@ -49,13 +82,13 @@ public class CarProcessor {
             LocalDate releaseDate = LocalDate.parse(releaseDateStr, DATE_FORMATTER);
             String currency = carElement.getElementsByTagName("currency").item(0).getTextContent();
 
-            cars.add(new Car(brand, type, price, releaseDate, currency));
+            consumer.accept(new Car(brand, type, price, releaseDate, currency));
         }
-        return cars;
+        event.end(filePath, "XML", nodeList.getLength(), 0);
     }
 
     /**
-     * Parses car data from a CSV file.
+     * Parses car data from a CSV file, which may be gzip or zip compressed.
      * Expected CSV format: brand,type,price,releaseDate,currency
      * releaseDate format: yyyy,dd,MM
      * @param filePath path to the CSV file
@@ -64,29 +97,335 @@ public class CarProcessor {
      */
     public List<Car> parseCsv(String filePath) throws IOException {
         List<Car> cars = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+        streamCsv(filePath, cars::add);
+        return cars;
+    }
+
+    /**
+     * Parses car data from a CSV file and hands each car to a consumer as it is read.
+     * @param filePath path to the CSV file
+     * @param consumer receives every car in file order
+     * @throws IOException if reading file fails
+     */
+    public void streamCsv(String filePath, Consumer<Car> consumer) throws IOException {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        long rows = 0;
+        try (BufferedReader br = CompressedInput.openReader(filePath)) {
+            String line;
+            // Skip header
+            br.readLine();
+            while ((line = br.readLine()) != null) {
+                Car car = parseCsvLine(line);
+                if (car == null) continue;
+                consumer.accept(car);
+                rows++;
+            }
+        }
+        event.end(filePath, "CSV", rows, 0);
+    }
+
+    /**
+     * Parses one CSV data line: brand,type,price,yyyy,dd,MM,currency
+     * @param line line without its line terminator
+     * @return the car, or null if the line has fewer than 7 fields
+     * @throws NumberFormatException if the price or a date part is not a number
+     * @throws java.time.DateTimeException if the date does not exist
+     */
+    static Car parseCsvLine(String line) {
+        String[] parts = line.split(",");
+        if (parts.length < 7) {
+            return null;
+        }
+        String brand = parts[0].trim();
+        String type = parts[1].trim();
+        double price = Double.parseDouble(parts[2].trim());
+        // releaseDate is split into 3 parts yyyy,dd,mm
+        int year = Integer.parseInt(parts[3].trim());
+        int day = Integer.parseInt(parts[4].trim());
+        int month = Integer.parseInt(parts[5].trim());
+        LocalDate releaseDate = LocalDate.of(year, month, day);
+        String currency = parts[6].trim();
+        return new Car(brand, type, price, releaseDate, currency);
+    }
+
+    /**
+     * Scans a CSV file lazily: each line is kept with the offsets of its fields, the
+     * filter is evaluated on the raw text, and only matching records are passed on,
+     * with the projected fields decoded. Other fields are decoded when first read.
+     * Lines with fewer than 7 fields are skipped, as in streamCsv.
+     * @param filePath path to the CSV file, which may be gzip or zip compressed
+     * @param filter predicate pushed into the scan, CarFilter.NONE for every record
+     * @param projection fields decoded for matching records, e.g. the columns a query outputs
+     * @param consumer receives matching records in file order
+     * @throws IOException if reading file fails
+     */
+    public void scanCsv(String filePath, CarFilter filter, Set<LazyCar.Field> projection,
+                        Consumer<? super LazyCar> consumer) throws IOException {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        long rows = 0;
+        int[] commas = new int[6];
+        try (BufferedReader br = CompressedInput.openReader(filePath)) {
+            String line;
+            // Skip header
+            br.readLine();
+            while ((line = br.readLine()) != null) {
+                int found = 0;
+                for (int i = line.indexOf(','); i >= 0 && found < commas.length; i = line.indexOf(',', i + 1)) {
+                    commas[found++] = i;
+                }
+                if (found < commas.length) {
+                    continue;
+                }
+                int end = line.indexOf(',', commas[5] + 1);
+                int[] bounds = new int[2 * LazyCar.Field.values().length];
+                LazyCar.setBounds(bounds, LazyCar.Field.BRAND, line, 0, commas[0]);
+                LazyCar.setBounds(bounds, LazyCar.Field.TYPE, line, commas[0] + 1, commas[1]);
+                LazyCar.setBounds(bounds, LazyCar.Field.PRICE, line, commas[1] + 1, commas[2]);
+                // The release date spans the yyyy, dd and MM columns
+                LazyCar.setBounds(bounds, LazyCar.Field.RELEASE_DATE, line, commas[2] + 1, commas[5]);
+                LazyCar.setBounds(bounds, LazyCar.Field.CURRENCY, line, commas[5] + 1, end < 0 ? line.length() : end);
+                LazyCar car = new LazyCar(line, bounds);
+                rows++;
+                if (car.matches(filter)) {
+                    car.decode(projection);
+                    consumer.accept(car);
+                }
+            }
+        }
+        event.end(filePath, "CSV (lazy)", rows, 0);
+    }
+
+    /**
+     * Scans an XML file lazily with a streaming reader. The text of each car's brand,
+     * type, price, release date and currency elements is kept in one string with the
+     * field offsets; numbers and dates are only parsed when a filter or a reader needs them.
+     * @param filePath path to the XML file, which may be gzip or zip compressed
+     * @param filter predicate pushed into the scan, CarFilter.NONE for every record
+     * @param projection fields decoded for matching records, e.g. the columns a query outputs
+     * @param consumer receives matching records in document order
+     * @throws Exception if the file cannot be read, is not well-formed or a car misses a field
+     */
+    public void scanXml(String filePath, CarFilter filter, Set<LazyCar.Field> projection,
+                        Consumer<? super LazyCar> consumer) throws Exception {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        long rows = 0;
+        long carNumber = 0;
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        try (InputStream in = CompressedInput.open(Paths.get(filePath))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                StringBuilder record = null;
+                int[] bounds = null;
+                int seen = 0;
+                while (reader.hasNext()) {
+                    int xmlEvent = reader.next();
+                    if (xmlEvent == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("car")) {
+                            record = new StringBuilder();
+                            bounds = new int[2 * LazyCar.Field.values().length];
+                            seen = 0;
+                            carNumber++;
+                        } else if (record != null) {
+                            LazyCar.Field field = XML_FIELDS.get(name);
+                            if (field != null) {
+                                int start = record.length();
+                                record.append(reader.getElementText()).append('\t');
+                                LazyCar.setBounds(bounds, field, record, start, record.length() - 1);
+                                seen |= 1 << field.ordinal();
+                            }
+                        }
+                    } else if (xmlEvent == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("car")
+                            && record != null) {
+                        if (seen != (1 << LazyCar.Field.values().length) - 1) {
+                            throw new Exception("Car " + carNumber + " of " + filePath + " is missing a field");
+                        }
+                        LazyCar car = new LazyCar(record.toString(), bounds);
+                        rows++;
+                        if (car.matches(filter)) {
+                            car.decode(projection);
+                            consumer.accept(car);
+                        }
+                        record = null;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        event.end(filePath, "XML (lazy)", rows, 0);
+    }
+
+    /**
+     * Parses car data from an XML file without throwing on bad records.
+     * Cars with a missing tag, an invalid price or an invalid release date are passed
+     * to the error budget's reject sink and skipped.
+     * @param filePath path to the XML file
+     * @param budget error budget receiving rejected cars
+     * @return list of valid Car objects
+     * @throws ErrorBudgetExceededException if more cars are rejected than the budget allows
+     * @throws Exception if the file cannot be read or is not well-formed XML
+     */
+    public List<Car> parseXml(String filePath, ErrorBudget budget) throws Exception {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        List<Car> cars = new ArrayList<>();
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document doc;
+        try (InputStream in = CompressedInput.open(Paths.get(filePath))) {
+            doc = builder.parse(in);
+        }
+        doc.getDocumentElement().normalize();
+
+        NodeList nodeList = doc.getElementsByTagName("car");
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Element carElement = (Element) nodeList.item(i);
+            String brand = childText(carElement, "brand");
+            String type = childText(carElement, "type");
+            String priceText = childText(carElement, "price");
+            String releaseDateStr = childText(carElement, "releaseDate");
+            String currency = childText(carElement, "currency");
+
+            String reason = null;
+            double price = FieldParsers.parseDouble(priceText);
+            LocalDate releaseDate = parseReleaseDate(releaseDateStr);
+            if (brand == null || type == null || priceText == null || releaseDateStr == null || currency == null) {
+                reason = "missing field";
+            } else if (Double.isNaN(price)) {
+                reason = "invalid price '" + priceText + "'";
+            } else if (releaseDate == null) {
+                reason = "invalid release date '" + releaseDateStr + "'";
+            }
+
+            if (reason != null) {
+                String record = carElement.getTextContent().trim().replaceAll("\\s+", " ");
+                budget.reject(filePath, i + 1, reason, record);
+                continue;
+            }
+            cars.add(new Car(brand, type, price, releaseDate, currency));
+        }
+        event.end(filePath, "XML", cars.size(), nodeList.getLength() - cars.size());
+        return cars;
+    }
+
+    /**
+     * Parses car data from a CSV file without throwing on bad rows.
+     * Rows with too few fields, an invalid price or an invalid release date are passed
+     * to the error budget's reject sink with their line number and skipped.
+     * @param filePath path to the CSV file
+     * @param budget error budget receiving rejected rows
+     * @return list of valid Car objects
+     * @throws ErrorBudgetExceededException if more rows are rejected than the budget allows
+     * @throws IOException if reading file fails
+     */
+    public List<Car> parseCsv(String filePath, ErrorBudget budget) throws IOException, ErrorBudgetExceededException {
+        CarEvents.FileParse event = new CarEvents.FileParse();
+        event.begin();
+        List<Car> cars = new ArrayList<>();
+        long rejects = 0;
+        try (BufferedReader br = CompressedInput.openReader(filePath)) {
             String line;
+            long lineNumber = 1;
             // Skip header
             br.readLine();
             while ((line = br.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
                 String[] parts = line.split(",");
-                if (parts.length < 7) continue;
+                if (parts.length < 7) {
+                    rejects++;
+                    budget.reject(filePath, lineNumber, "expected 7 fields but found " + parts.length, line);
+                    continue;
+                }
                 String brand = parts[0].trim();
                 String type = parts[1].trim();
-                double price = Double.parseDouble(parts[2].trim());
-                // releaseDate is split into 3 parts yyyy,dd,mm
-                int year = Integer.parseInt(parts[3].trim());
-                int day = Integer.parseInt(parts[4].trim());
-                int month = Integer.parseInt(parts[5].trim());
-                LocalDate releaseDate = LocalDate.of(year, month, day);
+                double price = FieldParsers.parseDouble(parts[2].trim());
+                int year = FieldParsers.parseInt(parts[3].trim(), 1, 9999);
+                int day = FieldParsers.parseInt(parts[4].trim(), 1, 31);
+                int month = FieldParsers.parseInt(parts[5].trim(), 1, 12);
                 String currency = parts[6].trim();
 
-                cars.add(new Car(brand, type, price, releaseDate, currency));
+                if (brand.isEmpty() || currency.isEmpty()) {
+                    rejects++;
+                    budget.reject(filePath, lineNumber, "missing brand or currency", line);
+                } else if (Double.isNaN(price)) {
+                    rejects++;
+                    budget.reject(filePath, lineNumber, "invalid price '" + parts[2].trim() + "'", line);
+                } else if (!FieldParsers.isValidDate(year, month, day)) {
+                    rejects++;
+                    budget.reject(filePath, lineNumber, "invalid release date", line);
+                } else {
+                    cars.add(new Car(brand, type, price, LocalDate.of(year, month, day), currency));
+                }
             }
         }
+        event.end(filePath, "CSV", cars.size(), rejects);
         return cars;
     }
 
+    private static String childText(Element parent, String tagName) {
+        NodeList elements = parent.getElementsByTagName(tagName);
+        return elements.getLength() > 0 ? elements.item(0).getTextContent().trim() : null;
+    }
+
+    /**
+     * Parses car data from a JSON Lines file, which may be gzip or zip compressed.
+     * Each line holds one car object as written by outputJsonLinesFormat.
+     * @param filePath path to the JSON Lines file
+     * @return list of Car objects
+     * @throws IOException if reading file fails or a line is not a valid car
+     */
+    public List<Car> parseJsonLines(String filePath) throws IOException {
+        return CarJsonLines.read(filePath);
+    }
+
+    /**
+     * Parses car data from a JSON Lines file without throwing on bad lines.
+     * @param filePath path to the JSON Lines file
+     * @param budget error budget receiving rejected lines
+     * @return list of valid Car objects
+     * @throws ErrorBudgetExceededException if more lines are rejected than the budget allows
+     * @throws IOException if reading file fails
+     */
+    public List<Car> parseJsonLines(String filePath, ErrorBudget budget) throws IOException, ErrorBudgetExceededException {
+        return CarJsonLines.read(filePath, budget);
+    }
+
+    /**
+     * Parses a yyyy,dd,MM release date without throwing
+     * @return the date, or null if the text is not a valid date
+     */
+    private static LocalDate parseReleaseDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.split(",");
+        if (parts.length != 3) {
+            return null;
+        }
+        int year = FieldParsers.parseInt(parts[0].trim(), 1, 9999);
+        int day = FieldParsers.parseInt(parts[1].trim(), 1, 31);
+        int month = FieldParsers.parseInt(parts[2].trim(), 1, 12);
+        return FieldParsers.isValidDate(year, month, day) ? LocalDate.of(year, month, day) : null;
+    }
+
+    /**
+     * Merges cars that share a key, e.g. rows repeated across overlapping feeds.
+     * @param cars cars in load order
+     * @param key fields identifying a car
+     * @param policy which record survives a duplicate key
+     * @return one car per key, in order of first appearance
+     */
+    public List<Car> deduplicate(List<Car> cars, CarKey key, MergePolicy policy) {
+        return new ArrayList<>(CarDeduplicator.deduplicate(cars, key, policy));
+    }
+
     /**
      * Filters cars by brand and price.
      * @param cars list of cars
@@ -100,6 +439,20 @@ public class CarProcessor {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Filters cars by brand and price over a column snapshot, evaluating the brand
+     * and price predicates block-wise on primitive arrays.
+     * @param columns column snapshot of the cars
+     * @param brand brand to filter by
+     * @param maxPrice maximum price in the preferred currency at snapshot time
+     * @return filtered list of cars
+     */
+    public List<Car> filterByBrandAndPrice(CarColumns columns, String brand, double maxPrice) {
+        long[] selection = columns.selectBrand(brand);
+        columns.andPreferredPriceAtMost(selection, maxPrice);
+        return columns.toList(selection);
+    }
+
     /**
      * Filters cars by brand and release date.
      * @param cars list of cars
@@ -183,11 +536,13 @@ public class CarProcessor {
         for (int i = 0; i < cars.size(); i++) {
             Car car = cars.get(i);
             sb.append("  {\n");
-            sb.append("    \"brand\": \"").append(car.getBrand()).append("\",\n");
-            sb.append("    \"type\": \"").append(car.getType()).append("\",\n");
-            sb.append("    \"price\": ").append(car.getPrice()).append(",\n");
+            sb.append("    \"brand\": \"").append(CarJsonLines.escape(car.getBrand())).append("\",\n");
+            sb.append("    \"type\": \"").append(CarJsonLines.escape(car.getType())).append("\",\n");
+            double price = car.getPrice();
+            // JSON has no NaN or Infinity, so those prices are written as null like in CarJsonLines
+            sb.append("    \"price\": ").append(Double.isFinite(price) ? String.valueOf(price) : "null").append(",\n");
             sb.append("    \"releaseDate\": \"").append(car.getReleaseDate()).append("\",\n");
-            sb.append("    \"currency\": \"").append(car.getCurrency()).append("\"\n");
+            sb.append("    \"currency\": \"").append(CarJsonLines.escape(car.getCurrency())).append("\"\n");
             sb.append("  }");
             if (i < cars.size() - 1) {
                 sb.append(",");
@@ -198,6 +553,15 @@ public class CarProcessor {
         return sb.toString();
     }
 
+    /**
+     * Output cars as JSON Lines, one object per line.
+     * @param cars list of cars
+     * @return JSON Lines string
+     */
+    public String outputJsonLinesFormat(List<Car> cars) {
+        return CarJsonLines.format(cars);
+    }
+
     /**
      * Optional: Sort all SUV in EUR, all Sedan in JPY, all Truck in USD.
      * This method assumes prices are already in the respective currencies.
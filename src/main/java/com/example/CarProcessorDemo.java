@@ -12,7 +12,7 @@ public class CarProcessorDemo {
         try (Scanner scanner = new Scanner(System.in)) {
             CarProcessor processor = new CarProcessor();
 
-            System.out.println("Select input file type (1=XML, 2=CSV):");
+            System.out.println("Select input file type (1=XML, 2=CSV, 3=JSON Lines):");
             int fileType = Integer.parseInt(scanner.nextLine());
             System.out.println("Enter input file path:");
             String filePath = scanner.nextLine();
@@ -22,6 +22,8 @@ public class CarProcessorDemo {
                 cars = processor.parseXml(filePath);
             } else if (fileType == 2) {
                 cars = processor.parseCsv(filePath);
+            } else if (fileType == 3) {
+                cars = processor.parseJsonLines(filePath);
             } else {
                 System.out.println("Invalid file type selected.");
                 return;
@@ -67,6 +69,7 @@ public class CarProcessorDemo {
             System.out.println("1: Table");
             System.out.println("2: XML");
             System.out.println("3: JSON");
+            System.out.println("4: JSON Lines");
             int outputOption = Integer.parseInt(scanner.nextLine());
 
             String output;
@@ -76,6 +79,8 @@ public class CarProcessorDemo {
                 output = processor.outputXmlFormat(cars);
             } else if (outputOption == 3) {
                 output = processor.outputJsonFormat(cars);
+            } else if (outputOption == 4) {
+                output = processor.outputJsonLinesFormat(cars);
             } else {
                 System.out.println("Invalid output option.");
                 return;
@@ -0,0 +1,276 @@
+package com.example;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process harness measuring CarDataService query latency under concurrent reloads.
+ * N reader threads run filterCars, sortCars and format in a loop while a writer
+ * thread calls loadData at a fixed interval. Latencies of each stage are recorded
+ * per thread and merged; exceptions (notably ConcurrentModificationException) and
+ * inconsistent reads are counted. The results are written as a JSON report so runs
+ * from different builds can be compared.
+ * <p>
+ * Usage: CarQueryLatencyHarness [readers] [seconds] [reloadIntervalMs] [reportFile] [label]
+ */
+public class CarQueryLatencyHarness {
+    private static final String[][] FILTERS = {
+        {"None", "", "", ""},
+        {"Brand", "Toyota", "", ""},
+        {"Brand and Price", "20000", "Ford", ""},
+        {"Brand and Release Date", "Honda", "", "2022-01-01"},
+    };
+    private static final String[] SORTS = {"None", "Latest to Oldest", "Highest Price to Lowest"};
+    private static final String[] FORMATS = {"XML", "JSON", "Table"};
+
+    private final CarDataService carDataService;
+    private final int readers;
+    private final long durationMillis;
+    private final long reloadIntervalMillis;
+
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final AtomicLong inconsistentReads = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final LatencyHistogram reloadLatency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> stageLatency = new LinkedHashMap<>();
+    private long operations;
+    private double elapsedSeconds;
+
+    public CarQueryLatencyHarness(CarDataService carDataService, int readers, long durationMillis,
+                                  long reloadIntervalMillis) {
+        this.carDataService = carDataService;
+        this.readers = readers;
+        this.durationMillis = durationMillis;
+        this.reloadIntervalMillis = reloadIntervalMillis;
+    }
+
+    /**
+     * Run the readers and the writer for the configured duration
+     *
+     * @throws Exception if the initial load fails or the run is interrupted
+     */
+    public void run() throws Exception {
+        carDataService.loadData();
+        int expectedSize = carDataService.getCars().size();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Reader> readerTasks = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            Reader reader = new Reader(i, expectedSize, running);
+            readerTasks.add(reader);
+            threads.add(new Thread(reader, "latency-reader-" + i));
+        }
+        Thread writer = new Thread(() -> runWriter(running), "latency-writer");
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        writer.start();
+
+        Thread.sleep(durationMillis);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.join();
+        elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        for (String stage : new String[]{"filter", "sort", "format", "total"}) {
+            stageLatency.put(stage, new LatencyHistogram());
+        }
+        for (Reader reader : readerTasks) {
+            stageLatency.get("filter").merge(reader.filter);
+            stageLatency.get("sort").merge(reader.sort);
+            stageLatency.get("format").merge(reader.format);
+            stageLatency.get("total").merge(reader.total);
+            operations += reader.total.getTotalCount();
+        }
+    }
+
+    private void runWriter(AtomicBoolean running) {
+        while (running.get()) {
+            try {
+                Thread.sleep(reloadIntervalMillis);
+                long start = System.nanoTime();
+                carDataService.loadData();
+                reloadLatency.record(System.nanoTime() - start);
+                reloads.incrementAndGet();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                recordError("reload:" + e.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private void recordError(String kind) {
+        errors.computeIfAbsent(kind, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Reader loop cycling through a fixed mix of filters, sorts and formats
+     */
+    private final class Reader implements Runnable {
+        final LatencyHistogram filter = new LatencyHistogram();
+        final LatencyHistogram sort = new LatencyHistogram();
+        final LatencyHistogram format = new LatencyHistogram();
+        final LatencyHistogram total = new LatencyHistogram();
+        private final int seed;
+        private final int expectedSize;
+        private final AtomicBoolean running;
+
+        Reader(int seed, int expectedSize, AtomicBoolean running) {
+            this.seed = seed;
+            this.expectedSize = expectedSize;
+            this.running = running;
+        }
+
+        @Override
+        public void run() {
+            long i = seed;
+            while (running.get()) {
+                String[] query = FILTERS[(int) (i % FILTERS.length)];
+                String sortType = SORTS[(int) (i / FILTERS.length % SORTS.length)];
+                String outputFormat = FORMATS[(int) (i % FORMATS.length)];
+                i++;
+                try {
+                    long t0 = System.nanoTime();
+                    List<Car> result = carDataService.filterCars(query[0], query[1], query[2], query[3]);
+                    long t1 = System.nanoTime();
+                    carDataService.sortCars(result, sortType);
+                    long t2 = System.nanoTime();
+                    String output = carDataService.format(result, outputFormat);
+                    long t3 = System.nanoTime();
+
+                    filter.record(t1 - t0);
+                    sort.record(t2 - t1);
+                    format.record(t3 - t2);
+                    total.record(t3 - t0);
+
+                    if (!isConsistent(query, result) || output.isEmpty()) {
+                        inconsistentReads.incrementAndGet();
+                    }
+                } catch (ConcurrentModificationException e) {
+                    recordError("ConcurrentModificationException");
+                } catch (Exception e) {
+                    recordError(e.getClass().getSimpleName());
+                }
+            }
+        }
+
+        /**
+         * Every reload reads the same files, so an unfiltered read must always see the
+         * full dataset and a brand filter must only return that brand
+         */
+        private boolean isConsistent(String[] query, List<Car> result) {
+            if (query[0].equals("None")) {
+                return result.size() == expectedSize;
+            }
+            String brand = query[0].equals("Brand and Price") ? query[2] : query[1];
+            for (Car car : result) {
+                if (car == null || !car.getBrand().equalsIgnoreCase(brand)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Write the results as a JSON report
+     *
+     * @param out destination
+     * @param label free-form build label to tell runs apart
+     * @throws IOException if writing fails
+     */
+    public void writeReport(Writer out, String label) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"label\": \"").append(CarJsonLines.escape(label)).append("\",\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"readers\": ").append(readers).append(",\n");
+        json.append("  \"reloadIntervalMs\": ").append(reloadIntervalMillis).append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(String.format(Locale.ROOT, "%.3f", elapsedSeconds)).append(",\n");
+        json.append("  \"operations\": ").append(operations).append(",\n");
+        json.append("  \"throughputOpsPerSec\": ").append(String.format(Locale.ROOT, "%.1f", operations / elapsedSeconds)).append(",\n");
+        json.append("  \"reloads\": ").append(reloads.get()).append(",\n");
+        json.append("  \"inconsistentReads\": ").append(inconsistentReads.get()).append(",\n");
+        json.append("  \"errors\": {");
+        String separator = "";
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+            json.append(separator).append("\"").append(CarJsonLines.escape(error.getKey())).append("\": ").append(error.getValue().get());
+            separator = ", ";
+        }
+        json.append("},\n");
+        json.append("  \"latencyNanos\": {\n");
+        Map<String, LatencyHistogram> all = new LinkedHashMap<>(stageLatency);
+        all.put("reload", reloadLatency);
+        int index = 0;
+        for (Map.Entry<String, LatencyHistogram> stage : all.entrySet()) {
+            LatencyHistogram histogram = stage.getValue();
+            json.append("    \"").append(stage.getKey()).append("\": {")
+                .append("\"count\": ").append(histogram.getTotalCount())
+                .append(", \"mean\": ").append(String.format(Locale.ROOT, "%.1f", histogram.getMean()))
+                .append(", \"p50\": ").append(histogram.getValueAtPercentile(50))
+                .append(", \"p90\": ").append(histogram.getValueAtPercentile(90))
+                .append(", \"p99\": ").append(histogram.getValueAtPercentile(99))
+                .append(", \"p999\": ").append(histogram.getValueAtPercentile(99.9))
+                .append(", \"max\": ").append(histogram.getMax())
+                .append("}").append(++index < all.size() ? "," : "").append("\n");
+        }
+        json.append("  }\n");
+        json.append("}\n");
+        out.write(json.toString());
+    }
+
+    public long getErrorCount() {
+        long count = 0;
+        for (AtomicLong value : errors.values()) {
+            count += value.get();
+        }
+        return count;
+    }
+
+    public long getInconsistentReads() {
+        return inconsistentReads.get();
+    }
+
+    public static void main(String[] args) {
+        try {
+            int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+            int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+            long reloadInterval = args.length > 2 ? Long.parseLong(args[2]) : 100;
+            String reportFile = args.length > 3 ? args[3] : "latency-report.json";
+            String label = args.length > 4 ? args[4] : "local";
+
+            CarQueryLatencyHarness harness = new CarQueryLatencyHarness(
+                    new CarDataService(), readers, seconds * 1000L, reloadInterval);
+            harness.run();
+            try (Writer writer = new FileWriter(reportFile)) {
+                harness.writeReport(writer, label);
+            }
+
+            System.out.println("total:  " + harness.stageLatency.get("total").summary());
+            System.out.println("reload: " + harness.reloadLatency.summary());
+            System.out.println("errors=" + harness.getErrorCount() + " inconsistentReads=" + harness.getInconsistentReads());
+            System.out.println("Report written to " + reportFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
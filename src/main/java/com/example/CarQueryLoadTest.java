@@ -0,0 +1,118 @@
+package com.example;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local load generator for CarQueryServer.
+ * Runs N client threads issuing a fixed mix of queries for a given duration over
+ * keep-alive connections and reports latency percentiles and requests per second.
+ * <p>
+ * Usage: CarQueryLoadTest [threads] [seconds] [baseUrl]
+ * Without a base URL an embedded server is started on an ephemeral port.
+ */
+public class CarQueryLoadTest {
+    private static final String[] QUERIES = {
+        "/cars?format=json",
+        "/cars?filter=Brand&value=Toyota&format=xml",
+        "/cars?filter=Brand+and+Price&value=30000&brand=Ford&format=json",
+        "/cars?sort=Highest+Price+to+Lowest&limit=3&format=json",
+        "/cars?sort=Latest+to+Oldest&currency=true&format=table",
+    };
+
+    public static void main(String[] args) {
+        CarQueryServer embedded = null;
+        try {
+            int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+            int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+            String baseUrl;
+            if (args.length > 2) {
+                baseUrl = args[2];
+            } else {
+                CarDataService carDataService = new CarDataService();
+                carDataService.loadData();
+                embedded = new CarQueryServer(carDataService, 0, threads * 2);
+                embedded.start();
+                baseUrl = "http://127.0.0.1:" + embedded.getPort();
+            }
+
+            System.out.println("Running " + threads + " clients for " + seconds + "s against " + baseUrl);
+            run(baseUrl, threads, Duration.ofSeconds(seconds));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (embedded != null) {
+                embedded.stop(0);
+            }
+        }
+    }
+
+    /**
+     * Drive the server and print a report
+     *
+     * @param baseUrl server base URL
+     * @param threads number of concurrent clients
+     * @param duration how long to run
+     * @return merged latency histogram in nanoseconds
+     * @throws InterruptedException if interrupted while waiting for clients
+     */
+    public static LatencyHistogram run(String baseUrl, int threads, Duration duration) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        AtomicLong errors = new AtomicLong();
+        List<LatencyHistogram> histograms = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        long deadline = System.nanoTime() + duration.toNanos();
+
+        for (int t = 0; t < threads; t++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histograms.add(histogram);
+            int offset = t;
+            Thread worker = new Thread(() -> {
+                int i = offset;
+                while (System.nanoTime() < deadline) {
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + QUERIES[i++ % QUERIES.length]))
+                            .header("Accept-Encoding", "gzip")
+                            .GET()
+                            .build();
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        histogram.record(System.nanoTime() - start);
+                        if (response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            }, "load-client-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            merged.merge(histogram);
+        }
+        System.out.printf("requests=%d errors=%d throughput=%.0f req/s%n",
+                merged.getTotalCount(), errors.get(), merged.getTotalCount() / elapsedSeconds);
+        System.out.printf("p50=%.2fms p99=%.2fms max=%.2fms%n",
+                merged.getValueAtPercentile(50) / 1e6, merged.getValueAtPercentile(99) / 1e6, merged.getMax() / 1e6);
+        return merged;
+    }
+}
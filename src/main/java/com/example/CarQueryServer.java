@@ -0,0 +1,287 @@
+package com.example;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Embedded HTTP service exposing filter, sort, top-K and format over a shared CarDataService.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *   <li>GET /cars?filter=Brand&amp;value=Toyota&amp;brand=&amp;date=&amp;sort=Latest+to+Oldest
+ *       &amp;currency=true&amp;format=json|ndjson|xml|table&amp;limit=10; with explain=true the
+ *       execution profile of the query is returned instead of the cars</li>
+ *   <li>GET /suggest?q=toy&amp;limit=8 - brand and model typeahead, tolerating small typos</li>
+ *   <li>POST /reload - reload the data files</li>
+ *   <li>GET /stats - dataset version, size, result cache statistics and estimated memory</li>
+ * </ul>
+ * Parameter values match the choices of the Swing UI. Responses are sent chunked,
+ * gzip-compressed when the client accepts it, over keep-alive connections.
+ */
+public class CarQueryServer {
+    public static final int DEFAULT_PORT = 8080;
+    // Profile one query in a hundred and log those slower than this
+    private static final double PROFILE_SAMPLE_RATE = 0.01;
+    private static final long SLOW_QUERY_MILLIS = 100;
+    private static final int CHUNK_SIZE = 8192;
+
+    static {
+        // Without TCP_NODELAY small keep-alive responses stall on delayed ACKs (~40 ms each)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final CarDataService carDataService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Create a server bound to the loopback interface
+     *
+     * @param carDataService loaded service to query
+     * @param port port to listen on, 0 for an ephemeral port
+     * @param threads worker threads when virtual threads are unavailable
+     * @throws IOException if the port cannot be bound
+     */
+    public CarQueryServer(CarDataService carDataService, int port, int threads) throws IOException {
+        this.carDataService = carDataService;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.executor = VirtualThreads.newExecutor("car-query-http", threads);
+        server.setExecutor(executor);
+        server.createContext("/cars", this::handleCars);
+        server.createContext("/suggest", this::handleSuggest);
+        server.createContext("/reload", this::handleReload);
+        server.createContext("/stats", this::handleStats);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests and release the worker threads
+     *
+     * @param delaySeconds time to let in-flight exchanges finish
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleCars(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "text/plain", "Use GET");
+                return;
+            }
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String filterType = params.getOrDefault("filter", "None");
+            String filterValue = params.getOrDefault("value", "");
+            String brandValue = params.getOrDefault("brand", "");
+            String dateStr = params.getOrDefault("date", "");
+            String sortType = params.getOrDefault("sort", "None");
+            boolean currencyFilter = Boolean.parseBoolean(params.getOrDefault("currency", "false"));
+            String format = outputFormat(params.getOrDefault("format", "json"));
+
+            String output;
+            if (Boolean.parseBoolean(params.getOrDefault("explain", "false"))) {
+                QueryProfile profile = carDataService.explainQuery(
+                        filterType, filterValue, brandValue, dateStr, sortType, currencyFilter, format);
+                sendText(exchange, 200, "text/plain", profile.toString());
+                return;
+            } else if (params.containsKey("limit")) {
+                int limit = Integer.parseInt(params.get("limit"));
+                if (limit < 0) {
+                    throw new IllegalArgumentException("limit must not be negative");
+                }
+                List<Car> top = carDataService.queryTopK(
+                        filterType, filterValue, brandValue, dateStr, sortType, currencyFilter, limit);
+                output = carDataService.format(top, format);
+            } else {
+                output = carDataService.queryFormatted(
+                        filterType, filterValue, brandValue, dateStr, sortType, currencyFilter, format);
+            }
+            sendText(exchange, 200, contentType(format), output);
+        } catch (ParseException | IllegalArgumentException e) {
+            sendText(exchange, 400, "text/plain", e.getMessage());
+        } catch (MemoryBudgetExceededException e) {
+            sendText(exchange, 503, "text/plain", e.getMessage());
+        } catch (Exception e) {
+            sendText(exchange, 500, "text/plain", "Error processing data: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSuggest(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            int limit = Integer.parseInt(params.getOrDefault("limit", "8"));
+            StringBuilder json = new StringBuilder("[");
+            for (TypeaheadIndex.Suggestion suggestion : carDataService.suggest(params.getOrDefault("q", ""), limit)) {
+                json.append(json.length() > 1 ? ",\n" : "\n")
+                    .append("  {\"text\": \"").append(CarJsonLines.escape(suggestion.getText()))
+                    .append("\", \"kind\": \"").append(suggestion.getKind())
+                    .append("\", \"brand\": \"").append(CarJsonLines.escape(suggestion.getBrand()))
+                    .append("\", \"count\": ").append(suggestion.getCount())
+                    .append(", \"distance\": ").append(suggestion.getDistance()).append("}");
+            }
+            json.append("\n]\n");
+            sendText(exchange, 200, "application/json", json.toString());
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 400, "text/plain", e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleReload(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "text/plain", "Use POST");
+                return;
+            }
+            carDataService.loadData();
+            sendText(exchange, 200, "text/plain", "Reloaded " + carDataService.getCars().size() + " cars");
+        } catch (Exception e) {
+            sendText(exchange, 500, "text/plain", "Error loading data: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            QueryResultCache cache = carDataService.getResultCache();
+            HeapFootprint footprint = carDataService.getFootprint();
+            String json = "{\"dataVersion\": " + carDataService.getDataVersion()
+                    + ", \"cars\": " + carDataService.getCars().size()
+                    + ", \"cacheEntries\": " + cache.size()
+                    + ", \"cacheBytes\": " + cache.getUsedBytes()
+                    + ", \"cacheHits\": " + cache.getHitCount()
+                    + ", \"cacheMisses\": " + cache.getMissCount()
+                    + ", \"heapBytes\": " + footprint.getHeapBytes()
+                    + ", \"indexBytes\": " + footprint.getIndexBytes()
+                    + ", \"offHeapBytes\": " + footprint.getOffHeapBytes()
+                    + ", \"budgetBytes\": " + footprint.getBudgetBytes() + "}\n";
+            sendText(exchange, 200, "application/json", json);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send a text body with chunked transfer encoding, gzip-compressed if accepted
+     */
+    private static void sendText(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType + "; charset=UTF-8");
+        boolean gzip = acceptsGzip(exchange.getRequestHeaders());
+        if (gzip) {
+            headers.set("Content-Encoding", "gzip");
+        }
+        headers.set("Vary", "Accept-Encoding");
+        // Length 0 selects chunked encoding, so large results start flowing immediately
+        exchange.sendResponseHeaders(status, 0);
+
+        OutputStream out = exchange.getResponseBody();
+        if (gzip) {
+            out = new GZIPOutputStream(out, CHUNK_SIZE);
+        }
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            for (int offset = 0; offset < body.length(); offset += CHUNK_SIZE) {
+                writer.write(body, offset, Math.min(CHUNK_SIZE, body.length() - offset));
+            }
+        }
+    }
+
+    private static boolean acceptsGzip(Headers requestHeaders) {
+        List<String> values = requestHeaders.get("Accept-Encoding");
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            if (value.toLowerCase().contains("gzip")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String outputFormat(String format) {
+        if (format.equalsIgnoreCase("json")) {
+            return "JSON";
+        } else if (format.equalsIgnoreCase("ndjson")) {
+            return "NDJSON";
+        } else if (format.equalsIgnoreCase("xml")) {
+            return "XML";
+        } else if (format.equalsIgnoreCase("table")) {
+            return "Table";
+        }
+        throw new IllegalArgumentException("Unsupported output format: " + format);
+    }
+
+    private static String contentType(String format) {
+        if (format.equals("JSON")) {
+            return "application/json";
+        } else if (format.equals("NDJSON")) {
+            return "application/x-ndjson";
+        } else if (format.equals("XML")) {
+            return "application/xml";
+        }
+        return "text/plain";
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    public static void main(String[] args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+            CarDataService carDataService = new CarDataService();
+            carDataService.loadData();
+            carDataService.setQueryProfiling(PROFILE_SAMPLE_RATE, SLOW_QUERY_MILLIS,
+                    profile -> System.err.println("Slow query: " + profile.summary()));
+
+            CarQueryServer server = new CarQueryServer(carDataService, port,
+                    Runtime.getRuntime().availableProcessors() * 4);
+            server.start();
+            System.out.println("Serving " + carDataService.getCars().size() + " cars on http://127.0.0.1:"
+                    + server.getPort() + "/cars");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Read-only view of a car record, as needed by the output formats.
+ * Implemented by Car and by the flyweight rows of OffHeapCarStore, so results can
+ * be formatted straight from off-heap storage. A flyweight is repositioned as a list
+ * of views is traversed: use each view before fetching the next and do not keep it.
+ */
+public interface CarView {
+    String getBrand();
+
+    String getModel();
+
+    String getType();
+
+    /**
+     * Get the prices by currency code
+     *
+     * @return prices; read-only for flyweight rows
+     */
+    Map<String, Double> getPrices();
+
+    String getPreferredCurrency();
+
+    /**
+     * Get the price in the preferred currency
+     *
+     * @return price, or 0 if the car has no price in that currency
+     */
+    double getPrice();
+
+    Date getReleaseDate();
+}
@@ -0,0 +1,172 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Opens feed files that may be gzip or zip compressed.
+ * The format is detected from the leading magic bytes, not the file name. Compressed
+ * input is inflated on a separate thread through a PipelinedInputStream, so the
+ * parser reading the returned stream overlaps with decompression instead of waiting
+ * on it. Plain files are returned as ordinary buffered streams.
+ */
+public final class CompressedInput {
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+    /** Assumed inflation of a compressed feed whose archive does not record its size */
+    static final int EXPANSION_ESTIMATE = 10;
+    // Deflate inflates at most about 1032:1, so smaller gzip files cannot pass 4 GiB
+    private static final long MAX_UNWRAPPED_GZIP_SIZE = (1L << 32) / 1032;
+
+    private CompressedInput() {
+    }
+
+    /**
+     * Open a file, decompressing it transparently
+     *
+     * @param path file to open
+     * @return stream of the (decompressed) file content
+     * @throws IOException if the file cannot be opened or its archive is empty
+     */
+    public static InputStream open(Path path) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(path), INFLATE_BUFFER_SIZE);
+        try {
+            in.mark(4);
+            int b0 = in.read();
+            int b1 = in.read();
+            int b2 = in.read();
+            int b3 = in.read();
+            in.reset();
+
+            String threadName = "inflate-" + path.getFileName();
+            if (b0 == 0x1f && b1 == 0x8b) {
+                return new PipelinedInputStream(new GZIPInputStream(in, INFLATE_BUFFER_SIZE), threadName);
+            }
+            if (b0 == 'P' && b1 == 'K' && b2 == 3 && b3 == 4) {
+                ZipInputStream zip = new ZipInputStream(in);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null && entry.isDirectory()) {
+                    // skip directories, the first file entry is the feed
+                }
+                if (entry == null) {
+                    throw new IOException("Zip archive has no file entries: " + path);
+                }
+                return new PipelinedInputStream(zip, threadName);
+            }
+            return in;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether a file starts with a gzip or zip signature
+     *
+     * @param path file to check
+     * @return true if the file is compressed
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompressed(Path path) throws IOException {
+        byte[] magic = new byte[4];
+        int length;
+        try (InputStream in = Files.newInputStream(path)) {
+            length = in.readNBytes(magic, 0, magic.length);
+        }
+        return (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b)
+                || (length == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4);
+    }
+
+    /**
+     * Estimate the size of a file's content once decompressed, e.g. to budget the
+     * memory its parse takes. Gzip files record the size modulo 2^32 in their
+     * trailer and zip archives in their central directory. Where the size is not
+     * recorded, or a large gzip file may have wrapped it, EXPANSION_ESTIMATE times
+     * the file size is used.
+     *
+     * @param path file to measure
+     * @return decompressed size in bytes, the file size for plain files
+     * @throws IOException if the file cannot be read
+     */
+    public static long estimateUncompressedSize(Path path) throws IOException {
+        long size = Files.size(path);
+        if (!isCompressed(path)) {
+            return size;
+        }
+        long recorded = -1;
+        byte[] magic = new byte[2];
+        try (InputStream in = Files.newInputStream(path)) {
+            in.readNBytes(magic, 0, magic.length);
+        }
+        if ((magic[0] & 0xff) == 0x1f) {
+            // ISIZE: the last four bytes, little-endian
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(trailer, size - 4);
+                trailer.flip();
+                if (trailer.remaining() == 4) {
+                    recorded = trailer.getInt() & 0xffffffffL;
+                }
+                // Below the file size the recorded size wrapped past 4 GiB
+                if (size >= MAX_UNWRAPPED_GZIP_SIZE && recorded < size) {
+                    recorded = -1;
+                }
+            }
+        } else {
+            try (ZipFile zip = new ZipFile(path.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        recorded = entry.getSize();
+                        break;
+                    }
+                }
+            }
+        }
+        return recorded >= 0 ? recorded : size * EXPANSION_ESTIMATE;
+    }
+
+    /**
+     * Open a file as a character stream in the platform charset, like FileReader does
+     *
+     * @param filePath file to open
+     * @return buffered reader over the (decompressed) file content
+     * @throws IOException if the file cannot be opened
+     */
+    public static BufferedReader openReader(String filePath) throws IOException {
+        return new BufferedReader(new InputStreamReader(open(Paths.get(filePath)), Charset.defaultCharset()));
+    }
+
+    /**
+     * Strip a trailing .gz or .zip from a file name, so the feed type can be
+     * recognized from the remaining extension
+     *
+     * @param fileName file name such as "dealer.csv.gz"
+     * @return name without the compression suffix, e.g. "dealer.csv"
+     */
+    public static String stripCompressionSuffix(String fileName) {
+        String lower = fileName.toLowerCase();
+        if (lower.endsWith(".gz")) {
+            return fileName.substring(0, fileName.length() - 3);
+        } else if (lower.endsWith(".zip")) {
+            return fileName.substring(0, fileName.length() - 4);
+        }
+        return fileName;
+    }
+}
@@ -0,0 +1,337 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a CSV feed that an upstream system keeps appending to, like tail -F.
+ * Each poll reads the bytes after the last complete line it consumed, parses the
+ * new lines in the CarProcessor CSV format and hands them to a sink as one batch.
+ * A line still being written, without its newline, is left for the next poll.
+ * <p>
+ * The file is kept open between polls. When the path names a different file than
+ * the open one (rotation), the rest of the old file is read first and the new one
+ * is followed from its start. When the file becomes shorter than the offset
+ * (truncation), it is read again from its start. Each restart skips the header
+ * line. Rotation is recognized by the file key of the file system; where there is
+ * none, only truncation is detected.
+ * <p>
+ * The offset only moves past lines the sink accepted, so a failing sink sees the
+ * same lines again on the next poll. Malformed lines are counted and skipped, as
+ * are lines longer than the largest read, which are discarded up to their newline.
+ */
+public class CsvFeedFollower implements AutoCloseable {
+    /** Poll interval by default, the upper bound on the delay from append to visibility */
+    public static final long DEFAULT_POLL_MILLIS = 200;
+    private static final int INITIAL_READ_BYTES = 64 * 1024;
+    private static final int MAX_READ_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Receives the cars of newly appended lines
+     */
+    public interface Sink {
+        void accept(List<Car> cars) throws IOException;
+    }
+
+    private final Path file;
+    private final Sink sink;
+    private FileChannel channel;
+    private Object fileKey;
+    private long offset;
+    private boolean headerPending;
+    // Discarding the rest of a line longer than MAX_READ_BYTES
+    private boolean skippingLine;
+    private int readBytes = INITIAL_READ_BYTES;
+    private long rowCount;
+    private long rejectCount;
+    private long rotationCount;
+    private long truncationCount;
+    private ScheduledExecutorService scheduler;
+    private volatile Exception lastError;
+
+    /**
+     * Create a follower; nothing is read until the first poll
+     *
+     * @param file CSV file to follow, which need not exist yet
+     * @param fromStart read the lines already in the file on the first poll, or only later appends
+     * @param sink receives each batch of new cars on the polling thread
+     * @throws IOException if the current end of an existing file cannot be found
+     */
+    public CsvFeedFollower(Path file, boolean fromStart, Sink sink) throws IOException {
+        this.file = file;
+        this.sink = sink;
+        if (Files.exists(file)) {
+            open();
+            if (!fromStart) {
+                offset = lastLineEnd();
+                headerPending = false;
+            }
+        }
+    }
+
+    /**
+     * Read the lines appended since the last poll
+     *
+     * @return number of cars handed to the sink
+     * @throws IOException if reading fails or the sink fails
+     */
+    public synchronized int poll() throws IOException {
+        int rows = 0;
+        Object currentKey;
+        try {
+            currentKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            // Rotated away and not recreated yet: finish the old file
+            return channel == null ? 0 : readAppended();
+        }
+        if (channel == null) {
+            open();
+        } else if (currentKey != null && !currentKey.equals(fileKey)) {
+            rows += readAppended();
+            channel.close();
+            channel = null;
+            rotationCount++;
+            open();
+        } else if (channel.size() < offset) {
+            truncationCount++;
+            offset = 0;
+            headerPending = true;
+            skippingLine = false;
+        }
+        return rows + readAppended();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        offset = 0;
+        headerPending = true;
+        skippingLine = false;
+    }
+
+    /**
+     * Find the offset after the last newline, so a follower starting at the end skips
+     * a line that is only partly written
+     */
+    private long lastLineEnd() throws IOException {
+        long size = channel.size();
+        long position = size;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position > 0) {
+            long from = Math.max(0, position - buffer.capacity());
+            buffer.clear().limit((int) (position - from));
+            readFully(buffer, from);
+            for (int i = buffer.limit() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            position = from;
+        }
+        return 0;
+    }
+
+    /**
+     * Consume every complete line between the offset and the end of the open file
+     */
+    private int readAppended() throws IOException {
+        int rows = 0;
+        while (true) {
+            long available = channel.size() - offset;
+            if (available <= 0) {
+                return rows;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(available, readBytes));
+            readFully(buffer, offset);
+            if (skippingLine) {
+                skipLine(buffer);
+                continue;
+            }
+            int end = buffer.limit();
+            while (end > 0 && buffer.get(end - 1) != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                if (buffer.limit() == available) {
+                    return rows; // the last line is still being written
+                }
+                if (readBytes >= MAX_READ_BYTES) {
+                    // Too long to parse: drop it, reading on to its newline
+                    skippingLine = true;
+                    skipLine(buffer);
+                    continue;
+                }
+                readBytes *= 2;
+                continue;
+            }
+
+            List<Car> batch = new ArrayList<>();
+            long rejects = 0;
+            boolean skipHeader = headerPending;
+            int start = 0;
+            for (int i = 0; i < end; i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                int lineEnd = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                String line = new String(buffer.array(), start, lineEnd - start, StandardCharsets.UTF_8);
+                start = i + 1;
+                if (skipHeader) {
+                    skipHeader = false;
+                    continue;
+                }
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Car car = CarProcessor.parseCsvLine(line);
+                    if (car == null) {
+                        rejects++;
+                    } else {
+                        batch.add(car);
+                    }
+                } catch (RuntimeException e) {
+                    rejects++;
+                }
+            }
+            if (!batch.isEmpty()) {
+                sink.accept(batch);
+            }
+            headerPending = skipHeader;
+            offset += end;
+            rowCount += batch.size();
+            rejectCount += rejects;
+            rows += batch.size();
+        }
+    }
+
+    /**
+     * Move the offset past the line being skipped, up to its newline if the buffer
+     * holds it. The skipped line counts as a reject, unless it was the header.
+     */
+    private void skipLine(ByteBuffer buffer) {
+        int newline = 0;
+        while (newline < buffer.limit() && buffer.get(newline) != '\n') {
+            newline++;
+        }
+        if (newline == buffer.limit()) {
+            offset += buffer.limit();
+            return;
+        }
+        offset += newline + 1;
+        skippingLine = false;
+        if (headerPending) {
+            headerPending = false;
+        } else {
+            rejectCount++;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Poll on a background thread until closed. Errors are kept in getLastError and
+     * the next poll retries.
+     *
+     * @param pollMillis interval between polls
+     */
+    public synchronized void start(long pollMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "csv-follow-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+                lastError = null;
+            } catch (IOException | RuntimeException e) {
+                // A runtime error must not end the schedule either
+                lastError = e;
+            }
+        }, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /** Byte offset after the last consumed line of the current file */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    /** Cars handed to the sink so far */
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /** Malformed lines skipped so far */
+    public synchronized long getRejectCount() {
+        return rejectCount;
+    }
+
+    public synchronized long getRotationCount() {
+        return rotationCount;
+    }
+
+    public synchronized long getTruncationCount() {
+        return truncationCount;
+    }
+
+    /**
+     * Get the error of the last background poll
+     *
+     * @return error, or null if the last poll succeeded
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stop polling and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = scheduler;
+        }
+        if (running != null) {
+            running.shutdownNow();
+            try {
+                running.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts rejected records for one ingest and forwards them to a reject sink.
+ * The ingest keeps going while the number of rejects stays within the budget and
+ * is stopped with an ErrorBudgetExceededException once it is exceeded.
+ * Safe to share between the threads of one concurrent load.
+ */
+public class ErrorBudget {
+    private static final int MAX_RECORD_LENGTH = 200;
+
+    private final RejectSink sink;
+    private final long maxRejects;
+    private final AtomicLong rejects = new AtomicLong();
+
+    /**
+     * Create a budget
+     *
+     * @param sink destination for rejected records
+     * @param maxRejects number of rejects tolerated, negative for unlimited
+     */
+    public ErrorBudget(RejectSink sink, long maxRejects) {
+        this.sink = sink;
+        this.maxRejects = maxRejects;
+    }
+
+    /**
+     * Reject a record
+     *
+     * @param source file the record came from
+     * @param recordNumber line number or element index
+     * @param reason why the record was rejected
+     * @param record raw record text
+     * @throws ErrorBudgetExceededException if this reject exceeds the budget
+     */
+    public void reject(String source, long recordNumber, String reason, String record)
+            throws ErrorBudgetExceededException {
+        long count = rejects.incrementAndGet();
+        String raw = record == null ? "" : record;
+        if (raw.length() > MAX_RECORD_LENGTH) {
+            raw = raw.substring(0, MAX_RECORD_LENGTH) + "...";
+        }
+        sink.reject(source, recordNumber, reason, raw);
+        if (maxRejects >= 0 && count > maxRejects) {
+            throw new ErrorBudgetExceededException("Rejected " + count + " records from " + source
+                    + ", error budget is " + maxRejects, count);
+        }
+    }
+
+    public long getRejectCount() {
+        return rejects.get();
+    }
+
+    public long getMaxRejects() {
+        return maxRejects;
+    }
+}
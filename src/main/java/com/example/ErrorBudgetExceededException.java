@@ -0,0 +1,17 @@
+package com.example;
+
+/**
+ * Thrown when an ingest rejects more records than its error budget allows.
+ */
+public class ErrorBudgetExceededException extends Exception {
+    private final long rejectCount;
+
+    public ErrorBudgetExceededException(String message, long rejectCount) {
+        super(message);
+        this.rejectCount = rejectCount;
+    }
+
+    public long getRejectCount() {
+        return rejectCount;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Parses many car feed files concurrently and merges them into one dataset.
+ * Files are parsed on virtual threads where available (platform threads otherwise).
+ * The number of files open at once and the total size of files being parsed at
+ * once are both bounded, so a directory of thousands of feeds cannot exhaust file
+ * handles or heap. Compressed files count with their estimated decompressed size. A failing file does not abort the others; it is reported in
+ * the per-file results instead.
+ */
+public class FeedIngestor {
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Parses a single feed file into cars
+     */
+    @FunctionalInterface
+    public interface FeedParser {
+        List<Car> parse(Path file) throws Exception;
+    }
+
+    private final FeedParser parser;
+    private final int maxOpenFiles;
+    private final long maxInFlightBytes;
+
+    /**
+     * Create an ingestor that parses .xml, .csv and .ndjson/.jsonl files with CarProcessor
+     */
+    public FeedIngestor() {
+        this(FeedIngestor::parseWithCarProcessor, DEFAULT_MAX_OPEN_FILES, DEFAULT_MAX_IN_FLIGHT_BYTES);
+    }
+
+    public FeedIngestor(FeedParser parser, int maxOpenFiles, long maxInFlightBytes) {
+        if (maxOpenFiles <= 0 || maxInFlightBytes < 1024) {
+            throw new IllegalArgumentException("Ingest limits must be positive");
+        }
+        this.parser = parser;
+        this.maxOpenFiles = maxOpenFiles;
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Parse a feed file with CarProcessor, choosing the parser by file extension.
+     * Compressed feeds such as "dealer.csv.gz" are recognized by the inner extension.
+     *
+     * @param file feed file
+     * @return list of cars
+     * @throws Exception if the file cannot be parsed
+     */
+    public static List<Car> parseWithCarProcessor(Path file) throws Exception {
+        CarProcessor processor = new CarProcessor();
+        String name = CompressedInput.stripCompressionSuffix(file.getFileName().toString()).toLowerCase();
+        if (name.endsWith(".xml")) {
+            return processor.parseXml(file.toString());
+        } else if (name.endsWith(".csv")) {
+            return processor.parseCsv(file.toString());
+        } else if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return processor.parseJsonLines(file.toString());
+        }
+        throw new IllegalArgumentException("Unsupported feed file: " + file);
+    }
+
+    /**
+     * List the files in a directory matching a glob, in name order
+     *
+     * @param directory directory to scan
+     * @param glob glob such as "*.xml" or "dealer-*.{csv,xml}"
+     * @return matching regular files
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Path> listFiles(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Ingest all files in a directory matching a glob
+     *
+     * @param directory directory to scan
+     * @param glob file name glob
+     * @return merged result with per-file reports
+     * @throws IOException if the directory cannot be read
+     * @throws InterruptedException if interrupted while waiting for parsers
+     */
+    public Result ingest(Path directory, String glob) throws IOException, InterruptedException {
+        return ingest(listFiles(directory, glob));
+    }
+
+    /**
+     * Ingest the given files concurrently. Cars are merged in file order.
+     *
+     * @param files files to parse
+     * @return merged result with per-file reports
+     * @throws InterruptedException if interrupted while waiting for parsers
+     */
+    public Result ingest(List<Path> files) throws InterruptedException {
+        long start = System.nanoTime();
+        Semaphore openFiles = new Semaphore(maxOpenFiles);
+        // Memory budget in KiB so the permit count fits in an int
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, maxInFlightBytes / 1024);
+        Semaphore inFlightKb = new Semaphore(budgetKb);
+
+        ExecutorService executor = VirtualThreads.newExecutor("feed-ingest", maxOpenFiles);
+        List<Future<FileReport>> futures = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                futures.add(executor.submit(() -> parseFile(file, openFiles, inFlightKb, budgetKb)));
+            }
+
+            Result result = new Result();
+            for (int i = 0; i < futures.size(); i++) {
+                FileReport report;
+                try {
+                    report = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    report = new FileReport(files.get(i), 0, e.getCause(), 0, Collections.emptyList());
+                }
+                result.add(report);
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private FileReport parseFile(Path file, Semaphore openFiles, Semaphore inFlightKb, int budgetKb)
+            throws InterruptedException {
+        long bytes;
+        long inflated;
+        try {
+            bytes = Files.size(file);
+            inflated = CompressedInput.estimateUncompressedSize(file);
+        } catch (IOException e) {
+            return new FileReport(file, 0, e, 0, Collections.emptyList());
+        }
+        // A file bigger than the whole budget still gets parsed, just alone
+        int permits = (int) Math.max(1, Math.min(budgetKb, inflated / 1024));
+
+        inFlightKb.acquire(permits);
+        try {
+            openFiles.acquire();
+            try {
+                long start = System.nanoTime();
+                List<Car> cars = parser.parse(file);
+                long parseNanos = System.nanoTime() - start;
+                // Each file is summarized on its own thread; the sketches are merged later
+                FileReport report = new FileReport(file, bytes, null, parseNanos, cars);
+                report.statistics = PriceStatistics.of(cars);
+                return report;
+            } catch (Exception e) {
+                return new FileReport(file, bytes, e, 0, Collections.emptyList());
+            } finally {
+                openFiles.release();
+            }
+        } finally {
+            inFlightKb.release(permits);
+        }
+    }
+
+    /**
+     * Outcome of parsing one file
+     */
+    public static class FileReport {
+        private final Path file;
+        private final long bytes;
+        private final Throwable error;
+        private final long parseNanos;
+        private final List<Car> cars;
+        private PriceStatistics statistics = new PriceStatistics();
+
+        FileReport(Path file, long bytes, Throwable error, long parseNanos, List<Car> cars) {
+            this.file = file;
+            this.bytes = bytes;
+            this.error = error;
+            this.parseNanos = parseNanos;
+            this.cars = cars;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getRowCount() {
+            return cars.size();
+        }
+
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        /**
+         * Get the price and brand statistics of this file
+         *
+         * @return statistics, empty for a failed file
+         */
+        public PriceStatistics getStatistics() {
+            return statistics;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + (error == null ? cars.size() + " rows" : "FAILED " + error);
+        }
+    }
+
+    /**
+     * Merged dataset with the source file of every car
+     */
+    public static class Result {
+        private final List<Car> cars = new ArrayList<>();
+        private final List<FileReport> reports = new ArrayList<>();
+        // Index in cars of the first car of each report; its cars follow in one run
+        private int[] firstCar = new int[16];
+        private final PriceStatistics statistics = new PriceStatistics();
+        private long elapsedNanos;
+
+        void add(FileReport report) {
+            int fileIndex = reports.size();
+            if (fileIndex == firstCar.length) {
+                firstCar = Arrays.copyOf(firstCar, fileIndex * 2);
+            }
+            firstCar[fileIndex] = cars.size();
+            reports.add(report);
+            statistics.merge(report.statistics);
+            cars.addAll(report.cars);
+        }
+
+        public List<Car> getCars() {
+            return cars;
+        }
+
+        /**
+         * Get the file a car was read from
+         *
+         * @param carIndex index into getCars()
+         * @return source file
+         */
+        public Path getSource(int carIndex) {
+            Objects.checkIndex(carIndex, cars.size());
+            // The last report starting at or before the car; empty reports before it share its start
+            int low = 0;
+            int high = reports.size() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (firstCar[mid] <= carIndex) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return reports.get(low).file;
+        }
+
+        /**
+         * Get the statistics of all files, merged from the per-file sketches
+         *
+         * @return merged statistics over every parsed row
+         */
+        public PriceStatistics getStatistics() {
+            return statistics;
+        }
+
+        public List<FileReport> getFileReports() {
+            return reports;
+        }
+
+        public List<FileReport> getFailedFiles() {
+            List<FileReport> failed = new ArrayList<>();
+            for (FileReport report : reports) {
+                if (report.isFailed()) {
+                    failed.add(report);
+                }
+            }
+            return failed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+}
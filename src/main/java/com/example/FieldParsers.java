@@ -0,0 +1,138 @@
+package com.example;
+
+import java.time.YearMonth;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Field parsers that report bad input through sentinel values instead of exceptions.
+ * Building a stack trace for every dirty row costs far more than parsing the row, so
+ * validating ingest checks syntax with plain character scans and only hands input to
+ * the JDK parsers once it is known to be valid.
+ */
+final class FieldParsers {
+    /** Returned by parseInt for input that is not a valid integer in range */
+    static final int INVALID_INT = Integer.MIN_VALUE;
+
+    private FieldParsers() {
+    }
+
+    /**
+     * Parse a plain decimal number such as "25000", "-1.5" or "2.8E6"
+     *
+     * @param text text to parse, may be null
+     * @return parsed value, or NaN if the text is not a finite decimal number
+     */
+    static double parseDouble(String text) {
+        if (text == null || !isDecimal(text)) {
+            return Double.NaN;
+        }
+        double value = Double.parseDouble(text);
+        // Exponents like 1e400 overflow to infinity
+        return Double.isInfinite(value) ? Double.NaN : value;
+    }
+
+    private static boolean isDecimal(String text) {
+        int length = text.length();
+        int i = 0;
+        if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < length && isDigit(text.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < length && isDigit(text.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    /**
+     * Parse a non-negative integer made of ASCII digits
+     *
+     * @param text text to parse, may be null
+     * @param min smallest accepted value
+     * @param max largest accepted value
+     * @return parsed value, or INVALID_INT if not a number within [min, max]
+     */
+    static int parseInt(String text, int min, int max) {
+        if (text == null || text.isEmpty() || text.length() > 9) {
+            return INVALID_INT;
+        }
+        int value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return INVALID_INT;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value >= min && value <= max ? value : INVALID_INT;
+    }
+
+    /**
+     * Check that a year, month and day form a real calendar date
+     *
+     * @param year year, already range checked
+     * @param month month 1-12
+     * @param day day of month
+     * @return true if the date exists
+     */
+    static boolean isValidDate(int year, int month, int day) {
+        if (year == INVALID_INT || month < 1 || month > 12 || day < 1) {
+            return false;
+        }
+        return day <= YearMonth.of(year, month).lengthOfMonth();
+    }
+
+    /**
+     * Parse a strict MM/dd/yyyy date in the default time zone, as SimpleDateFormat would
+     *
+     * @param text text to parse, may be null
+     * @return date at local midnight, or null if the text is not a valid date
+     */
+    static Date parseUsDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        int first = text.indexOf('/');
+        int second = first < 0 ? -1 : text.indexOf('/', first + 1);
+        if (second < 0) {
+            return null;
+        }
+        int month = parseInt(text.substring(0, first), 1, 12);
+        int day = parseInt(text.substring(first + 1, second), 1, 31);
+        int year = parseInt(text.substring(second + 1), 1, 9999);
+        if (!isValidDate(year, month, day)) {
+            return null;
+        }
+        return new GregorianCalendar(year, month - 1, day).getTime();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,283 @@
+package com.example;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimated memory held by the state of a CarDataService: the cars with their
+ * strings, dates and price maps, the indexes built over them, the result cache and
+ * the direct memory of off-heap storage.
+ * <p>
+ * Estimates assume a 64-bit JVM with compressed references: 12-byte object headers,
+ * 4-byte references, 16-byte array headers and 8-byte alignment. Strings and dates
+ * are counted once per instance, so values shared between cars are not counted twice.
+ */
+public final class HeapFootprint {
+    static final int OBJECT_HEADER = 12;
+    static final int REFERENCE = 4;
+    static final int ARRAY_HEADER = 16;
+    // Car: header and six references
+    static final long CAR_BYTES = align(OBJECT_HEADER + 6 * REFERENCE);
+    // Date: header, fastTime and cdate
+    static final long DATE_BYTES = align(OBJECT_HEADER + 8 + REFERENCE);
+    // HashMap: header, table and three view references, size, modCount, threshold, loadFactor
+    static final long HASH_MAP_BYTES = align(OBJECT_HEADER + 4 * REFERENCE + 4 * 4);
+    static final long HASH_NODE_BYTES = align(OBJECT_HEADER + 4 + 3 * REFERENCE);
+    static final long DOUBLE_BYTES = align(OBJECT_HEADER + 8);
+    // Output characters per car by format, measured on the sample data and rounded up
+    private static final int JSON_CHARS_PER_CAR = 220;
+    private static final int XML_CHARS_PER_CAR = 200;
+    private static final int TABLE_CHARS_PER_CAR = 100;
+
+    private final int cars;
+    private final long carBytes;
+    private final long stringBytes;
+    private final long priceBytes;
+    private final long indexBytes;
+    private final long cacheBytes;
+    private final long offHeapBytes;
+    private final long budgetBytes;
+
+    HeapFootprint(int cars, long carBytes, long stringBytes, long priceBytes, long indexBytes, long cacheBytes,
+                  long offHeapBytes, long budgetBytes) {
+        this.cars = cars;
+        this.carBytes = carBytes;
+        this.stringBytes = stringBytes;
+        this.priceBytes = priceBytes;
+        this.indexBytes = indexBytes;
+        this.cacheBytes = cacheBytes;
+        this.offHeapBytes = offHeapBytes;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Measure heap cars, without indexes, cache or budget
+     *
+     * @param cars cars on the heap
+     * @return footprint of the cars alone
+     */
+    public static HeapFootprint ofCars(List<Car> cars) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        long carBytes = 0;
+        long stringBytes = 0;
+        long priceBytes = 0;
+        for (Car car : cars) {
+            carBytes += CAR_BYTES;
+            if (car.getReleaseDate() != null && seen.add(car.getReleaseDate())) {
+                carBytes += DATE_BYTES;
+            }
+            stringBytes += ofString(car.getBrand(), seen) + ofString(car.getModel(), seen)
+                    + ofString(car.getType(), seen) + ofString(car.getPreferredCurrency(), seen);
+            Map<String, Double> prices = car.getPrices();
+            if (prices != null && seen.add(prices)) {
+                priceBytes += ofHashMap(prices.size()) + prices.size() * DOUBLE_BYTES;
+                for (String currency : prices.keySet()) {
+                    stringBytes += ofString(currency, seen);
+                }
+            }
+        }
+        return new HeapFootprint(cars.size(), carBytes, stringBytes, priceBytes, 0, 0, 0, 0);
+    }
+
+    /**
+     * Copy this footprint with the state around the cars added
+     *
+     * @param indexBytes estimated bytes of indexes over the cars
+     * @param cacheBytes bytes of cached results
+     * @param offHeapBytes direct memory of off-heap storage
+     * @param budgetBytes memory budget, 0 for none
+     * @return new footprint
+     */
+    HeapFootprint with(long indexBytes, long cacheBytes, long offHeapBytes, long budgetBytes) {
+        return new HeapFootprint(cars, carBytes, stringBytes, priceBytes, indexBytes, cacheBytes,
+                offHeapBytes, budgetBytes);
+    }
+
+    /**
+     * Scale this footprint to another number of cars at the same bytes per car, e.g.
+     * between measurements of a table that changes per mutation
+     *
+     * @param count number of cars
+     * @return new footprint, or this one if it holds no cars to scale by
+     */
+    HeapFootprint scaledTo(int count) {
+        if (cars == 0 || count == cars) {
+            return this;
+        }
+        double factor = (double) count / cars;
+        return new HeapFootprint(count, (long) (carBytes * factor), (long) (stringBytes * factor),
+                (long) (priceBytes * factor), (long) (indexBytes * factor), cacheBytes, offHeapBytes, budgetBytes);
+    }
+
+    /**
+     * Estimate the heap held by a string; compact strings store Latin-1 text in one byte per char
+     *
+     * @param value string, may be null
+     * @return bytes of the String and its array
+     */
+    public static long ofString(String value) {
+        if (value == null) {
+            return 0;
+        }
+        boolean latin1 = true;
+        for (int i = 0; i < value.length() && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        return align(OBJECT_HEADER + REFERENCE + 4 + 2) + ofArray(value.length(), latin1 ? 1 : 2);
+    }
+
+    private static long ofString(String value, Set<Object> seen) {
+        return value != null && seen.add(value) ? ofString(value) : 0;
+    }
+
+    /**
+     * Estimate the heap of a HashMap with its table and nodes, excluding keys and values
+     *
+     * @param size number of mappings
+     * @return bytes
+     */
+    public static long ofHashMap(int size) {
+        int capacity = 16;
+        while (capacity * 0.75 < size) {
+            capacity <<= 1;
+        }
+        return HASH_MAP_BYTES + ofArray(capacity, REFERENCE) + size * HASH_NODE_BYTES;
+    }
+
+    /**
+     * Estimate the heap of an array
+     *
+     * @param length number of elements
+     * @param elementBytes bytes per element
+     * @return bytes
+     */
+    public static long ofArray(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * Estimate the peak heap of formatting cars: the growing builder holds up to twice
+     * the output while it copies, and the final String one more copy
+     *
+     * @param rows number of cars formatted
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @return bytes
+     */
+    public static long estimateFormatted(int rows, String outputFormat) {
+        int chars = "XML".equals(outputFormat) ? XML_CHARS_PER_CAR
+                : "Table".equals(outputFormat) ? TABLE_CHARS_PER_CAR : JSON_CHARS_PER_CAR;
+        return 4L * rows * chars;
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    public int getCars() {
+        return cars;
+    }
+
+    /** Car and Date objects */
+    public long getCarBytes() {
+        return carBytes;
+    }
+
+    /** Distinct brand, model, type and currency strings */
+    public long getStringBytes() {
+        return stringBytes;
+    }
+
+    /** Price maps with their boxed values */
+    public long getPriceBytes() {
+        return priceBytes;
+    }
+
+    /** Column snapshot, typeahead, sort orders and live indexes */
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    /** Cached query results */
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /** Direct memory of off-heap storage, not part of the heap */
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    /** Memory budget in bytes, 0 when none is set */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Get the estimated heap held by the service
+     *
+     * @return sum of every part except direct memory
+     */
+    public long getHeapBytes() {
+        return carBytes + stringBytes + priceBytes + indexBytes + cacheBytes;
+    }
+
+    /**
+     * Get the estimated heap per car, indexes and cache included
+     *
+     * @return bytes, 0 without cars
+     */
+    public long getBytesPerCar() {
+        return cars == 0 ? 0 : getHeapBytes() / cars;
+    }
+
+    /**
+     * Format a byte count for people
+     *
+     * @param bytes byte count
+     * @return e.g. "512 B", "1.5 KB" or "12.3 MB"
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        } else if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    /**
+     * Get a one-line summary, e.g. for a status bar
+     *
+     * @return summary
+     */
+    public String summary() {
+        String summary = cars + " cars, ~" + formatBytes(getHeapBytes()) + " heap";
+        if (offHeapBytes > 0) {
+            summary += " + " + formatBytes(offHeapBytes) + " off-heap";
+        }
+        if (budgetBytes > 0) {
+            summary += " (budget " + formatBytes(budgetBytes) + ")";
+        }
+        return summary;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s %d%n", "cars", cars));
+        report.append(String.format("%-10s %s%n", "objects", formatBytes(carBytes)));
+        report.append(String.format("%-10s %s%n", "strings", formatBytes(stringBytes)));
+        report.append(String.format("%-10s %s%n", "prices", formatBytes(priceBytes)));
+        report.append(String.format("%-10s %s%n", "indexes", formatBytes(indexBytes)));
+        report.append(String.format("%-10s %s%n", "cache", formatBytes(cacheBytes)));
+        report.append(String.format("%-10s %s (%d B per car)%n", "heap", formatBytes(getHeapBytes()), getBytesPerCar()));
+        report.append(String.format("%-10s %s%n", "off-heap", formatBytes(offHeapBytes)));
+        report.append(String.format("%-10s %s%n", "budget", budgetBytes > 0 ? formatBytes(budgetBytes) : "none"));
+        return report.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package com.example;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Car record of the CarProcessor file formats that is decoded field by field.
+ * The parser keeps the record text with the offsets of its brand, type, price,
+ * release date and currency, and a field is only turned into a String, double or
+ * Date when it is first read. Filters are evaluated on the raw text where possible:
+ * the brand is compared in place, and only the fields a predicate needs are decoded.
+ * <p>
+ * A malformed field is reported when it is decoded, not when the record is read.
+ * Not thread-safe.
+ */
+public final class LazyCar implements CarView {
+    /** Fields of a record, in the order of the CSV columns */
+    public enum Field {
+        BRAND, TYPE, PRICE, RELEASE_DATE, CURRENCY
+    }
+
+    /** Every field, to decode records completely */
+    public static final Set<Field> ALL_FIELDS = EnumSet.allOf(Field.class);
+
+    private final String record;
+    // Start and end offset of each field in the record, trimmed
+    private final int[] bounds;
+    private int decoded;
+    private String brand;
+    private String type;
+    private double price;
+    private Date releaseDate;
+    private String currency;
+    private Map<String, Double> prices;
+
+    LazyCar(String record, int[] bounds) {
+        this.record = record;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Compute the bounds of a field, trimmed of surrounding whitespace
+     *
+     * @param bounds bounds of all fields
+     * @param field field to set
+     * @param record record text
+     * @param start first char of the field
+     * @param end char after the field
+     */
+    static void setBounds(int[] bounds, Field field, CharSequence record, int start, int end) {
+        while (start < end && Character.isWhitespace(record.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(record.charAt(end - 1))) {
+            end--;
+        }
+        bounds[2 * field.ordinal()] = start;
+        bounds[2 * field.ordinal() + 1] = end;
+    }
+
+    /**
+     * Check whether the record passes a filter, decoding only the fields it tests
+     *
+     * @param filter filter to apply
+     * @return same answer as CarFilter.matches on the decoded car
+     */
+    public boolean matches(CarFilter filter) {
+        String wanted = filter.getBrand();
+        if (wanted != null) {
+            int start = bounds[2 * Field.BRAND.ordinal()];
+            int length = bounds[2 * Field.BRAND.ordinal() + 1] - start;
+            if (length != wanted.length() || !record.regionMatches(true, start, wanted, 0, length)) {
+                return false;
+            }
+        }
+        if (!Double.isNaN(filter.getMinPrice()) && !(getPrice() >= filter.getMinPrice())) {
+            return false;
+        }
+        return filter.getFromDate() == null || getReleaseDate().compareTo(filter.getFromDate()) >= 0;
+    }
+
+    /**
+     * Decode fields now, e.g. the columns a query outputs, so later reads are plain field reads
+     *
+     * @param fields fields to decode
+     */
+    public void decode(Set<Field> fields) {
+        for (Field field : fields) {
+            switch (field) {
+                case BRAND:
+                    getBrand();
+                    break;
+                case TYPE:
+                    getType();
+                    break;
+                case PRICE:
+                    getPrice();
+                    break;
+                case RELEASE_DATE:
+                    getReleaseDate();
+                    break;
+                default:
+                    getPreferredCurrency();
+            }
+        }
+    }
+
+    /**
+     * Check whether a field has been decoded
+     *
+     * @param field field
+     * @return true once the field was read or decoded
+     */
+    public boolean isDecoded(Field field) {
+        return (decoded & (1 << field.ordinal())) != 0;
+    }
+
+    private boolean markDecoded(Field field) {
+        if (isDecoded(field)) {
+            return false;
+        }
+        decoded |= 1 << field.ordinal();
+        return true;
+    }
+
+    private String text(Field field) {
+        return record.substring(bounds[2 * field.ordinal()], bounds[2 * field.ordinal() + 1]);
+    }
+
+    @Override
+    public String getBrand() {
+        if (markDecoded(Field.BRAND)) {
+            brand = text(Field.BRAND);
+        }
+        return brand;
+    }
+
+    /** The file formats have no model, so this is always empty like for Car */
+    @Override
+    public String getModel() {
+        return "";
+    }
+
+    @Override
+    public String getType() {
+        if (markDecoded(Field.TYPE)) {
+            type = text(Field.TYPE);
+        }
+        return type;
+    }
+
+    @Override
+    public double getPrice() {
+        if (markDecoded(Field.PRICE)) {
+            price = Double.parseDouble(text(Field.PRICE));
+        }
+        return price;
+    }
+
+    @Override
+    public String getPreferredCurrency() {
+        if (markDecoded(Field.CURRENCY)) {
+            currency = text(Field.CURRENCY);
+        }
+        return currency;
+    }
+
+    /**
+     * Get the single price of the record, keyed by its currency
+     *
+     * @return new map on first call, then the same map
+     */
+    @Override
+    public Map<String, Double> getPrices() {
+        if (prices == null) {
+            prices = new HashMap<>();
+            prices.put(getPreferredCurrency(), getPrice());
+        }
+        return prices;
+    }
+
+    @Override
+    public Date getReleaseDate() {
+        if (markDecoded(Field.RELEASE_DATE)) {
+            // A plain Date at local midnight, not a java.sql.Date with its own toString
+            releaseDate = Date.from(parseReleaseDate().atStartOfDay(ZoneId.systemDefault()).toInstant());
+        }
+        return releaseDate;
+    }
+
+    /**
+     * Parse a yyyy,dd,MM date in place, the three CSV columns or the XML element text
+     */
+    private LocalDate parseReleaseDate() {
+        int start = bounds[2 * Field.RELEASE_DATE.ordinal()];
+        int end = bounds[2 * Field.RELEASE_DATE.ordinal() + 1];
+        int[] parts = new int[3];
+        int part = 0;
+        int from = start;
+        for (int i = start; i <= end && part < 3; i++) {
+            if (i == end || record.charAt(i) == ',') {
+                parts[part++] = Integer.parseInt(record.substring(from, i).trim());
+                from = i + 1;
+            }
+        }
+        if (part < 3) {
+            throw new IllegalArgumentException("Invalid release date '" + record.substring(start, end) + "'");
+        }
+        return LocalDate.of(parts[0], parts[2], parts[1]);
+    }
+
+    /**
+     * Decode the whole record into a Car
+     *
+     * @return new car with every field
+     */
+    public Car toCar() {
+        return new Car(getBrand(), getType(), getPrice(), parseReleaseDate(), getPreferredCurrency());
+    }
+
+    @Override
+    public String toString() {
+        return "LazyCar{" + record + "}";
+    }
+}
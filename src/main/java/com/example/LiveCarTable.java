@@ -0,0 +1,466 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Concurrently mutable car table with indexes maintained per mutation.
+ * <p>
+ * Cars are identified by a CarKey. Writers lock one of STRIPES stripes picked by
+ * the key hash, so writers of different cars rarely wait for each other, and update
+ * the row map, the brand index and the price totals in place. Readers take no
+ * locks: they walk the concurrent maps, seeing every row that is not being changed
+ * at that moment exactly once, before or after its change.
+ * <p>
+ * Sort orders are SortedCarViews, materialized on first use and then patched in
+ * O(log n) per mutation after the stripe lock is released. Each view root is
+ * swapped by compare-and-set, so writers of different rows patch concurrently and
+ * retry only when they race on the same view; writers of one row patch in turn.
+ * A reader walks a single immutable version of a view, so a sorted walk never
+ * skips or repeats a row, and sees a mutation in the views shortly after the maps.
+ * <p>
+ * The table owns its cars: upsert stores a copy, and updatePrice stores a new
+ * version instead of changing the stored car, so the table never changes a car it
+ * has handed out. Readers get the stored cars themselves and must not change them
+ * either; a currency view uses Car.withPreferredCurrency copies.
+ */
+public class LiveCarTable {
+    /** Number of lock stripes for writers */
+    public static final int STRIPES = 64;
+
+    private final CarKey key;
+    private final Object[] stripes = new Object[STRIPES];
+    private final ConcurrentMap<CarIdentity, Entry> byKey = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Entry> byRow = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Long, Entry>> byBrand = new ConcurrentHashMap<>();
+    // Materialized sort orders by Ordering ordinal, null until first used
+    private final AtomicReferenceArray<SortedCarView> views =
+            new AtomicReferenceArray<>(SortedCarView.Ordering.values().length);
+    // Patches share the read lock; materializing a view takes the write lock
+    private final ReadWriteLock viewLock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<String, Totals> totals = new ConcurrentHashMap<>();
+    private final AtomicLong nextRow = new AtomicLong();
+    private final LongAdder mutations = new LongAdder();
+
+    /**
+     * Create a table holding the given cars in order
+     *
+     * @param key identity of a car; later cars replace earlier ones with the same key
+     * @param cars initial cars
+     */
+    public LiveCarTable(CarKey key, List<Car> cars) {
+        this.key = key;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        for (Car car : cars) {
+            upsert(car);
+        }
+        mutations.reset();
+    }
+
+    /**
+     * Get the lock guarding a car's key. Callers that must order other work with the
+     * mutation, e.g. journaling, hold it around both; it is reentrant.
+     *
+     * @param car car whose key to lock
+     * @return stripe lock object
+     */
+    public Object lockFor(Car car) {
+        return stripes[stripeOf(car)];
+    }
+
+    private int stripeOf(Car car) {
+        return (int) (key.hash(car) >>> 58) & (STRIPES - 1);
+    }
+
+    /**
+     * Insert a car or replace the car with the same key, keeping its row position
+     *
+     * @param car car to store; the table keeps a copy
+     * @return the stored copy
+     */
+    public Car upsert(Car car) {
+        Car copy = copy(car, car.getPrices());
+        CarIdentity id = new CarIdentity(key, copy);
+        Entry entry;
+        synchronized (lockFor(copy)) {
+            entry = byKey.get(id);
+            if (entry == null) {
+                entry = new Entry(nextRow.getAndIncrement(), copy);
+                index(entry, copy);
+                byRow.put(entry.row, entry);
+                byKey.put(id, entry);
+            } else {
+                replace(entry, copy);
+            }
+            mutations.increment();
+        }
+        patchViews(entry);
+        return copy;
+    }
+
+    /**
+     * Remove the car with the same key
+     *
+     * @param car car to remove
+     * @return the removed car, or null if there was none
+     */
+    public Car remove(Car car) {
+        CarIdentity id = new CarIdentity(key, car);
+        Entry entry;
+        synchronized (lockFor(car)) {
+            entry = byKey.remove(id);
+            if (entry == null) {
+                return null;
+            }
+            entry.removed = true;
+            byRow.remove(entry.row);
+            unindex(entry, entry.car);
+            mutations.increment();
+        }
+        patchViews(entry);
+        return entry.car;
+    }
+
+    /**
+     * Set one price of the car with the same key
+     *
+     * @param car car to update
+     * @param currency currency code
+     * @param value new price
+     * @return the new version of the car, or null if there was none
+     */
+    public Car updatePrice(Car car, String currency, double value) {
+        CarIdentity id = new CarIdentity(key, car);
+        Entry entry;
+        Car updated;
+        synchronized (lockFor(car)) {
+            entry = byKey.get(id);
+            if (entry == null) {
+                return null;
+            }
+            updated = repriced(entry.car, currency, value);
+            replace(entry, updated);
+            mutations.increment();
+        }
+        patchViews(entry);
+        return updated;
+    }
+
+    /**
+     * Build the version of a car updatePrice would store, without storing it,
+     * e.g. to journal it first
+     *
+     * @param car car with the key to look up
+     * @param currency currency code
+     * @param value new price
+     * @return new version of the stored car, or null if there is none
+     */
+    public Car withPrice(Car car, String currency, double value) {
+        Car stored = get(car);
+        return stored == null ? null : repriced(stored, currency, value);
+    }
+
+    /**
+     * Look up the current version of a car
+     *
+     * @param car car with the key to look up
+     * @return stored car, or null
+     */
+    public Car get(Car car) {
+        Entry entry = byKey.get(new CarIdentity(key, car));
+        return entry == null ? null : entry.car;
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Get the number of mutations since the table was created
+     *
+     * @return upserts, removals and price updates
+     */
+    public long getMutationCount() {
+        return mutations.sum();
+    }
+
+    /**
+     * Estimate the heap held by the maps and views of the table, excluding the cars
+     *
+     * @return bytes
+     */
+    public long estimateIndexBytes() {
+        // Per row: Entry and CarIdentity, a hash map node, a boxed row key and two
+        // skip list nodes with their share of index levels (row map and brand index)
+        long perRow = HeapFootprint.align(HeapFootprint.OBJECT_HEADER + HeapFootprint.REFERENCE + 8)
+                + HeapFootprint.align(HeapFootprint.OBJECT_HEADER + 2 * HeapFootprint.REFERENCE + 8)
+                + HeapFootprint.HASH_NODE_BYTES + HeapFootprint.align(HeapFootprint.OBJECT_HEADER + 8)
+                + 2 * (HeapFootprint.align(HeapFootprint.OBJECT_HEADER + 3 * HeapFootprint.REFERENCE) + 16);
+        long bytes = size() * perRow;
+        for (int i = 0; i < views.length(); i++) {
+            SortedCarView view = views.get(i);
+            bytes += view == null ? 0 : view.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Copy the current cars in row order
+     *
+     * @return new list
+     */
+    public List<Car> snapshot() {
+        List<Car> cars = new ArrayList<>(byKey.size());
+        for (Entry entry : byRow.values()) {
+            cars.add(entry.car);
+        }
+        return cars;
+    }
+
+    /**
+     * Find the cars passing a filter, using the brand index when the filter has a brand
+     *
+     * @param filter filter to apply
+     * @return new list in row order
+     */
+    public List<Car> filter(CarFilter filter) {
+        Map<Long, Entry> candidates = byRow;
+        if (filter.getBrand() != null) {
+            candidates = byBrand.get(brandKey(filter.getBrand()));
+            if (candidates == null) {
+                QueryProfile.current().scan(QueryProfile.Strategy.LIVE_BRAND_INDEX, 0, 0);
+                return new ArrayList<>();
+            }
+        }
+        List<Car> result = new ArrayList<>();
+        for (Entry entry : candidates.values()) {
+            Car car = entry.car;
+            if (filter.matches(car)) {
+                result.add(car);
+            }
+        }
+        QueryProfile.current().scan(filter.getBrand() != null ? QueryProfile.Strategy.LIVE_BRAND_INDEX
+                : QueryProfile.Strategy.LIVE_SCAN, candidates.size(), result.size());
+        return result;
+    }
+
+    /**
+     * Walk a maintained sort order and return the first cars passing a filter, without
+     * sorting. Ties keep row order, like a stable sort of the row order would.
+     *
+     * @param filter filter to apply
+     * @param ordering sort order
+     * @param limit maximum number of cars
+     * @return new list in sort order
+     */
+    public List<Car> sorted(CarFilter filter, SortedCarView.Ordering ordering, int limit) {
+        return view(ordering).page(filter, 0, limit);
+    }
+
+    /**
+     * Get the current version of a sort order, materializing it on first use
+     *
+     * @param ordering sort order
+     * @return immutable view of the order
+     */
+    public SortedCarView view(SortedCarView.Ordering ordering) {
+        SortedCarView view = views.get(ordering.ordinal());
+        if (view != null) {
+            return view;
+        }
+        viewLock.writeLock().lock();
+        try {
+            view = views.get(ordering.ordinal());
+            if (view == null) {
+                // No patch runs meanwhile, so every row holds the car the patches
+                // will move it from; rows added or removed since are patched after
+                List<Entry> entries = new ArrayList<>(byRow.values());
+                List<Long> rows = new ArrayList<>(entries.size());
+                List<Car> cars = new ArrayList<>(entries.size());
+                for (Entry entry : entries) {
+                    if (entry.viewed != null) {
+                        rows.add(entry.row);
+                        cars.add(entry.viewed);
+                    }
+                }
+                long[] rowArray = new long[rows.size()];
+                for (int i = 0; i < rowArray.length; i++) {
+                    rowArray[i] = rows.get(i);
+                }
+                view = SortedCarView.build(ordering, rowArray, cars);
+                views.set(ordering.ordinal(), view);
+            }
+            return view;
+        } finally {
+            viewLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get exact price totals per currency, maintained per mutation
+     *
+     * @return currency code to [count, sum, average], sorted by currency
+     */
+    public Map<String, double[]> getPriceTotals() {
+        Map<String, double[]> result = new TreeMap<>();
+        for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+            long count = entry.getValue().count.sum();
+            double sum = entry.getValue().sum.sum();
+            if (count > 0) {
+                result.put(entry.getKey(), new double[]{count, sum, sum / count});
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Get the number of cars per brand, from the brand index
+     *
+     * @return lowercase brand to car count
+     */
+    public Map<String, Integer> getBrandCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentSkipListMap<Long, Entry>> brand : byBrand.entrySet()) {
+            int size = brand.getValue().size();
+            if (size > 0) {
+                counts.put(brand.getKey(), size);
+            }
+        }
+        return counts;
+    }
+
+    // Add the new index entries before removing the old ones, so readers always find the row
+    private void replace(Entry entry, Car updated) {
+        Car previous = entry.car;
+        index(entry, updated);
+        entry.car = updated;
+        unindex(entry, previous, updated);
+    }
+
+    /**
+     * Bring a row up to date in every materialized view, outside the stripe lock.
+     * Patches of one row run in turn on its entry and always move the row from the
+     * car the views hold to the latest one, so a patch that loses the race to a
+     * later mutation of the row has nothing left to do.
+     */
+    private void patchViews(Entry entry) {
+        viewLock.readLock().lock();
+        try {
+            synchronized (entry) {
+                Car previous = entry.viewed;
+                Car updated = entry.removed ? null : entry.car;
+                if (previous == updated) {
+                    return;
+                }
+                for (int i = 0; i < views.length(); i++) {
+                    while (true) {
+                        SortedCarView view = views.get(i);
+                        if (view == null) {
+                            break;
+                        }
+                        SortedCarView patched = view;
+                        if (previous != null) {
+                            patched = patched.without(previous, entry.row);
+                        }
+                        if (updated != null) {
+                            patched = patched.with(updated, entry.row);
+                        }
+                        if (views.compareAndSet(i, view, patched)) {
+                            break;
+                        }
+                    }
+                }
+                entry.viewed = updated;
+            }
+        } finally {
+            viewLock.readLock().unlock();
+        }
+    }
+
+    private void index(Entry entry, Car car) {
+        byBrand.computeIfAbsent(brandKey(car.getBrand()), b -> new ConcurrentSkipListMap<>()).put(entry.row, entry);
+        for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+            Totals total = totals.computeIfAbsent(price.getKey(), c -> new Totals());
+            total.count.increment();
+            total.sum.add(price.getValue());
+        }
+    }
+
+    private void unindex(Entry entry, Car car) {
+        unindex(entry, car, null);
+    }
+
+    // Remove what indexes hold for car, except entries the replacement shares with it
+    private void unindex(Entry entry, Car car, Car replacement) {
+        String brand = brandKey(car.getBrand());
+        if (replacement == null || !brand.equals(brandKey(replacement.getBrand()))) {
+            ConcurrentNavigableMap<Long, Entry> brandRows = byBrand.get(brand);
+            if (brandRows != null) {
+                brandRows.remove(entry.row);
+            }
+        }
+        for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+            Totals total = totals.get(price.getKey());
+            total.count.decrement();
+            total.sum.add(-price.getValue());
+        }
+    }
+
+    private static String brandKey(String brand) {
+        return brand == null ? "" : brand.toLowerCase(Locale.ROOT);
+    }
+
+    private static Car repriced(Car car, String currency, double value) {
+        Map<String, Double> prices = new HashMap<>(car.getPrices());
+        prices.put(currency, value);
+        return copy(car, prices);
+    }
+
+    private static Car copy(Car car, Map<String, Double> prices) {
+        Date date = car.getReleaseDate();
+        Car copy = new Car(car.getBrand(), car.getModel(), car.getType(), new HashMap<>(prices),
+                date == null ? null : new Date(date.getTime()));
+        copy.setPreferredCurrency(car.getPreferredCurrency());
+        return copy;
+    }
+
+    /**
+     * Stored car with its fixed row position
+     */
+    private static final class Entry {
+        final long row;
+        volatile Car car;
+        volatile boolean removed;
+        // Car the materialized views hold for the row, null before its first patch
+        // and after its removal; changed by patchViews only
+        Car viewed;
+
+        Entry(long row, Car car) {
+            this.row = row;
+            this.car = car;
+        }
+    }
+
+    private static final class Totals {
+        final LongAdder count = new LongAdder();
+        final DoubleAdder sum = new DoubleAdder();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example;
+
+/**
+ * Upper bound on the heap a CarDataService may hold, checked against HeapFootprint
+ * estimates before a load is published and before a query result is formatted.
+ * <p>
+ * With REJECT, work that would exceed the budget fails with a
+ * MemoryBudgetExceededException. With DEGRADE the service first gives up what it
+ * can: a load moves its cars to off-heap storage, and a query drops the result
+ * cache; only when that is not enough does it fail.
+ */
+public final class MemoryBudget {
+
+    /** What to do when work would exceed the budget */
+    public enum Policy {
+        REJECT, DEGRADE
+    }
+
+    /** Estimated heap of parsing a file relative to its size in bytes */
+    public static final int PARSE_EXPANSION = 3;
+
+    private final long maxBytes;
+    private final Policy policy;
+
+    /**
+     * Create a budget
+     *
+     * @param maxBytes heap the service may hold
+     * @param policy reaction to work exceeding it
+     */
+    public MemoryBudget(long maxBytes, Policy policy) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * Create a budget as a share of the maximum heap, leaving the rest to the application
+     *
+     * @param fraction share of Runtime.maxMemory(), e.g. 0.6
+     * @param policy reaction to work exceeding it
+     * @return new budget
+     */
+    public static MemoryBudget ofMaxHeap(double fraction, Policy policy) {
+        return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction), policy);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Fail if work needing more memory than is left would start
+     *
+     * @param what description of the work, for the message
+     * @param requiredBytes estimated memory the work needs
+     * @param usedBytes estimated memory already held
+     * @throws MemoryBudgetExceededException if used plus required exceeds the budget
+     */
+    void check(String what, long requiredBytes, long usedBytes) {
+        if (!fits(requiredBytes, usedBytes)) {
+            throw new MemoryBudgetExceededException(what + " needs ~" + HeapFootprint.formatBytes(requiredBytes)
+                    + " with ~" + HeapFootprint.formatBytes(usedBytes) + " in use, budget is "
+                    + HeapFootprint.formatBytes(maxBytes), requiredBytes, Math.max(0, maxBytes - usedBytes));
+        }
+    }
+
+    boolean fits(long requiredBytes, long usedBytes) {
+        return usedBytes + requiredBytes <= maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return HeapFootprint.formatBytes(maxBytes) + " (" + policy + ")";
+    }
+}
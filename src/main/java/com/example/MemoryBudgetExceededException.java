@@ -0,0 +1,25 @@
+package com.example;
+
+/**
+ * Thrown when a load or query would hold more memory than the MemoryBudget allows.
+ * Unchecked, because queries are rejected from deep inside calls that only
+ * declare parse errors; the service state is unchanged when it is thrown.
+ */
+public class MemoryBudgetExceededException extends RuntimeException {
+    private final long requiredBytes;
+    private final long availableBytes;
+
+    public MemoryBudgetExceededException(String message, long requiredBytes, long availableBytes) {
+        super(message);
+        this.requiredBytes = requiredBytes;
+        this.availableBytes = availableBytes;
+    }
+
+    public long getRequiredBytes() {
+        return requiredBytes;
+    }
+
+    public long getAvailableBytes() {
+        return availableBytes;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example;
+
+import java.util.Map;
+
+/**
+ * Decides which record survives when two records share a CarKey.
+ */
+public enum MergePolicy {
+    /** The record loaded last replaces the earlier one, like an upsert */
+    LAST_WRITER_WINS {
+        @Override
+        public Car merge(Car existing, Car incoming) {
+            return incoming;
+        }
+    },
+
+    /**
+     * The record with the lower price survives. Prices are compared in every currency
+     * both records carry: the incoming record wins if it is cheaper in at least one of
+     * them and more expensive in none. Ties, conflicting currencies and records without
+     * a common currency keep the earlier record.
+     */
+    MIN_PRICE {
+        @Override
+        public Car merge(Car existing, Car incoming) {
+            Map<String, Double> existingPrices = existing.getPrices();
+            boolean cheaper = false;
+            for (Map.Entry<String, Double> price : incoming.getPrices().entrySet()) {
+                Double other = existingPrices.get(price.getKey());
+                if (other == null) {
+                    continue;
+                }
+                int comparison = Double.compare(price.getValue(), other);
+                if (comparison > 0) {
+                    return existing;
+                }
+                cheaper |= comparison < 0;
+            }
+            return cheaper ? incoming : existing;
+        }
+    };
+
+    /**
+     * Merge two records with the same key
+     *
+     * @param existing record seen first
+     * @param incoming record seen later
+     * @return the record to keep
+     */
+    public abstract Car merge(Car existing, Car incoming);
+}
@@ -0,0 +1,841 @@
+package com.example;
+
+import java.lang.ref.Cleaner;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Car rows stored outside the Java heap, so datasets of hundreds of millions of
+ * cars do not add to garbage collection work.
+ * <p>
+ * Every row is a fixed-width slot in direct ByteBuffer chunks of up to 1 GB:
+ * brand, model, type and preferred currency ids (4 bytes each), the release date in
+ * epoch milliseconds (8 bytes) and one price per known currency (8 bytes each, NaN
+ * when the car has no price in that currency). Brands, models and types are kept
+ * once each in off-heap string dictionaries. Filtering and sorting run over the raw
+ * slots and return row ids; formatting reads them through a reusable flyweight Row,
+ * so neither creates a Car per row. asList materializes cars one at a time for
+ * callers that need real Car objects.
+ * <p>
+ * Memory is reference counted: the store starts with one reference, held by its
+ * creator. Readers retain the store around each use and release it afterwards; the
+ * last release frees the buffers at once instead of waiting for the collector.
+ * Touching a freed store fails instead of reading freed memory, as long as callers
+ * only use rows while they hold a reference. Lists from retainList hold a reference
+ * of their own, so they stay readable after the store is replaced; they release it
+ * on close, or once they become unreachable if the caller never closes them.
+ */
+public final class OffHeapCarStore implements AutoCloseable {
+    // brand, model, type and preferred currency ids, then release millis
+    private static final int FIXED_BYTES = 24;
+    private static final int PRICES_OFFSET = FIXED_BYTES;
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    // Releases the references of retained lists that were dropped without close
+    private static final Cleaner LIST_CLEANER = Cleaner.create();
+
+    private final String[] currencies;
+    private final Map<String, Integer> currencyIds;
+    private final int rowBytes;
+    private final int chunkRows;
+    private final ByteBuffer[] chunks;
+    private final int size;
+    private final StringDictionary brands;
+    private final StringDictionary models;
+    private final StringDictionary types;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private OffHeapCarStore(Builder builder) {
+        this.currencies = builder.currencies;
+        this.currencyIds = builder.currencyIds;
+        this.rowBytes = builder.rowBytes;
+        this.chunkRows = builder.chunkRows;
+        this.chunks = builder.chunks.toArray(new ByteBuffer[0]);
+        this.size = builder.size;
+        this.brands = builder.brands.freeze();
+        this.models = builder.models.freeze();
+        this.types = builder.types.freeze();
+    }
+
+    /**
+     * Copy a list of cars into a new store
+     *
+     * @param cars cars to store, in row order
+     * @return store holding one reference for the caller
+     */
+    public static OffHeapCarStore of(List<Car> cars) {
+        TreeSet<String> currencies = new TreeSet<>();
+        for (Car car : cars) {
+            currencies.addAll(car.getPrices().keySet());
+        }
+        Builder builder = new Builder(new ArrayList<>(currencies), cars.size());
+        for (Car car : cars) {
+            builder.accept(car);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Streaming writer of a store, for feeding cars straight from a parser.
+     * The currencies have to be known up front since they fix the row width.
+     */
+    public static final class Builder implements Consumer<Car> {
+        private final String[] currencies;
+        private final Map<String, Integer> currencyIds = new HashMap<>();
+        private final int rowBytes;
+        private final int chunkRows;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private final StringDictionary brands = new StringDictionary();
+        private final StringDictionary models = new StringDictionary();
+        private final StringDictionary types = new StringDictionary();
+        private int size;
+        private boolean built;
+
+        /**
+         * Create a builder
+         *
+         * @param currencies currency codes any car may be priced in
+         * @param expectedRows expected number of cars, used to size the first chunk
+         */
+        public Builder(List<String> currencies, int expectedRows) {
+            this.currencies = currencies.toArray(new String[0]);
+            for (int i = 0; i < this.currencies.length; i++) {
+                currencyIds.put(this.currencies[i], i);
+            }
+            this.rowBytes = FIXED_BYTES + 8 * this.currencies.length;
+            this.chunkRows = Math.max(1, MAX_CHUNK_BYTES / rowBytes);
+            chunks.add(allocate(Math.max(1, Math.min(chunkRows, expectedRows)) * rowBytes));
+        }
+
+        /**
+         * Append a car as the next row
+         *
+         * @param car car to store
+         * @throws IllegalArgumentException if the car has a price in an unknown currency
+         */
+        @Override
+        public void accept(Car car) {
+            if (built) {
+                throw new IllegalStateException("Store has already been built");
+            }
+            ByteBuffer chunk = ensureCapacity();
+            int base = (size % chunkRows) * rowBytes;
+            chunk.putInt(base, brands.id(car.getBrand()));
+            chunk.putInt(base + 4, models.id(car.getModel()));
+            chunk.putInt(base + 8, types.id(car.getType()));
+            Integer preferred = currencyIds.get(car.getPreferredCurrency());
+            chunk.putInt(base + 12, preferred == null ? 0 : preferred);
+            chunk.putLong(base + 16, car.getReleaseDate() == null ? NO_DATE : car.getReleaseDate().getTime());
+            for (int i = 0; i < currencies.length; i++) {
+                chunk.putDouble(base + PRICES_OFFSET + 8 * i, Double.NaN);
+            }
+            for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+                Integer currency = currencyIds.get(price.getKey());
+                if (currency == null) {
+                    throw new IllegalArgumentException("Unknown currency: " + price.getKey());
+                }
+                chunk.putDouble(base + PRICES_OFFSET + 8 * currency, price.getValue());
+            }
+            size++;
+        }
+
+        /**
+         * Finish the store. The builder cannot be used afterwards.
+         *
+         * @return store holding one reference for the caller
+         */
+        public OffHeapCarStore build() {
+            built = true;
+            return new OffHeapCarStore(this);
+        }
+
+        // Full chunks hold chunkRows rows; only the last one grows, by doubling
+        private ByteBuffer ensureCapacity() {
+            int last = chunks.size() - 1;
+            ByteBuffer chunk = chunks.get(last);
+            int used = size - last * chunkRows;
+            if (used == chunkRows) {
+                chunk = allocate(Math.min(chunkRows, 1024) * rowBytes);
+                chunks.add(chunk);
+            } else if ((used + 1) * rowBytes > chunk.capacity()) {
+                ByteBuffer grown = allocate((int) Math.min((long) chunkRows * rowBytes, 2L * chunk.capacity()));
+                grown.put(chunk.duplicate());
+                free(chunk);
+                chunks.set(last, grown);
+                chunk = grown;
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Get the number of rows
+     *
+     * @return row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the currency codes the rows have price slots for
+     *
+     * @return currency codes in slot order
+     */
+    public List<String> getCurrencies() {
+        return Collections.unmodifiableList(Arrays.asList(currencies));
+    }
+
+    /**
+     * Get the direct memory held by the rows and dictionaries
+     *
+     * @return off-heap bytes, 0 once freed
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer chunk : chunks) {
+            bytes += chunk == null ? 0 : chunk.capacity();
+        }
+        return bytes + brands.getOffHeapBytes() + models.getOffHeapBytes() + types.getOffHeapBytes();
+    }
+
+    /**
+     * Take a reference, keeping the memory alive until the matching release
+     *
+     * @return false if the store has already been freed
+     */
+    public boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drop a reference; the last one frees the off-heap memory
+     */
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            for (int i = 0; i < chunks.length; i++) {
+                free(chunks[i]);
+                chunks[i] = null;
+            }
+            brands.free();
+            models.free();
+            types.free();
+        } else if (count < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("Car store released more often than retained");
+        }
+    }
+
+    /**
+     * Drop the creator's reference
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * Check whether the memory has been freed
+     *
+     * @return true once the last reference is released
+     */
+    public boolean isReleased() {
+        return references.get() == 0;
+    }
+
+    /**
+     * Create a flyweight positioned nowhere; call moveTo before reading it
+     *
+     * @return new flyweight, for use by one thread
+     */
+    public Row row() {
+        return new Row(null);
+    }
+
+    /**
+     * Read a row as a regular Car
+     *
+     * @param row row id
+     * @return new car with its own copy of the values
+     */
+    public Car toCar(int row) {
+        return new Row(null).moveTo(row).toCar();
+    }
+
+    /**
+     * Read several rows as regular Cars
+     *
+     * @param rows row ids
+     * @return new mutable list of cars in the order of the ids
+     */
+    public List<Car> toCars(int[] rows) {
+        return toCars(rows, null);
+    }
+
+    /**
+     * Read several rows as regular Cars shown in the currencies of a view
+     *
+     * @param rows row ids
+     * @param currencyView result of currencyView, or null for the stored preferred currencies
+     * @return new mutable list of cars in the order of the ids
+     */
+    public List<Car> toCars(int[] rows, int[] currencyView) {
+        Row flyweight = new Row(currencyView);
+        List<Car> result = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            result.add(flyweight.moveTo(row).toCar());
+        }
+        return result;
+    }
+
+    /**
+     * View rows through a single flyweight, e.g. for the output formats.
+     * Each get repositions the same Row, so use a view before fetching the next.
+     *
+     * @param rows row ids
+     * @return read-only list of views in the order of the ids
+     */
+    public List<CarView> views(int[] rows) {
+        return views(rows, null);
+    }
+
+    /**
+     * View rows through a single flyweight that shows them in the currencies of a view
+     *
+     * @param rows row ids
+     * @param currencyView result of currencyView, or null for the stored preferred currencies
+     * @return read-only list of views in the order of the ids
+     */
+    public List<CarView> views(int[] rows, int[] currencyView) {
+        Row flyweight = new Row(currencyView);
+        return new AbstractList<CarView>() {
+            @Override
+            public CarView get(int index) {
+                return flyweight.moveTo(rows[index]);
+            }
+
+            @Override
+            public int size() {
+                return rows.length;
+            }
+        };
+    }
+
+    /**
+     * Find the rows passing a filter, without creating any Car
+     *
+     * @param filter filter to apply
+     * @param candidates row ids to test in order, or null for every row
+     * @return ids of matching rows, in candidate order
+     */
+    public int[] filter(CarFilter filter, int[] candidates) {
+        int count = candidates == null ? size : candidates.length;
+        boolean[] brandMatches = filter.getBrand() == null ? null : brands.matchIgnoreCase(filter.getBrand());
+        double minPrice = filter.getMinPrice();
+        long from = filter.getFromDate() == null ? NO_DATE : filter.getFromDate().getTime();
+        int[] matches = new int[count];
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            int row = candidates == null ? i : candidates[i];
+            ByteBuffer chunk = chunk(row);
+            int base = (row % chunkRows) * rowBytes;
+            if (brandMatches != null && !brandMatches[chunk.getInt(base)]) {
+                continue;
+            }
+            if (from != NO_DATE && chunk.getLong(base + 16) < from) {
+                continue;
+            }
+            if (!Double.isNaN(minPrice)) {
+                boolean reached = false;
+                for (int c = 0; c < currencies.length && !reached; c++) {
+                    // Missing prices are NaN and never reach the minimum
+                    reached = chunk.getDouble(base + PRICES_OFFSET + 8 * c) >= minPrice;
+                }
+                if (!reached) {
+                    continue;
+                }
+            }
+            matches[found++] = row;
+        }
+        return found == count ? matches : Arrays.copyOf(matches, found);
+    }
+
+    /**
+     * Stable sort of row ids, latest release date first
+     *
+     * @param rows row ids, sorted in place
+     */
+    public void sortByReleaseDate(int[] rows) {
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            keys[i] = chunk(rows[i]).getLong((rows[i] % chunkRows) * rowBytes + 16);
+        }
+        sortDescending(rows, keys);
+    }
+
+    /**
+     * Stable sort of row ids, highest price in any currency first
+     *
+     * @param rows row ids, sorted in place
+     */
+    public void sortByMaxPrice(int[] rows) {
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            ByteBuffer chunk = chunk(rows[i]);
+            int base = (rows[i] % chunkRows) * rowBytes;
+            double max = Double.NEGATIVE_INFINITY;
+            boolean priced = false;
+            for (int c = 0; c < currencies.length; c++) {
+                double price = chunk.getDouble(base + PRICES_OFFSET + 8 * c);
+                if (!Double.isNaN(price)) {
+                    max = Math.max(max, price);
+                    priced = true;
+                }
+            }
+            // Order-preserving mapping of the double onto a signed long
+            long bits = Double.doubleToLongBits(priced ? max : 0);
+            keys[i] = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+        sortDescending(rows, keys);
+    }
+
+    /**
+     * Stable sort of row ids by the position of their type in a list, e.g. SUV first
+     *
+     * @param rows row ids, sorted in place
+     * @param typeOrder lowercase type names; other types sort last
+     */
+    public void sortByType(int[] rows, List<String> typeOrder) {
+        int[] rank = new int[types.size()];
+        for (int id = 0; id < rank.length; id++) {
+            String type = types.get(id);
+            int index = type == null ? -1 : typeOrder.indexOf(type.toLowerCase());
+            rank[id] = index < 0 ? typeOrder.size() : index;
+        }
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            keys[i] = -rank[chunk(rows[i]).getInt((rows[i] % chunkRows) * rowBytes + 8)];
+        }
+        sortDescending(rows, keys);
+    }
+
+    /**
+     * Choose a display currency per car type for one query. The rows are not changed,
+     * so concurrent queries can show the same rows in different currencies.
+     *
+     * @param currencyForType currency code to show a type in, or null to keep the preferred currency
+     * @return currency id per type id, -1 to keep the preferred currency; pass to views or toCars
+     */
+    public int[] currencyView(Function<String, String> currencyForType) {
+        int[] view = new int[types.size()];
+        for (int id = 0; id < view.length; id++) {
+            String type = types.get(id);
+            Integer currency = type == null ? null : currencyIds.get(currencyForType.apply(type));
+            view[id] = currency == null ? -1 : currency;
+        }
+        return view;
+    }
+
+    /**
+     * View the store as a list of cars. Each get materializes a new Car, so changes
+     * to it are not written back; sizes and iteration work without touching the heap.
+     *
+     * @return read-only list over all rows
+     */
+    public CarList asList() {
+        return new CarList(false);
+    }
+
+    /**
+     * View the store as a list of cars that holds its own reference, e.g. to hand out
+     * to callers that do not know when the store is replaced. The reference is released
+     * by close, or after the list becomes unreachable.
+     *
+     * @return read-only list over all rows, or null if the store has already been freed
+     */
+    public CarList retainList() {
+        return retain() ? new CarList(true) : null;
+    }
+
+    /**
+     * Lazily materializing list over every row of a store
+     */
+    public final class CarList extends AbstractList<Car> implements RandomAccess, AutoCloseable {
+        private final Cleaner.Cleanable reference;
+
+        private CarList(boolean retained) {
+            // The action must not refer to the list, or the list would never become unreachable
+            this.reference = retained ? LIST_CLEANER.register(this, OffHeapCarStore.this::release) : null;
+        }
+
+        @Override
+        public Car get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            if (!retain()) {
+                throw new IllegalStateException("Car store has been released");
+            }
+            try {
+                return toCar(index);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Get the store behind the list
+         *
+         * @return store
+         */
+        public OffHeapCarStore getStore() {
+            return OffHeapCarStore.this;
+        }
+
+        /**
+         * Release the reference of a list from retainList; does nothing for other lists
+         * or when called again
+         */
+        @Override
+        public void close() {
+            if (reference != null) {
+                reference.clean();
+            }
+        }
+    }
+
+    /**
+     * Flyweight over one row at a time. Strings come from the dictionaries and the
+     * release date is a reused Date, so a view stays valid only until the next moveTo.
+     */
+    public final class Row implements CarView {
+        private final Date releaseDate = new Date();
+        private final int[] currencyView;
+        private ByteBuffer chunk;
+        private int base;
+
+        private Row(int[] currencyView) {
+            this.currencyView = currencyView;
+        }
+
+        /**
+         * Position the flyweight
+         *
+         * @param row row id
+         * @return this flyweight
+         */
+        public Row moveTo(int row) {
+            if (row < 0 || row >= size) {
+                throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+            }
+            chunk = chunk(row);
+            base = (row % chunkRows) * rowBytes;
+            return this;
+        }
+
+        @Override
+        public String getBrand() {
+            return brands.get(chunk.getInt(base));
+        }
+
+        @Override
+        public String getModel() {
+            return models.get(chunk.getInt(base + 4));
+        }
+
+        @Override
+        public String getType() {
+            return types.get(chunk.getInt(base + 8));
+        }
+
+        /**
+         * Copy the prices of the row
+         *
+         * @return new read-only map from currency code to price
+         */
+        @Override
+        public Map<String, Double> getPrices() {
+            Map<String, Double> prices = new HashMap<>();
+            for (int c = 0; c < currencies.length; c++) {
+                double price = chunk.getDouble(base + PRICES_OFFSET + 8 * c);
+                if (!Double.isNaN(price)) {
+                    prices.put(currencies[c], price);
+                }
+            }
+            return Collections.unmodifiableMap(prices);
+        }
+
+        /**
+         * Get the currency the row is shown in: the one of the view if the row has a price in it
+         */
+        private int currencyId() {
+            if (currencyView != null) {
+                int id = currencyView[chunk.getInt(base + 8)];
+                if (id >= 0 && !Double.isNaN(chunk.getDouble(base + PRICES_OFFSET + 8 * id))) {
+                    return id;
+                }
+            }
+            return chunk.getInt(base + 12);
+        }
+
+        @Override
+        public String getPreferredCurrency() {
+            return currencies.length == 0 ? null : currencies[currencyId()];
+        }
+
+        @Override
+        public double getPrice() {
+            if (currencies.length == 0) {
+                return 0.0;
+            }
+            double price = chunk.getDouble(base + PRICES_OFFSET + 8 * currencyId());
+            return Double.isNaN(price) ? 0.0 : price;
+        }
+
+        /**
+         * Get the release date in a Date reused by this flyweight
+         *
+         * @return release date, or null if the car had none
+         */
+        @Override
+        public Date getReleaseDate() {
+            long millis = chunk.getLong(base + 16);
+            if (millis == NO_DATE) {
+                return null;
+            }
+            releaseDate.setTime(millis);
+            return releaseDate;
+        }
+
+        /**
+         * Materialize the current row
+         *
+         * @return new car with its own copy of the values
+         */
+        public Car toCar() {
+            long millis = chunk.getLong(base + 16);
+            Car car = new Car(getBrand(), getModel(), getType(), new HashMap<>(getPrices()),
+                    millis == NO_DATE ? null : new Date(millis));
+            car.setPreferredCurrency(getPreferredCurrency());
+            return car;
+        }
+    }
+
+    private ByteBuffer chunk(int row) {
+        ByteBuffer chunk = chunks[row / chunkRows];
+        if (chunk == null) {
+            throw new IllegalStateException("Car store has been released");
+        }
+        return chunk;
+    }
+
+    /**
+     * Bottom-up merge sort of row ids by descending key; equal keys keep their order
+     */
+    private static void sortDescending(int[] rows, long[] keys) {
+        int n = rows.length;
+        int[] rowBuffer = new int[n];
+        long[] keyBuffer = new long[n];
+        int[] srcRows = rows;
+        long[] srcKeys = keys;
+        for (int width = 1; width < n; width *= 2) {
+            for (int left = 0; left < n; left += 2 * width) {
+                int mid = Math.min(left + width, n);
+                int right = Math.min(left + 2 * width, n);
+                int i = left;
+                int j = mid;
+                for (int k = left; k < right; k++) {
+                    if (i < mid && (j >= right || srcKeys[i] >= srcKeys[j])) {
+                        rowBuffer[k] = srcRows[i];
+                        keyBuffer[k] = srcKeys[i++];
+                    } else {
+                        rowBuffer[k] = srcRows[j];
+                        keyBuffer[k] = srcKeys[j++];
+                    }
+                }
+            }
+            int[] swapRows = srcRows;
+            srcRows = rowBuffer;
+            rowBuffer = swapRows;
+            long[] swapKeys = srcKeys;
+            srcKeys = keyBuffer;
+            keyBuffer = swapKeys;
+        }
+        if (srcRows != rows) {
+            System.arraycopy(srcRows, 0, rows, 0, n);
+        }
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    // Frees direct memory right away; without Unsafe the collector frees it later
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static void free(ByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector
+        }
+    }
+
+    /**
+     * Append-only dictionary of strings kept as UTF-8 in direct memory. Ids are
+     * assigned in insertion order; the lookup map exists only while building.
+     * Recently decoded strings are cached by id in a small direct-mapped table.
+     */
+    private static final class StringDictionary {
+        private static final int CACHE_SIZE = 1024;
+        private static final int NULL_LENGTH = -1;
+
+        private Map<String, Integer> ids = new HashMap<>();
+        private ByteBuffer bytes = allocate(4096);
+        // Start offset and length of each string, -1 length for null
+        private ByteBuffer entries = allocate(1024);
+        private int size;
+        private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
+        int id(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            byte[] encoded = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.position() + encoded.length > bytes.capacity()) {
+                bytes = grow(bytes, bytes.position() + encoded.length);
+            }
+            if (entries.position() + 8 > entries.capacity()) {
+                entries = grow(entries, entries.position() + 8);
+            }
+            entries.putInt(bytes.position());
+            entries.putInt(value == null ? NULL_LENGTH : encoded.length);
+            bytes.put(encoded);
+            ids.put(value, size);
+            return size++;
+        }
+
+        StringDictionary freeze() {
+            ids = null;
+            return this;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String get(int id) {
+            CacheEntry cached = cache[id & (CACHE_SIZE - 1)];
+            if (cached != null && cached.id == id) {
+                return cached.value;
+            }
+            ByteBuffer entryBuffer = entries;
+            ByteBuffer byteBuffer = bytes;
+            if (entryBuffer == null) {
+                throw new IllegalStateException("Car store has been released");
+            }
+            int length = entryBuffer.getInt(8 * id + 4);
+            String value = null;
+            if (length != NULL_LENGTH) {
+                int offset = entryBuffer.getInt(8 * id);
+                byte[] encoded = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    encoded[i] = byteBuffer.get(offset + i);
+                }
+                value = new String(encoded, StandardCharsets.UTF_8);
+            }
+            cache[id & (CACHE_SIZE - 1)] = new CacheEntry(id, value);
+            return value;
+        }
+
+        boolean[] matchIgnoreCase(String value) {
+            boolean[] matches = new boolean[size];
+            for (int id = 0; id < size; id++) {
+                String candidate = get(id);
+                matches[id] = candidate != null && candidate.equalsIgnoreCase(value);
+            }
+            return matches;
+        }
+
+        long getOffHeapBytes() {
+            return bytes == null ? 0 : bytes.capacity() + entries.capacity();
+        }
+
+        void free() {
+            OffHeapCarStore.free(bytes);
+            OffHeapCarStore.free(entries);
+            bytes = null;
+            entries = null;
+        }
+
+        private static ByteBuffer grow(ByteBuffer buffer, int required) {
+            ByteBuffer grown = allocate(Math.max(required, 2 * buffer.capacity()));
+            buffer.flip();
+            grown.put(buffer);
+            OffHeapCarStore.free(buffer);
+            return grown;
+        }
+    }
+
+    private static final class CacheEntry {
+        final int id;
+        final String value;
+
+        CacheEntry(int id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes large results to a file in any output format of CarDataService, using
+ * several threads. The cars are split into contiguous chunks; workers format each
+ * chunk and encode it as UTF-8 into a pooled direct buffer, while the calling thread
+ * writes finished chunks in order with gather writes. The file is byte for byte
+ * what CarDataService.format would return.
+ * <p>
+ * At most two chunks per thread are in flight, so memory stays bounded by the chunk
+ * size rather than the result size. One exporter may run several exports at once.
+ */
+public class ParallelExporter implements AutoCloseable {
+    /** Cars per chunk by default, about half a megabyte of JSON */
+    public static final int DEFAULT_CHUNK_CARS = 2048;
+
+    /**
+     * Cars of a result by position. Every call must return a list that can be read
+     * on its own thread, e.g. a fresh flyweight view for off-heap rows.
+     */
+    public interface ChunkSource {
+        List<? extends CarView> chunk(int from, int to);
+    }
+
+    private final int threads;
+    private final int chunkCars;
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(StringBuilder::new);
+
+    public ParallelExporter() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_CARS);
+    }
+
+    /**
+     * Create an exporter with its own worker threads
+     *
+     * @param threads number of formatting threads
+     * @param chunkCars cars per chunk
+     */
+    public ParallelExporter(int threads, int chunkCars) {
+        if (threads <= 0 || chunkCars <= 0) {
+            throw new IllegalArgumentException("threads and chunkCars must be positive");
+        }
+        this.threads = threads;
+        this.chunkCars = chunkCars;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "car-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Export cars to a file, replacing it
+     *
+     * @param cars cars to export; must not change during the export
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @param target file to write
+     * @return bytes written
+     * @throws IOException if writing fails
+     */
+    public long export(List<? extends CarView> cars, String outputFormat, Path target) throws IOException {
+        return export(cars.size(), cars::subList, outputFormat, target);
+    }
+
+    /**
+     * Export a result given by chunks to a file, replacing it
+     *
+     * @param size number of cars
+     * @param source cars by position
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @param target file to write
+     * @return bytes written
+     * @throws IOException if writing fails
+     */
+    public long export(int size, ChunkSource source, String outputFormat, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return export(size, source, outputFormat, channel);
+        }
+    }
+
+    /**
+     * Export a result given by chunks to a channel at its current position
+     *
+     * @param size number of cars
+     * @param source cars by position
+     * @param outputFormat "XML", "JSON", "NDJSON" or "Table"
+     * @param channel destination
+     * @return bytes written
+     * @throws IOException if writing fails
+     */
+    public long export(int size, ChunkSource source, String outputFormat, FileChannel channel) throws IOException {
+        StringBuilder text = new StringBuilder();
+        CarDataService.appendHeader(text, outputFormat);
+        List<ByteBuffer> ready = new ArrayList<>();
+        ready.add(encode(text));
+
+        int chunks = (size + chunkCars - 1) / chunkCars;
+        Deque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        long written = 0;
+        try {
+            while (next < chunks || !inFlight.isEmpty()) {
+                while (next < chunks && inFlight.size() < 2 * threads) {
+                    int from = next * chunkCars;
+                    int to = Math.min(size, from + chunkCars);
+                    boolean last = ++next == chunks;
+                    inFlight.add(executor.submit(() -> formatChunk(source.chunk(from, to), outputFormat, last)));
+                }
+                // Wait for the oldest chunk, then take every chunk after it that is done too
+                ready.add(await(inFlight.poll()));
+                while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                    ready.add(await(inFlight.poll()));
+                }
+                written += write(channel, ready);
+            }
+            text.setLength(0);
+            CarDataService.appendFooter(text, outputFormat);
+            ready.add(encode(text));
+            written += write(channel, ready);
+            return written;
+        } finally {
+            for (Future<ByteBuffer> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    private ByteBuffer formatChunk(List<? extends CarView> cars, String outputFormat, boolean last) {
+        StringBuilder text = builders.get();
+        text.setLength(0);
+        CarDataService.appendCars(text, cars, outputFormat, last);
+        return encode(text);
+    }
+
+    /**
+     * Encode text as UTF-8 into a pooled buffer, flipped for reading
+     */
+    private ByteBuffer encode(CharSequence text) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer buffer = takeBuffer(text.length());
+        while (true) {
+            CharBuffer chars = CharBuffer.wrap(text);
+            buffer.clear();
+            CoderResult result = encoder.reset().encode(chars, buffer, true);
+            if (!result.isOverflow()) {
+                result = encoder.flush(buffer);
+            }
+            if (!result.isOverflow()) {
+                buffer.flip();
+                return buffer;
+            }
+            // Non-ASCII text takes more than a byte per char
+            buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+        }
+    }
+
+    private ByteBuffer takeBuffer(int minCapacity) {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null || buffer.capacity() < minCapacity) {
+            // Undersized buffers are dropped, so the pool converges on the chunk size
+            buffer = ByteBuffer.allocateDirect(Math.max(minCapacity, 1024));
+        }
+        return buffer;
+    }
+
+    /**
+     * Write buffers in order with gather writes, then return them to the pool
+     */
+    private long write(FileChannel channel, List<ByteBuffer> buffers) throws IOException {
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long written = 0;
+        int first = 0;
+        while (first < array.length) {
+            written += channel.write(array, first, array.length - first);
+            while (first < array.length && !array[first].hasRemaining()) {
+                first++;
+            }
+        }
+        for (ByteBuffer buffer : array) {
+            buffer.clear();
+            bufferPool.offer(buffer);
+        }
+        buffers.clear();
+        return written;
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Formatting a chunk failed", cause);
+        }
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
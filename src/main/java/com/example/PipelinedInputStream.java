@@ -0,0 +1,159 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream that reads its source on a separate thread.
+ * A producer thread fills a small, fixed set of large buffers from the source and
+ * hands them over through a queue; the consumer returns each buffer once it has been
+ * read, so the buffers are reused for the whole stream. Wrapped around a decompressor,
+ * decompression runs in parallel with whatever parses the output.
+ */
+public class PipelinedInputStream extends InputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private static final Chunk END = new Chunk(null, 0, null);
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Chunk> filled;
+    private final Thread producer;
+
+    private Chunk current;
+    private int position;
+    private boolean finished;
+    private volatile boolean closed;
+
+    public PipelinedInputStream(InputStream source, String threadName) {
+        this(source, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, threadName);
+    }
+
+    public PipelinedInputStream(InputStream source, int bufferSize, int bufferCount, String threadName) {
+        if (bufferSize <= 0 || bufferCount <= 0) {
+            throw new IllegalArgumentException("Buffer size and count must be positive");
+        }
+        this.source = source;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        // One extra slot for the end marker, so the producer never blocks on put
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new byte[bufferSize]);
+        }
+        this.producer = new Thread(this::produce, threadName);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce() {
+        try {
+            while (!closed) {
+                byte[] buffer = free.take();
+                int length = 0;
+                int read = 0;
+                while (length < buffer.length && (read = source.read(buffer, length, buffer.length - length)) > 0) {
+                    length += read;
+                }
+                if (length > 0) {
+                    filled.put(new Chunk(buffer, length, null));
+                }
+                if (read < 0) {
+                    filled.put(END);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        } catch (IOException e) {
+            filled.offer(new Chunk(null, 0, e));
+        } catch (Throwable e) {
+            // E.g. a decompressor failing on corrupt input; the consumer must not wait forever
+            filled.offer(new Chunk(null, 0, new IOException("Reading the source failed", e)));
+        }
+    }
+
+    /**
+     * Make the next filled chunk current
+     *
+     * @return false at end of stream
+     */
+    private boolean advance() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (current != null) {
+            free.offer(current.data);
+            current = null;
+        }
+        Chunk next;
+        try {
+            next = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input", e);
+        }
+        if (next.error != null) {
+            finished = true;
+            throw next.error;
+        }
+        if (next == END) {
+            finished = true;
+            return false;
+        }
+        current = next;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null || position == current.length) && !advance()) {
+            return -1;
+        }
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if ((current == null || position == current.length) && !advance()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        producer.interrupt();
+        source.close();
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final IOException error;
+
+        Chunk(byte[] data, int length, IOException error) {
+            this.data = data;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Streaming statistics over cars: price quantiles per currency and per brand and currency (QuantileSketch),
+ * distinct model counts overall and per brand (HyperLogLog) and the most frequent
+ * brands (SpaceSaving). Brands are compared case-insensitively and reported in
+ * the spelling seen first. Cars are fed one at a time, e.g. straight from a parser,
+ * and statistics built on separate threads or files merge into one.
+ * Memory grows only with the number of brands and currencies. Not thread-safe.
+ */
+public class PriceStatistics implements Consumer<Car> {
+    // Per-brand model counts use fewer registers: 1 KB each, 3.3% standard error
+    private static final int BRAND_HLL_PRECISION = 10;
+
+    private final Map<String, QuantileSketch> pricesByCurrency = new TreeMap<>();
+    private final TreeMap<String, Map<String, QuantileSketch>> pricesByBrand = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final HyperLogLog models = new HyperLogLog();
+    private final Map<String, HyperLogLog> modelsByBrand = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    // Counted by lowercase brand, so that brands group like the maps above
+    private final SpaceSaving brands = new SpaceSaving();
+    private long count;
+
+    /**
+     * Build statistics over a list of cars
+     *
+     * @param cars cars to summarize
+     * @return statistics
+     */
+    public static PriceStatistics of(List<Car> cars) {
+        PriceStatistics statistics = new PriceStatistics();
+        for (Car car : cars) {
+            statistics.accept(car);
+        }
+        return statistics;
+    }
+
+    /**
+     * Add a car: every price in its currency, its model and its brand
+     *
+     * @param car car to add
+     */
+    @Override
+    public void accept(Car car) {
+        count++;
+        String brand = car.getBrand() == null ? "" : car.getBrand();
+        Map<String, QuantileSketch> brandPrices = pricesByBrand.computeIfAbsent(brand, b -> new TreeMap<>());
+        for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+            pricesByCurrency.computeIfAbsent(price.getKey(), c -> new QuantileSketch()).update(price.getValue());
+            brandPrices.computeIfAbsent(price.getKey(), c -> new QuantileSketch()).update(price.getValue());
+        }
+        String model = car.getModel();
+        if (model != null && !model.isEmpty()) {
+            long hash = HyperLogLog.hash64(model);
+            models.addHash(hash);
+            modelsByBrand.computeIfAbsent(brand, b -> new HyperLogLog(BRAND_HLL_PRECISION)).addHash(hash);
+        }
+        brands.offer(brand.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Merge statistics over another part of the data into this one
+     *
+     * @param other statistics to add; they are not modified
+     */
+    public void merge(PriceStatistics other) {
+        count += other.count;
+        for (Map.Entry<String, QuantileSketch> entry : other.pricesByCurrency.entrySet()) {
+            pricesByCurrency.computeIfAbsent(entry.getKey(), c -> new QuantileSketch()).merge(entry.getValue());
+        }
+        for (Map.Entry<String, Map<String, QuantileSketch>> brand : other.pricesByBrand.entrySet()) {
+            Map<String, QuantileSketch> brandPrices = pricesByBrand.computeIfAbsent(brand.getKey(), b -> new TreeMap<>());
+            for (Map.Entry<String, QuantileSketch> entry : brand.getValue().entrySet()) {
+                brandPrices.computeIfAbsent(entry.getKey(), c -> new QuantileSketch()).merge(entry.getValue());
+            }
+        }
+        models.merge(other.models);
+        for (Map.Entry<String, HyperLogLog> entry : other.modelsByBrand.entrySet()) {
+            modelsByBrand.computeIfAbsent(entry.getKey(), b -> new HyperLogLog(BRAND_HLL_PRECISION))
+                    .merge(entry.getValue());
+        }
+        brands.merge(other.brands);
+    }
+
+    /**
+     * Get the number of cars added
+     *
+     * @return car count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get an approximate price quantile over all cars priced in a currency
+     *
+     * @param currency currency code
+     * @param quantile fraction between 0 and 1, e.g. 0.5 for the median
+     * @return price, or NaN if no car has a price in the currency
+     */
+    public double getPriceQuantile(String currency, double quantile) {
+        QuantileSketch sketch = pricesByCurrency.get(currency);
+        return sketch == null ? Double.NaN : sketch.getQuantile(quantile);
+    }
+
+    /**
+     * Get an approximate price quantile for one brand
+     *
+     * @param brand brand, case-insensitive
+     * @param currency currency code
+     * @param quantile fraction between 0 and 1
+     * @return price, or NaN if the brand has no price in the currency
+     */
+    public double getPriceQuantile(String brand, String currency, double quantile) {
+        Map<String, QuantileSketch> brandPrices = pricesByBrand.get(brand);
+        QuantileSketch sketch = brandPrices == null ? null : brandPrices.get(currency);
+        return sketch == null ? Double.NaN : sketch.getQuantile(quantile);
+    }
+
+    /**
+     * Get the price sketches per currency, for percentiles not covered by the getters
+     *
+     * @return sketch per currency code
+     */
+    public Map<String, QuantileSketch> getPriceSketches() {
+        return Collections.unmodifiableMap(pricesByCurrency);
+    }
+
+    /**
+     * Estimate the number of distinct models, within about 1.6%
+     *
+     * @return estimated distinct models
+     */
+    public long getDistinctModels() {
+        return models.estimate();
+    }
+
+    /**
+     * Estimate the number of distinct models of one brand, within about 3.3%
+     *
+     * @param brand brand, case-insensitive
+     * @return estimated distinct models, 0 for an unknown brand
+     */
+    public long getDistinctModels(String brand) {
+        HyperLogLog brandModels = modelsByBrand.get(brand);
+        return brandModels == null ? 0 : brandModels.estimate();
+    }
+
+    /**
+     * Get the brands with the most cars
+     *
+     * @param n number of brands
+     * @return brands with count upper bounds, most frequent first
+     */
+    public List<SpaceSaving.Entry> getTopBrands(int n) {
+        List<SpaceSaving.Entry> top = new ArrayList<>();
+        for (SpaceSaving.Entry entry : brands.getTop(n)) {
+            // Every counted brand has a prices entry keyed by its first spelling
+            String spelling = pricesByBrand.ceilingKey(entry.getItem());
+            top.add(new SpaceSaving.Entry(spelling == null ? entry.getItem() : spelling,
+                    entry.getCount(), entry.getError()));
+        }
+        return top;
+    }
+
+    /**
+     * Describe the statistics in a few lines
+     *
+     * @return summary text
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("cars=").append(count)
+          .append(" distinctModels~").append(getDistinctModels())
+          .append(" topBrands=").append(getTopBrands(5)).append('\n');
+        for (Map.Entry<String, QuantileSketch> entry : pricesByCurrency.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,256 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * KLL quantile sketch: approximate percentiles of a stream in bounded memory.
+ * Values enter level 0; when a level outgrows its capacity it is sorted and every
+ * other value (starting at a random offset) is promoted to the next level with
+ * twice the weight. Capacities shrink geometrically by 2/3 towards the lower levels,
+ * so the sketch holds about 3k values however long the stream is.
+ * <p>
+ * Error bound (Karnin, Lang and Liberty 2016): the rank of a returned quantile is
+ * within about 1.7% of the requested rank with 99% probability for k = 200, and the
+ * error scales roughly with 1/k. Minimum and maximum are exact. Sketches built over
+ * different parts of a stream merge into a sketch with the same guarantee.
+ * Not thread-safe; build one sketch per thread and merge them.
+ */
+public class QuantileSketch {
+    public static final int DEFAULT_K = 200;
+    private static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    private final List<double[]> levels = new ArrayList<>();
+    private final List<Integer> sizes = new ArrayList<>();
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private long randomState = 0x2545F4914F6CDD1DL;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Create a sketch
+     *
+     * @param k accuracy parameter; memory grows and error shrinks linearly with k
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY);
+        }
+        this.k = k;
+        addLevel();
+    }
+
+    /**
+     * Add a value
+     *
+     * @param value value to add, NaN is ignored
+     */
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (count++ == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        append(0, value);
+        compressIfFull();
+    }
+
+    /**
+     * Merge another sketch into this one
+     *
+     * @param other sketch over another part of the stream; it is not modified
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+        for (int h = 0; h < other.levels.size(); h++) {
+            double[] items = other.levels.get(h);
+            for (int i = 0; i < other.sizes.get(h); i++) {
+                append(h, items[i]);
+            }
+        }
+        compressIfFull();
+    }
+
+    /**
+     * Get the approximate value at a quantile
+     *
+     * @param quantile fraction between 0 and 1, e.g. 0.99
+     * @return value, or NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (quantile == 0) {
+            return min;
+        }
+        if (quantile == 1) {
+            return max;
+        }
+        int retained = getRetainedItems();
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            double[] items = levels.get(h);
+            for (int i = 0; i < sizes.get(h); i++) {
+                values[n] = items[i];
+                weights[n++] = 1L << h;
+            }
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        long totalWeight = 0;
+        for (long weight : weights) {
+            totalWeight += weight;
+        }
+        double target = quantile * totalWeight;
+        long cumulative = 0;
+        for (int index : order) {
+            cumulative += weights[index];
+            if (cumulative >= target) {
+                return values[index];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Get the approximate fraction of values less than or equal to a value
+     *
+     * @param value value to rank
+     * @return normalized rank between 0 and 1, NaN if the sketch is empty
+     */
+    public double getRank(double value) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long below = 0;
+        long total = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            double[] items = levels.get(h);
+            for (int i = 0; i < sizes.get(h); i++) {
+                total += 1L << h;
+                if (items[i] <= value) {
+                    below += 1L << h;
+                }
+            }
+        }
+        return (double) below / total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Get the number of values held, which bounds the memory used
+     *
+     * @return retained value count
+     */
+    public int getRetainedItems() {
+        int retained = 0;
+        for (int size : sizes) {
+            retained += size;
+        }
+        return retained;
+    }
+
+    private void addLevel() {
+        levels.add(new double[MIN_CAPACITY]);
+        sizes.add(0);
+    }
+
+    private void append(int level, double value) {
+        while (levels.size() <= level) {
+            addLevel();
+        }
+        double[] items = levels.get(level);
+        int size = sizes.get(level);
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            levels.set(level, items);
+        }
+        items[size] = value;
+        sizes.set(level, size + 1);
+    }
+
+    /**
+     * Capacity of a level: k at the top, shrinking by 2/3 per level below
+     */
+    private int capacity(int level) {
+        int depth = levels.size() - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void compressIfFull() {
+        for (int h = 0; h < levels.size(); h++) {
+            if (sizes.get(h) >= capacity(h)) {
+                compact(h);
+                // A new top level lowers every capacity, so rescan from the bottom
+                h = -1;
+            }
+        }
+    }
+
+    /**
+     * Halve a level: sort it and promote every other value to the level above
+     */
+    private void compact(int level) {
+        double[] items = levels.get(level);
+        int size = sizes.get(level);
+        // An odd value out stays behind, so the promoted values pair up exactly
+        int keep = size % 2;
+        Arrays.sort(items, keep, size);
+        int offset = nextRandomBit();
+        for (int i = keep + offset; i < size; i += 2) {
+            append(level + 1, items[i]);
+        }
+        sizes.set(level, keep);
+    }
+
+    private int nextRandomBit() {
+        // xorshift64; the sketch needs unbiased coin flips, not strong randomness
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return (int) (randomState >>> 63);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d min=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                count, min, getQuantile(0.5), getQuantile(0.9), getQuantile(0.99), max);
+    }
+}
@@ -0,0 +1,289 @@
+package com.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Execution profile of one query: the strategy that answered it, rows scanned versus
+ * matched, wall time and heap allocation per stage, and whether a cached result was used.
+ * <p>
+ * A profile is attached to the thread running the query, so the filter, sort, currency
+ * view and format steps record into it without passing it around. When no profile is
+ * attached they record into a shared disabled profile that ignores every call, which
+ * costs one thread-local lookup per step. Allocation is measured with the per-thread
+ * allocation counter of HotSpot JVMs and reported as -1 elsewhere.
+ */
+public final class QueryProfile {
+    /** How the rows of a result were found */
+    public enum Strategy {
+        /** Output or rows came from the result cache */
+        RESULT_CACHE,
+        /** A materialized sort order was walked, already in final order */
+        SORTED_VIEW,
+        /** The previous filter result was narrowed */
+        REFINED_SCAN,
+        /** Block predicates over the column snapshot */
+        COLUMN_SCAN,
+        /** Every car was tested one at a time */
+        ROW_SCAN,
+        /** No filter, the dataset was copied */
+        FULL_COPY,
+        /** Rows of an off-heap store were scanned */
+        OFF_HEAP_SCAN,
+        /** The previous row ids of an off-heap store were narrowed */
+        OFF_HEAP_REFINED,
+        /** The live table's brand index gave the candidates */
+        LIVE_BRAND_INDEX,
+        /** Every car of the live table was tested */
+        LIVE_SCAN
+    }
+
+    /** Steps of a query that are timed */
+    public enum Stage {
+        FILTER, SORT, CURRENCY_VIEW, FORMAT
+    }
+
+    private static final QueryProfile DISABLED = new QueryProfile(null, false);
+    private static final ThreadLocal<QueryProfile> CURRENT = new ThreadLocal<>();
+    private static final com.sun.management.ThreadMXBean ALLOCATION = allocationCounter();
+
+    private final String query;
+    private final boolean enabled;
+    private final long startNanos;
+    private final long startBytes;
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final long[] stageBytes = new long[Stage.values().length];
+    private final long[] stageStartNanos = new long[Stage.values().length];
+    private final long[] stageStartBytes = new long[Stage.values().length];
+    private Strategy strategy;
+    private long rowsScanned = -1;
+    private long rowsMatched = -1;
+    private long rowsReturned = -1;
+    private boolean rowCacheHit;
+    private boolean outputCacheHit;
+    private long totalNanos;
+    private long totalBytes;
+    private String output;
+
+    private QueryProfile(String query, boolean enabled) {
+        this.query = query;
+        this.enabled = enabled;
+        this.startNanos = enabled ? System.nanoTime() : 0;
+        this.startBytes = enabled ? allocatedBytes() : 0;
+    }
+
+    /**
+     * Attach a new profile to the current thread, unless one is already attached
+     *
+     * @param query description of the query
+     * @return the new profile, or null when an outer query is already profiled
+     */
+    static QueryProfile start(String query) {
+        if (CURRENT.get() != null) {
+            return null;
+        }
+        QueryProfile profile = new QueryProfile(query, true);
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * Get the profile of the query running on this thread
+     *
+     * @return attached profile, or a disabled one that ignores every call
+     */
+    static QueryProfile current() {
+        QueryProfile profile = CURRENT.get();
+        return profile == null ? DISABLED : profile;
+    }
+
+    /**
+     * Detach this profile from the current thread and stop its clock
+     */
+    void finish() {
+        CURRENT.remove();
+        totalNanos = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes();
+        totalBytes = bytes < 0 ? -1 : bytes - startBytes;
+    }
+
+    void begin(Stage stage) {
+        if (enabled) {
+            stageStartNanos[stage.ordinal()] = System.nanoTime();
+            stageStartBytes[stage.ordinal()] = allocatedBytes();
+        }
+    }
+
+    void end(Stage stage) {
+        if (enabled) {
+            int i = stage.ordinal();
+            stageNanos[i] += System.nanoTime() - stageStartNanos[i];
+            long bytes = allocatedBytes();
+            stageBytes[i] = bytes < 0 ? -1 : stageBytes[i] + bytes - stageStartBytes[i];
+        }
+    }
+
+    /**
+     * Record how rows were found; a later scan of the same query replaces an earlier one
+     */
+    void scan(Strategy strategy, long scanned, long matched) {
+        if (enabled) {
+            this.strategy = strategy;
+            this.rowsScanned = scanned;
+            this.rowsMatched = matched;
+        }
+    }
+
+    void rowCacheHit(int rows) {
+        if (enabled) {
+            rowCacheHit = true;
+            strategy = Strategy.RESULT_CACHE;
+            rowsReturned = rows;
+        }
+    }
+
+    void outputCacheHit() {
+        if (enabled) {
+            outputCacheHit = true;
+            strategy = Strategy.RESULT_CACHE;
+        }
+    }
+
+    void returned(int rows) {
+        if (enabled) {
+            rowsReturned = rows;
+        }
+    }
+
+    void output(String output) {
+        if (enabled) {
+            this.output = output;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+                if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                    return counter;
+                }
+            }
+        } catch (LinkageError | SecurityException e) {
+            // Not a HotSpot JVM, allocation is reported as unknown
+        }
+        return null;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long allocatedBytes() {
+        return ALLOCATION == null ? -1 : ALLOCATION.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Normalized query, as used for the result cache */
+    public String getQuery() {
+        return query;
+    }
+
+    /** Strategy that found the rows, null if the query never reached a filter */
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /** Rows tested by the filter, -1 if no filter ran */
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+
+    /** Rows passing the filter, -1 if no filter ran */
+    public long getRowsMatched() {
+        return rowsMatched;
+    }
+
+    /** Rows in the result, -1 if only cached output was returned */
+    public long getRowsReturned() {
+        return rowsReturned;
+    }
+
+    /** Whether the rows came from the result cache */
+    public boolean isRowCacheHit() {
+        return rowCacheHit;
+    }
+
+    /** Whether the formatted output came from the result cache */
+    public boolean isOutputCacheHit() {
+        return outputCacheHit;
+    }
+
+    /**
+     * Get the wall time spent in a stage
+     *
+     * @param stage stage
+     * @return nanoseconds, 0 if the stage did not run
+     */
+    public long getNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Get the heap allocated by the query thread in a stage
+     *
+     * @param stage stage
+     * @return bytes, -1 when the JVM cannot measure allocation
+     */
+    public long getAllocatedBytes(Stage stage) {
+        return ALLOCATION == null ? -1 : stageBytes[stage.ordinal()];
+    }
+
+    /** Wall time of the whole query in nanoseconds */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /** Heap allocated by the whole query, -1 when the JVM cannot measure allocation */
+    public long getTotalAllocatedBytes() {
+        return totalBytes;
+    }
+
+    /** Formatted result of an explained query, null for sampled queries */
+    public String getOutput() {
+        return output;
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format("%.3f ms", nanos / 1_000_000.0);
+    }
+
+    private static String formatAllocation(long bytes) {
+        return bytes < 0 ? "n/a" : HeapFootprint.formatBytes(bytes);
+    }
+
+    /**
+     * Get a one-line summary, e.g. for a slow query log
+     *
+     * @return summary
+     */
+    public String summary() {
+        return formatNanos(totalNanos) + " " + strategy + " scanned " + rowsScanned + " matched " + rowsMatched
+                + " returned " + rowsReturned + " [" + query + "]";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s %s%n", "query", query));
+        report.append(String.format("%-10s %s%n", "strategy", strategy));
+        report.append(String.format("%-10s scanned %d, matched %d, returned %d%n", "rows",
+                rowsScanned, rowsMatched, rowsReturned));
+        report.append(String.format("%-10s rows %s, output %s%n", "cache",
+                rowCacheHit ? "hit" : "miss", outputCacheHit ? "hit" : "miss"));
+        for (Stage stage : Stage.values()) {
+            report.append(String.format("%-10s %s, %s%n", stage.name().toLowerCase().replace('_', ' '),
+                    formatNanos(getNanos(stage)), formatAllocation(getAllocatedBytes(stage))));
+        }
+        report.append(String.format("%-10s %s, %s%n", "total", formatNanos(totalNanos),
+                formatAllocation(totalBytes)));
+        return report.toString();
+    }
+}
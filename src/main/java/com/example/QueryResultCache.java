@@ -0,0 +1,207 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded cache for query results.
+ * Entries are either result rows (kept as a compact array of car references) or
+ * formatted output strings. Eviction is least-recently-used, bounded both by entry
+ * count and by an estimated memory budget. Every entry belongs to a dataset version;
+ * when a lookup or insert arrives with a newer version the whole cache is dropped.
+ */
+public class QueryResultCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    // Rough per-entry overhead: map entry, key object and value wrapper
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long version;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public QueryResultCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Look up cached result rows
+     *
+     * @param key normalized query key
+     * @param dataVersion current dataset version
+     * @return a fresh mutable list of the cached rows, or null on a miss
+     */
+    public synchronized List<Car> getRows(String key, long dataVersion) {
+        Object value = lookup(key, dataVersion);
+        if (value instanceof Car[]) {
+            return new ArrayList<>(Arrays.asList((Car[]) value));
+        }
+        return null;
+    }
+
+    /**
+     * Store result rows
+     *
+     * @param key normalized query key
+     * @param dataVersion dataset version the rows were computed from
+     * @param rows result rows
+     */
+    public synchronized void putRows(String key, long dataVersion, List<Car> rows) {
+        Car[] array = rows.toArray(new Car[0]);
+        store(key, dataVersion, array, 16 + 8L * array.length);
+    }
+
+    /**
+     * Look up a cached formatted result
+     *
+     * @param key normalized query key including the output format
+     * @param dataVersion current dataset version
+     * @return cached output or null on a miss
+     */
+    public synchronized String getFormatted(String key, long dataVersion) {
+        Object value = lookup(key, dataVersion);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Store a formatted result
+     *
+     * @param key normalized query key including the output format
+     * @param dataVersion dataset version the output was computed from
+     * @param output formatted output
+     */
+    public synchronized void putFormatted(String key, long dataVersion, String output) {
+        store(key, dataVersion, output, 40 + 2L * output.length());
+    }
+
+    /**
+     * Drop all entries
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    private Object lookup(String key, long dataVersion) {
+        syncVersion(dataVersion);
+        Entry entry = dataVersion == version ? entries.get(key) : null;
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    private void store(String key, long dataVersion, Object value, long valueBytes) {
+        syncVersion(dataVersion);
+        if (dataVersion != version) {
+            return; // computed against an older dataset
+        }
+        long bytes = ENTRY_OVERHEAD + 2L * key.length() + valueBytes;
+        if (bytes > maxBytes) {
+            return; // would evict everything else, not worth caching
+        }
+        Entry previous = entries.put(key, new Entry(value, bytes));
+        if (previous != null) {
+            usedBytes -= previous.bytes;
+        }
+        usedBytes += bytes;
+        evictIfNeeded();
+    }
+
+    private void syncVersion(long dataVersion) {
+        if (dataVersion > version) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+            }
+            entries.clear();
+            usedBytes = 0;
+            version = dataVersion;
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || usedBytes > maxBytes) && it.hasNext()) {
+            usedBytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryResultCache{" +
+                "entries=" + entries.size() +
+                ", usedBytes=" + usedBytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", invalidations=" + invalidations +
+                '}';
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reject sink that keeps rejected records in memory.
+ * Only the first maxEntries rejects are retained so a badly broken feed cannot
+ * exhaust the heap; the total count is always kept.
+ */
+public class RejectLog implements RejectSink {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final int maxEntries;
+    private final List<String> entries = new ArrayList<>();
+    private long count;
+
+    public RejectLog() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public RejectLog(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public synchronized void reject(String source, long recordNumber, String reason, String record) {
+        count++;
+        if (entries.size() < maxEntries) {
+            entries.add(source + ":" + recordNumber + ": " + reason + " [" + record + "]");
+        }
+    }
+
+    /**
+     * Get the retained rejects as "source:record: reason [raw record]" lines
+     *
+     * @return retained reject descriptions
+     */
+    public synchronized List<String> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        count = 0;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example;
+
+/**
+ * Receives records that failed validation during ingest.
+ */
+@FunctionalInterface
+public interface RejectSink {
+    /**
+     * Report a rejected record
+     *
+     * @param source file the record came from
+     * @param recordNumber line number for CSV input, 1-based car element index for XML input
+     * @param reason why the record was rejected
+     * @param record raw record text, may be abbreviated
+     */
+    void reject(String source, long recordNumber, String reason, String record);
+}
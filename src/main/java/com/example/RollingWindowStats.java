@@ -0,0 +1,139 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Price aggregates over a sliding time window, e.g. the average price per brand
+ * over the last hour. The window is a ring of equally long buckets; a car is
+ * counted in the bucket of the time it arrives, and a bucket is cleared when the
+ * ring comes round to it again. Memory is therefore bounded by the number of
+ * buckets times the distinct brand and currency pairs, however many cars arrive,
+ * and the window moves in steps of one bucket. Thread-safe.
+ */
+public class RollingWindowStats {
+    private final long bucketMillis;
+    private final LongSupplier clock;
+    private final Bucket[] buckets;
+
+    /**
+     * Sums of one bucket: brand, then currency, then {count, sum}
+     */
+    private static final class Bucket {
+        long epoch = Long.MIN_VALUE;
+        final Map<String, Map<String, double[]>> totals = new HashMap<>();
+    }
+
+    /**
+     * Create a window on the system clock
+     *
+     * @param windowMillis length of the window
+     * @param bucketCount number of buckets; more buckets make the window move more smoothly
+     */
+    public RollingWindowStats(long windowMillis, int bucketCount) {
+        this(windowMillis, bucketCount, System::currentTimeMillis);
+    }
+
+    /**
+     * Create a window on a given clock
+     *
+     * @param windowMillis length of the window
+     * @param bucketCount number of buckets
+     * @param clock current time in milliseconds
+     */
+    public RollingWindowStats(long windowMillis, int bucketCount, LongSupplier clock) {
+        if (bucketCount <= 0 || windowMillis < bucketCount) {
+            throw new IllegalArgumentException("Need at least one bucket and one millisecond per bucket");
+        }
+        this.bucketMillis = windowMillis / bucketCount;
+        this.clock = clock;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Count every price of a car at the current time
+     *
+     * @param car arriving car
+     */
+    public synchronized void add(Car car) {
+        long epoch = Math.floorDiv(clock.getAsLong(), bucketMillis);
+        Bucket bucket = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+        if (bucket.epoch != epoch) {
+            bucket.epoch = epoch;
+            bucket.totals.clear();
+        }
+        Map<String, double[]> byCurrency = bucket.totals.computeIfAbsent(car.getBrand(), brand -> new HashMap<>());
+        for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+            double[] total = byCurrency.computeIfAbsent(price.getKey(), currency -> new double[2]);
+            total[0]++;
+            total[1] += price.getValue();
+        }
+    }
+
+    /**
+     * Sum the live buckets into {count, sum} per brand for one currency
+     */
+    private Map<String, double[]> totals(String currency) {
+        long now = Math.floorDiv(clock.getAsLong(), bucketMillis);
+        Map<String, double[]> result = new TreeMap<>();
+        for (Bucket bucket : buckets) {
+            if (bucket.epoch <= now - buckets.length || bucket.epoch > now) {
+                continue;
+            }
+            for (Map.Entry<String, Map<String, double[]>> brand : bucket.totals.entrySet()) {
+                double[] total = brand.getValue().get(currency);
+                if (total != null) {
+                    double[] sum = result.computeIfAbsent(brand.getKey(), key -> new double[2]);
+                    sum[0] += total[0];
+                    sum[1] += total[1];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the average price of a brand within the window
+     *
+     * @param brand brand, matched exactly
+     * @param currency currency code
+     * @return average, or NaN if no price of the brand in that currency arrived in the window
+     */
+    public synchronized double average(String brand, String currency) {
+        double[] total = totals(currency).get(brand);
+        return total == null ? Double.NaN : total[1] / total[0];
+    }
+
+    /**
+     * Get the average price per brand within the window
+     *
+     * @param currency currency code
+     * @return averages by brand, sorted by brand
+     */
+    public synchronized Map<String, Double> averages(String currency) {
+        Map<String, Double> averages = new TreeMap<>();
+        for (Map.Entry<String, double[]> total : totals(currency).entrySet()) {
+            averages.put(total.getKey(), total.getValue()[1] / total.getValue()[0]);
+        }
+        return averages;
+    }
+
+    /**
+     * Get the number of prices per brand within the window
+     *
+     * @param currency currency code
+     * @return counts by brand, sorted by brand
+     */
+    public synchronized Map<String, Long> counts(String currency) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, double[]> total : totals(currency).entrySet()) {
+            counts.put(total.getKey(), (long) total.getValue()[0]);
+        }
+        return counts;
+    }
+}
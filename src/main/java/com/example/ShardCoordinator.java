@@ -0,0 +1,677 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Scatter-gather query execution over a dataset partitioned across local
+ * ShardWorker JVMs, so the dataset is not limited to one heap.
+ * <p>
+ * Cars are partitioned by brand: every load counts the cars per brand and assigns
+ * brands, largest first, to the shard holding the fewest cars, which keeps shards
+ * balanced even when a few brands dominate. Loads and setShardCount redo the
+ * assignment, so a reload rebalances the shards. The coordinator keeps no copy of
+ * the dataset: setShardCount pulls the cars back from the workers to reassign
+ * them. Queries filtering on a brand go to the one shard owning it; others go to
+ * all shards in parallel.
+ * <p>
+ * Filters and top-K are pushed down: each shard returns at most k cars in query
+ * order, tagged with their global row index, and the coordinator merges them with
+ * the same comparator, ties broken by row index, into the order a single JVM would
+ * produce. Aggregates are computed per shard and merged. Workers listen on the
+ * loopback address only and exit when the coordinator closes or dies. A request
+ * that fails or times out part way through closes the connection to its shard, and
+ * later requests to that shard fail until the coordinator is replaced.
+ */
+public class ShardCoordinator implements AutoCloseable {
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final List<String> jvmOptions;
+    private final List<Shard> shards = new ArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Loads and resizes exclude queries; queries share a shard one request at a time
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CarDataService currencyView = new CarDataService();
+    private Map<String, Integer> brandShards = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Start worker JVMs with the class path of this JVM
+     *
+     * @param shardCount number of workers
+     * @throws IOException if a worker cannot be started
+     */
+    public ShardCoordinator(int shardCount) throws IOException {
+        this(shardCount, Collections.emptyList());
+    }
+
+    /**
+     * Start worker JVMs with the class path of this JVM
+     *
+     * @param shardCount number of workers
+     * @param jvmOptions extra options for each worker, e.g. "-Xmx8g"
+     * @throws IOException if a worker cannot be started
+     */
+    public ShardCoordinator(int shardCount, List<String> jvmOptions) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        this.jvmOptions = new ArrayList<>(jvmOptions);
+        try {
+            startShards(shardCount);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Partition a dataset across the shards, replacing what they held
+     *
+     * @param cars cars in row order
+     * @throws IOException if a shard fails to take its partition
+     */
+    public void load(List<Car> cars) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<IndexedCar> rows = new ArrayList<>(cars.size());
+            for (int row = 0; row < cars.size(); row++) {
+                rows.add(new IndexedCar(row, cars.get(row)));
+            }
+            distribute(rows);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Start or stop workers and rebalance the current dataset across them
+     *
+     * @param shardCount new number of workers
+     * @throws IOException if a worker cannot be started or loaded
+     */
+    public void setShardCount(int shardCount) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        lock.writeLock().lock();
+        try {
+            List<IndexedCar> rows = collect();
+            while (shards.size() > shardCount) {
+                shards.remove(shards.size() - 1).shutdown();
+            }
+            startShards(shardCount);
+            distribute(rows);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getShardCount() {
+        lock.readLock().lock();
+        try {
+            return shards.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of cars on each shard
+     *
+     * @return car count per shard
+     */
+    public int[] getShardSizes() {
+        lock.readLock().lock();
+        try {
+            int[] sizes = new int[shards.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = shards.get(i).size;
+            }
+            return sizes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the first k cars of a query over all shards, in the order
+     * CarDataService.queryTopK gives over the whole dataset
+     *
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @param sortType type of sorting to apply
+     * @param currencyFilter whether to apply the per-type currency view
+     * @param k maximum number of cars to return
+     * @return at most k cars in query order
+     * @throws ParseException if a filter value cannot be parsed
+     * @throws IOException if a shard fails
+     */
+    public List<Car> queryTopK(String filterType, String filterValue, String brandValue, String dateStr,
+                               String sortType, boolean currencyFilter, int k) throws ParseException, IOException {
+        CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+        // The currency view regroups the whole result by type, so every match is needed
+        int limit = currencyFilter ? Integer.MAX_VALUE : k;
+        List<IndexedCar> merged = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<Future<List<IndexedCar>>> futures = new ArrayList<>();
+            for (Shard shard : targets(filter)) {
+                futures.add(executor.submit(() -> shard.topK(filterType, filterValue, brandValue, dateStr,
+                        sortType, limit)));
+            }
+            for (Future<List<IndexedCar>> future : futures) {
+                merged.addAll(await(future));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Comparator<Car> comparator = CarDataService.sortComparator(sortType);
+        Comparator<IndexedCar> order = Comparator.comparingInt(car -> car.row);
+        if (comparator != null) {
+            order = Comparator.<IndexedCar, Car>comparing(car -> car.car, comparator).thenComparingInt(car -> car.row);
+        }
+        merged.sort(order);
+        List<Car> result = new ArrayList<>(merged.size());
+        for (IndexedCar car : merged) {
+            result.add(car.car);
+        }
+        if (currencyFilter) {
+            currencyView.applyCurrencyFilter(result);
+        }
+        return new ArrayList<>(result.subList(0, Math.min(k, result.size())));
+    }
+
+    /**
+     * Count the cars passing a filter and summarize their prices per currency
+     *
+     * @param filterType type of filter to apply
+     * @param filterValue brand or price value
+     * @param brandValue brand value for combined filters
+     * @param dateStr date string for date filters
+     * @return merged aggregate of all shards
+     * @throws ParseException if a filter value cannot be parsed
+     * @throws IOException if a shard fails
+     */
+    public Aggregate aggregate(String filterType, String filterValue, String brandValue, String dateStr)
+            throws ParseException, IOException {
+        CarFilter filter = CarFilter.parse(filterType, filterValue, brandValue, dateStr);
+        Aggregate total = new Aggregate();
+        lock.readLock().lock();
+        try {
+            List<Future<Aggregate>> futures = new ArrayList<>();
+            for (Shard shard : targets(filter)) {
+                futures.add(executor.submit(() -> shard.aggregate(filterType, filterValue, brandValue, dateStr)));
+            }
+            for (Future<Aggregate> future : futures) {
+                total.merge(await(future));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return total;
+    }
+
+    /**
+     * Stop all workers
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (Shard shard : shards) {
+                shard.shutdown();
+            }
+            shards.clear();
+        } finally {
+            lock.writeLock().unlock();
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Shard> targets(CarFilter filter) {
+        if (filter.getBrand() == null) {
+            return shards;
+        }
+        Integer owner = brandShards.get(filter.getBrand());
+        return owner == null ? Collections.emptyList() : Collections.singletonList(shards.get(owner));
+    }
+
+    private void startShards(int shardCount) throws IOException {
+        while (shards.size() < shardCount) {
+            shards.add(Shard.start(jvmOptions));
+        }
+    }
+
+    /**
+     * Fetch the cars of every shard, in row order
+     */
+    private List<IndexedCar> collect() throws IOException {
+        List<Future<List<IndexedCar>>> futures = new ArrayList<>();
+        for (Shard shard : shards) {
+            futures.add(executor.submit(shard::dump));
+        }
+        List<IndexedCar> rows = new ArrayList<>();
+        for (Future<List<IndexedCar>> future : futures) {
+            rows.addAll(await(future));
+        }
+        rows.sort(Comparator.comparingInt(car -> car.row));
+        return rows;
+    }
+
+    /**
+     * Assign brands to shards, largest brand to the least loaded shard, and push
+     * every shard its partition
+     *
+     * @param rows cars with their global row index, in row order
+     */
+    private void distribute(List<IndexedCar> rows) throws IOException {
+        Map<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (IndexedCar row : rows) {
+            counts.merge(brandKey(row.car), 1, Integer::sum);
+        }
+        List<Map.Entry<String, Integer>> brands = new ArrayList<>(counts.entrySet());
+        brands.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        long[] load = new long[shards.size()];
+        Map<String, Integer> owners = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, Integer> brand : brands) {
+            int target = 0;
+            for (int i = 1; i < load.length; i++) {
+                if (load[i] < load[target]) {
+                    target = i;
+                }
+            }
+            owners.put(brand.getKey(), target);
+            load[target] += brand.getValue();
+        }
+
+        List<List<IndexedCar>> partitions = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (IndexedCar row : rows) {
+            partitions.get(owners.get(brandKey(row.car))).add(row);
+        }
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            List<IndexedCar> partition = partitions.get(i);
+            futures.add(executor.submit(() -> {
+                shard.load(partition);
+                return null;
+            }));
+        }
+        for (Future<Void> future : futures) {
+            await(future);
+        }
+        brandShards = owners;
+    }
+
+    private static String brandKey(Car car) {
+        return car.getBrand() == null ? "" : car.getBrand();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Shard request failed: " + cause, cause);
+        }
+    }
+
+    /**
+     * Car with its row index in the whole dataset
+     */
+    private static final class IndexedCar {
+        final int row;
+        final Car car;
+
+        IndexedCar(int row, Car car) {
+            this.row = row;
+            this.car = car;
+        }
+    }
+
+    /**
+     * One request to a shard, from writing the command to reading the response
+     */
+    private interface Exchange<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Connection to one worker JVM; one request at a time
+     */
+    private static final class Shard {
+        private final Process process;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private volatile int size;
+        // Set while a response may still be partly unread
+        private boolean inFlight;
+
+        private Shard(Process process, int port) throws IOException {
+            this.process = process;
+            this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(DEFAULT_TIMEOUT_MILLIS);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        static Shard start(List<String> jvmOptions) throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.addAll(jvmOptions);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ShardWorker.class.getName());
+            command.add("0");
+            command.add("--exit-on-stdin-close");
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                String line = reader.readLine();
+                if (line == null || !line.startsWith(ShardWorker.PORT_PREFIX)) {
+                    throw new IOException("Shard worker did not start: " + line);
+                }
+                return new Shard(process, Integer.parseInt(line.substring(ShardWorker.PORT_PREFIX.length())));
+            } catch (IOException | RuntimeException e) {
+                process.destroyForcibly();
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+        }
+
+        synchronized void load(List<IndexedCar> rows) throws IOException {
+            size = exchange(() -> {
+                out.writeByte(ShardWorker.LOAD);
+                out.writeInt(rows.size());
+                for (IndexedCar row : rows) {
+                    out.writeInt(row.row);
+                    CarBinaryCodec.writeCar(out, row.car);
+                }
+                out.flush();
+                readStatus();
+                return in.readInt();
+            });
+        }
+
+        synchronized List<IndexedCar> topK(String filterType, String filterValue, String brandValue,
+                                           String dateStr, String sortType, int k) throws IOException {
+            return exchange(() -> {
+                out.writeByte(ShardWorker.TOP_K);
+                CarBinaryCodec.writeString(out, filterType);
+                CarBinaryCodec.writeString(out, filterValue);
+                CarBinaryCodec.writeString(out, brandValue);
+                CarBinaryCodec.writeString(out, dateStr);
+                CarBinaryCodec.writeString(out, sortType);
+                out.writeInt(k);
+                out.flush();
+                readStatus();
+                return readCars();
+            });
+        }
+
+        synchronized List<IndexedCar> dump() throws IOException {
+            return exchange(() -> {
+                out.writeByte(ShardWorker.DUMP);
+                out.flush();
+                readStatus();
+                return readCars();
+            });
+        }
+
+        synchronized Aggregate aggregate(String filterType, String filterValue, String brandValue,
+                                         String dateStr) throws IOException {
+            return exchange(() -> {
+                out.writeByte(ShardWorker.AGGREGATE);
+                CarBinaryCodec.writeString(out, filterType);
+                CarBinaryCodec.writeString(out, filterValue);
+                CarBinaryCodec.writeString(out, brandValue);
+                CarBinaryCodec.writeString(out, dateStr);
+                out.flush();
+                readStatus();
+                return Aggregate.read(in);
+            });
+        }
+
+        synchronized void shutdown() {
+            try {
+                exchange(() -> {
+                    out.writeByte(ShardWorker.SHUTDOWN);
+                    out.flush();
+                    readStatus();
+                    return null;
+                });
+            } catch (IOException e) {
+                // The process is destroyed below either way
+            }
+            try {
+                socket.close();
+                process.getOutputStream().close();
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Run one request; a failure before its response was read in full, e.g. a
+         * timeout, closes the connection, as the rest of the response would be
+         * taken for the answer to the next request
+         */
+        private <T> T exchange(Exchange<T> exchange) throws IOException {
+            if (socket.isClosed()) {
+                throw new IOException("Shard connection was closed after an earlier failure");
+            }
+            inFlight = true;
+            try {
+                T result = exchange.run();
+                inFlight = false;
+                return result;
+            } finally {
+                if (inFlight) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Closed either way
+                    }
+                }
+            }
+        }
+
+        private List<IndexedCar> readCars() throws IOException {
+            int count = in.readInt();
+            List<IndexedCar> cars = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int row = in.readInt();
+                cars.add(new IndexedCar(row, CarBinaryCodec.readCar(in)));
+            }
+            return cars;
+        }
+
+        private void readStatus() throws IOException {
+            if (in.readByte() != ShardWorker.OK) {
+                String message = in.readUTF();
+                // An ERROR response is complete, the connection stays usable
+                inFlight = false;
+                throw new IOException("Shard request failed: " + message);
+            }
+        }
+    }
+
+    /**
+     * Count and per-currency price summary of the cars passing a filter.
+     * Partial aggregates of separate shards merge into the aggregate of their union.
+     */
+    public static final class Aggregate {
+        private long count;
+        private final Map<String, double[]> prices = new TreeMap<>();
+
+        /**
+         * Summarize a list of cars
+         *
+         * @param cars cars to summarize
+         * @return aggregate
+         */
+        public static Aggregate of(List<Car> cars) {
+            Aggregate aggregate = new Aggregate();
+            for (Car car : cars) {
+                aggregate.count++;
+                for (Map.Entry<String, Double> price : car.getPrices().entrySet()) {
+                    aggregate.add(price.getKey(), 1, price.getValue(), price.getValue(), price.getValue());
+                }
+            }
+            return aggregate;
+        }
+
+        /**
+         * Merge another partial aggregate into this one
+         *
+         * @param other aggregate of another shard
+         */
+        public void merge(Aggregate other) {
+            count += other.count;
+            for (Map.Entry<String, double[]> entry : other.prices.entrySet()) {
+                double[] p = entry.getValue();
+                add(entry.getKey(), (long) p[0], p[1], p[2], p[3]);
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the currencies any matching car is priced in
+         *
+         * @return currency codes in order
+         */
+        public List<String> getCurrencies() {
+            return new ArrayList<>(prices.keySet());
+        }
+
+        /**
+         * Get the number of matching cars priced in a currency
+         *
+         * @param currency currency code
+         * @return count, 0 for an unknown currency
+         */
+        public long getPriceCount(String currency) {
+            double[] p = prices.get(currency);
+            return p == null ? 0 : (long) p[0];
+        }
+
+        /**
+         * Get the average price in a currency
+         *
+         * @param currency currency code
+         * @return average, NaN for an unknown currency
+         */
+        public double getAveragePrice(String currency) {
+            double[] p = prices.get(currency);
+            return p == null ? Double.NaN : p[1] / p[0];
+        }
+
+        public double getMinPrice(String currency) {
+            double[] p = prices.get(currency);
+            return p == null ? Double.NaN : p[2];
+        }
+
+        public double getMaxPrice(String currency) {
+            double[] p = prices.get(currency);
+            return p == null ? Double.NaN : p[3];
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeLong(count);
+            out.writeInt(prices.size());
+            for (Map.Entry<String, double[]> entry : prices.entrySet()) {
+                out.writeUTF(entry.getKey());
+                for (double value : entry.getValue()) {
+                    out.writeDouble(value);
+                }
+            }
+        }
+
+        static Aggregate read(DataInput in) throws IOException {
+            Aggregate aggregate = new Aggregate();
+            aggregate.count = in.readLong();
+            int currencies = in.readInt();
+            for (int i = 0; i < currencies; i++) {
+                String currency = in.readUTF();
+                aggregate.add(currency, (long) in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            }
+            return aggregate;
+        }
+
+        // count, sum, min and max per currency
+        private void add(String currency, long n, double sum, double min, double max) {
+            double[] p = prices.get(currency);
+            if (p == null) {
+                prices.put(currency, new double[]{n, sum, min, max});
+            } else {
+                p[0] += n;
+                p[1] += sum;
+                p[2] = Math.min(p[2], min);
+                p[3] = Math.max(p[3], max);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("count=").append(count);
+            for (String currency : prices.keySet()) {
+                sb.append(' ').append(currency).append("[avg=").append(String.format("%.2f", getAveragePrice(currency)))
+                  .append(", min=").append(getMinPrice(currency)).append(", max=").append(getMaxPrice(currency))
+                  .append(']');
+            }
+            return sb.toString();
+        }
+    }
+}
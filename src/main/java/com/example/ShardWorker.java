@@ -0,0 +1,232 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One partition of a sharded dataset, run as its own JVM and driven by a
+ * ShardCoordinator over a loopback socket. The worker keeps its cars in a
+ * CarDataService, so filters, sorts and top-K run with the same code as a single
+ * JVM, and answers with compact binary results.
+ * <p>
+ * Protocol: each request is a command byte followed by its arguments, written with
+ * DataOutput; each response starts with OK or ERROR (followed by a message).
+ * <ul>
+ *   <li>LOAD: row count, then per row its global row index and a car</li>
+ *   <li>TOP_K: filter type, value, brand, date, sort type and k; answered with a
+ *       count and per car its global row index and the car</li>
+ *   <li>AGGREGATE: filter type, value, brand and date; answered with a partial
+ *       ShardCoordinator.Aggregate</li>
+ *   <li>DUMP: answered with a count and per car its global row index and the car,
+ *       in row order, so the coordinator can rebalance without a copy of its own</li>
+ *   <li>SHUTDOWN: the worker answers OK and exits</li>
+ * </ul>
+ * A response is built in full before its status byte is written, so a request
+ * that fails is answered with ERROR alone. A request that cannot be read to its
+ * end closes the connection, as the rest of the stream could not be parsed.
+ * Usage: ShardWorker [port] [--exit-on-stdin-close]. The worker binds to the
+ * loopback address only and prints "PORT n" once it is listening.
+ */
+public class ShardWorker {
+    private static final Logger LOG = Logger.getLogger(ShardWorker.class.getName());
+    static final byte LOAD = 1;
+    static final byte TOP_K = 2;
+    static final byte AGGREGATE = 3;
+    static final byte SHUTDOWN = 4;
+    static final byte DUMP = 5;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final String PORT_PREFIX = "PORT ";
+
+    private final CarDataService service = new CarDataService();
+    // Global row index of every car of this shard, for merging in dataset order
+    private volatile Map<Car, Integer> rowIndexes = new IdentityHashMap<>();
+    private volatile ServerSocket server;
+
+    public static void main(String[] args) throws IOException {
+        int port = 0;
+        boolean exitOnStdinClose = false;
+        for (String arg : args) {
+            if ("--exit-on-stdin-close".equals(arg)) {
+                exitOnStdinClose = true;
+            } else {
+                port = Integer.parseInt(arg);
+            }
+        }
+        if (exitOnStdinClose) {
+            // The coordinator holds our stdin open; EOF means it is gone
+            Thread watcher = new Thread(() -> {
+                try {
+                    InputStream in = System.in;
+                    while (in.read() >= 0) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // treated like EOF
+                }
+                System.exit(0);
+            }, "shard-parent-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        new ShardWorker().serve(port);
+    }
+
+    /**
+     * Listen on the loopback address and answer requests until SHUTDOWN
+     *
+     * @param port port to listen on, 0 for any free port
+     * @throws IOException if the socket cannot be opened
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            server = socket;
+            System.out.println(PORT_PREFIX + socket.getLocalPort());
+            System.out.flush();
+            while (true) {
+                Socket connection;
+                try {
+                    connection = socket.accept();
+                } catch (SocketException e) {
+                    return; // closed by SHUTDOWN
+                }
+                Thread thread = new Thread(() -> handle(connection), "shard-connection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void handle(Socket connection) {
+        try (Socket socket = connection) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte command;
+                try {
+                    command = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                try {
+                    if (command == LOAD) {
+                        load(in, new DataOutputStream(response));
+                    } else if (command == TOP_K) {
+                        topK(in, new DataOutputStream(response));
+                    } else if (command == AGGREGATE) {
+                        aggregate(in, new DataOutputStream(response));
+                    } else if (command == DUMP) {
+                        dump(new DataOutputStream(response));
+                    } else if (command == SHUTDOWN) {
+                        out.writeByte(OK);
+                        out.flush();
+                        server.close();
+                        return;
+                    } else {
+                        throw new IOException("Unknown command " + command);
+                    }
+                } catch (ParseException | RuntimeException e) {
+                    // The request was read in full, so the connection stays usable
+                    response.reset();
+                    DataOutputStream error = new DataOutputStream(response);
+                    error.writeByte(ERROR);
+                    error.writeUTF(String.valueOf(e.getMessage()));
+                }
+                response.writeTo(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Shard connection closed after a failed request", e);
+        }
+    }
+
+    private void load(DataInputStream in, DataOutputStream out) throws IOException {
+        int count = in.readInt();
+        List<Car> cars = new ArrayList<>(count);
+        Map<Car, Integer> indexes = new IdentityHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            int row = in.readInt();
+            Car car;
+            try {
+                car = CarBinaryCodec.readCar(in);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed car in row " + row, e);
+            }
+            cars.add(car);
+            indexes.put(car, row);
+        }
+        synchronized (this) {
+            service.loadCars(cars);
+            rowIndexes = indexes;
+        }
+        out.writeByte(OK);
+        out.writeInt(count);
+    }
+
+    private void topK(DataInputStream in, DataOutputStream out) throws IOException, ParseException {
+        String filterType = CarBinaryCodec.readString(in);
+        String filterValue = CarBinaryCodec.readString(in);
+        String brandValue = CarBinaryCodec.readString(in);
+        String dateStr = CarBinaryCodec.readString(in);
+        String sortType = CarBinaryCodec.readString(in);
+        int k = in.readInt();
+        List<Car> result;
+        Map<Car, Integer> indexes;
+        synchronized (this) {
+            result = service.queryTopK(filterType, filterValue, brandValue, dateStr, sortType, false, k);
+            indexes = rowIndexes;
+        }
+        int[] rows = new int[result.size()];
+        for (int i = 0; i < rows.length; i++) {
+            Integer row = indexes.get(result.get(i));
+            if (row == null) {
+                throw new IllegalStateException("No row index for " + result.get(i));
+            }
+            rows[i] = row;
+        }
+        out.writeByte(OK);
+        out.writeInt(result.size());
+        for (int i = 0; i < rows.length; i++) {
+            out.writeInt(rows[i]);
+            CarBinaryCodec.writeCar(out, result.get(i));
+        }
+    }
+
+    private void dump(DataOutputStream out) throws IOException {
+        List<Map.Entry<Car, Integer>> rows = new ArrayList<>(rowIndexes.entrySet());
+        rows.sort(Map.Entry.comparingByValue());
+        out.writeByte(OK);
+        out.writeInt(rows.size());
+        for (Map.Entry<Car, Integer> row : rows) {
+            out.writeInt(row.getValue());
+            CarBinaryCodec.writeCar(out, row.getKey());
+        }
+    }
+
+    private void aggregate(DataInputStream in, DataOutputStream out) throws IOException, ParseException {
+        List<Car> matching = service.filterCars(CarBinaryCodec.readString(in), CarBinaryCodec.readString(in),
+                CarBinaryCodec.readString(in), CarBinaryCodec.readString(in));
+        ShardCoordinator.Aggregate aggregate = ShardCoordinator.Aggregate.of(matching);
+        out.writeByte(OK);
+        aggregate.write(out);
+    }
+}
@@ -0,0 +1,397 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Materialized sort order of a dataset: an immutable order-statistic treap of
+ * cars keyed by their position in one Ordering, with the row as the final tie
+ * breaker. A changed row is patched in O(log n) by with and without, which copy
+ * only the path to the row and return a new view; the old view stays valid, so a
+ * reader holding a view sees one consistent order while writers move on. A page
+ * at any offset costs O(log n) plus its length.
+ */
+public final class SortedCarView {
+
+    /**
+     * Orderings that can be materialized: release date or highest price, highest
+     * first, optionally grouped by type first like the currency view
+     */
+    public enum Ordering {
+        RELEASE_DATE(false), MAX_PRICE(false), TYPE(true), TYPE_RELEASE_DATE(true), TYPE_MAX_PRICE(true);
+
+        private final boolean byType;
+
+        Ordering(boolean byType) {
+            this.byType = byType;
+        }
+
+        /**
+         * Get the ordering a query produces
+         *
+         * @param sortType type of sorting
+         * @param currencyFilter whether the currency view regroups the result by type
+         * @return ordering, or null when the query keeps row order
+         */
+        public static Ordering of(String sortType, boolean currencyFilter) {
+            if ("Latest to Oldest".equals(sortType)) {
+                return currencyFilter ? TYPE_RELEASE_DATE : RELEASE_DATE;
+            } else if ("Highest Price to Lowest".equals(sortType)) {
+                return currencyFilter ? TYPE_MAX_PRICE : MAX_PRICE;
+            }
+            return currencyFilter ? TYPE : null;
+        }
+
+        int group(Car car) {
+            return byType ? CarDataService.getTypeOrder(car.getType().toLowerCase(Locale.ROOT)) : 0;
+        }
+
+        /**
+         * Sort value as a signed long, higher first: release millis, or the highest
+         * price mapped onto a long in the same order as the doubles
+         */
+        long value(Car car) {
+            if (this == RELEASE_DATE || this == TYPE_RELEASE_DATE) {
+                Date date = car.getReleaseDate();
+                return date == null ? Long.MIN_VALUE : date.getTime();
+            } else if (this == TYPE) {
+                return 0;
+            }
+            double max = 0;
+            if (!car.getPrices().isEmpty()) {
+                max = Double.NEGATIVE_INFINITY;
+                for (double price : car.getPrices().values()) {
+                    max = Math.max(max, price);
+                }
+            }
+            long bits = Double.doubleToLongBits(max);
+            return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+        }
+    }
+
+    private final Ordering ordering;
+    private final Node root;
+
+    private SortedCarView(Ordering ordering, Node root) {
+        this.ordering = ordering;
+        this.root = root;
+    }
+
+    /**
+     * Build a view of cars whose rows are their list positions
+     *
+     * @param ordering ordering to materialize
+     * @param cars cars in row order
+     * @return new view
+     */
+    public static SortedCarView build(Ordering ordering, List<Car> cars) {
+        List<Node> nodes = new ArrayList<>(cars.size());
+        for (int i = 0; i < cars.size(); i++) {
+            nodes.add(new Node(ordering, cars.get(i), i, null, null));
+        }
+        return fromNodes(ordering, nodes);
+    }
+
+    /**
+     * Build a view of cars with explicit rows
+     *
+     * @param ordering ordering to materialize
+     * @param rows row of each car
+     * @param cars cars, in any order
+     * @return new view
+     */
+    static SortedCarView build(Ordering ordering, long[] rows, List<Car> cars) {
+        List<Node> nodes = new ArrayList<>(cars.size());
+        for (int i = 0; i < cars.size(); i++) {
+            nodes.add(new Node(ordering, cars.get(i), rows[i], null, null));
+        }
+        return fromNodes(ordering, nodes);
+    }
+
+    // Sort the keys, then build the treap in one pass as a Cartesian tree on the priorities
+    private static SortedCarView fromNodes(Ordering ordering, List<Node> nodes) {
+        nodes.sort(Node::compareTo);
+        Deque<Node> spine = new ArrayDeque<>();
+        for (Node node : nodes) {
+            Node last = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                last = spine.pop();
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+        Node root = spine.peekLast();
+        fixSizes(root);
+        return new SortedCarView(ordering, root);
+    }
+
+    private static int fixSizes(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        node.size = 1 + fixSizes(node.left) + fixSizes(node.right);
+        return node.size;
+    }
+
+    public Ordering getOrdering() {
+        return ordering;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Estimate the heap held by the view, excluding the cars
+     *
+     * @return bytes
+     */
+    public long estimateBytes() {
+        // Node: header, car and two child references, group, priority and size ints, value and row longs
+        return size() * HeapFootprint.align(HeapFootprint.OBJECT_HEADER + 3 * HeapFootprint.REFERENCE + 3 * 4 + 2 * 8);
+    }
+
+    /**
+     * Get a view that also holds a car, replacing the car at the same position
+     *
+     * @param car car to insert
+     * @param row row of the car
+     * @return new view
+     */
+    public SortedCarView with(Car car, long row) {
+        return new SortedCarView(ordering, insert(root, new Node(ordering, car, row, null, null)));
+    }
+
+    /**
+     * Get a view without a car; unchanged if the car is not at its position
+     *
+     * @param car car to remove, as it was inserted
+     * @param row row of the car
+     * @return new view, or this view
+     */
+    public SortedCarView without(Car car, long row) {
+        Node probe = new Node(ordering, car, row, null, null);
+        Node removed = delete(root, probe);
+        return removed == root ? this : new SortedCarView(ordering, removed);
+    }
+
+    /**
+     * Get the car at a position
+     *
+     * @param rank position, 0 for the first car
+     * @return car
+     */
+    public Car get(int rank) {
+        if (rank < 0 || rank >= size()) {
+            throw new IndexOutOfBoundsException("rank " + rank + ", size " + size());
+        }
+        Node node = root;
+        while (true) {
+            int left = size(node.left);
+            if (rank < left) {
+                node = node.left;
+            } else if (rank == left) {
+                return node.car;
+            } else {
+                rank -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Get a page of the order
+     *
+     * @param offset position of the first car
+     * @param limit maximum number of cars
+     * @return new list in sort order
+     */
+    public List<Car> page(int offset, int limit) {
+        List<Car> result = new ArrayList<>(Math.max(0, Math.min(limit, size() - offset)));
+        Deque<Node> path = seek(Math.max(0, offset));
+        while (!path.isEmpty() && result.size() < limit) {
+            result.add(next(path).car);
+        }
+        return result;
+    }
+
+    /**
+     * Get a page of the cars passing a filter, walking the order from the start
+     *
+     * @param filter filter to apply
+     * @param offset number of matching cars to skip
+     * @param limit maximum number of cars
+     * @return new list in sort order
+     */
+    public List<Car> page(CarFilter filter, int offset, int limit) {
+        if (filter.isEmpty()) {
+            return page(offset, limit);
+        }
+        List<Car> result = new ArrayList<>();
+        Deque<Node> path = seek(0);
+        int skipped = 0;
+        while (!path.isEmpty() && result.size() < limit) {
+            Car car = next(path).car;
+            if (filter.matches(car)) {
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    result.add(car);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Stack of the nodes from the root whose own car is still to come, top = car at rank
+    private Deque<Node> seek(int rank) {
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        while (node != null) {
+            int left = size(node.left);
+            if (rank < left) {
+                path.push(node);
+                node = node.left;
+            } else if (rank == left) {
+                path.push(node);
+                break;
+            } else {
+                rank -= left + 1;
+                node = node.right;
+            }
+        }
+        return path;
+    }
+
+    private static Node next(Deque<Node> path) {
+        Node node = path.pop();
+        for (Node child = node.right; child != null; child = child.left) {
+            path.push(child);
+        }
+        return node;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node insert(Node node, Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        int cmp = inserted.compareTo(node);
+        if (cmp == 0) {
+            return node.copy(inserted.car, node.left, node.right);
+        }
+        if (inserted.priority > node.priority) {
+            Node[] split = split(node, inserted);
+            return inserted.copy(inserted.car, split[0], split[1]);
+        }
+        return cmp < 0 ? node.copy(node.car, insert(node.left, inserted), node.right)
+                : node.copy(node.car, node.left, insert(node.right, inserted));
+    }
+
+    // Split into keys below and above a key that is not in the tree, copying the path
+    private static Node[] split(Node node, Node key) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (key.compareTo(node) < 0) {
+            Node[] split = split(node.left, key);
+            split[1] = node.copy(node.car, split[1], node.right);
+            return split;
+        }
+        Node[] split = split(node.right, key);
+        split[0] = node.copy(node.car, node.left, split[0]);
+        return split;
+    }
+
+    private static Node delete(Node node, Node key) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = key.compareTo(node);
+        if (cmp == 0) {
+            return merge(node.left, node.right);
+        }
+        Node child = cmp < 0 ? node.left : node.right;
+        Node replaced = delete(child, key);
+        if (replaced == child) {
+            return node;
+        }
+        return cmp < 0 ? node.copy(node.car, replaced, node.right) : node.copy(node.car, node.left, replaced);
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.copy(left.car, left.left, merge(left.right, right));
+        }
+        return right.copy(right.car, merge(left, right.left), right.right);
+    }
+
+    /**
+     * Treap node; immutable once it is reachable from a view
+     */
+    private static final class Node implements Comparable<Node> {
+        final Car car;
+        final int group;
+        final long value;
+        final long row;
+        // Derived from the row, so rebuilding a view gives the same shape
+        final int priority;
+        Node left;
+        Node right;
+        int size;
+
+        Node(Ordering ordering, Car car, long row, Node left, Node right) {
+            this(car, ordering.group(car), ordering.value(car), row, left, right);
+        }
+
+        private Node(Car car, int group, long value, long row, Node left, Node right) {
+            this.car = car;
+            this.group = group;
+            this.value = value;
+            this.row = row;
+            this.priority = priority(row);
+            this.left = left;
+            this.right = right;
+            this.size = 1 + SortedCarView.size(left) + SortedCarView.size(right);
+        }
+
+        Node copy(Car car, Node left, Node right) {
+            return new Node(car, group, value, row, left, right);
+        }
+
+        // Group ascending, value descending, row ascending
+        @Override
+        public int compareTo(Node other) {
+            if (group != other.group) {
+                return Integer.compare(group, other.group);
+            }
+            if (value != other.value) {
+                return Long.compare(other.value, value);
+            }
+            return Long.compare(row, other.row);
+        }
+
+        private static int priority(long row) {
+            long h = row * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 32;
+            h *= 0xD6E8FEB86659FD93L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
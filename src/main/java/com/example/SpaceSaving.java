@@ -0,0 +1,185 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy hitter counter (Metwally, Agrawal and El Abbadi 2005).
+ * Tracks at most a fixed number of items. An untracked item replaces the item with
+ * the smallest count and inherits that count as its possible overestimate.
+ * <p>
+ * Error bound: with capacity m over a stream of N items, every reported count
+ * exceeds the true count by at most N / m (tracked per item by getError), and every
+ * item occurring more than N / m times is guaranteed to be tracked. Merging two
+ * summaries adds their error bounds. Replacement scans the counters, so capacities
+ * are meant to stay in the hundreds. Not thread-safe; merge per-thread summaries.
+ */
+public class SpaceSaving {
+    public static final int DEFAULT_CAPACITY = 100;
+
+    /**
+     * A tracked item with its estimated count
+     */
+    public static final class Entry {
+        private final String item;
+        private long count;
+        private long error;
+
+        Entry(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        /**
+         * Get the estimated count, never below the true count
+         *
+         * @return count upper bound
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get how much the count may overestimate the true count
+         *
+         * @return maximum overestimate
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return item + "=" + count + (error > 0 ? " (+-" + error + ")" : "");
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long total;
+
+    public SpaceSaving() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a summary
+     *
+     * @param capacity maximum number of tracked items
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Count one occurrence of an item
+     *
+     * @param item item to count, null is ignored
+     */
+    public void offer(String item) {
+        offer(item, 1);
+    }
+
+    /**
+     * Count several occurrences of an item
+     *
+     * @param item item to count, null is ignored
+     * @param weight number of occurrences
+     */
+    public void offer(String item, long weight) {
+        if (item == null || weight <= 0) {
+            return;
+        }
+        total += weight;
+        Entry entry = entries.get(item);
+        if (entry != null) {
+            entry.count += weight;
+        } else if (entries.size() < capacity) {
+            entries.put(item, new Entry(item, weight, 0));
+        } else {
+            Entry smallest = smallest();
+            entries.remove(smallest.item);
+            entries.put(item, new Entry(item, smallest.count + weight, smallest.count));
+        }
+    }
+
+    /**
+     * Merge another summary into this one
+     *
+     * @param other summary over another part of the stream; it is not modified
+     */
+    public void merge(SpaceSaving other) {
+        // Items missing from a full summary may still have occurred up to its minimum count
+        long thisFloor = entries.size() < capacity ? 0 : smallest().count;
+        long otherFloor = other.entries.size() < other.capacity ? 0 : other.smallest().count;
+
+        Map<String, Entry> merged = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            Entry theirs = other.entries.get(entry.item);
+            long count = entry.count + (theirs == null ? otherFloor : theirs.count);
+            long error = entry.error + (theirs == null ? otherFloor : theirs.error);
+            merged.put(entry.item, new Entry(entry.item, count, error));
+        }
+        for (Entry theirs : other.entries.values()) {
+            if (!merged.containsKey(theirs.item)) {
+                merged.put(theirs.item, new Entry(theirs.item, theirs.count + thisFloor, theirs.error + thisFloor));
+            }
+        }
+
+        List<Entry> sorted = new ArrayList<>(merged.values());
+        sorted.sort((a, b) -> Long.compare(b.count, a.count));
+        entries.clear();
+        for (Entry entry : sorted.subList(0, Math.min(capacity, sorted.size()))) {
+            entries.put(entry.item, entry);
+        }
+        total += other.total;
+    }
+
+    /**
+     * Get the most frequent items
+     *
+     * @param n number of items
+     * @return at most n entries, highest count first
+     */
+    public List<Entry> getTop(int n) {
+        List<Entry> sorted = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            sorted.add(new Entry(entry.item, entry.count, entry.error));
+        }
+        sorted.sort((a, b) -> a.count != b.count ? Long.compare(b.count, a.count) : a.item.compareTo(b.item));
+        return n >= sorted.size() ? sorted : new ArrayList<>(sorted.subList(0, n));
+    }
+
+    /**
+     * Get the total number of occurrences counted
+     *
+     * @return stream length N
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the worst-case overestimate of any count, N / capacity
+     *
+     * @return error bound
+     */
+    public long getErrorBound() {
+        return total / capacity;
+    }
+
+    private Entry smallest() {
+        return Collections.min(entries.values(), (a, b) -> Long.compare(a.count, b.count));
+    }
+}
@@ -0,0 +1,387 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable case-insensitive trie over the brands and models of a dataset, for
+ * search-as-you-type. Every node stores its best few suggestions per kind, ranked
+ * by the number of cars, so a prefix query is a walk down the prefix followed by an
+ * array copy. Misspellings are found by running the Levenshtein dynamic program over
+ * the trie, sharing one DP row per trie edge and pruning branches once every cell
+ * exceeds the allowed edit distance.
+ */
+public final class TypeaheadIndex {
+    /** What a suggestion names */
+    public enum Kind {
+        BRAND, MODEL
+    }
+
+    /** Best suggestions kept per node; larger limits fall back to a subtree walk */
+    private static final int TOP_PER_NODE = 8;
+
+    private static final Comparator<Suggestion> BY_COUNT = Comparator
+            .comparingLong(Suggestion::getCount).reversed()
+            .thenComparing(Suggestion::getText, String.CASE_INSENSITIVE_ORDER);
+    private static final Comparator<Suggestion> BY_DISTANCE = Comparator
+            .comparingInt(Suggestion::getDistance)
+            .thenComparing(BY_COUNT);
+
+    private static final char[] NO_LABELS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final Suggestion[] NO_SUGGESTIONS = new Suggestion[0];
+
+    /**
+     * A brand or model with the number of cars it occurs in
+     */
+    public static final class Suggestion {
+        private final String text;
+        private final Kind kind;
+        private final String brand;
+        private final long count;
+        private final int distance;
+
+        Suggestion(String text, Kind kind, String brand, long count, int distance) {
+            this.text = text;
+            this.kind = kind;
+            this.brand = brand;
+            this.count = count;
+            this.distance = distance;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Get the brand the suggestion belongs to: the brand itself, or a model's brand
+         *
+         * @return brand name
+         */
+        public String getBrand() {
+            return brand;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the edit distance between the query and the suggestion
+         *
+         * @return 0 for prefix matches
+         */
+        public int getDistance() {
+            return distance;
+        }
+
+        Suggestion withDistance(int newDistance) {
+            return newDistance == distance ? this : new Suggestion(text, kind, brand, count, newDistance);
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.MODEL ? text + " (" + brand + ", " + count + ")" : text + " (" + count + ")";
+        }
+    }
+
+    private static final class Node {
+        char[] labels = NO_LABELS;
+        Node[] children = NO_CHILDREN;
+        Suggestion[] terms = NO_SUGGESTIONS;
+        // Best suggestions in the subtree: any kind, then one array per Kind
+        Suggestion[][] top;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private TypeaheadIndex(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Build an index over the brands and models of a list of cars
+     *
+     * @param cars cars to index
+     * @return index; cars with an empty brand or model contribute only the other
+     */
+    public static TypeaheadIndex build(List<Car> cars) {
+        Map<String, long[]> counts = new LinkedHashMap<>();
+        Map<String, Suggestion> firstSeen = new HashMap<>();
+        for (Car car : cars) {
+            String brand = car.getBrand();
+            if (brand != null && !brand.isEmpty()) {
+                count(counts, firstSeen, brand, Kind.BRAND, brand);
+            }
+            String model = car.getModel();
+            if (model != null && !model.isEmpty()) {
+                count(counts, firstSeen, model, Kind.MODEL, brand);
+            }
+        }
+
+        Map<String, List<Suggestion>> terms = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            Suggestion first = firstSeen.get(entry.getKey());
+            Suggestion suggestion = new Suggestion(first.text, first.kind, first.brand, entry.getValue()[0], 0);
+            terms.computeIfAbsent(normalize(first.text), k -> new ArrayList<>()).add(suggestion);
+        }
+
+        Node root = new Node();
+        for (Map.Entry<String, List<Suggestion>> term : terms.entrySet()) {
+            insert(root, term.getKey(), term.getValue());
+        }
+        computeTop(root);
+        return new TypeaheadIndex(root, counts.size());
+    }
+
+    private static void count(Map<String, long[]> counts, Map<String, Suggestion> firstSeen,
+                              String text, Kind kind, String brand) {
+        String key = kind + "\u0000" + normalize(text) + "\u0000" + (kind == Kind.MODEL ? normalize(brand) : "");
+        long[] count = counts.get(key);
+        if (count == null) {
+            counts.put(key, new long[]{1});
+            firstSeen.put(key, new Suggestion(text, kind, brand, 0, 0));
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Terms are inserted in sorted order, so children can simply be appended and
+     * the label arrays stay sorted for binary search
+     */
+    private static void insert(Node root, String term, List<Suggestion> suggestions) {
+        Node node = root;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            Node next = node.child(c);
+            if (next == null) {
+                next = new Node();
+                int n = node.labels.length;
+                node.labels = Arrays.copyOf(node.labels, n + 1);
+                node.children = Arrays.copyOf(node.children, n + 1);
+                node.labels[n] = c;
+                node.children[n] = next;
+            }
+            node = next;
+        }
+        node.terms = suggestions.toArray(NO_SUGGESTIONS);
+    }
+
+    private static void computeTop(Node node) {
+        List<Suggestion> candidates = new ArrayList<>(Arrays.asList(node.terms));
+        for (Node child : node.children) {
+            computeTop(child);
+            candidates.addAll(Arrays.asList(child.top[0]));
+            for (Kind kind : Kind.values()) {
+                candidates.addAll(Arrays.asList(child.top[kind.ordinal() + 1]));
+            }
+        }
+        candidates.sort(BY_COUNT);
+        node.top = new Suggestion[Kind.values().length + 1][];
+        node.top[0] = best(candidates, null);
+        for (Kind kind : Kind.values()) {
+            node.top[kind.ordinal() + 1] = best(candidates, kind);
+        }
+    }
+
+    private static Suggestion[] best(List<Suggestion> sorted, Kind kind) {
+        List<Suggestion> best = new ArrayList<>(TOP_PER_NODE);
+        for (Suggestion suggestion : sorted) {
+            if (best.size() == TOP_PER_NODE) {
+                break;
+            }
+            // Candidates from the per-kind lists repeat the combined list
+            if ((kind == null || suggestion.kind == kind) && !best.contains(suggestion)) {
+                best.add(suggestion);
+            }
+        }
+        return best.toArray(NO_SUGGESTIONS);
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the number of distinct brand and model suggestions
+     *
+     * @return suggestion count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimate the heap held by the trie and its suggestions
+     *
+     * @return bytes
+     */
+    long estimateBytes() {
+        return estimateBytes(root);
+    }
+
+    private static long estimateBytes(Node node) {
+        // Node: header, four references; Suggestion: header, three references, a long and an int
+        long bytes = HeapFootprint.align(HeapFootprint.OBJECT_HEADER + 4 * HeapFootprint.REFERENCE)
+                + HeapFootprint.ofArray(node.labels.length, 2)
+                + HeapFootprint.ofArray(node.children.length, HeapFootprint.REFERENCE)
+                + HeapFootprint.ofArray(node.terms.length, HeapFootprint.REFERENCE)
+                + node.terms.length * HeapFootprint.align(HeapFootprint.OBJECT_HEADER + 3 * HeapFootprint.REFERENCE + 12);
+        if (node.top != null) {
+            bytes += HeapFootprint.ofArray(node.top.length, HeapFootprint.REFERENCE);
+            for (Suggestion[] top : node.top) {
+                bytes += top == null ? 0 : HeapFootprint.ofArray(top.length, HeapFootprint.REFERENCE);
+            }
+        }
+        for (Node child : node.children) {
+            bytes += estimateBytes(child);
+        }
+        return bytes;
+    }
+
+    /**
+     * Find brands or models starting with a prefix, most frequent first
+     *
+     * @param prefix case-insensitive prefix; empty returns the most frequent overall
+     * @param kind kind to return, or null for both
+     * @param limit maximum number of suggestions
+     * @return suggestions with distance 0
+     */
+    public List<Suggestion> prefix(String prefix, Kind kind, int limit) {
+        Node node = root;
+        String normalized = normalize(prefix);
+        for (int i = 0; i < normalized.length() && node != null; i++) {
+            node = node.child(normalized.charAt(i));
+        }
+        if (node == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        if (limit <= TOP_PER_NODE) {
+            Suggestion[] top = node.top[kind == null ? 0 : kind.ordinal() + 1];
+            return new ArrayList<>(Arrays.asList(top).subList(0, Math.min(limit, top.length)));
+        }
+        List<Suggestion> all = new ArrayList<>();
+        collect(node, kind, all);
+        all.sort(BY_COUNT);
+        return all.size() > limit ? new ArrayList<>(all.subList(0, limit)) : all;
+    }
+
+    private static void collect(Node node, Kind kind, List<Suggestion> out) {
+        for (Suggestion term : node.terms) {
+            if (kind == null || term.kind == kind) {
+                out.add(term);
+            }
+        }
+        for (Node child : node.children) {
+            collect(child, kind, out);
+        }
+    }
+
+    /**
+     * Find brands or models within a small edit distance of a term
+     *
+     * @param term case-insensitive search term
+     * @param maxEdits maximum Levenshtein distance (insertions, deletions, substitutions)
+     * @param kind kind to return, or null for both
+     * @param limit maximum number of suggestions
+     * @return suggestions ordered by distance, then frequency
+     */
+    public List<Suggestion> fuzzy(String term, int maxEdits, Kind kind, int limit) {
+        String normalized = normalize(term);
+        int[] firstRow = new int[normalized.length() + 1];
+        for (int i = 0; i < firstRow.length; i++) {
+            firstRow[i] = i;
+        }
+        List<Suggestion> matches = new ArrayList<>();
+        addMatches(root, firstRow, kind, matches);
+        for (int i = 0; i < root.labels.length; i++) {
+            fuzzy(root.children[i], root.labels[i], normalized, firstRow, maxEdits, kind, matches);
+        }
+        matches.sort(BY_DISTANCE);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    private static void fuzzy(Node node, char c, String term, int[] previous, int maxEdits,
+                              Kind kind, List<Suggestion> matches) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        int rowMin = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int cost = term.charAt(i - 1) == c ? 0 : 1;
+            row[i] = Math.min(Math.min(row[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+            rowMin = Math.min(rowMin, row[i]);
+        }
+        if (row[row.length - 1] <= maxEdits) {
+            addMatches(node, row, kind, matches);
+        }
+        if (rowMin <= maxEdits) {
+            for (int i = 0; i < node.labels.length; i++) {
+                fuzzy(node.children[i], node.labels[i], term, row, maxEdits, kind, matches);
+            }
+        }
+    }
+
+    private static void addMatches(Node node, int[] row, Kind kind, List<Suggestion> matches) {
+        int distance = row[row.length - 1];
+        for (Suggestion term : node.terms) {
+            if (kind == null || term.kind == kind) {
+                matches.add(term.withDistance(distance));
+            }
+        }
+    }
+
+    /**
+     * Suggestions for search-as-you-type: prefix matches first, then close misspellings.
+     * One edit is tolerated from four typed characters on, two from eight.
+     *
+     * @param text text typed so far
+     * @param kind kind to return, or null for both
+     * @param limit maximum number of suggestions
+     * @return suggestions without duplicates
+     */
+    public List<Suggestion> suggest(String text, Kind kind, int limit) {
+        List<Suggestion> suggestions = prefix(text, kind, limit);
+        int length = normalize(text).length();
+        int maxEdits = length >= 8 ? 2 : length >= 4 ? 1 : 0;
+        if (suggestions.size() < limit && maxEdits > 0) {
+            for (Suggestion match : fuzzy(text, maxEdits, kind, limit)) {
+                if (suggestions.size() == limit) {
+                    break;
+                }
+                if (!containsTerm(suggestions, match)) {
+                    suggestions.add(match);
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    private static boolean containsTerm(List<Suggestion> suggestions, Suggestion match) {
+        for (Suggestion suggestion : suggestions) {
+            if (suggestion.text.equals(match.text) && suggestion.kind == match.kind
+                    && String.valueOf(suggestion.brand).equals(String.valueOf(match.brand))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
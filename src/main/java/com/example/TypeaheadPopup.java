@@ -0,0 +1,163 @@
+package com.example;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Autocomplete popup for a text field, backed by a TypeaheadIndex.
+ * Suggestions are looked up on every edit; Up and Down move through them, Enter or
+ * a click accepts one and Escape closes the list. Accepting a model fills in its
+ * brand, so brand fields can be searched by model name too. The popup never takes
+ * the keyboard focus away from the field.
+ */
+public class TypeaheadPopup {
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final JTextField field;
+    private final Supplier<TypeaheadIndex> index;
+    private final JPopupMenu popup = new JPopupMenu();
+    private final DefaultListModel<TypeaheadIndex.Suggestion> model = new DefaultListModel<>();
+    private final JList<TypeaheadIndex.Suggestion> list = new JList<>(model);
+    private boolean enabled = true;
+    private boolean updating;
+
+    /**
+     * Attach autocomplete to a text field
+     *
+     * @param field field to complete
+     * @param index supplier of the current index, read on every edit so reloads are picked up
+     */
+    public TypeaheadPopup(JTextField field, Supplier<TypeaheadIndex> index) {
+        this.field = field;
+        this.index = index;
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        popup.setFocusable(false);
+        popup.add(new JScrollPane(list));
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                scheduleUpdate();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                scheduleUpdate();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // attribute changes do not affect the text
+            }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                handleKey(e);
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                popup.setVisible(false);
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * Turn suggestions on or off, e.g. while the field holds a price
+     *
+     * @param enabled whether to suggest
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            popup.setVisible(false);
+        }
+    }
+
+    private void scheduleUpdate() {
+        // Document listeners must not change the document or open windows directly
+        if (!updating) {
+            SwingUtilities.invokeLater(this::update);
+        }
+    }
+
+    private void update() {
+        if (!enabled || !field.isShowing()) {
+            return;
+        }
+        String text = field.getText().trim();
+        TypeaheadIndex current = index.get();
+        if (text.isEmpty() || current == null) {
+            popup.setVisible(false);
+            return;
+        }
+        List<TypeaheadIndex.Suggestion> suggestions = current.suggest(text, null, MAX_SUGGESTIONS);
+        // Nothing to offer once the field already holds the only brand
+        if (suggestions.isEmpty() || (suggestions.size() == 1 && suggestions.get(0).getBrand() != null
+                && suggestions.get(0).getBrand().equalsIgnoreCase(text))) {
+            popup.setVisible(false);
+            return;
+        }
+        model.clear();
+        for (TypeaheadIndex.Suggestion suggestion : suggestions) {
+            model.addElement(suggestion);
+        }
+        list.setVisibleRowCount(suggestions.size());
+        list.setSelectedIndex(0);
+        popup.pack();
+        popup.show(field, 0, field.getHeight());
+    }
+
+    private void handleKey(KeyEvent e) {
+        if (!popup.isVisible()) {
+            return;
+        }
+        int selected = list.getSelectedIndex();
+        if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+            list.setSelectedIndex(Math.min(selected + 1, model.size() - 1));
+            e.consume();
+        } else if (e.getKeyCode() == KeyEvent.VK_UP) {
+            list.setSelectedIndex(Math.max(selected - 1, 0));
+            e.consume();
+        } else if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+            accept();
+            e.consume();
+        } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+            popup.setVisible(false);
+            e.consume();
+        }
+    }
+
+    private void accept() {
+        TypeaheadIndex.Suggestion suggestion = list.getSelectedValue();
+        popup.setVisible(false);
+        if (suggestion == null || suggestion.getBrand() == null) {
+            return;
+        }
+        updating = true;
+        try {
+            field.setText(suggestion.getBrand());
+        } finally {
+            updating = false;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for blocking I/O work.
+ * On JDK 21+ a virtual-thread-per-task executor is used; the project targets JDK 11,
+ * so it is looked up reflectively and a fixed pool of platform threads is used otherwise.
+ */
+final class VirtualThreads {
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+
+    private VirtualThreads() {
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check whether virtual threads are available on this JVM
+     *
+     * @return true on JDK 21 or newer
+     */
+    static boolean isSupported() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Create an executor for blocking tasks
+     *
+     * @param namePrefix thread name prefix for the platform-thread fallback
+     * @param fallbackThreads pool size when virtual threads are unavailable
+     * @return executor service, to be shut down by the caller
+     */
+    static ExecutorService newExecutor(String namePrefix, int fallbackThreads) {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // fall through to platform threads
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, fallbackThreads), runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for block-wise predicate evaluation over column snapshots.
+ */
+public class CarColumnsTest {
+
+    private static List<Car> randomCars(int count) {
+        Random random = new Random(5);
+        String[] brands = {"Toyota", "Ford", "Honda", "BMW"};
+        String[] currencies = {"USD", "EUR", "JPY"};
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Double> prices = new HashMap<>();
+            for (String currency : currencies) {
+                if (prices.isEmpty() || random.nextBoolean()) {
+                    prices.put(currency, (double) random.nextInt(60000));
+                }
+            }
+            // Later rows are newer, so date bounds prune whole blocks
+            long day = i / 50 + random.nextInt(20);
+            cars.add(new Car(brands[random.nextInt(brands.length)], "M" + i, "SUV", prices,
+                    new Date(1400000000000L + day * 86400000L)));
+        }
+        return cars;
+    }
+
+    @Test
+    public void testSelectMatchesCarFilter() throws Exception {
+        List<Car> cars = randomCars(10000 + 37);
+        CarColumns columns = CarColumns.of(cars);
+        assertEquals(cars.size(), CarColumns.cardinality(columns.selectAll()));
+
+        CarFilter[] filters = {
+                CarFilter.NONE,
+                CarFilter.parse("Brand", "honda", "", ""),
+                CarFilter.parse("Brand", "Tesla", "", ""),
+                CarFilter.parse("Brand and Price", "59990", "FORD", ""),
+                CarFilter.parse("Brand and Price", "1000000", "Ford", ""),
+                CarFilter.parse("Brand and Release Date", "BMW", "", "2014-06-01")
+        };
+        for (CarFilter filter : filters) {
+            List<Car> expected = new ArrayList<>();
+            for (Car car : cars) {
+                if (filter.matches(car)) {
+                    expected.add(car);
+                }
+            }
+            assertEquals(expected, columns.toList(columns.select(filter)), filter.toString());
+        }
+    }
+
+    @Test
+    public void testFilterByBrandAndPriceMatchesStreamVersion() {
+        List<Car> cars = randomCars(3000);
+        CarProcessor processor = new CarProcessor();
+        CarColumns columns = CarColumns.of(cars);
+        for (double maxPrice : new double[]{0, 15000, 45000}) {
+            assertEquals(processor.filterByBrandAndPrice(cars, "Toyota", maxPrice),
+                    processor.filterByBrandAndPrice(columns, "toyota", maxPrice));
+        }
+    }
+}
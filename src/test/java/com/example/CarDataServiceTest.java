@@ -0,0 +1,55 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the CarDataService class.
+ */
+public class CarDataServiceTest {
+
+    @Test
+    public void testLoadDataJoinsBrandsAndReleaseDates() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+
+        List<Car> cars = service.getCars();
+        assertEquals(10, cars.size());
+
+        Car rav4 = cars.get(0);
+        assertEquals("RAV4", rav4.getModel());
+        assertEquals("Toyota", rav4.getBrand());
+        assertEquals(4, rav4.getPrices().size());
+        assertEquals(25000.0, rav4.getPrices().get("USD"), 0.001);
+        assertEquals(23000.0, rav4.getPrices().get("EUR"), 0.001);
+        assertEquals("2023-01-15", new SimpleDateFormat("yyyy-MM-dd").format(rav4.getReleaseDate()));
+
+        // Models missing from the catalog keep the "Unknown" brand
+        assertEquals("Unknown", cars.get(4).getBrand());
+    }
+
+    @Test
+    public void testReloadReplacesDataset() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        List<Car> first = service.getCars();
+        long version = service.getDataVersion();
+
+        service.loadData();
+        assertNotSame(first, service.getCars());
+        assertEquals(first.size(), service.getCars().size());
+        assertEquals(version + 1, service.getDataVersion());
+    }
+
+    @Test
+    public void testMissingFileFailsLoad() {
+        CarDataService service = new CarDataService("missing.csv", CarDataService.DEFAULT_CARS_XML,
+                CarDataService.DEFAULT_MODEL_CATALOG);
+        assertThrows(Exception.class, service::loadData);
+        assertTrue(service.getCars().isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for diffs between two snapshots of a feed.
+ */
+public class CarDatasetDiffTest {
+
+    @TempDir
+    Path directory;
+
+    private static Car car(String model, double usd, Double eur) {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("USD", usd);
+        if (eur != null) {
+            prices.put("EUR", eur);
+        }
+        return new Car("Toyota", model, "SUV", prices, new Date(1600000000000L));
+    }
+
+    @Test
+    public void testAddedRemovedAndPriceChanges() throws Exception {
+        List<Car> before = List.of(car("A", 100, 90.0), car("B", 200, null), car("C", 300, 270.0));
+        List<Car> after = List.of(car("A", 100, 90.0), car("C", 310, null), car("D", 400, null));
+
+        List<CarDatasetDiff.Change> changes = new ArrayList<>();
+        CarDatasetDiff.Summary summary = new CarDatasetDiff().diff(before, after, changes::add);
+
+        List<String> lines = changes.stream().map(change -> change.describe(CarKey.of(CarKey.Field.MODEL)))
+                .collect(Collectors.toList());
+        assertEquals(List.of("~ model=C EUR 270.0 -> NaN", "~ model=C USD 300.0 -> 310.0", "+ model=D", "- model=B"),
+                lines);
+        assertEquals(1, summary.getAdded());
+        assertEquals(1, summary.getRemoved());
+        assertEquals(1, summary.getChanged());
+        assertEquals(1, summary.getUnchanged());
+        assertEquals(Map.of("EUR", 1L, "USD", 1L), summary.getPriceChanges());
+    }
+
+    @Test
+    public void testSortMergeMatchesHashDiff() throws Exception {
+        Random random = new Random(7);
+        List<Car> before = new ArrayList<>();
+        List<Car> after = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Car car = car("M" + i, 1000 + i, 900.0 + i);
+            if (random.nextInt(10) > 0) {
+                before.add(car);
+            }
+            int roll = random.nextInt(10);
+            if (roll == 0) {
+                after.add(car("M" + i, 1000 + i + 5, 900.0 + i));
+            } else if (roll > 1) {
+                after.add(car);
+            }
+        }
+        // A repeated key: the last before record is the baseline
+        before.add(car("M5", 1, 1.0));
+        Collections.shuffle(after, random);
+
+        CarDatasetDiff diff = new CarDatasetDiff();
+        List<String> hashed = new ArrayList<>();
+        CarDatasetDiff.Summary expected = diff.diff(before, after, change -> hashed.add(change.describe(CarKey.DEFAULT)));
+        assertFalse(diff.isLastDiffExternal());
+
+        diff.setMaxInMemory(150);
+        diff.setTempDirectory(directory);
+        List<String> merged = new ArrayList<>();
+        CarDatasetDiff.Summary actual = diff.diff(before, after, change -> merged.add(change.describe(CarKey.DEFAULT)));
+        assertTrue(diff.isLastDiffExternal());
+
+        assertEquals(expected.toString(), actual.toString());
+        Collections.sort(hashed);
+        Collections.sort(merged);
+        assertEquals(hashed, merged);
+        assertTrue(expected.getAdded() > 0 && expected.getRemoved() > 0 && expected.getChanged() > 0);
+        try (var leftovers = Files.list(directory)) {
+            assertEquals(0, leftovers.count());
+        }
+    }
+
+    @Test
+    public void testAddedKeysSpillDuringTheAfterPass() throws Exception {
+        List<Car> before = new ArrayList<>();
+        List<Car> after = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            before.add(car("B" + i, 1000 + i, null));
+        }
+        after.add(car("B1", 1, null));
+        for (int i = 0; i < 500; i++) {
+            after.add(car("A" + i, 2000 + i, null));
+        }
+        // Versions after the spill compare with the ones reported before it
+        after.add(car("B1", 2, null));
+        after.add(car("A3", 3, null));
+        after.add(car("B2", 1002, null));
+
+        CarDatasetDiff diff = new CarDatasetDiff();
+        List<String> hashed = new ArrayList<>();
+        CarDatasetDiff.Summary expected = diff.diff(before, after, change -> hashed.add(change.describe(CarKey.DEFAULT)));
+        assertFalse(diff.isLastDiffExternal());
+
+        diff.setMaxInMemory(200);
+        diff.setTempDirectory(directory);
+        List<String> spilled = new ArrayList<>();
+        CarDatasetDiff.Summary actual = diff.diff(before, after, change -> spilled.add(change.describe(CarKey.DEFAULT)));
+        assertTrue(diff.isLastDiffExternal());
+
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(500, actual.getAdded());
+        assertEquals(98, actual.getRemoved());
+        assertEquals(2, actual.getChanged());
+        assertEquals(1, actual.getUnchanged());
+        Collections.sort(hashed);
+        Collections.sort(spilled);
+        assertEquals(hashed, spilled);
+        try (var leftovers = Files.list(directory)) {
+            assertEquals(0, leftovers.count());
+        }
+    }
+
+    @Test
+    public void testCliDiffsFeedFiles() throws Exception {
+        Path before = directory.resolve("before.ndjson");
+        Path after = directory.resolve("after.ndjson");
+        Files.writeString(before, CarJsonLines.format(List.of(car("A", 100, null), car("B", 200, null))));
+        Files.writeString(after, CarJsonLines.format(List.of(car("A", 120, null))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = CarDataCli.run(new String[]{"diff", before.toString(), after.toString(), "--key", "model"},
+                new PrintStream(out), new PrintStream(err));
+        assertEquals(0, status, err.toString());
+        assertEquals(String.format("~ model=A USD 100.0 -> 120.0%n- model=B%n"
+                + "added 0, removed 1, changed 1, unchanged 0, price changes {USD=1}%n"), out.toString());
+        assertEquals(2, CarDataCli.run(new String[]{"diff", before.toString()}, new PrintStream(out), new PrintStream(err)));
+    }
+}
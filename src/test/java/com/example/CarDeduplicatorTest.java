@@ -0,0 +1,90 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for key-based deduplication of merged feeds.
+ */
+public class CarDeduplicatorTest {
+
+    @TempDir
+    Path feedDir;
+
+    private static Car car(String brand, String model, double usd) {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("USD", usd);
+        return new Car(brand, model, "SUV", prices, new GregorianCalendar(2023, 0, 15).getTime());
+    }
+
+    @Test
+    public void testMergePolicies() {
+        List<Car> feed = List.of(car("Toyota", "RAV4", 25000), car("Ford", "Escape", 27000),
+                car("TOYOTA", "RAV4", 24000), car("Toyota", "RAV4", 26000));
+
+        List<Car> lastWriter = CarDeduplicator.deduplicate(feed, CarKey.DEFAULT, MergePolicy.LAST_WRITER_WINS);
+        assertEquals(2, lastWriter.size());
+        assertEquals("RAV4", lastWriter.get(0).getModel()); // keeps the position of the first row
+        assertEquals(26000, lastWriter.get(0).getPrice(), 0.001);
+
+        List<Car> minPrice = CarDeduplicator.deduplicate(feed, CarKey.DEFAULT, MergePolicy.MIN_PRICE);
+        assertEquals(24000, minPrice.get(0).getPrice(), 0.001);
+
+        // A narrower key merges more rows
+        CarDeduplicator byBrand = new CarDeduplicator(CarKey.of(CarKey.Field.BRAND), MergePolicy.MIN_PRICE, 0);
+        byBrand.addAll(feed);
+        assertEquals(2, byBrand.getCars().size());
+        assertEquals(2, byBrand.getDuplicateCount());
+    }
+
+    @Test
+    public void testManyOverlappingRowsStayDistinctPerKey() {
+        List<Car> feed = new ArrayList<>();
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < 50000; i++) {
+                feed.add(car("Brand" + (i % 100), "Model" + i, 10000 + pass));
+            }
+        }
+        // Sized too small on purpose, so the table has to grow
+        CarDeduplicator deduplicator = new CarDeduplicator(CarKey.DEFAULT, MergePolicy.LAST_WRITER_WINS, 1000);
+        deduplicator.addAll(feed);
+
+        assertEquals(50000, deduplicator.getCars().size());
+        assertEquals(100000, deduplicator.getDuplicateCount());
+        for (int i = 0; i < 50000; i++) {
+            assertEquals("Model" + i, deduplicator.getCars().get(i).getModel());
+            assertEquals(10002, deduplicator.getCars().get(i).getPrice(), 0.001);
+        }
+    }
+
+    @Test
+    public void testOverlappingFeedsAreMergedOnLoad() throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get(CarDataService.DEFAULT_CARS_XML)));
+        Files.writeString(feedDir.resolve("dealer-a.xml"), xml);
+        Files.writeString(feedDir.resolve("dealer-b.xml"), xml.replace("25000.00", "21000.00"));
+
+        CarDataService service = new CarDataService();
+        FeedIngestor.Result result = service.loadFeeds(feedDir, "*.xml");
+        assertEquals(20, result.getCars().size());
+        assertEquals(20, service.getCars().size());
+
+        // Cars of unknown brands are stamped with the load time, so leave the date out of the key
+        service.setDeduplication(CarKey.of(CarKey.Field.BRAND, CarKey.Field.MODEL, CarKey.Field.TYPE),
+                MergePolicy.MIN_PRICE);
+        service.loadFeeds(feedDir, "*.xml");
+        assertEquals(10, service.getCars().size());
+        assertEquals(10, service.getLastDuplicateCount());
+        assertEquals(21000.0, service.getCars().get(0).getPrices().get("USD"), 0.001);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the Flight Recorder events of ingestion and query stages.
+ */
+public class CarEventsTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testLoadAndQueryEventsAreRecorded() throws Exception {
+        CarDataService service = new CarDataService();
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            for (String name : new String[]{"FileParse", "DatasetLoad", "ReloadSwap", "Filter", "Sort", "Format"}) {
+                recording.enable("com.example." + name).withoutThreshold();
+            }
+            recording.start();
+            service.loadData();
+            service.queryFormatted("Brand", "Toyota", "", "", "Highest Price to Lowest", true, "JSON");
+            // Answered by walking a materialized sort order instead of a scan
+            service.queryTopK("None", "", "", "", "Latest to Oldest", false, 3);
+            recording.stop();
+            Path file = directory.resolve("cars.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+
+        Map<String, List<RecordedEvent>> byType = events.stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+        List<RecordedEvent> parses = byType.get("com.example.FileParse");
+        assertEquals(3, parses.size());
+        RecordedEvent carXml = parses.stream().filter(event -> "car XML".equals(event.getString("format")))
+                .findFirst().orElseThrow();
+        assertEquals(CarDataService.DEFAULT_CARS_XML, carXml.getString("path"));
+        assertTrue(carXml.getLong("bytes") > 0);
+        assertEquals(service.getCars().size(), carXml.getLong("rows"));
+
+        RecordedEvent load = byType.get("com.example.DatasetLoad").get(0);
+        assertEquals(service.getCars().size(), load.getLong("rowsPublished"));
+        assertEquals("heap", byType.get("com.example.ReloadSwap").get(0).getString("storage"));
+
+        List<RecordedEvent> filters = byType.get("com.example.Filter");
+        assertEquals(2, filters.size());
+        RecordedEvent filter = filters.get(0);
+        assertEquals(service.getCars().size(), filter.getLong("inputRows"));
+        assertEquals(service.getDataVersion(), filter.getLong("dataVersion"));
+        RecordedEvent walk = filters.get(1);
+        assertEquals(service.getCars().size(), walk.getLong("inputRows"));
+        assertEquals(3, walk.getLong("outputRows"));
+        long matched = filter.getLong("outputRows");
+        assertTrue(matched > 0 && matched < service.getCars().size());
+        List<String> sorts = byType.get("com.example.Sort").stream().map(event -> event.getString("sortType"))
+                .collect(Collectors.toList());
+        assertEquals(List.of("Highest Price to Lowest", "Currency view"), sorts);
+        RecordedEvent format = byType.get("com.example.Format").get(0);
+        assertEquals("JSON", format.getString("outputFormat"));
+        assertEquals(matched, format.getLong("inputRows"));
+        assertTrue(format.getLong("outputChars") > 0);
+    }
+
+    @Test
+    public void testLazyScanCountsRowsRead() throws Exception {
+        CarProcessor processor = new CarProcessor();
+        int total = processor.parseCsv("test_cars.csv").size();
+        List<LazyCar> matched = new ArrayList<>();
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.example.FileParse").withoutThreshold();
+            recording.start();
+            processor.scanCsv("test_cars.csv", CarFilter.parse("Brand", "toyota", "", ""),
+                    LazyCar.ALL_FIELDS, matched::add);
+            recording.stop();
+            Path file = directory.resolve("scan.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+
+        assertEquals(1, events.size());
+        assertTrue(matched.size() < total);
+        assertEquals(total, events.get(0).getLong("rows"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for filter parsing and refinement detection.
+ */
+public class CarFilterTest {
+
+    @Test
+    public void testRefinementDetection() throws Exception {
+        CarFilter toyota = CarFilter.parse("Brand", "Toyota", "", "");
+        CarFilter cheap = CarFilter.parse("Brand and Price", "20000", "toyota", "");
+        CarFilter expensive = CarFilter.parse("Brand and Price", "30000", "Toyota", "");
+        CarFilter recent = CarFilter.parse("Brand and Release Date", "Toyota", "", "2023-01-01");
+        CarFilter newer = CarFilter.parse("Brand and Release Date", "Toyota", "", "2024-01-01");
+
+        assertTrue(toyota.isRefinementOf(CarFilter.NONE));
+        assertTrue(cheap.isRefinementOf(toyota));
+        assertTrue(expensive.isRefinementOf(cheap));
+        assertFalse(cheap.isRefinementOf(expensive));
+        assertTrue(newer.isRefinementOf(recent));
+        assertFalse(recent.isRefinementOf(newer));
+        assertFalse(recent.isRefinementOf(cheap));
+        // Brands match exactly, so typing more of a name is a different filter
+        assertFalse(CarFilter.parse("Brand", "Toyotas", "", "").isRefinementOf(toyota));
+        assertFalse(CarFilter.NONE.isRefinementOf(toyota));
+
+        assertTrue(CarFilter.parse("Brand and Price", "", "Toyota", "").isEmpty());
+        assertThrows(ParseException.class, () -> CarFilter.parse("Brand and Price", "20k", "Toyota", ""));
+        assertThrows(ParseException.class, () -> CarFilter.parse("Brand and Release Date", "Toyota", "", "2023"));
+    }
+
+    @Test
+    public void testNonFinitePricesAreRejected() throws Exception {
+        // NaN means no minimum, so it must not turn a price filter into a brand filter
+        for (String price : new String[]{"NaN", "Infinity", "-Infinity", "1e400"}) {
+            assertThrows(ParseException.class, () -> CarFilter.parse("Brand and Price", price, "Toyota", ""), price);
+        }
+        assertFalse(CarFilter.parse("Brand and Price", "2.5e4", "Toyota", "").isEmpty());
+    }
+
+    @Test
+    public void testPaddedValuesFilterAndCacheLikeTrimmedOnes() throws Exception {
+        assertEquals(CarFilter.parse("Brand", "Toyota", "", "").key(), CarFilter.parse("Brand", " toyota ", "", "").key());
+        assertEquals(CarFilter.parse("Brand and Price", "20000", "Toyota", "").key(),
+                CarFilter.parse("Brand and Price", " 20000.0", "TOYOTA ", "").key());
+        assertTrue(CarFilter.parse("Brand", "  ", "", "").isEmpty());
+        assertEquals(CarFilter.parse("Brand", "Toyota", "", "").toString(),
+                CarFilter.parse("Brand", " Toyota\t", "", "").toString());
+    }
+
+    @Test
+    public void testNarrowingQueriesReuseThePreviousResult() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+
+        List<Car> toyota = service.filterCars("Brand", "Toyota", "", "");
+        assertEquals(0, service.getRefinedQueryCount());
+
+        List<Car> cheap = service.filterCars("Brand and Price", "1", "Toyota", "");
+        List<Car> expensive = service.filterCars("Brand and Price", "2000000", "Toyota", "");
+        assertEquals(2, service.getRefinedQueryCount());
+        assertEquals(toyota.size(), cheap.size());
+        assertTrue(expensive.size() <= cheap.size());
+
+        // Broadening again scans the whole dataset and must still see every car
+        assertEquals(toyota.size(), service.filterCars("Brand", "toyota", "", "").size());
+        assertEquals(2, service.getRefinedQueryCount());
+
+        // A reload invalidates the previous result
+        service.loadData();
+        service.filterCars("Brand and Price", "1", "Toyota", "");
+        assertEquals(2, service.getRefinedQueryCount());
+    }
+}
@@ -0,0 +1,192 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the car mutation journal and its use by CarDataService.
+ */
+public class CarJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private static Car car(String model, double usd) {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("USD", usd);
+        return new Car("Toyota", model, "SUV", prices, new Date(1600000000000L));
+    }
+
+    @Test
+    public void testRecoveryReplaysTailAfterCompaction() throws Exception {
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertTrue(journal.isEmpty());
+            journal.append(CarJournal.Operation.ADD, car("RAV4", 25000));
+            journal.append(CarJournal.Operation.ADD, car("Camry", 24000));
+            journal.append(CarJournal.Operation.UPDATE, car("RAV4", 26000));
+            journal.append(CarJournal.Operation.UPDATE, car("Corolla", 1)); // unknown key, ignored
+        }
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(4, journal.getReplayedRecords());
+            List<Car> cars = journal.getCars();
+            assertEquals(2, cars.size());
+            assertEquals(26000.0, cars.get(0).getPrice());
+
+            journal.compact();
+            assertEquals(0, journal.getJournalSize());
+            journal.append(CarJournal.Operation.REMOVE, car("Camry", 0));
+        }
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            // Only the record after the snapshot is replayed
+            assertEquals(1, journal.getReplayedRecords());
+            assertEquals(1, journal.getCars().size());
+            assertEquals("RAV4", journal.getCars().get(0).getModel());
+            assertEquals(5, journal.getLastSequence());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws Exception {
+        long sizeAfterTwo;
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            journal.append(CarJournal.Operation.ADD, car("RAV4", 25000));
+            journal.append(CarJournal.Operation.ADD, car("Camry", 24000));
+            sizeAfterTwo = journal.getJournalSize();
+            journal.append(CarJournal.Operation.ADD, car("Prius", 28000));
+        }
+        // Simulate a crash in the middle of writing the last record
+        try (FileChannel channel = FileChannel.open(directory.resolve(CarJournal.JOURNAL_FILE), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(2, journal.getCars().size());
+            assertEquals(sizeAfterTwo, journal.getJournalSize());
+            journal.append(CarJournal.Operation.ADD, car("Prius", 28000));
+        }
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(3, journal.getCars().size());
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendsShareSyncs() throws Exception {
+        int threads = 8;
+        int rounds = 50;
+        // Every thread writes its record before any of them waits, so one fsync covers a round
+        CyclicBarrier written = new CyclicBarrier(threads);
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers.add(new Thread(() -> {
+                    for (int i = 0; i < rounds; i++) {
+                        try {
+                            long sequence = journal.write(CarJournal.Operation.ADD, car("M" + id + "-" + i, i));
+                            written.await();
+                            journal.awaitDurable(sequence);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(threads * rounds, journal.getCars().size());
+            assertTrue(journal.getSyncCount() <= rounds, "syncs: " + journal.getSyncCount());
+        }
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(threads * rounds, journal.getCars().size());
+        }
+    }
+
+    @Test
+    public void testRecordsApplyOnlyOnceDurable() throws Exception {
+        CarJournal journal = new CarJournal(directory, CarKey.DEFAULT);
+        journal.append(CarJournal.Operation.ADD, car("RAV4", 25000));
+        long sequence = journal.write(CarJournal.Operation.ADD, car("Camry", 24000));
+        assertEquals(1, journal.getCars().size());
+        assertEquals(1, journal.getDurableSequence());
+        journal.awaitDurable(sequence);
+        assertEquals(2, journal.getCars().size());
+
+        // A failed sync drops its records, and they never reach the state
+        journal.close();
+        long lost = journal.write(CarJournal.Operation.ADD, car("Prius", 28000));
+        assertThrows(IOException.class, () -> journal.awaitDurable(lost));
+        assertThrows(IOException.class, () -> journal.awaitDurable(lost));
+        assertEquals(2, journal.getCars().size());
+        assertEquals(sequence, journal.getDurableSequence());
+
+        try (CarJournal reopened = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(2, reopened.getCars().size());
+        }
+    }
+
+    @Test
+    public void testFailedJournalLeavesServiceDatasetUnchanged() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        CarJournal journal = new CarJournal(directory, CarKey.DEFAULT);
+        service.attachJournal(journal);
+        journal.close();
+        int loaded = service.getCars().size();
+        assertThrows(IOException.class, () -> service.addCar(car("Prius", 28000)));
+        assertEquals(loaded, service.getCars().size());
+
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        long version = service.getDataVersion();
+        Car first = service.getCars().get(0);
+        assertThrows(IOException.class, () -> service.addCar(car("Prius", 28000)));
+        assertThrows(IOException.class, () -> service.removeCar(first));
+        assertThrows(IOException.class, () -> service.updatePrice(first, "USD", 1));
+        assertEquals(loaded, service.getCars().size());
+        assertEquals(first.getPrices(), service.getLiveTable().get(first).getPrices());
+        assertEquals(version, service.getDataVersion());
+    }
+
+    @Test
+    public void testServiceMutationsSurviveRestart() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        int loaded = service.getCars().size();
+        Car rav4 = service.getCars().get(0);
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            service.attachJournal(journal);
+            Map<String, Double> prices = new HashMap<>(rav4.getPrices());
+            prices.put("USD", 19999.0);
+            long version = service.getDataVersion();
+            service.updateCar(new Car(rav4.getBrand(), rav4.getModel(), rav4.getType(), prices, rav4.getReleaseDate()));
+            service.addCar(car("Prius", 28000));
+            service.removeCar(service.getCars().get(1));
+            assertEquals(version + 3, service.getDataVersion());
+            assertEquals(loaded, service.getCars().size());
+        }
+
+        CarDataService restarted = new CarDataService();
+        try (CarJournal journal = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(3, journal.getReplayedRecords());
+            restarted.attachJournal(journal);
+        }
+        assertEquals(loaded, restarted.getCars().size());
+        assertEquals(19999.0, restarted.getCars().get(0).getPrices().get("USD"));
+        assertEquals("Prius", restarted.getCars().get(loaded - 1).getModel());
+        assertEquals(1, restarted.filterCars("Brand", "Toyota", "", "").stream()
+                .filter(c -> c.getModel().equals("Prius")).count());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the JSON Lines encoder and decoder.
+ */
+public class CarJsonLinesTest {
+
+    @TempDir
+    Path dir;
+
+    private static Car car(String brand, String model, double usd, int year, int month, int day) {
+        Map<String, Double> prices = new LinkedHashMap<>();
+        prices.put("USD", usd);
+        prices.put("EUR", usd * 0.9);
+        return new Car(brand, model, "SUV", prices, new GregorianCalendar(year, month - 1, day).getTime());
+    }
+
+    @Test
+    public void testRoundTripWithEscaping() {
+        Car original = car("Quote\"Back\\slash", "Tab\tNew\nLine é", 25000.5, 2023, 1, 15);
+        original.setPreferredCurrency("EUR");
+
+        String line = CarJsonLines.format(List.of(original));
+        assertTrue(line.endsWith("}\n"));
+        assertEquals(1, line.split("\n").length);
+        assertTrue(line.contains("\"releaseDate\":\"2023-01-15\""));
+
+        Car decoded = CarJsonLines.parseLine(line.trim());
+        assertEquals(original.getBrand(), decoded.getBrand());
+        assertEquals(original.getModel(), decoded.getModel());
+        assertEquals(original.getPrices(), decoded.getPrices());
+        assertEquals(original.getReleaseDate(), decoded.getReleaseDate());
+        assertEquals("EUR", decoded.getPreferredCurrency());
+    }
+
+    @Test
+    public void testInvalidLinesAreReportedWithLineNumbers() throws Exception {
+        Path file = dir.resolve("cars.ndjson");
+        String good = CarJsonLines.format(List.of(car("Ford", "F-150", 40000, 2020, 4, 20)));
+        Files.write(file, (good + "{\"brand\":\"Ford\",\"extra\":[1,{\"a\":2}]}\n\n" + good + "not json\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> CarJsonLines.parseLine("{\"brand\":\"Ford\""));
+        assertTrue(e.getMessage().contains("Invalid JSON line"));
+        assertThrows(IOException.class, () -> CarJsonLines.read(file.toString()));
+
+        RejectLog log = new RejectLog();
+        List<Car> cars = CarJsonLines.read(file.toString(), new ErrorBudget(log, 10));
+        assertEquals(2, cars.size());
+        assertEquals(2, log.getCount());
+        assertTrue(log.getEntries().get(0).contains("cars.ndjson:2: "));
+        assertTrue(log.getEntries().get(1).contains("cars.ndjson:5: "));
+    }
+
+    @Test
+    public void testParallelReadMatchesSequentialRead() throws Exception {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            cars.add(car("Brand" + (i % 17), "Model" + i, 10000 + i, 2000 + i % 25, 1 + i % 12, 1 + i % 28));
+        }
+        Path file = dir.resolve("big.jsonl");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            CarJsonLines.write(cars, writer);
+        }
+        assertTrue(Files.size(file) > 1024 * 1024);
+
+        List<Car> sequential = CarJsonLines.read(file.toString());
+        List<Car> parallel = CarJsonLines.readParallel(file, 4, null);
+        assertEquals(cars.size(), sequential.size());
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < cars.size(); i++) {
+            assertEquals(cars.get(i).getModel(), parallel.get(i).getModel());
+            assertEquals(sequential.get(i).getPrices(), parallel.get(i).getPrices());
+        }
+
+        List<Car> ingested = FeedIngestor.parseWithCarProcessor(file);
+        assertEquals(cars.size(), ingested.size());
+    }
+
+    @Test
+    public void testColumnsAreLineRelativeAndNonFinitePricesStayValid() throws Exception {
+        Path file = dir.resolve("columns.ndjson");
+        String good = CarJsonLines.format(List.of(car("Ford", "F-150", 40000, 2020, 4, 20)));
+        Files.write(file, (good + "{\"brand\" \"Ford\"}\n").getBytes(StandardCharsets.UTF_8));
+        RejectLog log = new RejectLog();
+        CarJsonLines.read(file.toString(), new ErrorBudget(log, 10));
+        assertTrue(log.getEntries().get(0).contains("expected ':' at column 10"), log.getEntries().get(0));
+
+        Car odd = car("Lada", "Niva", 9000, 2021, 2, 3);
+        odd.getPrices().put("RUB", Double.NaN);
+        odd.getPrices().put("JPY", Double.POSITIVE_INFINITY);
+        String line = CarJsonLines.format(List.of(odd));
+        assertTrue(line.contains("\"RUB\":null"), line);
+        Car decoded = CarJsonLines.parseLine(line.trim());
+        assertEquals(Map.of("USD", 9000.0, "EUR", 8100.0), decoded.getPrices());
+        assertThrows(IllegalArgumentException.class, () -> CarJsonLines.parseLine(line.trim().replace("null", "nul")));
+    }
+
+    @Test
+    public void testJsonOutputsWriteNonFinitePricesAsNull() throws Exception {
+        List<Car> cars = List.of(
+                new Car("Toyota", "SUV", 30000, LocalDate.of(2020, 6, 15), "EUR"),
+                new Car("Honda", "Sedan", Double.NaN, LocalDate.of(2021, 6, 15), "USD"),
+                new Car("Kia", "Hatchback", Double.POSITIVE_INFINITY, LocalDate.of(2021, 6, 15), "USD"));
+
+        JSONArray array = (JSONArray) new JSONParser().parse(new CarProcessor().outputJsonFormat(cars));
+        assertEquals(30000.0, ((JSONObject) array.get(0)).get("price"));
+        assertTrue(((JSONObject) array.get(1)).containsKey("price"));
+        assertNull(((JSONObject) array.get(1)).get("price"));
+        assertNull(((JSONObject) array.get(2)).get("price"));
+
+        String formatted = new CarDataService().format(cars, "JSON");
+        assertFalse(formatted.contains("NaN") || formatted.contains("Infinity"), formatted);
+        assertEquals(2, formatted.split("\"value\": null,", -1).length - 1);
+    }
+}
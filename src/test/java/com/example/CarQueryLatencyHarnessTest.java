@@ -0,0 +1,36 @@
+package com.example;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the concurrent query latency harness and its JSON report.
+ */
+public class CarQueryLatencyHarnessTest {
+
+    @Test
+    public void testReportIsValidJsonForAnyLabel() throws Exception {
+        CarQueryLatencyHarness harness = new CarQueryLatencyHarness(new CarDataService(), 2, 300, 50);
+        harness.run();
+        assertEquals(0, harness.getErrorCount());
+        assertEquals(0, harness.getInconsistentReads());
+
+        String label = "build \"42\" on C:\\ci\n";
+        StringWriter out = new StringWriter();
+        harness.writeReport(out, label);
+
+        JSONObject report = (JSONObject) new JSONParser().parse(out.toString());
+        assertEquals(label, report.get("label"));
+        assertTrue((Long) report.get("operations") > 0);
+        assertTrue((Long) report.get("reloads") > 0);
+        JSONObject latency = (JSONObject) report.get("latencyNanos");
+        JSONObject total = (JSONObject) latency.get("total");
+        assertEquals(report.get("operations"), total.get("count"));
+        assertTrue(latency.containsKey("reload"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the embedded HTTP query service, run in-process on an ephemeral port.
+ */
+public class CarQueryServerTest {
+    private CarDataService service;
+    private CarQueryServer server;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        service = new CarDataService();
+        service.loadData();
+        server = new CarQueryServer(service, 0, 4);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private HttpURLConnection open(String method, String path, boolean gzip) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if (gzip) {
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if ("gzip".equals(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        try (InputStream body = in) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = open("GET", path, false);
+        assertEquals(200, connection.getResponseCode(), path);
+        return body(connection);
+    }
+
+    private static int lines(String ndjson) {
+        return ndjson.isEmpty() ? 0 : ndjson.split("\n").length;
+    }
+
+    @Test
+    public void testFilterLimitAndCurrencyView() throws Exception {
+        assertEquals(service.queryFormatted("Brand", "Toyota", "", "", "None", false, "NDJSON"),
+                get("/cars?filter=Brand&value=toyota&format=ndjson"));
+        assertEquals(service.getCars().size(), lines(get("/cars?format=ndjson")));
+        assertEquals(3, lines(get("/cars?sort=Highest+Price+to+Lowest&format=ndjson&limit=3")));
+        assertEquals(0, lines(get("/cars?format=ndjson&limit=0")));
+
+        // The currency view of one request does not leak into the next one
+        String nativeView = get("/cars?filter=Brand&value=Toyota&format=ndjson");
+        assertTrue(get("/cars?filter=Brand&value=Toyota&format=ndjson&currency=true").contains("\"currency\":\"EUR\""));
+        assertEquals(nativeView, get("/cars?filter=Brand&value=Toyota&format=ndjson"));
+
+        assertEquals(400, open("GET", "/cars?limit=-1", false).getResponseCode());
+        assertEquals(400, open("GET", "/cars?format=csv", false).getResponseCode());
+        assertEquals(400, open("GET", "/cars?filter=Brand+and+Price&value=cheap&brand=Toyota", false).getResponseCode());
+        assertEquals(405, open("POST", "/cars", false).getResponseCode());
+    }
+
+    @Test
+    public void testGzipResponses() throws Exception {
+        HttpURLConnection connection = open("GET", "/cars?format=xml", true);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        assertEquals(service.queryFormatted("None", "", "", "", "None", false, "XML"), body(connection));
+
+        HttpURLConnection plain = open("GET", "/cars?format=xml", false);
+        assertNull(plain.getContentEncoding());
+        assertEquals(service.queryFormatted("None", "", "", "", "None", false, "XML"), body(plain));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        long version = service.getDataVersion();
+        assertEquals(405, open("GET", "/reload", false).getResponseCode());
+
+        HttpURLConnection reload = open("POST", "/reload", false);
+        assertEquals(200, reload.getResponseCode());
+        assertEquals("Reloaded " + service.getCars().size() + " cars", body(reload));
+        assertTrue(service.getDataVersion() > version);
+        assertTrue(get("/stats").contains("\"dataVersion\": " + service.getDataVersion()));
+        assertEquals(service.getCars().size(), lines(get("/cars?format=ndjson")));
+    }
+}
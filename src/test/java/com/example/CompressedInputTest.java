@@ -0,0 +1,109 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for transparent decompression of feed files.
+ */
+public class CompressedInputTest {
+
+    private static final String CSV = "brand,type,price,releaseDateYear,releaseDateDay,releaseDateMonth,currency\n"
+            + "Ford,Truck,40000,2020,20,04,USD\n"
+            + "BMW,SUV,45000,2023,01,01,EUR\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testParsesGzipAndZipLikePlainFiles() throws Exception {
+        Path gz = dir.resolve("cars.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(CSV.getBytes());
+        }
+        Path zip = dir.resolve("cars.csv.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("cars.csv"));
+            out.write(CSV.getBytes());
+            out.closeEntry();
+        }
+
+        CarProcessor processor = new CarProcessor();
+        for (Path file : new Path[]{gz, zip}) {
+            List<Car> cars = processor.parseCsv(file.toString());
+            assertEquals(2, cars.size(), file.toString());
+            assertEquals("BMW", cars.get(1).getBrand());
+        }
+        assertEquals(2, FeedIngestor.parseWithCarProcessor(gz).size());
+    }
+
+    @Test
+    public void testEstimatesDecompressedSize() throws Exception {
+        byte[] data = CSV.repeat(10_000).getBytes();
+        Path plain = dir.resolve("cars.csv");
+        Files.write(plain, data);
+        Path gz = dir.resolve("cars.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            out.write(data);
+        }
+        Path zip = dir.resolve("cars.csv.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("cars.csv"));
+            out.write(data);
+            out.closeEntry();
+        }
+
+        assertEquals(data.length, CompressedInput.estimateUncompressedSize(plain));
+        for (Path file : new Path[]{gz, zip}) {
+            assertTrue(Files.size(file) * 10 < data.length, file.toString());
+            assertEquals(data.length, CompressedInput.estimateUncompressedSize(file), file.toString());
+        }
+    }
+
+    @Test
+    public void testPipelineDeliversEveryByteAcrossBuffers() throws Exception {
+        byte[] data = new byte[100_003];
+        new Random(42).nextBytes(data);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), 1024, 2, "test-pipeline")) {
+            byte[] buffer = new byte[777];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                copy.write(buffer, 0, read);
+            }
+            assertEquals(-1, in.read());
+        }
+        assertArrayEquals(data, copy.toByteArray());
+    }
+
+    @Test
+    public void testPipelineReportsUncheckedSourceFailures() throws Exception {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("corrupt block");
+            }
+        };
+        try (InputStream in = new PipelinedInputStream(failing, 1024, 2, "test-pipeline")) {
+            IOException e = assertThrows(IOException.class, in::read);
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals(-1, in.read());
+        }
+    }
+}
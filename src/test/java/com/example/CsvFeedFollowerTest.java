@@ -0,0 +1,217 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for following growing CSV feeds and the rolling window aggregates.
+ */
+public class CsvFeedFollowerTest {
+    private static final String HEADER = "brand,type,price,year,day,month,currency\n";
+
+    @TempDir
+    Path directory;
+
+    private static void append(Path file, String text) throws Exception {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static List<String> brands(List<Car> cars) {
+        List<String> brands = new ArrayList<>();
+        for (Car car : cars) {
+            brands.add(car.getBrand());
+        }
+        return brands;
+    }
+
+    @Test
+    public void testFollowsAppendsTruncationAndRotation() throws Exception {
+        Path file = directory.resolve("feed.csv");
+        append(file, HEADER + "Toyota,SUV,30000,2020,01,02,USD\nHonda,Sedan,20000,2021,15,06,U");
+        List<Car> received = new ArrayList<>();
+        try (CsvFeedFollower follower = new CsvFeedFollower(file, true, received::addAll)) {
+            // The partly written line waits for its newline
+            assertEquals(1, follower.poll());
+            assertEquals(List.of("Toyota"), brands(received));
+            assertEquals(0, follower.poll());
+
+            append(file, "SD\nbroken line\r\nBMW,Coupe,50000,2022,10,10,EUR\r\n");
+            assertEquals(2, follower.poll());
+            assertEquals(List.of("Toyota", "Honda", "BMW"), brands(received));
+            assertEquals(20000, received.get(1).getPrices().get("USD"));
+            assertEquals(1, follower.getRejectCount());
+
+            // Truncated and rewritten in place
+            Files.write(file, (HEADER + "Kia,Hatchback,15000,2019,05,05,USD\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(1, follower.poll());
+            assertEquals(1, follower.getTruncationCount());
+
+            // Rotated: the rest of the old file is read before the new one
+            append(file, "Audi,Sedan,40000,2020,01,01,EUR\n");
+            Files.move(file, directory.resolve("feed.csv.1"));
+            append(file, HEADER + "Ford,Truck,35000,2018,03,03,USD\n");
+            assertEquals(2, follower.poll());
+            assertEquals(1, follower.getRotationCount());
+            assertEquals(List.of("Toyota", "Honda", "BMW", "Kia", "Audi", "Ford"), brands(received));
+            assertEquals(6, follower.getRowCount());
+        }
+    }
+
+    @Test
+    public void testStartsAtEndAndRetriesFailedBatches() throws Exception {
+        Path file = directory.resolve("feed.csv");
+        append(file, HEADER + "Toyota,SUV,30000,2020,01,02,USD\nHon");
+        List<Car> received = new ArrayList<>();
+        boolean[] fail = {true};
+        try (CsvFeedFollower follower = new CsvFeedFollower(file, false, cars -> {
+            if (fail[0]) {
+                throw new IOException("sink down");
+            }
+            received.addAll(cars);
+        })) {
+            append(file, "da,Sedan,20000,2021,15,06,USD\n");
+            assertThrows(IOException.class, follower::poll);
+            fail[0] = false;
+            assertEquals(1, follower.poll());
+            assertEquals(List.of("Honda"), brands(received));
+        }
+    }
+
+    @Test
+    public void testSkipsLinesLongerThanTheLargestRead() throws Exception {
+        Path file = directory.resolve("feed.csv");
+        String longLine = "x".repeat(5 * 1024 * 1024);
+        append(file, HEADER + "Toyota,SUV,30000,2020,01,02,USD\n" + longLine + "\nBMW,Coupe,50000,2022,10,10,EUR\n");
+        List<Car> received = new ArrayList<>();
+        try (CsvFeedFollower follower = new CsvFeedFollower(file, true, received::addAll)) {
+            assertEquals(2, follower.poll());
+            assertEquals(1, follower.getRejectCount());
+
+            // Still being written: skipped as far as it goes, the rest once its newline comes
+            append(file, longLine);
+            assertEquals(0, follower.poll());
+            append(file, longLine + "\nKia,Hatchback,15000,2019,05,05,USD\n");
+            assertEquals(1, follower.poll());
+            assertEquals(2, follower.getRejectCount());
+            assertEquals(List.of("Toyota", "BMW", "Kia"), brands(received));
+        }
+    }
+
+    @Test
+    public void testBackgroundPollKeepsRuntimeErrors() throws Exception {
+        Path file = directory.resolve("feed.csv");
+        append(file, HEADER + "Toyota,SUV,30000,2020,01,02,USD\n");
+        List<Car> received = new ArrayList<>();
+        AtomicBoolean fail = new AtomicBoolean(true);
+        try (CsvFeedFollower follower = new CsvFeedFollower(file, true, cars -> {
+            if (fail.get()) {
+                throw new IllegalStateException("sink broken");
+            }
+            received.addAll(cars);
+        })) {
+            follower.start(10);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (follower.getLastError() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(follower.getLastError() instanceof IllegalStateException);
+
+            // The schedule survives the error and the next poll retries the batch
+            fail.set(false);
+            while (follower.getRowCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("Toyota"), brands(received));
+            while (follower.getLastError() != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNull(follower.getLastError());
+        }
+    }
+
+    @Test
+    public void testRollingWindowDropsExpiredBuckets() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        RollingWindowStats stats = new RollingWindowStats(60_000, 6, now::get);
+        stats.add(new Car("Toyota", "SUV", 30000, LocalDate.of(2020, 1, 1), "USD"));
+        now.addAndGet(30_000);
+        stats.add(new Car("Toyota", "SUV", 40000, LocalDate.of(2020, 1, 1), "USD"));
+        stats.add(new Car("Honda", "Sedan", 20000, LocalDate.of(2020, 1, 1), "USD"));
+        assertEquals(35000, stats.average("Toyota", "USD"), 1e-9);
+        assertEquals(2L, stats.counts("USD").get("Toyota"));
+        assertTrue(Double.isNaN(stats.average("Toyota", "EUR")));
+
+        // The first price leaves the window a minute after it arrived
+        now.addAndGet(30_000);
+        assertEquals(40000, stats.average("Toyota", "USD"), 1e-9);
+        now.addAndGet(60_000);
+        assertTrue(stats.averages("USD").isEmpty());
+    }
+
+    @Test
+    public void testServiceFollowsFeedIntoLiveTable() throws Exception {
+        Path file = directory.resolve("feed.csv");
+        append(file, HEADER);
+        CarDataService service = new CarDataService();
+        RollingWindowStats stats = new RollingWindowStats(60_000, 6);
+        assertThrows(IllegalStateException.class, () -> service.followCsv(file, true, stats, 10));
+
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        try (CsvFeedFollower follower = service.followCsv(file, true, stats, 10)) {
+            append(file, "Lada,SUV,9000,2020,01,02,USD\n");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (follower.getRowCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNull(follower.getLastError());
+            assertEquals(1, service.filterCars("Brand", "Lada", "", "").size());
+            assertEquals(9000, stats.average("Lada", "USD"), 1e-9);
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsNotCountedTwice() throws Exception {
+        Path file = directory.resolve("feed.csv");
+        append(file, HEADER);
+        CarDataService service = new CarDataService();
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        CarJournal broken = new CarJournal(directory.resolve("broken"), CarKey.DEFAULT);
+        service.attachJournal(broken);
+        broken.close();
+        RollingWindowStats stats = new RollingWindowStats(60_000, 6);
+        try (CsvFeedFollower follower = service.followCsv(file, true, stats, 10)) {
+            append(file, "Lada,SUV,9000,2020,01,02,USD\nLada,Sedan,11000,2021,01,02,USD\n");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (follower.getLastError() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(follower.getLastError() instanceof IOException);
+            assertEquals(0, service.filterCars("Brand", "Lada", "", "").size());
+            assertTrue(stats.averages("USD").isEmpty());
+
+            try (CarJournal journal = new CarJournal(directory.resolve("journal"), CarKey.DEFAULT)) {
+                service.attachJournal(journal);
+                while (follower.getRowCount() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(2, service.filterCars("Brand", "Lada", "", "").size());
+                assertEquals(2L, stats.counts("USD").get("Lada"));
+                assertEquals(10000, stats.average("Lada", "USD"), 1e-9);
+                assertEquals(2, journal.getCars().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the FeedIngestor class.
+ */
+public class FeedIngestorTest {
+
+    private static final String HEADER = "brand,type,price,releaseDateYear,releaseDateDay,releaseDateMonth,currency\n";
+
+    @TempDir
+    Path feedDir;
+
+    @Test
+    public void testMergesFilesInNameOrderWithProvenance() throws Exception {
+        Files.writeString(feedDir.resolve("dealer-b.csv"), HEADER + "BMW,SUV,45000,2023,01,01,EUR\n");
+        Files.writeString(feedDir.resolve("dealer-a.csv"), HEADER
+                + "Ford,Truck,40000,2020,20,04,USD\n"
+                + "Honda,Sedan,25000,2021,10,05,JPY\n");
+        Files.writeString(feedDir.resolve("notes.txt"), "not a feed");
+
+        FeedIngestor.Result result = new FeedIngestor().ingest(feedDir, "*.csv");
+
+        List<Car> cars = result.getCars();
+        assertEquals(3, cars.size());
+        assertEquals("Ford", cars.get(0).getBrand());
+        assertEquals("BMW", cars.get(2).getBrand());
+        assertEquals("dealer-a.csv", result.getSource(1).getFileName().toString());
+        assertEquals("dealer-b.csv", result.getSource(2).getFileName().toString());
+        assertTrue(result.getFailedFiles().isEmpty());
+
+        // A file without rows between two others takes no car's provenance
+        Files.writeString(feedDir.resolve("dealer-aa.csv"), HEADER);
+        FeedIngestor.Result withEmpty = new FeedIngestor().ingest(feedDir, "*.csv");
+        assertEquals(3, withEmpty.getFileReports().size());
+        assertEquals("dealer-a.csv", withEmpty.getSource(1).getFileName().toString());
+        assertEquals("dealer-b.csv", withEmpty.getSource(2).getFileName().toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> withEmpty.getSource(3));
+    }
+
+    @Test
+    public void testBadFileIsReportedWithoutAbortingOthers() throws Exception {
+        Files.writeString(feedDir.resolve("good.csv"), HEADER + "Ford,Truck,40000,2020,20,04,USD\n");
+        Files.writeString(feedDir.resolve("bad.csv"), HEADER + "Ford,Truck,lots,2020,20,04,USD\n");
+
+        FeedIngestor ingestor = new FeedIngestor(FeedIngestor::parseWithCarProcessor, 1, 4096);
+        FeedIngestor.Result result = ingestor.ingest(feedDir, "*.csv");
+
+        assertEquals(1, result.getCars().size());
+        assertEquals(2, result.getFileReports().size());
+        assertEquals(1, result.getFailedFiles().size());
+        assertEquals("bad.csv", result.getFailedFiles().get(0).getFile().getFileName().toString());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the log-linear latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100_000, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMin());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_500.0, histogram.getMean(), 1e-6);
+
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            double expected = percentile / 100.0 * 100_000_000;
+            long value = histogram.getValueAtPercentile(percentile);
+            assertTrue(value >= expected, percentile + ": " + value);
+            assertTrue(value <= expected * 1.04, percentile + ": " + value);
+        }
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExactAndMergeAddsCounts() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        assertEquals(0, first.getValueAtPercentile(50));
+        for (int value = 0; value < 50; value++) {
+            first.record(value);
+        }
+        second.record(-5);
+        second.record(63);
+        first.merge(second);
+
+        assertEquals(52, first.getTotalCount());
+        assertEquals(0, first.getMin());
+        assertEquals(63, first.getMax());
+        // Rank 2 is the second zero, rank 26 is the value 24
+        assertEquals(0, first.getValueAtPercentile(3));
+        assertEquals(24, first.getValueAtPercentile(50));
+        assertEquals(63, first.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for lazy scans with filter and projection pushdown.
+ */
+public class LazyCarTest {
+
+    private static void assertSameCars(List<Car> expected, List<LazyCar> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Car car = actual.get(i).toCar();
+            assertEquals(expected.get(i).toString(), car.toString());
+        }
+    }
+
+    @Test
+    public void testLazyScansDecodeLikeEagerParsers() throws Exception {
+        CarProcessor processor = new CarProcessor();
+        List<LazyCar> csv = new ArrayList<>();
+        processor.scanCsv("test_cars.csv", CarFilter.NONE, LazyCar.ALL_FIELDS, csv::add);
+        assertSameCars(processor.parseCsv("test_cars.csv"), csv);
+
+        List<LazyCar> xml = new ArrayList<>();
+        processor.scanXml("test_cars.xml", CarFilter.NONE, Collections.emptySet(), xml::add);
+        assertSameCars(processor.parseXml("test_cars.xml"), xml);
+        Date released = xml.get(0).getReleaseDate();
+        assertEquals(Date.class, released.getClass());
+        assertEquals(xml.get(0).toCar().getReleaseDate().getTime(), released.getTime());
+
+        // Lazy records format like the cars they decode to
+        CarDataService service = new CarDataService();
+        List<Car> decoded = xml.stream().map(LazyCar::toCar).collect(Collectors.toList());
+        assertEquals(service.format(decoded, "JSON"), service.format(xml, "JSON"));
+    }
+
+    @Test
+    public void testFilterDecodesOnlyTheFieldsItNeeds() throws Exception {
+        CarProcessor processor = new CarProcessor();
+        List<Car> all = processor.parseCsv("test_cars.csv");
+        String brand = all.get(0).getBrand();
+
+        List<LazyCar> byBrand = new ArrayList<>();
+        processor.scanCsv("test_cars.csv", CarFilter.parse("Brand", brand.toLowerCase(), "", ""),
+                EnumSet.of(LazyCar.Field.TYPE), byBrand::add);
+        long expected = all.stream().filter(car -> car.getBrand().equalsIgnoreCase(brand)).count();
+        assertEquals(expected, byBrand.size());
+        for (LazyCar car : byBrand) {
+            assertTrue(car.isDecoded(LazyCar.Field.TYPE));
+            assertFalse(car.isDecoded(LazyCar.Field.BRAND));
+            assertFalse(car.isDecoded(LazyCar.Field.PRICE));
+            assertFalse(car.isDecoded(LazyCar.Field.RELEASE_DATE));
+            assertEquals(brand, car.getBrand());
+        }
+
+        CarFilter byPrice = CarFilter.parse("Brand and Price", "30000", brand, "");
+        List<LazyCar> priced = new ArrayList<>();
+        processor.scanCsv("test_cars.csv", byPrice, Collections.emptySet(), priced::add);
+        assertEquals(all.stream().filter(byPrice::matches).count(), priced.size());
+        for (LazyCar car : priced) {
+            assertTrue(car.isDecoded(LazyCar.Field.PRICE));
+            assertFalse(car.isDecoded(LazyCar.Field.RELEASE_DATE));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the concurrently mutable car table and live updates in CarDataService.
+ */
+public class LiveCarTableTest {
+
+    @TempDir
+    Path directory;
+
+    private static Car car(String brand, String model, double usd, long millis) {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("USD", usd);
+        return new Car(brand, model, "SUV", prices, new Date(millis));
+    }
+
+    @Test
+    public void testConcurrentWritersKeepIndexesConsistent() throws Exception {
+        LiveCarTable table = new LiveCarTable(CarKey.DEFAULT, new ArrayList<>());
+        // One view is patched by every writer, the other is materialized while they run
+        table.view(SortedCarView.Ordering.MAX_PRICE);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        Car car = car(i % 2 == 0 ? "Toyota" : "Honda", "M" + (i % 50), 1000 + i * 7 + thread,
+                                1600000000000L + i * 1000L);
+                        table.upsert(car);
+                        if (i % 5 == 0) {
+                            table.updatePrice(car, "EUR", i);
+                        }
+                        if (i % 7 == 0) {
+                            table.remove(car);
+                        }
+                        if (thread == 0 && i == 250) {
+                            table.view(SortedCarView.Ordering.RELEASE_DATE);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Car> cars = table.snapshot();
+        assertEquals(table.size(), cars.size());
+        double sum = 0;
+        int toyotas = 0;
+        for (Car car : cars) {
+            sum += car.getPrices().get("USD");
+            if ("Toyota".equals(car.getBrand())) {
+                toyotas++;
+            }
+        }
+        double[] usd = table.getPriceTotals().get("USD");
+        assertEquals(cars.size(), (int) usd[0]);
+        assertEquals(sum, usd[1], 1e-6);
+        assertEquals(toyotas, table.filter(CarFilter.parse("Brand", "toyota", "", "")).size());
+
+        // Index walks agree with sorting the snapshot
+        List<Car> expected = new ArrayList<>(cars);
+        new CarDataService().sortCars(expected, "Highest Price to Lowest");
+        assertEquals(expected, table.sorted(CarFilter.parse("None", "", "", ""), SortedCarView.Ordering.MAX_PRICE,
+                Integer.MAX_VALUE));
+        expected = new ArrayList<>(cars);
+        new CarDataService().sortCars(expected, "Latest to Oldest");
+        assertEquals(expected, table.sorted(CarFilter.parse("None", "", "", ""),
+                SortedCarView.Ordering.RELEASE_DATE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testServiceLiveUpdatesWithJournal() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        int size = service.getCars().size();
+        String expected = service.format(service.queryTopK("None", "", "", "", "Highest Price to Lowest", false, 4), "NDJSON");
+
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        assertEquals(expected, service.format(
+                service.queryTopK("None", "", "", "", "Highest Price to Lowest", false, 4), "NDJSON"));
+        service.attachJournal(new CarJournal(directory, CarKey.DEFAULT));
+
+        Car added = car("Lada", "Niva", 9000000, 1700000000000L);
+        service.addCar(added);
+        assertEquals(size + 1, service.getCars().size());
+        assertEquals("Niva", service.queryTopK("None", "", "", "", "Highest Price to Lowest", false, 1).get(0).getModel());
+
+        assertTrue(service.updatePrice(added, "USD", 1));
+        assertEquals(1.0, service.filterCars("Brand", "Lada", "", "").get(0).getPrices().get("USD"));
+        assertFalse(service.updatePrice(car("Lada", "Granta", 1, 0), "USD", 2));
+
+        service.removeCar(added);
+        assertTrue(service.filterCars("Brand", "Lada", "", "").isEmpty());
+        assertEquals(size, service.getLiveTable().size());
+
+        // The journal recorded every live mutation
+        try (CarJournal reopened = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(size, reopened.getCars().size());
+        }
+    }
+
+    private static List<String> keys(List<Car> cars) {
+        List<String> keys = new ArrayList<>();
+        for (Car car : cars) {
+            keys.add(car.getBrand() + "|" + car.getModel() + "|" + car.getPrices().get("USD"));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    @Test
+    public void testReloadWhileWritingKeepsTableAndJournalInStep() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        List<Car> loaded = new ArrayList<>(service.getCars());
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        CarJournal journal = new CarJournal(directory, CarKey.DEFAULT);
+        service.attachJournal(journal);
+
+        int writers = 4;
+        int perWriter = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perWriter; i += 2) {
+                        service.addCar(car("Lada", writer + "-" + i, i, 0));
+                        service.addCars(List.of(car("Lada", writer + "-" + (i + 1), i + 1, 0),
+                                car("Kia", writer + "-" + i, i, 0)));
+                    }
+                    return null;
+                }));
+            }
+            for (int reload = 0; reload < 20; reload++) {
+                service.loadCars(loaded);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Every write reached both or, reset by a later reload, neither
+        assertEquals(keys(journal.getCars()), keys(service.getLiveTable().snapshot()));
+        journal.close();
+        try (CarJournal reopened = new CarJournal(directory, CarKey.DEFAULT)) {
+            assertEquals(keys(reopened.getCars()), keys(service.getLiveTable().snapshot()));
+        }
+    }
+}
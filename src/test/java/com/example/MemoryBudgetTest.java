@@ -0,0 +1,138 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for heap footprint estimates and the memory budget of CarDataService.
+ */
+public class MemoryBudgetTest {
+
+    private static List<Car> cars(int count) {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Double> prices = new HashMap<>();
+            prices.put("USD", 1000.0 + i);
+            prices.put("EUR", 900.0 + i);
+            cars.add(new Car("Toyota", "Model" + i, "SUV", prices, new Date(1600000000000L + i)));
+        }
+        return cars;
+    }
+
+    @Test
+    public void testFootprintCountsSharedValuesOnce() throws Exception {
+        List<Car> cars = cars(100);
+        HeapFootprint footprint = HeapFootprint.ofCars(cars);
+        assertEquals(100, footprint.getCars());
+        assertEquals(100 * (HeapFootprint.CAR_BYTES + HeapFootprint.DATE_BYTES), footprint.getCarBytes());
+        // "Toyota", "SUV", "USD" and "EUR" are shared by every car, each model is its own
+        long shared = HeapFootprint.ofString("Toyota") + HeapFootprint.ofString("SUV")
+                + HeapFootprint.ofString("USD") + HeapFootprint.ofString("EUR");
+        long models = 0;
+        for (Car car : cars) {
+            models += HeapFootprint.ofString(car.getModel());
+        }
+        assertEquals(shared + models, footprint.getStringBytes());
+
+        CarDataService service = new CarDataService();
+        service.loadData();
+        service.queryFormatted("None", "", "", "", "Latest to Oldest", false, "JSON");
+        HeapFootprint loaded = service.getFootprint();
+        assertTrue(loaded.getIndexBytes() > 0);
+        assertTrue(loaded.getCacheBytes() > 0);
+        assertEquals(loaded.getCarBytes() + loaded.getStringBytes() + loaded.getPriceBytes()
+                + loaded.getIndexBytes() + loaded.getCacheBytes(), loaded.getHeapBytes());
+        assertEquals(0, loaded.getBudgetBytes());
+    }
+
+    @Test
+    public void testRejectKeepsDatasetAndDegradeMovesOffHeap() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadCars(cars(10));
+        long used = service.getFootprint().getHeapBytes();
+
+        service.setMemoryBudget(new MemoryBudget(used + 1024, MemoryBudget.Policy.REJECT));
+        MemoryBudgetExceededException e = assertThrows(MemoryBudgetExceededException.class,
+                () -> service.loadCars(cars(5000)));
+        assertTrue(e.getRequiredBytes() > e.getAvailableBytes());
+        assertEquals(10, service.getCars().size());
+
+        service.setMemoryBudget(new MemoryBudget(used + 1024, MemoryBudget.Policy.DEGRADE));
+        service.loadCars(cars(5000));
+        assertTrue(service.isLastLoadDegraded());
+        assertTrue(service.getOffHeapBytes() > 0);
+        assertEquals(3, service.queryTopK("None", "", "", "", "Highest Price to Lowest", false, 3).size());
+    }
+
+    @Test
+    public void testLiveDatasetIsNotDegraded() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadCars(cars(10));
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        long used = service.getFootprint().getHeapBytes();
+        service.setMemoryBudget(new MemoryBudget(used + 1024, MemoryBudget.Policy.DEGRADE));
+
+        // Live cars stay on the heap, so the load is rejected rather than reported as moved
+        assertThrows(MemoryBudgetExceededException.class, () -> service.loadCars(cars(5000)));
+        assertFalse(service.isLastLoadDegraded());
+        assertEquals(10, service.getCars().size());
+        assertEquals(0, service.getOffHeapBytes());
+    }
+
+    @Test
+    public void testFootprintFollowsDataVersion() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadCars(cars(100));
+        HeapFootprint first = service.getFootprint();
+        assertEquals(first.getCarBytes(), service.getFootprint().getCarBytes());
+
+        service.loadCars(cars(200));
+        assertEquals(200, service.getFootprint().getCars());
+        assertTrue(service.getFootprint().getCarBytes() > first.getCarBytes());
+
+        // Between measurements a live table is scaled to its size
+        service.enableLiveUpdates(CarKey.DEFAULT);
+        service.getFootprint();
+        service.addCar(cars(201).get(200));
+        assertEquals(201, service.getFootprint().getCars());
+    }
+
+    @Test
+    public void testQueryOutputIsChecked() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadCars(cars(2000));
+        long used = service.getFootprint().getHeapBytes();
+        service.setMemoryBudget(new MemoryBudget(used + HeapFootprint.estimateFormatted(100, "JSON"),
+                MemoryBudget.Policy.REJECT));
+
+        assertThrows(MemoryBudgetExceededException.class,
+                () -> service.queryFormatted("None", "", "", "", "None", false, "JSON"));
+        // Small results still fit
+        String output = service.queryFormatted("Brand and Price", "2990", "Toyota", "", "None", false, "JSON");
+        assertTrue(output.contains("Model1999"));
+    }
+
+    @Test
+    public void testCliPrintsFootprint() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = CarDataCli.run(new String[]{"footprint", "--budget-mb", "256"},
+                new PrintStream(out), new PrintStream(err));
+        assertEquals(0, status, err.toString());
+        String report = out.toString();
+        for (String line : Arrays.asList("cars", "indexes", "heap", "budget     256.0 MB")) {
+            assertTrue(report.contains(line), report);
+        }
+        assertEquals(2, CarDataCli.run(new String[]{"footprint", "--bogus"}, new PrintStream(out), new PrintStream(err)));
+    }
+}
@@ -0,0 +1,181 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the off-heap car store and its use by CarDataService.
+ */
+public class OffHeapCarStoreTest {
+
+    private static List<Car> randomCars(int count) {
+        Random random = new Random(11);
+        String[] brands = {"Toyota", "Ford", "Honda", "BMW", "Škoda"};
+        String[] types = {"SUV", "Sedan", "Truck", "Coupe"};
+        String[] currencies = {"USD", "EUR", "JPY", "GBP"};
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Double> prices = new HashMap<>();
+            for (String currency : currencies) {
+                if (prices.isEmpty() || random.nextBoolean()) {
+                    prices.put(currency, (double) (10000 + random.nextInt(50000)));
+                }
+            }
+            cars.add(new Car(brands[random.nextInt(brands.length)], "Model" + random.nextInt(300),
+                    types[random.nextInt(types.length)], prices, new Date(1500000000000L + random.nextInt(1000) * 86400000L)));
+        }
+        return cars;
+    }
+
+    @Test
+    public void testRowsMatchCarsForFilterAndSort() throws Exception {
+        List<Car> cars = randomCars(5000);
+        try (OffHeapCarStore store = OffHeapCarStore.of(cars)) {
+            assertEquals(cars.size(), store.size());
+            assertTrue(store.getOffHeapBytes() > 0);
+
+            OffHeapCarStore.Row row = store.row();
+            for (int i = 0; i < cars.size(); i += 97) {
+                Car car = cars.get(i);
+                row.moveTo(i);
+                assertEquals(car.getBrand(), row.getBrand());
+                assertEquals(car.getModel(), row.getModel());
+                assertEquals(car.getType(), row.getType());
+                assertEquals(car.getPrices(), row.getPrices());
+                assertEquals(car.getPreferredCurrency(), row.getPreferredCurrency());
+                assertEquals(car.getPrice(), row.getPrice());
+                assertEquals(car.getReleaseDate(), row.getReleaseDate());
+            }
+
+            CarFilter[] filters = {
+                    CarFilter.parse("Brand", "škoda", "", ""),
+                    CarFilter.parse("Brand and Price", "45000", "ford", ""),
+                    CarFilter.parse("Brand and Release Date", "Honda", "", "2018-01-01")
+            };
+            for (CarFilter filter : filters) {
+                List<Car> expected = new ArrayList<>();
+                for (Car car : cars) {
+                    if (filter.matches(car)) {
+                        expected.add(car);
+                    }
+                }
+                int[] rows = store.filter(filter, null);
+                assertEquals(expected.size(), rows.length, filter.toString());
+                for (int i = 0; i < rows.length; i++) {
+                    assertSame(expected.get(i), cars.get(rows[i]));
+                }
+            }
+
+            CarDataService service = new CarDataService();
+            for (String sortType : new String[]{"Latest to Oldest", "Highest Price to Lowest"}) {
+                List<Car> expected = new ArrayList<>(cars);
+                service.sortCars(expected, sortType);
+                int[] rows = store.filter(CarFilter.NONE, null);
+                if (sortType.startsWith("Latest")) {
+                    store.sortByReleaseDate(rows);
+                } else {
+                    store.sortByMaxPrice(rows);
+                }
+                for (int i = 0; i < rows.length; i++) {
+                    assertSame(expected.get(i), cars.get(rows[i]), sortType + " at " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testServiceQueriesMatchHeapStorage() throws Exception {
+        CarDataService heap = new CarDataService();
+        heap.loadData();
+        CarDataService offHeap = new CarDataService();
+        offHeap.setOffHeapStorage(true);
+        offHeap.loadData();
+        assertTrue(offHeap.getCars() instanceof OffHeapCarStore.CarList);
+        assertTrue(offHeap.getOffHeapBytes() > 0);
+        assertEquals(0, heap.getOffHeapBytes());
+
+        String[][] queries = {
+                {"None", "", "", "", "None"},
+                {"Brand", "toyota", "", "", "Highest Price to Lowest"},
+                {"Brand and Price", "20000", "Toyota", "", "Latest to Oldest"},
+                {"Brand and Release Date", "Toyota", "", "2020-01-01", "None"}
+        };
+        String stored = offHeap.format(offHeap.getCars(), "NDJSON");
+        long version = offHeap.getDataVersion();
+        for (String[] q : queries) {
+            for (boolean currency : new boolean[]{false, true}) {
+                for (String format : new String[]{"Table", "XML", "JSON", "NDJSON"}) {
+                    assertEquals(heap.queryFormatted(q[0], q[1], q[2], q[3], q[4], currency, format),
+                            offHeap.queryFormatted(q[0], q[1], q[2], q[3], q[4], currency, format),
+                            Arrays.toString(q) + " " + currency + " " + format);
+                }
+                assertEquals(heap.format(heap.queryCars(q[0], q[1], q[2], q[3], q[4], currency), "JSON"),
+                        offHeap.format(offHeap.queryCars(q[0], q[1], q[2], q[3], q[4], currency), "JSON"));
+            }
+        }
+        // The currency view is chosen per query and never written into the shared rows
+        assertEquals(stored, offHeap.format(offHeap.getCars(), "NDJSON"));
+        assertEquals(version, offHeap.getDataVersion());
+
+        // A narrower filter reuses the previous row ids
+        long refined = offHeap.getRefinedQueryCount();
+        offHeap.filterCars("Brand", "Toyota", "", "");
+        assertEquals(heap.filterCars("Brand and Price", "30000", "Toyota", "").size(),
+                offHeap.filterCars("Brand and Price", "30000", "Toyota", "").size());
+        assertEquals(refined + 1, offHeap.getRefinedQueryCount());
+    }
+
+    @Test
+    public void testReloadReleasesPreviousStore() throws Exception {
+        CarDataService service = new CarDataService();
+        service.setOffHeapStorage(true);
+        service.loadData();
+        List<Car> first = service.getCars();
+        OffHeapCarStore store = ((OffHeapCarStore.CarList) first).getStore();
+        assertEquals("RAV4", first.get(0).getModel());
+
+        // A list handed out before the reload still reads the old dataset
+        service.loadData();
+        assertFalse(store.isReleased());
+        assertEquals("RAV4", first.get(0).getModel());
+        ((OffHeapCarStore.CarList) first).close();
+        ((OffHeapCarStore.CarList) first).close();
+        assertTrue(store.isReleased());
+        assertFalse(store.retain());
+        assertEquals(0, store.getOffHeapBytes());
+        assertThrows(IllegalStateException.class, () -> first.get(0));
+
+        // Switching back to the heap frees the last store too
+        OffHeapCarStore second;
+        try (OffHeapCarStore.CarList list = (OffHeapCarStore.CarList) service.getCars()) {
+            assertEquals("RAV4", list.get(0).getModel());
+            second = list.getStore();
+        }
+        service.setOffHeapStorage(false);
+        service.loadData();
+        assertTrue(second.isReleased());
+        assertFalse(service.getCars() instanceof OffHeapCarStore.CarList);
+    }
+
+    @Test
+    public void testUnreachableListsReleaseTheirReference() throws Exception {
+        OffHeapCarStore store = OffHeapCarStore.of(randomCars(10));
+        assertNotNull(store.retainList());
+        store.release();
+        // Only the dropped list holds the store now
+        for (int i = 0; i < 100 && !store.isReleased(); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(store.isReleased());
+    }
+}
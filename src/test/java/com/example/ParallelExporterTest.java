@@ -0,0 +1,72 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for parallel chunked exports.
+ */
+public class ParallelExporterTest {
+
+    private static final String[] FORMATS = {"XML", "JSON", "NDJSON", "Table"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testExportMatchesFormat() throws Exception {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Double> prices = new HashMap<>();
+            prices.put("USD", 1000.0 + i);
+            prices.put("EUR", 900.5 + i);
+            // Multi-byte names make chunks larger in UTF-8 than in chars
+            String brand = i % 3 == 0 ? "Škoda Ünïcødé" : "Toyota";
+            cars.add(new Car(brand, "Model\"" + i, i % 2 == 0 ? "SUV" : "Sedan", prices, new Date(1600000000000L + i * 86400000L)));
+        }
+        CarDataService service = new CarDataService();
+        try (ParallelExporter exporter = new ParallelExporter(3, 37)) {
+            for (String format : FORMATS) {
+                Path target = directory.resolve("cars." + format);
+                long written = exporter.export(cars, format, target);
+                byte[] expected = service.format(cars, format).getBytes(StandardCharsets.UTF_8);
+                assertArrayEquals(expected, Files.readAllBytes(target), format);
+                assertEquals(expected.length, written);
+
+                // Exactly one chunk, and no cars at all
+                exporter.export(cars.subList(0, 37), format, target);
+                assertArrayEquals(service.format(cars.subList(0, 37), format).getBytes(StandardCharsets.UTF_8),
+                        Files.readAllBytes(target), format);
+                exporter.export(Collections.<Car>emptyList(), format, target);
+                assertEquals(service.format(Collections.<Car>emptyList(), format), Files.readString(target), format);
+            }
+        }
+    }
+
+    @Test
+    public void testExportQueryFromOffHeapRows() throws Exception {
+        CarDataService service = new CarDataService();
+        service.setOffHeapStorage(true);
+        service.loadData();
+        try (ParallelExporter exporter = new ParallelExporter(2, 3)) {
+            for (String format : FORMATS) {
+                Path target = directory.resolve("query." + format);
+                service.exportQuery("None", "", "", "", "Highest Price to Lowest", true, format, exporter, target);
+                assertEquals(service.queryFormatted("None", "", "", "", "Highest Price to Lowest", true, format),
+                        Files.readString(target), format);
+            }
+        }
+    }
+}
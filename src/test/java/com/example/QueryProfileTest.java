@@ -0,0 +1,85 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for explained and sampled query profiles.
+ */
+public class QueryProfileTest {
+
+    private static List<Car> cars(int count) {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Double> prices = new HashMap<>();
+            prices.put("USD", 1000.0 + i);
+            prices.put("EUR", 900.0 + i);
+            cars.add(new Car(i % 4 == 0 ? "Toyota" : "Honda", "Model" + i, i % 2 == 0 ? "SUV" : "Sedan",
+                    prices, new Date(1600000000000L + i)));
+        }
+        return cars;
+    }
+
+    @Test
+    public void testExplainReportsStrategyRowsAndCache() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadCars(cars(400));
+
+        QueryProfile first = service.explainQuery("Brand", "Toyota", "", "", "Highest Price to Lowest", true, "JSON");
+        assertEquals(QueryProfile.Strategy.COLUMN_SCAN, first.getStrategy());
+        assertEquals(400, first.getRowsScanned());
+        assertEquals(100, first.getRowsMatched());
+        assertEquals(100, first.getRowsReturned());
+        assertFalse(first.isOutputCacheHit());
+        assertTrue(first.getNanos(QueryProfile.Stage.FILTER) > 0);
+        assertTrue(first.getNanos(QueryProfile.Stage.FORMAT) > 0);
+        assertTrue(first.getTotalNanos() >= first.getNanos(QueryProfile.Stage.FORMAT));
+        assertEquals(service.queryFormatted("Brand", "Toyota", "", "", "Highest Price to Lowest", true, "JSON"),
+                first.getOutput());
+        assertTrue(first.toString().contains("currency view"), first.toString());
+
+        QueryProfile cached = service.explainQuery("Brand", "Toyota", "", "", "Highest Price to Lowest", true, "JSON");
+        assertEquals(QueryProfile.Strategy.RESULT_CACHE, cached.getStrategy());
+        assertTrue(cached.isOutputCacheHit());
+        assertEquals(first.getOutput(), cached.getOutput());
+
+        QueryProfile refined = service.explainQuery("Brand and Price", "1200", "Toyota", "", "None", false, "Table");
+        assertEquals(QueryProfile.Strategy.REFINED_SCAN, refined.getStrategy());
+        assertEquals(100, refined.getRowsScanned());
+        assertEquals(50, refined.getRowsMatched());
+
+        QueryProfile view = service.explainQuery("None", "", "", "", "Latest to Oldest", false, "XML");
+        assertEquals(QueryProfile.Strategy.SORTED_VIEW, view.getStrategy());
+        assertEquals(400, view.getRowsReturned());
+    }
+
+    @Test
+    public void testSampledQueriesAreLoggedWhenSlow() throws Exception {
+        CarDataService service = new CarDataService();
+        service.setOffHeapStorage(true);
+        service.loadCars(cars(200));
+
+        List<QueryProfile> slow = new ArrayList<>();
+        service.setQueryProfiling(1.0, 0, slow::add);
+        service.queryFormatted("Brand", "Honda", "", "", "Latest to Oldest", false, "NDJSON");
+        service.queryCars("None", "", "", "", "None", false);
+        assertEquals(2, slow.size());
+        assertEquals(QueryProfile.Strategy.OFF_HEAP_SCAN, slow.get(0).getStrategy());
+        assertEquals(150, slow.get(0).getRowsMatched());
+        assertTrue(slow.get(0).summary().contains("Brand"), slow.get(0).summary());
+        assertEquals(QueryProfile.Strategy.FULL_COPY, slow.get(1).getStrategy());
+
+        service.setQueryProfiling(1.0, 60_000, slow::add);
+        service.queryCars("Brand", "Toyota", "", "", "None", false);
+        service.setQueryProfiling(0, 0, slow::add);
+        service.queryCars("Brand", "Honda", "", "", "None", false);
+        assertEquals(2, slow.size());
+    }
+}
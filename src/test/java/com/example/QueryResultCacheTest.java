@@ -0,0 +1,109 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the QueryResultCache class and the cached query path of CarDataService.
+ */
+public class QueryResultCacheTest {
+
+    private static List<Car> sampleCars() {
+        List<Car> cars = new ArrayList<>();
+        cars.add(new Car("Toyota", "SUV", 30000, LocalDate.of(2022, 6, 15), "EUR"));
+        cars.add(new Car("Honda", "Sedan", 25000, LocalDate.of(2021, 5, 10), "JPY"));
+        return cars;
+    }
+
+    @Test
+    public void testHitAndMissCounts() {
+        QueryResultCache cache = new QueryResultCache();
+        assertNull(cache.getRows("q", 1));
+        cache.putRows("q", 1, sampleCars());
+
+        List<Car> rows = cache.getRows("q", 1);
+        assertNotNull(rows);
+        assertEquals(2, rows.size());
+        assertEquals("Toyota", rows.get(0).getBrand());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNewVersionInvalidates() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.putFormatted("q|XML", 1, "<cars/>");
+        assertEquals("<cars/>", cache.getFormatted("q|XML", 1));
+
+        assertNull(cache.getFormatted("q|XML", 2), "entries from an older dataset must not be served");
+        assertEquals(0, cache.size());
+
+        // A late insert computed against the old dataset is ignored
+        cache.putFormatted("q|XML", 1, "<cars/>");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        QueryResultCache cache = new QueryResultCache(2, QueryResultCache.DEFAULT_MAX_BYTES);
+        cache.putFormatted("a", 1, "A");
+        cache.putFormatted("b", 1, "B");
+        cache.getFormatted("a", 1); // touch a so b becomes eldest
+        cache.putFormatted("c", 1, "C");
+
+        assertEquals("A", cache.getFormatted("a", 1));
+        assertNull(cache.getFormatted("b", 1));
+        assertEquals("C", cache.getFormatted("c", 1));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testMemoryBudgetEviction() {
+        QueryResultCache cache = new QueryResultCache(100, 1024);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            big.append('x');
+        }
+        cache.putFormatted("a", 1, big.toString());
+        cache.putFormatted("b", 1, big.toString());
+
+        assertTrue(cache.getUsedBytes() <= 1024);
+        assertNull(cache.getFormatted("a", 1));
+        assertNotNull(cache.getFormatted("b", 1));
+    }
+
+    @Test
+    public void testServiceReusesEquivalentQueries() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+
+        List<Car> first = service.queryCars("Brand", "Toyota", "", "", "None", false);
+        List<Car> second = service.queryCars("Brand", " toyota ", "ignored", "ignored", "None", false);
+        assertEquals(first.size(), second.size());
+        assertEquals(1, service.getResultCache().getHitCount());
+
+        String xml = service.queryFormatted("None", "", "", "", "Latest to Oldest", false, "XML");
+        assertEquals(xml, service.queryFormatted("None", "", "", "", "Latest to Oldest", false, "XML"));
+
+        service.loadData();
+        service.queryCars("Brand", "Toyota", "", "", "None", false);
+        assertTrue(service.getResultCache().getMissCount() >= 3, "reload must invalidate cached results");
+    }
+
+    @Test
+    public void testPaddedAndTrimmedQueriesShareAnswers() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        int toyotas = service.filterCars("Brand", "Toyota", "", "").size();
+        assertTrue(toyotas > 0);
+        // Whichever query fills the cache first, both spellings give the same answer
+        assertEquals(toyotas, service.queryCars("Brand", " toyota ", "", "", "None", false).size());
+        assertEquals(toyotas, service.queryCars("Brand", "Toyota", "", "", "None", false).size());
+        assertEquals(toyotas, service.filterCars("Brand", " toyota ", "", "").size());
+    }
+}
@@ -0,0 +1,165 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for scatter-gather queries over worker JVMs and the binary car codec.
+ */
+public class ShardCoordinatorTest {
+
+    @Test
+    public void testBinaryCodecRoundTrip() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Car car : service.getCars()) {
+            CarBinaryCodec.writeCar(out, car);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (Car car : service.getCars()) {
+            Car decoded = CarBinaryCodec.readCar(in);
+            assertEquals(car.toString(), decoded.toString());
+            assertEquals(car.getPrices(), decoded.getPrices());
+        }
+    }
+
+    @Test
+    public void testShardedQueriesMatchSingleService() throws Exception {
+        CarDataService local = new CarDataService();
+        local.loadData();
+        List<Car> cars = local.getCars();
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(2)) {
+            coordinator.load(cars);
+            int[] sizes = coordinator.getShardSizes();
+            assertEquals(cars.size(), sizes[0] + sizes[1]);
+
+            assertQueriesMatch(local, coordinator);
+            // The currency view shows copies, the stored cars keep their currencies
+            String stored = local.format(local.getCars(), "NDJSON");
+            assertEquals(local.format(local.queryTopK("None", "", "", "", "Highest Price to Lowest", true, 6), "JSON"),
+                    local.format(coordinator.queryTopK("None", "", "", "", "Highest Price to Lowest", true, 6), "JSON"));
+            assertEquals(stored, local.format(local.getCars(), "NDJSON"));
+            ShardCoordinator.Aggregate aggregate = coordinator.aggregate("Brand and Price", "20000", "toyota", "");
+            assertEquals(local.filterCars("Brand and Price", "20000", "toyota", "").size(), aggregate.getCount());
+            assertEquals(cars.size(), coordinator.aggregate("None", "", "", "").getCount());
+            assertEquals(0, coordinator.aggregate("Brand", "Lada", "", "").getCount());
+
+            // Rebalancing onto three shards keeps every car and the query results
+            coordinator.setShardCount(3);
+            assertEquals(3, coordinator.getShardCount());
+            int total = 0;
+            for (int size : coordinator.getShardSizes()) {
+                total += size;
+            }
+            assertEquals(cars.size(), total);
+            assertQueriesMatch(local, coordinator);
+
+            assertThrows(java.text.ParseException.class,
+                    () -> coordinator.queryTopK("Brand and Price", "cheap", "Toyota", "", "None", false, 3));
+        }
+    }
+
+    private static void assertQueriesMatch(CarDataService local, ShardCoordinator coordinator) throws Exception {
+        String[][] queries = {
+                {"None", "", "", "", "None"},
+                {"None", "", "", "", "Latest to Oldest"},
+                {"Brand", "toyota", "", "", "Highest Price to Lowest"},
+                {"Brand and Release Date", "Honda", "", "2020-01-01", "Latest to Oldest"}
+        };
+        for (String[] q : queries) {
+            for (int k : new int[]{1, 3, 100}) {
+                assertEquals(local.format(local.queryTopK(q[0], q[1], q[2], q[3], q[4], false, k), "NDJSON"),
+                        local.format(coordinator.queryTopK(q[0], q[1], q[2], q[3], q[4], false, k), "NDJSON"),
+                        String.join("|", q) + " k=" + k);
+            }
+        }
+    }
+
+    @Test
+    public void testWorkerAnswersFailedRequestsWithErrorAlone() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        ShardWorker worker = new ShardWorker();
+        Thread thread = new Thread(() -> {
+            try {
+                worker.serve(port);
+            } catch (Exception e) {
+                // reported by the connect below
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        Car car = new Car("Toyota", "SUV", 30000, java.time.LocalDate.of(2020, 1, 1), "USD");
+        Socket socket = null;
+        for (int attempt = 0; socket == null; attempt++) {
+            try {
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (java.net.ConnectException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+        try (Socket connection = socket) {
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            out.writeByte(ShardWorker.LOAD);
+            out.writeInt(1);
+            out.writeInt(7);
+            CarBinaryCodec.writeCar(out, car);
+            assertEquals(ShardWorker.OK, in.readByte());
+            assertEquals(1, in.readInt());
+
+            // A bad filter is answered with ERROR and nothing else
+            out.writeByte(ShardWorker.TOP_K);
+            for (String value : new String[]{"Brand and Price", "cheap", "Toyota", "", "None"}) {
+                CarBinaryCodec.writeString(out, value);
+            }
+            out.writeInt(3);
+            assertEquals(ShardWorker.ERROR, in.readByte());
+            in.readUTF();
+
+            out.writeByte(ShardWorker.DUMP);
+            assertEquals(ShardWorker.OK, in.readByte());
+            assertEquals(1, in.readInt());
+            assertEquals(7, in.readInt());
+            Car dumped = CarBinaryCodec.readCar(in);
+            assertEquals(car.getBrand(), dumped.getBrand());
+            assertEquals(car.getPrices(), dumped.getPrices());
+
+            // A car that cannot be read leaves the rest of the request unparseable
+            out.writeByte(ShardWorker.LOAD);
+            out.writeInt(1);
+            out.writeInt(0);
+            for (int i = 0; i < 4; i++) {
+                CarBinaryCodec.writeString(out, "x");
+            }
+            out.writeLong(0);
+            out.writeShort(0);
+            assertThrows(EOFException.class, in::readByte);
+
+            try (Socket again = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                new DataOutputStream(again.getOutputStream()).writeByte(ShardWorker.SHUTDOWN);
+                assertEquals(ShardWorker.OK, new DataInputStream(again.getInputStream()).readByte());
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the streaming quantile, distinct count and heavy hitter sketches.
+ */
+public class SketchesTest {
+
+    @Test
+    public void testQuantilesStayWithinRankErrorAfterMerge() {
+        Random random = new Random(42);
+        int n = 200000;
+        double[] values = new double[n];
+        QuantileSketch left = new QuantileSketch();
+        QuantileSketch right = new QuantileSketch();
+        for (int i = 0; i < n; i++) {
+            values[i] = Math.exp(random.nextGaussian()) * 20000;
+            (i % 2 == 0 ? left : right).update(values[i]);
+        }
+        left.merge(right);
+        Arrays.sort(values);
+
+        assertEquals(n, left.getCount());
+        assertEquals(values[0], left.getMin());
+        assertEquals(values[n - 1], left.getMax());
+        assertTrue(left.getRetainedItems() < 4 * QuantileSketch.DEFAULT_K);
+        for (double q : new double[]{0.01, 0.1, 0.5, 0.9, 0.99}) {
+            double estimate = left.getQuantile(q);
+            int rank = Arrays.binarySearch(values, estimate);
+            assertTrue(Math.abs((double) rank / n - q) < 0.02, "rank error too large at q=" + q);
+        }
+    }
+
+    @Test
+    public void testHyperLogLogEstimateAndMerge() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 60000; i++) {
+            first.add("model-" + i);
+            first.add("model-" + i); // repeats do not count
+            second.add("model-" + (i + 40000));
+        }
+        first.merge(second);
+        long estimate = first.estimate();
+        // 100000 distinct values, allow four standard errors
+        assertEquals(100000, estimate, 100000 * 4 * first.getStandardError());
+
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 10; i++) {
+            small.add("brand-" + i);
+        }
+        assertEquals(10, small.estimate());
+    }
+
+    @Test
+    public void testSpaceSavingFindsHeavyHitters() {
+        SpaceSaving left = new SpaceSaving(20);
+        SpaceSaving right = new SpaceSaving(20);
+        Map<String, Long> exact = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            // Three heavy brands, then a long tail of rare ones
+            String brand = i % 4 == 0 ? "Toyota" : i % 4 == 1 ? "Ford" : i % 8 == 2 ? "Honda" : "Rare" + random.nextInt(5000);
+            (i % 3 == 0 ? left : right).offer(brand);
+            exact.merge(brand, 1L, Long::sum);
+        }
+        left.merge(right);
+
+        List<SpaceSaving.Entry> top = left.getTop(3);
+        assertEquals(Set.of("Toyota", "Ford", "Honda"),
+                Set.of(top.get(0).getItem(), top.get(1).getItem(), top.get(2).getItem()));
+        for (SpaceSaving.Entry entry : top) {
+            long trueCount = exact.get(entry.getItem());
+            assertTrue(entry.getCount() >= trueCount);
+            assertTrue(entry.getCount() - trueCount <= entry.getError());
+        }
+        assertEquals(100000, left.getTotal());
+    }
+
+    @Test
+    public void testPriceStatisticsFromParsersAndService() throws Exception {
+        PriceStatistics streamed = new PriceStatistics();
+        new CarProcessor().streamCsv("test_cars.csv", streamed);
+
+        CarDataService service = new CarDataService();
+        service.loadData();
+        PriceStatistics statistics = service.getPriceStatistics();
+        assertEquals(service.getCars().size(), statistics.getCount());
+        assertEquals(service.getCars().size(), statistics.getDistinctModels());
+        assertFalse(Double.isNaN(statistics.getPriceQuantile("USD", 0.5)));
+        assertFalse(Double.isNaN(statistics.getPriceQuantile("toyota", "USD", 0.5)));
+
+        statistics.merge(streamed);
+        assertEquals(service.getCars().size() + streamed.getCount(), statistics.getCount());
+    }
+
+    @Test
+    public void testPriceStatisticsCountsBrandsCaseInsensitively() {
+        PriceStatistics left = PriceStatistics.of(List.of(
+                new Car("Toyota", "SUV", 30000, LocalDate.of(2020, 1, 1), "USD"),
+                new Car("toyota", "SUV", 31000, LocalDate.of(2020, 1, 1), "USD"),
+                new Car("Ford", "Truck", 35000, LocalDate.of(2020, 1, 1), "USD")));
+        PriceStatistics right = PriceStatistics.of(List.of(
+                new Car("TOYOTA", "Sedan", 20000, LocalDate.of(2020, 1, 1), "USD"),
+                new Car("ford", "Truck", 36000, LocalDate.of(2020, 1, 1), "USD")));
+        left.merge(right);
+
+        List<SpaceSaving.Entry> top = left.getTopBrands(5);
+        assertEquals(2, top.size());
+        assertEquals("Toyota", top.get(0).getItem());
+        assertEquals(3, top.get(0).getCount());
+        assertEquals("Ford", top.get(1).getItem());
+        assertEquals(2, top.get(1).getCount());
+        assertThrows(UnsupportedOperationException.class, () -> left.getPriceSketches().clear());
+    }
+}
@@ -0,0 +1,102 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for materialized sort orders and sorted pages in CarDataService.
+ */
+public class SortedCarViewTest {
+
+    private static final String[] TYPES = {"SUV", "Sedan", "Truck", "Van"};
+
+    private static Car car(Random random) {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("USD", (double) random.nextInt(100));
+        return new Car("Brand" + random.nextInt(5), "M", TYPES[random.nextInt(TYPES.length)], prices,
+                new Date(random.nextInt(50) * 1000L));
+    }
+
+    @Test
+    public void testPatchedViewMatchesRebuiltView() {
+        Random random = new Random(42);
+        List<Car> rows = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            rows.add(car(random));
+        }
+        for (SortedCarView.Ordering ordering : SortedCarView.Ordering.values()) {
+            List<Car> current = new ArrayList<>(rows);
+            SortedCarView view = SortedCarView.build(ordering, current);
+            SortedCarView original = view;
+            for (int i = 0; i < 500; i++) {
+                int row = random.nextInt(current.size());
+                Car previous = current.get(row);
+                Car updated = random.nextInt(4) == 0 ? null : car(random);
+                if (previous != null) {
+                    view = view.without(previous, row);
+                }
+                if (updated != null) {
+                    view = view.with(updated, row);
+                }
+                current.set(row, updated);
+            }
+            // Removing an absent car changes nothing, re-adding a present one keeps the size
+            assertSame(view, view.without(car(random), current.size() + 1));
+
+            List<Car> present = new ArrayList<>();
+            List<Long> presentRows = new ArrayList<>();
+            for (int row = 0; row < current.size(); row++) {
+                if (current.get(row) != null) {
+                    present.add(current.get(row));
+                    presentRows.add((long) row);
+                }
+            }
+            long[] rowArray = presentRows.stream().mapToLong(Long::longValue).toArray();
+            SortedCarView rebuilt = SortedCarView.build(ordering, rowArray, present);
+            assertEquals(rebuilt.page(0, Integer.MAX_VALUE), view.page(0, Integer.MAX_VALUE), ordering.name());
+            assertEquals(rebuilt.size(), view.with(present.get(0), rowArray[0]).size());
+            assertEquals(view.page(17, 9), view.page(0, 30).subList(17, 26));
+            assertEquals(view.get(40), view.page(40, 1).get(0));
+            // Older versions are unaffected by later patches
+            assertEquals(rows.size(), original.size());
+        }
+    }
+
+    @Test
+    public void testSortedPagesMatchFullQueries() throws Exception {
+        CarDataService service = new CarDataService();
+        service.loadData();
+        String[][] queries = {
+                {"None", "", "", "", "Latest to Oldest"},
+                {"None", "", "", "", "Highest Price to Lowest"},
+                {"Brand", "toyota", "", "", "Highest Price to Lowest"},
+                {"Brand and Release Date", "Honda", "", "2020-01-01", "Latest to Oldest"},
+                {"None", "", "", "", "None"}
+        };
+        for (boolean currency : new boolean[]{false, true}) {
+            for (String[] q : queries) {
+                // Reference result from filtering and sorting from scratch
+                List<Car> full = service.filterCars(q[0], q[1], q[2], q[3]);
+                service.sortCars(full, q[4]);
+                if (currency) {
+                    service.applyCurrencyFilter(full);
+                }
+                String expected = service.format(full.subList(Math.min(2, full.size()), Math.min(5, full.size())),
+                        "NDJSON");
+                assertEquals(expected, service.format(
+                        service.getSortedPage(q[0], q[1], q[2], q[3], q[4], currency, 2, 3), "NDJSON"),
+                        String.join("|", q) + " currency=" + currency);
+                assertEquals(service.format(full.subList(0, Math.min(4, full.size())), "NDJSON"),
+                        service.format(service.queryTopK(q[0], q[1], q[2], q[3], q[4], currency, 4), "NDJSON"));
+            }
+        }
+    }
+}
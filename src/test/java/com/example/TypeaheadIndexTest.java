@@ -0,0 +1,83 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the brand and model typeahead index.
+ */
+public class TypeaheadIndexTest {
+
+    private static Car car(String brand, String model) {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("USD", 20000.0);
+        return new Car(brand, model, "SUV", prices);
+    }
+
+    private static TypeaheadIndex sampleIndex() {
+        List<Car> cars = new ArrayList<>();
+        cars.add(car("Toyota", "RAV4"));
+        cars.add(car("Toyota", "Camry"));
+        cars.add(car("toyota", "Corolla"));
+        cars.add(car("Tesla", "Model 3"));
+        cars.add(car("Ford", "F-150"));
+        cars.add(car("Ford", "Focus"));
+        return TypeaheadIndex.build(cars);
+    }
+
+    @Test
+    public void testPrefixRanksByCountCaseInsensitively() {
+        TypeaheadIndex index = sampleIndex();
+
+        List<TypeaheadIndex.Suggestion> brands = index.prefix("T", TypeaheadIndex.Kind.BRAND, 5);
+        assertEquals(2, brands.size());
+        assertEquals("Toyota", brands.get(0).getText());
+        assertEquals(3, brands.get(0).getCount());
+        assertEquals("Tesla", brands.get(1).getText());
+
+        List<TypeaheadIndex.Suggestion> models = index.prefix("co", TypeaheadIndex.Kind.MODEL, 5);
+        assertEquals(1, models.size());
+        assertEquals("Corolla", models.get(0).getText());
+        assertEquals("toyota", models.get(0).getBrand());
+
+        assertEquals(3, index.prefix("f", null, 5).size());
+        assertTrue(index.prefix("x", null, 5).isEmpty());
+        assertEquals(index.size(), index.prefix("", null, 100).size());
+    }
+
+    @Test
+    public void testFuzzyFindsMisspellings() {
+        TypeaheadIndex index = sampleIndex();
+
+        List<TypeaheadIndex.Suggestion> matches = index.fuzzy("Toyta", 1, null, 5);
+        assertEquals(1, matches.size());
+        assertEquals("Toyota", matches.get(0).getText());
+        assertEquals(1, matches.get(0).getDistance());
+
+        assertTrue(index.fuzzy("Tyota", 0, null, 5).isEmpty());
+        assertEquals("Camry", index.fuzzy("camri", 1, TypeaheadIndex.Kind.MODEL, 5).get(0).getText());
+
+        // Typeahead combines prefix hits with close misspellings
+        List<TypeaheadIndex.Suggestion> suggestions = index.suggest("Fokus", null, 5);
+        assertEquals("Focus", suggestions.get(0).getText());
+        assertEquals("Ford", suggestions.get(0).getBrand());
+    }
+
+    @Test
+    public void testServiceBuildsIndexOnLoad() throws Exception {
+        CarDataService service = new CarDataService();
+        assertTrue(service.suggest("Toy", 5).isEmpty());
+
+        service.loadData();
+        List<TypeaheadIndex.Suggestion> suggestions = service.suggest("Toy", 5);
+        assertFalse(suggestions.isEmpty());
+        assertEquals("Toyota", suggestions.get(0).getText());
+        assertEquals(TypeaheadIndex.Kind.BRAND, suggestions.get(0).getKind());
+    }
+}
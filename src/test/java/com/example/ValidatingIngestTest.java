@@ -0,0 +1,125 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for validating ingest with reject sinks and error budgets.
+ */
+public class ValidatingIngestTest {
+
+    private static final String HEADER = "brand,type,price,releaseDateYear,releaseDateDay,releaseDateMonth,currency\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testFieldParsersDoNotThrow() {
+        assertEquals(25000.0, FieldParsers.parseDouble("25000"), 0.0);
+        assertEquals(-1.5, FieldParsers.parseDouble("-1.5"), 0.0);
+        assertEquals(2.8e6, FieldParsers.parseDouble("2.8E6"), 0.0);
+        assertTrue(Double.isNaN(FieldParsers.parseDouble("12a")));
+        assertTrue(Double.isNaN(FieldParsers.parseDouble("NaN")));
+        assertTrue(Double.isNaN(FieldParsers.parseDouble(".")));
+        assertTrue(Double.isNaN(FieldParsers.parseDouble("1e400")));
+        assertTrue(Double.isNaN(FieldParsers.parseDouble("-1e400")));
+        assertEquals(0.0, FieldParsers.parseDouble("1e-400"), 0.0);
+        assertEquals(12, FieldParsers.parseInt("12", 1, 12));
+        assertEquals(FieldParsers.INVALID_INT, FieldParsers.parseInt("13", 1, 12));
+        assertFalse(FieldParsers.isValidDate(2023, 2, 29));
+        assertTrue(FieldParsers.isValidDate(2024, 2, 29));
+        assertNull(FieldParsers.parseUsDate("13/01/2023"));
+        assertNotNull(FieldParsers.parseUsDate("01/15/2023"));
+    }
+
+    @Test
+    public void testCsvRejectsBadRowsWithLineNumbers() throws Exception {
+        Path csv = dir.resolve("cars.csv");
+        Files.writeString(csv, HEADER
+                + "Ford,Truck,40000,2020,20,04,USD\n"
+                + "BMW,SUV,lots,2023,01,01,EUR\n"
+                + "Kia,SUV,20000\n"
+                + "Audi,Sedan,30000,2023,31,02,EUR\n"
+                + "Honda,Sedan,25000,2021,10,05,JPY\n");
+
+        RejectLog rejects = new RejectLog();
+        List<Car> cars = new CarProcessor().parseCsv(csv.toString(), new ErrorBudget(rejects, 10));
+
+        assertEquals(2, cars.size());
+        assertEquals("Honda", cars.get(1).getBrand());
+        assertEquals(3, rejects.getCount());
+        assertTrue(rejects.getEntries().get(0).contains(":3: invalid price 'lots'"));
+        assertTrue(rejects.getEntries().get(1).contains(":4: expected 7 fields"));
+        assertTrue(rejects.getEntries().get(2).contains(":5: invalid release date"));
+    }
+
+    @Test
+    public void testExceededBudgetStopsLoad() throws Exception {
+        Path csv = dir.resolve("dirty.csv");
+        Files.writeString(csv, HEADER + "a,b,c\nd,e,f\nFord,Truck,40000,2020,20,04,USD\n");
+
+        ErrorBudget budget = new ErrorBudget(new RejectLog(), 1);
+        ErrorBudgetExceededException e = assertThrows(ErrorBudgetExceededException.class,
+                () -> new CarProcessor().parseCsv(csv.toString(), budget));
+        assertEquals(2, e.getRejectCount());
+    }
+
+    @Test
+    public void testXmlRejectsMissingTags() throws Exception {
+        Path xml = dir.resolve("cars.xml");
+        Files.writeString(xml, "<cars>"
+                + "<car><brand>Toyota</brand><type>SUV</type><price>30000</price>"
+                + "<releaseDate>2022,15,06</releaseDate><currency>EUR</currency></car>"
+                + "<car><brand>Honda</brand><type>Sedan</type><price>25000</price><currency>JPY</currency></car>"
+                + "</cars>");
+
+        RejectLog rejects = new RejectLog();
+        List<Car> cars = new CarProcessor().parseXml(xml.toString(), new ErrorBudget(rejects, 10));
+
+        assertEquals(1, cars.size());
+        assertEquals(1, rejects.getCount());
+        assertTrue(rejects.getEntries().get(0).contains(":2: missing field"));
+    }
+
+    @Test
+    public void testServiceSkipsBadBrandDates() throws Exception {
+        Path brands = dir.resolve("brands.csv");
+        Files.writeString(brands, "\"Brand,ReleaseDate\"\n\"Toyota,01/15/2023\"\n\"Honda,soon\"\n");
+
+        CarDataService strict = new CarDataService(brands.toString(), CarDataService.DEFAULT_CARS_XML,
+                CarDataService.DEFAULT_MODEL_CATALOG);
+        assertThrows(Exception.class, strict::loadData);
+
+        RejectLog rejects = new RejectLog();
+        CarDataService validating = new CarDataService(brands.toString(), CarDataService.DEFAULT_CARS_XML,
+                CarDataService.DEFAULT_MODEL_CATALOG);
+        validating.setValidation(rejects, 5);
+        validating.loadData();
+        assertEquals(10, validating.getCars().size());
+        assertEquals(1, validating.getLastRejectCount());
+    }
+
+    @Test
+    public void testServiceXmlResetsPriceStateForEachCar() throws Exception {
+        // The second car starts inside the first car's prices block
+        Path xml = dir.resolve("cars.xml");
+        Files.writeString(xml, "<cars><car><type>SUV</type><model>RAV4</model>"
+                + "<price currency=\"USD\">25000</price><prices><price currency=\"EUR\">23000</price>"
+                + "<car><type>Sedan</type><model>Civic</model><price currency=\"USD\">22000</price></car>"
+                + "</prices></car></cars>");
+
+        CarDataService service = new CarDataService(CarDataService.DEFAULT_BRAND_CSV, xml.toString(),
+                CarDataService.DEFAULT_MODEL_CATALOG);
+        service.loadData();
+        List<Car> hondas = service.filterCars("Brand", "Honda", "", "");
+        assertEquals(1, hondas.size());
+        assertEquals(22000.0, hondas.get(0).getPrices().get("USD"), 0.0);
+        assertEquals(1, hondas.get(0).getPrices().size());
+    }
+}